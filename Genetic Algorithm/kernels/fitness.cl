@@ -1,32 +1,84 @@
 /**
- * Given two buffers with int values representing RGBA, compare their similarity.
- * Each element in the triangles buffer will be overwritten with it's difference
- * to the corresponding reference buffer element.
+ * Color distances between two int values representing RGB. Each one must give
+ * exactly the same result as the Java class of the same name in
+ * trianglegenome.fitness.
  */
-__kernel void fitness(
-    __global const int * reference,
-    __global int * triangles,
-    int elementCount
-    )
+int euclidean(int rRGB, int tRGB)
 {
-  int iGID = get_global_id(0);
+  int dr = ((rRGB >> 16) & 0xFF) - ((tRGB >> 16) & 0xFF);
+  int dg = ((rRGB >> 8) & 0xFF) - ((tRGB >> 8) & 0xFF);
+  int db = (rRGB & 0xFF) - (tRGB & 0xFF);
+  int s = dr * dr + dg * dg + db * db;
   
-  if (iGID > elementCount) return;
-  
-  int rRGB = reference[iGID];
-  int tRGB = triangles[iGID];
-  float rr = (float) ( (rRGB >> 0x04) & 0xFF );
-  float rg = (float) ( (rRGB >> 0x02) & 0xFF );
-  float rb = (float) ( rRGB & 0xFF );
-  float tr = (float) ( (tRGB >> 0x04) & 0xFF );
-  float tg = (float) ( (tRGB >> 0x02) & 0xFF );
-  float tb = (float) ( tRGB & 0xFF );
-  
-  float dr2 = pow(rr - tr, 2.0f);
-  float dg2 = pow(rg - tg, 2.0f);
-  float db2 = pow(rb - tb, 2.0f);
-  
-  int d = (int)sqrt(dr2 + dg2 + db2);
-  
-  triangles[iGID] = d;
-}
\ No newline at end of file
+  // Round the float square root down to the exact integer square root
+  int root = (int)sqrt((float)s);
+  if ((root + 1) * (root + 1) <= s) root++;
+  if (root * root > s) root--;
+  return root;
+}
+
+int absolute(int rRGB, int tRGB)
+{
+  int dr = ((rRGB >> 16) & 0xFF) - ((tRGB >> 16) & 0xFF);
+  int dg = ((rRGB >> 8) & 0xFF) - ((tRGB >> 8) & 0xFF);
+  int db = (rRGB & 0xFF) - (tRGB & 0xFF);
+  return abs(dr) + abs(dg) + abs(db);
+}
+
+int squared(int rRGB, int tRGB)
+{
+  int dr = ((rRGB >> 16) & 0xFF) - ((tRGB >> 16) & 0xFF);
+  int dg = ((rRGB >> 8) & 0xFF) - ((tRGB >> 8) & 0xFF);
+  int db = (rRGB & 0xFF) - (tRGB & 0xFF);
+  return dr * dr + dg * dg + db * db;
+}
+
+int luma(int rRGB, int tRGB)
+{
+  int dr = ((rRGB >> 16) & 0xFF) - ((tRGB >> 16) & 0xFF);
+  int dg = ((rRGB >> 8) & 0xFF) - ((tRGB >> 8) & 0xFF);
+  int db = (rRGB & 0xFF) - (tRGB & 0xFF);
+  return (77 * dr * dr + 150 * dg * dg + 29 * db * db) >> 8;
+}
+
+/**
+ * Defines a kernel that, given two buffers with int values representing RGBA,
+ * adds the distance between every pair of elements to sum. Each work group adds
+ * up its own distances in local memory first, so sum is only written once per
+ * work group. sum is a 64 bit unsigned value stored as two uints, low word
+ * first, and must be 0 before the kernel runs. The local work size must be a
+ * power of two.
+ */
+#define FITNESS_SUM(name, distance)                                           \
+__kernel void name(                                                           \
+    __global const int * reference,                                           \
+    __global const int * triangles,                                           \
+    int elementCount,                                                         \
+    __global uint * sum,                                                      \
+    __local uint * partial                                                    \
+    )                                                                         \
+{                                                                             \
+  int iGID = get_global_id(0);                                                \
+  int iLID = get_local_id(0);                                                 \
+                                                                              \
+  partial[iLID] = (iGID < elementCount)                                       \
+      ? distance(reference[iGID], triangles[iGID]) : 0;                       \
+  barrier(CLK_LOCAL_MEM_FENCE);                                               \
+                                                                              \
+  for (int s = get_local_size(0) / 2; s > 0; s >>= 1)                         \
+  {                                                                           \
+    if (iLID < s) partial[iLID] += partial[iLID + s];                         \
+    barrier(CLK_LOCAL_MEM_FENCE);                                             \
+  }                                                                           \
+                                                                              \
+  if (iLID == 0)                                                              \
+  {                                                                           \
+    uint old = atomic_add(&sum[0], partial[0]);                               \
+    if (old + partial[0] < old) atomic_inc(&sum[1]);                          \
+  }                                                                           \
+}
+
+FITNESS_SUM(fitnessSumEuclidean, euclidean)
+FITNESS_SUM(fitnessSumAbsolute, absolute)
+FITNESS_SUM(fitnessSumSquared, squared)
+FITNESS_SUM(fitnessSumLuma, luma)
\ No newline at end of file
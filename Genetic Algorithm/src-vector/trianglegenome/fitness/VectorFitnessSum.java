@@ -0,0 +1,131 @@
+package trianglegenome.fitness;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * A {@link DifferenceSum} that scores as many pixels at once as the CPU's widest vector
+ * registers hold, using the incubating Vector API (jdk.incubator.vector). Each lane unpacks the
+ * channels of one pixel, so the sums are exactly the same as those of the four built in
+ * {@link ColorDistance}s, pixel for pixel.
+ * <br /><br />
+ * This class needs Java 16 or later, compiled and run with
+ * <code>--add-modules jdk.incubator.vector</code>, so it lives in its own source folder,
+ * src-vector, which is only compiled on those JDKs. {@link trianglegenome.FitnessEvaluator} only
+ * loads it by name, so the program in src still builds on Java 8 and falls back to scoring one
+ * pixel at a time when this class is not on the classpath.
+ * <br /><br />
+ * Example code:<br/>
+ * <code><pre>
+ *  DifferenceSum s = new VectorFitnessSum(new LumaDistance());
+ *  long fitness = s.sum(referencePixels, trianglePixels, 0, referencePixels.length);
+ *
+ * </pre></code>
+ */
+public class VectorFitnessSum implements DifferenceSum
+{
+  private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+
+  /** How many vectors can be added into int lanes before they are widened into the long sum.
+   * The largest distance of any metric is 3 * 255^2, and 2^31 / (3 * 255^2) is over 11000. */
+  private static final int FLUSH_INTERVAL = 4096;
+
+  private static final int EUCLIDEAN = 0;
+  private static final int ABSOLUTE = 1;
+  private static final int SQUARED = 2;
+  private static final int LUMA = 3;
+
+  private final String ERROR_METRIC = "There is no vector path for this ColorDistance";
+
+  /** The scalar distance, used for the pixels after the last whole vector. */
+  private final ColorDistance colorDistance;
+
+  /** Which of the built in metrics {@link #colorDistance} is. */
+  private final int metric;
+
+  /**
+   * Creates a vector sum for one of the built in distances.
+   * @param colorDistance A {@link EuclideanDistance}, {@link AbsoluteDistance},
+   * {@link SquaredDistance} or {@link LumaDistance}.
+   */
+  public VectorFitnessSum(ColorDistance colorDistance)
+  {
+    this.colorDistance = colorDistance;
+    if (colorDistance instanceof EuclideanDistance) metric = EUCLIDEAN;
+    else if (colorDistance instanceof AbsoluteDistance) metric = ABSOLUTE;
+    else if (colorDistance instanceof SquaredDistance) metric = SQUARED;
+    else if (colorDistance instanceof LumaDistance) metric = LUMA;
+    else throw new IllegalArgumentException(ERROR_METRIC);
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see trianglegenome.fitness.DifferenceSum#sum(int[], int[], int, int)
+   */
+  @Override
+  public long sum(int[] reference, int[] triangles, int from, int to)
+  {
+    long sum = 0;
+    int i = from;
+    int upper = from + SPECIES.loopBound(to - from);
+    while (i < upper)
+    {
+      int end = Math.min(upper, i + FLUSH_INTERVAL * SPECIES.length());
+      IntVector lanes = IntVector.zero(SPECIES);
+      for (; i < end; i += SPECIES.length())
+      {
+        IntVector r = IntVector.fromArray(SPECIES, reference, i);
+        IntVector t = IntVector.fromArray(SPECIES, triangles, i);
+        lanes = lanes.add(distance(r, t));
+      }
+      // Adding the int lanes together could overflow, so widen each half to longs first
+      sum += ((LongVector)lanes.convert(VectorOperators.I2L, 0)).reduceLanes(VectorOperators.ADD)
+          + ((LongVector)lanes.convert(VectorOperators.I2L, 1)).reduceLanes(VectorOperators.ADD);
+    }
+    for (; i < to; i++)
+    {
+      sum += colorDistance.distance(reference[i], triangles[i]);
+    }
+    return sum;
+  }
+
+  /**
+   * Returns the distance between each pair of pixels in two vectors.
+   */
+  private IntVector distance(IntVector r, IntVector t)
+  {
+    IntVector dr = channel(r, 16).sub(channel(t, 16));
+    IntVector dg = channel(r, 8).sub(channel(t, 8));
+    IntVector db = channel(r, 0).sub(channel(t, 0));
+
+    switch (metric)
+    {
+      case ABSOLUTE:
+        return dr.abs().add(dg.abs()).add(db.abs());
+      case SQUARED:
+        return dr.mul(dr).add(dg.mul(dg)).add(db.mul(db));
+      case LUMA:
+        return dr.mul(dr).mul(77).add(dg.mul(dg).mul(150)).add(db.mul(db).mul(29))
+            .lanewise(VectorOperators.ASHR, 8);
+      default:
+        // Every sum of squares fits in a float exactly and the square root is correctly
+        // rounded. The root of k^2 - 1 is at least 1 / 900 below k while a float near 442
+        // is off by at most 1 / 32768, so truncating gives floor(sqrt(s)) like the table does
+        IntVector squared = dr.mul(dr).add(dg.mul(dg)).add(db.mul(db));
+        FloatVector root = ((FloatVector)squared.convert(VectorOperators.I2F, 0))
+            .lanewise(VectorOperators.SQRT);
+        return (IntVector)root.convert(VectorOperators.F2I, 0);
+    }
+  }
+
+  /**
+   * Returns one channel of each pixel in a vector.
+   */
+  private static IntVector channel(IntVector rgb, int shift)
+  {
+    return rgb.lanewise(VectorOperators.LSHR, shift).and(0xFF);
+  }
+}
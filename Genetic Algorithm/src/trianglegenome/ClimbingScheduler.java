@@ -0,0 +1,72 @@
+package trianglegenome;
+
+import trianglegenome.fitness.ScreenCounters;
+
+/**
+ * Runs hill climbing on a whole population of genomes without binding each genome to one
+ * {@link HillClimbing} thread, for {@link HillClimberSpawner}. A scheduler starts paused.
+ * <br /><br />
+ * Example code:<br/>
+ * <code><pre>
+ *  ClimbingScheduler s = new WorkStealingScheduler(8, genomes, target, random, renderers);
+ *  s.unpause();
+ *  Thread.sleep(500); // Assume exception is thrown by method
+ *  s.pause(); // returns once no genome is being climbed
+ *  long steps = s.getGenerationCount();
+ *  s.stop();
+ *
+ * </pre></code>
+ */
+public interface ClimbingScheduler
+{
+  /**
+   * Starts or resumes climbing every genome until the next call to {@link #pause()}.
+   */
+  public void unpause();
+
+  /**
+   * Stops climbing and returns once no genome is being climbed.
+   */
+  public void pause();
+
+  /**
+   * Returns whether the scheduler is paused and no genome is being climbed.
+   * @return Whether the scheduler is paused and no genome is being climbed.
+   */
+  public boolean isPaused();
+
+  /**
+   * Returns whether {@link #stop()} has not been called.
+   * @return Whether the scheduler can still climb.
+   */
+  public boolean isRunning();
+
+  /**
+   * Climbs every genome by one step while paused, and returns once they are all done.
+   * Does nothing when not paused.
+   */
+  public void performOneEvolution();
+
+  /**
+   * Pauses, then releases the threads of the scheduler. It cannot be unpaused afterwards.
+   */
+  public void stop();
+
+  /**
+   * Sets the engine that the workers tell after every lease of steps they climb.
+   * @param engine The engine, or null for none.
+   */
+  public void setEvolutionEngine(EvolutionEngine engine);
+
+  /**
+   * Returns the number of hill climbing steps performed on every genome.
+   * @return The number of hill climbing steps performed.
+   */
+  public long getGenerationCount();
+
+  /**
+   * Returns the counters that the coarse screens of every worker count in.
+   * @return The screen counters of every worker.
+   */
+  public ScreenCounters getScreenCounters();
+}
@@ -0,0 +1,51 @@
+package trianglegenome;
+
+/**
+ * The part of evolution that is not hill climbing, such as crossover, for
+ * {@link EvolutionModel}. An engine works in one or both of two places: on the
+ * {@link EvolutionModel} thread, which calls {@link #evolve()} after every
+ * {@link #getInterval() interval} that passes without a pause, and on the hill climbers, which
+ * call {@link #afterClimb(int)} between their steps on whatever threads they run on.
+ * <br /><br />
+ * Either way, an engine replaces genomes with {@link Genome#publish(Genome)}, so the hill
+ * climbers never have to stop for it.
+ * <br /><br />
+ * Example code:<br/>
+ * <code><pre>
+ *  EvolutionEngine engine = new SteadyStateEngine(rankings, batchFitnessEvaluator, random);
+ *  hillClimberSpawner.setEvolutionEngine(engine); // the climbers call afterClimb
+ *
+ *  // In the EvolutionModel thread, while not paused
+ *  Thread.sleep(engine.getInterval() / 1000000); // Assume exception is thrown by method
+ *  engine.evolve();
+ *
+ * </pre></code>
+ */
+public interface EvolutionEngine
+{
+  /**
+   * Returns the nanoseconds that the {@link EvolutionModel} thread waits, while not paused,
+   * before each call to {@link #evolve()}. An engine that does all of its work in
+   * {@link #afterClimb(int)} returns Long.MAX_VALUE.
+   * @return The time between two calls to {@link #evolve()}.
+   */
+  public long getInterval();
+
+  /**
+   * Does the work of the engine that runs on the {@link EvolutionModel} thread.
+   */
+  public void evolve();
+
+  /**
+   * Called by a hill climber after it has climbed some steps, from its own thread. It must
+   * not wait for other climbers.
+   * @param steps The number of steps climbed since the last call from the same climber.
+   */
+  public void afterClimb(int steps);
+
+  /**
+   * Returns the number of crossovers performed by the engine.
+   * @return The number of crossovers performed.
+   */
+  public long getGenerationCount();
+}
@@ -1,12 +1,17 @@
 package trianglegenome;
 
-import static java.lang.Math.max;
-import static java.lang.Math.abs;
-
 import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
+import java.util.SplittableRandom;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
+import trianglegenome.fitness.BackgroundScorer;
+import trianglegenome.fitness.BatchFitnessEvaluator;
+import trianglegenome.fitness.ScreenCounters;
 import trianglegenome.util.Constants;
 
 /**
@@ -25,9 +30,6 @@ public class EvolutionModel extends Thread
   /** The amount of time elapsed since running. */
   private volatile long elapsedTime = 0;
   
-  /** Will be true when a genome should be in a crossover. */
-  private boolean crossoverFlag;
-  
   /** The genomes on which hill climbing and crossovers will be performed. */
   private List<Genome> genomes;
   
@@ -36,8 +38,17 @@ public class EvolutionModel extends Thread
    * {@link EvolutionModel#genomes}. */
   private HillClimberSpawner hillClimberSpawner;
   
-  /** The class that will perform crossovers on the genomes. */
-  private GenomeCrossover genomeCrossover;
+  /** Orders the {@link EvolutionModel#genomes} by fitness as they are climbed. */
+  private RankedPopulation ranking;
+  
+  /** Orders the genomes of each tribe by fitness as they are climbed. */
+  private List<RankedPopulation> tribeRankings;
+  
+  /** Performs the crossovers on the genomes, see {@link Constants#useSteadyState}. */
+  private EvolutionEngine engine;
+  
+  /** Scores the genomes that crossover left dirty. */
+  private BackgroundScorer scorer;
   
   /** The reference image that the triangles in each genome will eventually resemble through
    * hill climbing and crossover. */
@@ -46,8 +57,15 @@ public class EvolutionModel extends Thread
   /** The number of threads that will perform the hill climbing. */
   private int threadCount;
   
-  /** The average fitness of all genomes in all tribes. */
-  int averageFitness;
+  /** The stream that the hill climbers' and crossover's streams are split from, each time
+   * they are created. */
+  private final SplittableRandom random;
+  
+  /** Guards changes to {@link EvolutionModel#paused} that this thread waits for. */
+  private final ReentrantLock lock = new ReentrantLock();
+  
+  /** Signalled whenever {@link EvolutionModel#paused} changes. */
+  private final Condition pausedChanged = lock.newCondition();
   
   /**
    * Given an initial thread count, a list of genomes and a reference image, create an
@@ -58,10 +76,26 @@ public class EvolutionModel extends Thread
    * @param target The image that the genomes should resemble.
    */
   public EvolutionModel(int threadCount, List<Genome> genomes, BufferedImage target)
+  {
+    this(threadCount, genomes, target, new SplittableRandom(Constants.seed));
+  }
+  
+  /**
+   * Given an initial thread count, a list of genomes, a reference image and a random number
+   * stream, create an Evolution manager whose hill climbers and crossovers each draw from their
+   * own stream split from the given one.
+   * @param threadCount The number of threads to use for hill climbing.
+   * @param genomes The genomes that this EvolutionManager will manage.
+   * @param target The image that the genomes should resemble.
+   * @param random The stream to split every other stream from.
+   */
+  public EvolutionModel(int threadCount, List<Genome> genomes, BufferedImage target,
+      SplittableRandom random)
   {
     super("EvloutionManager-Thread");
     Objects.requireNonNull(genomes, "genomes cannot be null");
     Objects.requireNonNull(target, "target cannot be null");
+    this.random = random;
     this.genomes = genomes;
     this.threadCount = threadCount;
     this.target = target;
@@ -78,67 +112,115 @@ public class EvolutionModel extends Thread
   @Override
   public void run()
   {
-    int fitnessDelta = 0;
-    int firstFitnessDelta = 0;
     hillClimberSpawner.startHillClimbing();
-    if (!paused) hillClimberSpawner.startHillClimbing();
-    while (!super.isInterrupted())
+    try
     {
-      if (!paused)
+      while (!super.isInterrupted())
       {
-        if (crossoverFlag)
+        if (paused)
         {
-          hillClimberSpawner.pauseHillClimbers();
-          int crossoverCount = max(1, Constants.rand.nextInt(genomes.size() / 8));
-          genomeCrossover.crossover(crossoverCount);
-          hillClimberSpawner.unpauseHillClimbers();
-          crossoverFlag = false;
-          firstFitnessDelta = 0;
+          awaitPausedChange(true, Long.MAX_VALUE);
+          continue;
         }
         
-        try { Thread.sleep(10000); }
-        catch (Exception e)
-        {
-          hillClimberSpawner.stopHillClimbing();
-          synchronized (this) { this.notify(); }
-        }
-        
-        int newAverageFitness = (int)genomes
-            .stream()
-            .mapToLong(g -> g.getFitness())
-            .average()
-            .getAsDouble();
-        fitnessDelta = abs(newAverageFitness - averageFitness);
-        if (firstFitnessDelta == 0) firstFitnessDelta = fitnessDelta;
-        else if (fitnessDelta <= firstFitnessDelta / 64)
-        {
-          crossoverFlag = true;
-        }
-        averageFitness = newAverageFitness;
-      }
-      else
-      {
-        try { Thread.sleep(200); }
-        catch (Exception e)
-        {
-          hillClimberSpawner.stopHillClimbing();
-          synchronized (this) { this.notify(); }
-        }
+        // A pause during the interval cuts it short, and the engine is not called
+        if (awaitPausedChange(false, engine.getInterval())) continue;
+        // Selection needs every fitness to be right
+        scorer.scoreDirty();
+        engine.evolve();
+        scorer.signal();
       }
     }
+    catch (InterruptedException e)
+    {
+      // Interrupted while waiting, which ends this thread
+    }
     hillClimberSpawner.stopHillClimbing();
+    scorer.stop();
     synchronized (this) { this.notify(); }
   }
   
+  /**
+   * Waits until {@link EvolutionModel#paused} is no longer the given value, or until the
+   * timeout has passed.
+   * @param paused The value to wait for a change from.
+   * @param nanos The longest time to wait in nanoseconds.
+   * @return Whether the value changed before the timeout.
+   * @throws InterruptedException When this thread is interrupted while waiting.
+   */
+  private boolean awaitPausedChange(boolean paused, long nanos) throws InterruptedException
+  {
+    lock.lock();
+    try
+    {
+      while (this.paused == paused)
+      {
+        if (nanos <= 0) return false;
+        nanos = pausedChanged.awaitNanos(nanos);
+      }
+      return true;
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+  
+  /**
+   * Sets {@link EvolutionModel#paused} and wakes this thread if it is waiting for it to change.
+   */
+  private void setPaused(boolean paused)
+  {
+    lock.lock();
+    try
+    {
+      this.paused = paused;
+      pausedChanged.signalAll();
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+  
   /**
    * Used for initializing and reinitializing this EvolutionManager.
    */
   private void init()
   {
-    this.paused = true;
+    setPaused(true);
     if (hillClimberSpawner != null) hillClimberSpawner.stopHillClimbing();
-    hillClimberSpawner = new HillClimberSpawner(threadCount, genomes, target);
-    genomeCrossover = new GenomeCrossover(genomes);
+    hillClimberSpawner = new HillClimberSpawner(threadCount, genomes, target, random.split());
+    if (ranking != null) ranking.close();
+    if (tribeRankings != null) tribeRankings.forEach(r -> r.close());
+    ranking = new RankedPopulation(genomes);
+    tribeRankings = new ArrayList<RankedPopulation>(threadCount);
+    for (int i = 0; i < threadCount; i++)
+    {
+      tribeRankings.add(new RankedPopulation(hillClimberSpawner.getGenomesFromThread(i)));
+    }
+    // Islands only exchange genomes by migrating, so crossovers stay within each tribe
+    List<RankedPopulation> breeding = (hillClimberSpawner.getIslandModel() != null)
+        ? tribeRankings : Collections.singletonList(ranking);
+    BatchFitnessEvaluator batch = hillClimberSpawner.getBatchFitnessEvaluator();
+    if (scorer != null) scorer.stop();
+    scorer = new BackgroundScorer(genomes, batch);
+    scorer.start();
+    if (Constants.useSteadyState)
+    {
+      engine = new SteadyStateEngine(breeding, batch, random.split());
+    }
+    else
+    {
+      List<GenomeCrossover> crossovers = new ArrayList<GenomeCrossover>(breeding.size());
+      for (RankedPopulation r : breeding)
+      {
+        // The children are left dirty for the scorer, which scores them in batches
+        crossovers.add(new GenomeCrossover(r, null, random.split()));
+      }
+      engine = new TimedCrossoverEngine(ranking, crossovers, random.split());
+    }
+    hillClimberSpawner.setEvolutionEngine(engine);
   }
   
   /**
@@ -192,7 +274,7 @@ public class EvolutionModel extends Thread
   public void pause()
   {
     if (!paused) elapsedTime += System.currentTimeMillis() - startTime;
-    this.paused = true;
+    setPaused(true);
     hillClimberSpawner.pauseHillClimbers();
   }
 
@@ -202,7 +284,7 @@ public class EvolutionModel extends Thread
   public void unpause()
   {
     if (paused) startTime = System.currentTimeMillis();
-    this.paused = false;
+    setPaused(false);
     hillClimberSpawner.unpauseHillClimbers();
   }
 
@@ -224,18 +306,46 @@ public class EvolutionModel extends Thread
     return (paused) ? elapsedTime :  elapsedTime + System.currentTimeMillis() - startTime;
   }
   
+  /**
+   * Returns the image that the genomes should resemble.
+   * @return The target image.
+   */
+  public BufferedImage getTarget()
+  {
+    return target;
+  }
+  
   /**
    * Returns the genomes managed by a given thread, specified by index.
    * @param threadIndex The thread from which the genomes will be taken.
    * @return The genomes managed by a given thread, specified by index.
    */
   public List<Genome> getGenomesFromTribe(int threadIndex)
+  {
+    return getRanking(threadIndex).getGenomes();
+  }
+  
+  /**
+   * Returns the genomes of the global population ordered by fitness.
+   * @return The ranking of the global population.
+   */
+  public RankedPopulation getRanking()
+  {
+    return ranking;
+  }
+  
+  /**
+   * Returns the genomes of a tribe ordered by fitness.
+   * @param threadIndex The tribe whose ranking will be returned.
+   * @return The ranking of the tribe.
+   */
+  public RankedPopulation getRanking(int threadIndex)
   {
     if (threadIndex >= threadCount)
     {
       throw new IllegalArgumentException("threadIndex exceeds hill climbing thread count.");
     }
-    return hillClimberSpawner.getGenomesFromThread(threadIndex);
+    return tribeRankings.get(threadIndex);
   }
   
   /**
@@ -247,13 +357,42 @@ public class EvolutionModel extends Thread
     return hillClimberSpawner.getHillClimbGenerations();
   }
   
+  /**
+   * Returns how often the coarse screens of all of the hill climbers agreed with the full size
+   * score.
+   * @return The screen counters of all of the hill climbers.
+   */
+  public ScreenCounters getScreenCounters()
+  {
+    return hillClimberSpawner.getScreenCounters();
+  }
+  
+  /**
+   * Returns the safepoint of the hill climbers, whose counters tell how long pausing and
+   * resuming them takes.
+   * @return The safepoint of the hill climbers.
+   */
+  public Safepoint getSafepoint()
+  {
+    return hillClimberSpawner.getSafepoint();
+  }
+  
+  /**
+   * Returns the scorer that scores the genomes that crossover left dirty.
+   * @return The scorer of the dirty genomes.
+   */
+  public BackgroundScorer getBackgroundScorer()
+  {
+    return scorer;
+  }
+  
   /**
    * Returns the number of crossovers performed.
    * @return The number of crossovers performed.
    */
   public long getCrossoverGenerations()
   {
-    return genomeCrossover.getGenerationCount();
+    return engine.getGenerationCount();
   }
   
   /**
@@ -271,11 +410,7 @@ public class EvolutionModel extends Thread
    */
   public long getBestFitnessValue()
   {
-    return genomes
-        .stream()
-        .mapToLong(g -> g.getFitness())
-        .min()
-        .getAsLong();
+    return ranking.getBestFitness();
   }
   
   /**
@@ -285,11 +420,7 @@ public class EvolutionModel extends Thread
    */
   public long getBestFitnessValue(int tribeIndex)
   {
-    return getGenomesFromTribe(tribeIndex)
-        .stream()
-        .mapToLong(g -> g.getFitness())
-        .min()
-        .getAsLong();
+    return getRanking(tribeIndex).getBestFitness();
   }
   
   
@@ -299,11 +430,7 @@ public class EvolutionModel extends Thread
    */
   public long getWorstFitnessValue()
   {
-    return genomes
-        .stream()
-        .mapToLong(g -> g.getFitness())
-        .max()
-        .getAsLong();
+    return ranking.getWorstFitness();
   }
   
   /**
@@ -313,11 +440,7 @@ public class EvolutionModel extends Thread
    */
   public long getWorstFitnessValue(int tribeIndex)
   {
-    return getGenomesFromTribe(tribeIndex)
-        .stream()
-        .mapToLong(g -> g.getFitness())
-        .max()
-        .getAsLong();
+    return getRanking(tribeIndex).getWorstFitness();
   }
   
   /*
@@ -328,6 +451,7 @@ public class EvolutionModel extends Thread
   public void finalize()
   {
     hillClimberSpawner.stopHillClimbing();
+    scorer.stop();
     super.interrupt();
     synchronized (this) { this.notify(); }
   }
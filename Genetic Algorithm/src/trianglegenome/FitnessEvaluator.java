@@ -1,28 +1,48 @@
 package trianglegenome;
 
-import static java.lang.Math.pow;
-import static java.lang.Math.sqrt;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
 
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 import java.awt.image.DataBufferInt;
-import java.io.File;
-import java.io.FileInputStream;
 import java.nio.IntBuffer;
+import java.util.SplittableRandom;
 
+import trianglegenome.fitness.ColorDistance;
+import trianglegenome.fitness.DifferenceSum;
+import trianglegenome.fitness.FitnessEstimate;
+import trianglegenome.fitness.ReferencePyramid;
+import trianglegenome.fitness.SharedCLContext;
+import trianglegenome.fitness.SummedAreaTable;
+import trianglegenome.render.PixelSampler;
 import trianglegenome.util.Constants;
 
 import com.jogamp.opencl.CLBuffer;
 import com.jogamp.opencl.CLCommandQueue;
-import com.jogamp.opencl.CLContext;
 import com.jogamp.opencl.CLDevice;
 import com.jogamp.opencl.CLKernel;
 import com.jogamp.opencl.CLMemory.Mem;
-import com.jogamp.opencl.CLProgram;
 
 /**
  * Calculates fitness using java or by calling an opencl kernel,
  * kernels/fitness.cl
  * <br /><br />
+ * Every evaluator shares one OpenCL context and compiled program (see
+ * {@link SharedCLContext}) and has its own command queue, kernel and device buffers, which are
+ * created once. The reference image is uploaded once, and the kernel adds up the differences on
+ * the device so that only one sum is read back per call. When no OpenCL platform is present,
+ * the OpenCL methods fall back to Java.
+ * <br /><br />
+ * The difference between two pixels is measured by a {@link ColorDistance}, which has a Java
+ * path and a matching kernel. It is {@link Constants#colorDistance} unless another one is
+ * given to the constructor.
+ * <br /><br />
+ * Without OpenCL, whole image sums use trianglegenome.fitness.VectorFitnessSum when it has been
+ * compiled from src-vector, the program runs with <code>--add-modules jdk.incubator.vector</code>
+ * on Java 16 or later and {@link Constants#useVectorAPI} is set, and one pixel at a time
+ * otherwise. Both give the same sums.
+ * <br /><br />
  * Example code:<br/>
  * <code><pre>
  *  
@@ -36,30 +56,51 @@ import com.jogamp.opencl.CLProgram;
  *  // draw triangles in p1
  *  
  *  // Get fitness with Java method
- *  int f1 = f.differenceSumJava(p1.getSnapshot());
+ *  long f1 = f.differenceSumJava(p1.getSnapshot());
  *  
  *  // Get fitness with OpenCL kernel
- *  int f2 = f.differenceSumCL(p1.getSnapshot());
+ *  long f2 = f.differenceSumCL(p1.getSnapshot());
  *  
  *  // Preferrable way
- *  int f3 = f.differenceSum(p1.getSnapshot());
+ *  long f3 = f.differenceSum(p1.getSnapshot());
  *  
  *  assert f1 == f2;
  *  assert f1 == f3;
  *  
+ *  // Score only the part of the image that changed
+ *  long f4 = f.initializeErrorBuffer(p1.getSnapshot());
+ *  
+ *  // change triangles that lie inside Rectangle r and redraw them in p1
+ *  
+ *  // Stop scoring once the change is known to be worse
+ *  long f5 = f.differenceSumRegion(p1.getSnapshot(), r, f4);
+ *  if (f5 > f4) f.rollbackRegion();
+ *  else f.commitRegion();
+ *  
+ *  // Or estimate the change from a few hundred pixels without drawing it
+ *  FitnessEstimate e = f.estimateDifferenceSumRegion(rasterizer, r, 256);
+ *  
  * </pre></code>
  * 
  * @author David Collins
  */
 public class FitnessEvaluator
 {
-  private File sourceFile;
-  private FileInputStream sourceInputStream;
+  /** Measures the difference between two pixels. */
+  private final ColorDistance colorDistance;
+  
+  /** The name of the class that sums distances with the Vector API. */
+  private static final String VECTOR_SUM_CLASS = "trianglegenome.fitness.VectorFitnessSum";
+  
+  /** Sums {@link #colorDistance} several pixels at a time, or null when the Vector API is not
+   * available or has no path for the distance. */
+  private final DifferenceSum vectorSum;
+  
+  /** The shared OpenCL context, or null when OpenCL is not available. */
+  private SharedCLContext shared;
   
-  private CLContext context;
   private CLDevice device;
   private CLCommandQueue queue;
-  private CLProgram program;
   private CLKernel kernel;
   
   private int elementCount;
@@ -67,39 +108,126 @@ public class FitnessEvaluator
   private int localWorkSize;
   
   private CLBuffer<IntBuffer> referenceCLBuffer;
+  private CLBuffer<IntBuffer> trianglesCLBuffer;
+  private CLBuffer<IntBuffer> sumCLBuffer;
   private DataBufferInt referenceBufferInt;
+  private BufferedImage referenceImage;
   
   private int referenceWidth;
   private int referenceHeight;
   
+  /** Summed-area tables of the reference image, built the first time they are needed. */
+  private SummedAreaTable referenceTable;
+  
+  /** Smaller copies of the reference image, built the first time they are needed. */
+  private ReferencePyramid referencePyramid;
+  
+  /** The difference of each pixel of the last image scored with
+   * {@link #initializeErrorBuffer(BufferedImage)}, kept up to date by committed regions. */
+  private int[] errorBuffer;
+  
+  /** The sum of the {@link #errorBuffer}, which is the fitness of the last committed image. */
+  private long errorSum;
+  
+  /** The fitness returned by the last call to
+   * {@link #differenceSumRegion(BufferedImage, Rectangle)}. */
+  private long pendingErrorSum;
+  
+  /** The old differences of the region last scored by
+   * {@link #differenceSumRegion(BufferedImage, Rectangle)}, row by row, for rolling back. */
+  private int[] savedErrors;
+  private int savedX;
+  private int savedY;
+  private int savedWidth;
+  private int savedHeight;
+  
+  /** The number of strata along each side of a region that is estimated from samples. */
+  private static final int STRATA = 4;
+  
+  /** Reused by every call to
+   * {@link #estimateDifferenceSumRegion(PixelSampler, Rectangle, int)}. */
+  private final FitnessEstimate estimate = new FitnessEstimate();
+  
+  /** Picks the pixels to sample. */
+  private SplittableRandom sampleRandom = new SplittableRandom();
+  
+  /** Whether the last bounded sum was computed over every pixel or was cut off. */
+  private boolean lastSumExact = true;
+  
   private final String ERROR_SIZE = "Reference and triangle images must be the same size"; 
   private final String ERROR_TYPE = "Image must be of type BufferedImage.TYPE_INT_RGB"; 
+  private final String ERROR_NO_BUFFER = "initializeErrorBuffer must be called first"; 
+  private final String ERROR_CUT_OFF = "A region that was cut off can only be rolled back"; 
   
   /**
-   * Creates a new fitness evaluator.
+   * Creates a new fitness evaluator that uses {@link Constants#colorDistance}.
    */
   public FitnessEvaluator(BufferedImage reference)
   {
-    context = CLContext.create();
-    device = context.getMaxFlopsDevice();
-    queue = device.createCommandQueue();
-    sourceFile = new File("kernels/fitness.cl");
-    
-    try
+    this(reference, Constants.colorDistance);
+  }
+  
+  /**
+   * Creates a new fitness evaluator that uses a given color distance.
+   */
+  public FitnessEvaluator(BufferedImage reference, ColorDistance colorDistance)
+  {
+    this.colorDistance = colorDistance;
+    vectorSum = loadVectorSum(colorDistance);
+    shared = SharedCLContext.getInstance();
+    if (shared != null)
     {
-      sourceInputStream = new FileInputStream(sourceFile);
-      program = context.createProgram(sourceInputStream).build();
+      device = shared.getDevice();
+      queue = shared.createCommandQueue();
+      kernel = shared.createKernel(colorDistance.getKernelName());
     }
-    catch (Exception e) { e.printStackTrace(); }
-    
-    kernel = program.createCLKernel("fitness");
     
     initializeReferenceBuffers(reference);
   }
   
   /**
-   * Initializes the {@link #referenceBufferInt} and {@link #referenceCLBuffer} based on
-   * the given reference image.
+   * Returns whether this evaluator can use OpenCL. When it can not, the OpenCL methods use
+   * Java instead.
+   * @return Whether this evaluator can use OpenCL.
+   */
+  public boolean isOpenCLAvailable()
+  {
+    return shared != null;
+  }
+  
+  /**
+   * Returns whether this evaluator can score several pixels at once with the Vector API. When
+   * it can not, the Java methods score one pixel at a time.
+   * @return Whether this evaluator can use the Vector API.
+   */
+  public boolean isVectorAPIAvailable()
+  {
+    return vectorSum != null;
+  }
+  
+  /**
+   * Creates a trianglegenome.fitness.VectorFitnessSum by name, so that this class builds and
+   * loads without the Vector API or the src-vector source folder.
+   * @return The vector sum, or null when the class is missing, the jdk.incubator.vector module
+   * is not present or the distance has no vector path.
+   */
+  private static DifferenceSum loadVectorSum(ColorDistance colorDistance)
+  {
+    try
+    {
+      return (DifferenceSum)Class.forName(VECTOR_SUM_CLASS)
+          .getConstructor(ColorDistance.class).newInstance(colorDistance);
+    }
+    catch (ReflectiveOperationException | LinkageError e)
+    {
+      return null;
+    }
+  }
+  
+  /**
+   * Initializes the {@link #referenceBufferInt} and, when OpenCL is available, the device
+   * buffers based on the given reference image. The reference image is uploaded to the device
+   * here, once.
    * @param reference The reference image to which the triangles image will be compared.
    */
   private void initializeReferenceBuffers(BufferedImage reference)
@@ -112,16 +240,67 @@ public class FitnessEvaluator
       throw new IllegalArgumentException(ERROR_TYPE);
     }
     
+    referenceImage = reference;
     referenceBufferInt = (DataBufferInt)reference.getRaster().getDataBuffer();
     
     elementCount = referenceBufferInt.getSize();
-    globalWorkSize = getBufferSize(elementCount);
-    localWorkSize = device.getMaxWorkGroupSize();
+    if (shared == null) return;
+    
+    // The reduction in the kernel needs a power of two work group size
+    localWorkSize = Integer.highestOneBit(
+        (int)min(device.getMaxWorkGroupSize(), kernel.getWorkGroupSize(device)));
+    globalWorkSize = (elementCount + localWorkSize - 1) / localWorkSize * localWorkSize;
     
-    referenceCLBuffer = context.createIntBuffer(globalWorkSize, Mem.READ_ONLY);
+    referenceCLBuffer = shared.getContext().createIntBuffer(elementCount, Mem.READ_ONLY);
+    trianglesCLBuffer = shared.getContext().createIntBuffer(elementCount, Mem.READ_ONLY);
+    sumCLBuffer = shared.getContext().createIntBuffer(2, Mem.READ_WRITE);
     
     referenceCLBuffer.getBuffer().put(referenceBufferInt.getData());
     referenceCLBuffer.getBuffer().rewind();
+    queue.putWriteBuffer(referenceCLBuffer, true);
+    
+    kernel.setArgs(referenceCLBuffer, trianglesCLBuffer)
+        .setArg(2, elementCount)
+        .setArg(3, sumCLBuffer)
+        .setNullArg(4, localWorkSize * 4);
+  }
+  
+  /**
+   * Returns summed-area tables of the reference image, building them on the first call.
+   * @return Summed-area tables of the reference image.
+   */
+  public SummedAreaTable getSummedAreaTable()
+  {
+    if (referenceTable == null)
+    {
+      referenceTable = new SummedAreaTable(
+          referenceBufferInt.getData(), referenceWidth, referenceHeight);
+    }
+    return referenceTable;
+  }
+  
+  /**
+   * Sets the random numbers that pick the pixels sampled by
+   * {@link #estimateDifferenceSumRegion(PixelSampler, Rectangle, int)}, so that the estimates
+   * of a seeded run are repeatable. The stream must not be shared with another thread.
+   * @param sampleRandom The random number stream to sample with.
+   */
+  public void setSampleRandom(SplittableRandom sampleRandom)
+  {
+    this.sampleRandom = sampleRandom;
+  }
+  
+  /**
+   * Returns smaller copies of the reference image, building them on the first call.
+   * @return The pyramid of the reference image.
+   */
+  public ReferencePyramid getReferencePyramid()
+  {
+    if (referencePyramid == null)
+    {
+      referencePyramid = new ReferencePyramid(referenceImage);
+    }
+    return referencePyramid;
   }
   
   /**
@@ -132,45 +311,58 @@ public class FitnessEvaluator
    * @param triangles The image containing the triangles to compare to the reference image.
    * @return The fitness of the triangles where lower is better. 
    */
-  public int differenceSum(BufferedImage triangles)
+  public long differenceSum(BufferedImage triangles)
+  {
+    return (useOpenCL()) ? differenceSumCL(triangles) : differenceSumJava(triangles);
+  }
+  
+  /**
+   * Like {@link #differenceSum(BufferedImage)}, but the sum may be cut off as soon as it is
+   * known to be greater than a bound (see {@link #differenceSumJava(BufferedImage, long)}).
+   * OpenCL always scores the whole image.
+   * @param triangles The image containing the triangles to compare to the reference image.
+   * @param bound The fitness above which the exact value is not needed.
+   * @return The fitness of the triangles where lower is better, or a value greater than the
+   * bound if it was cut off. Use {@link #isLastSumExact()} to tell which.
+   */
+  public long differenceSum(BufferedImage triangles, long bound)
   {
-    return (Constants.useOpenCL) ? differenceSumCL(triangles) : differenceSumJava(triangles);
+    if (useOpenCL())
+    {
+      lastSumExact = true;
+      return differenceSumCL(triangles);
+    }
+    return differenceSumJava(triangles, bound);
   }
   
   /**
    * Uses OpenCL to calculate the differences between each red, green and blue value
-   * of each pixel in two images.
+   * of each pixel in two images. Uses Java when OpenCL is not available.
    * @param reference The reference image against which the triangles will be compared.
    * @param triangles The image containing the triangles to compare to the reference image.
    * @return The fitness of the triangles where lower is better. 
    */
-  public int differenceSumCL(BufferedImage triangles)
+  public long differenceSumCL(BufferedImage triangles)
   {
-    CLBuffer<IntBuffer> trianglesCLBuffer;
-    DataBufferInt trtianglesBufferInt;
-
-    checkTriangleImageArgument(triangles);
+    if (shared == null) return differenceSumJava(triangles);
     
-    trtianglesBufferInt = (DataBufferInt)triangles.getRaster().getDataBuffer();
+    checkTriangleImageArgument(triangles);
     
-    trianglesCLBuffer = context.createIntBuffer(globalWorkSize, Mem.READ_WRITE);
-    trianglesCLBuffer.getBuffer().put(trtianglesBufferInt.getData());
-    trianglesCLBuffer.getBuffer().rewind();
+    DataBufferInt trianglesBufferInt = (DataBufferInt)triangles.getRaster().getDataBuffer();
     
-    kernel.setArgs(referenceCLBuffer, trianglesCLBuffer).setArg(2, elementCount);
+    IntBuffer trianglesBuffer = trianglesCLBuffer.getBuffer();
+    trianglesBuffer.put(trianglesBufferInt.getData(), 0, elementCount);
+    trianglesBuffer.rewind();
+    IntBuffer sum = sumCLBuffer.getBuffer();
+    sum.put(0, 0).put(1, 0);
     
-    queue.putWriteBuffer(referenceCLBuffer, false);
     queue.putWriteBuffer(trianglesCLBuffer, false);
+    queue.putWriteBuffer(sumCLBuffer, false);
     queue.put1DRangeKernel(kernel, 0, globalWorkSize, localWorkSize);
-    queue.putReadBuffer(trianglesCLBuffer, true);
+    queue.putReadBuffer(sumCLBuffer, true);
     
-    int sum = 0;
-    IntBuffer differences = trianglesCLBuffer.getBuffer();
-    for (int i = 0; i < elementCount; i++) sum += differences.get();
-    
-    trianglesCLBuffer.release();
-    
-    return sum;
+    // The kernel adds up an unsigned 64 bit sum in two ints, low word first
+    return ((long)sum.get(1) << 32) | (sum.get(0) & 0xFFFFFFFFL);
   }
 
   /**
@@ -180,7 +372,7 @@ public class FitnessEvaluator
    * @param triangles The image containing the triangles to compare to the reference image.
    * @return The fitness of the triangles where lower is better. 
    */
-  public int differenceSumJava(BufferedImage triangles)
+  public long differenceSumJava(BufferedImage triangles)
   {
     checkTriangleImageArgument(triangles);
     
@@ -191,27 +383,302 @@ public class FitnessEvaluator
     int [] rRGB = referenceBufferInt.getData();
     int [] tRGB = trianglesBufferInt.getData();
     
-    int sum = 0;
+    if (useVectorAPI()) return vectorSum.sum(rRGB, tRGB, 0, elementCount);
+    
+    long sum = 0;
+    for (int i = 0; i < elementCount; i++)
+    {
+      sum += colorDistance.distance(rRGB[i], tRGB[i]);
+    }
+    return sum;
+  }
+  
+  /**
+   * Like {@link #differenceSumJava(BufferedImage)}, but checks the sum after every row and
+   * stops once it is greater than a bound. Hill climbing rejects a mutation as soon as it is
+   * worse than the genome it came from, so most rejected mutations only need part of the image.
+   * @param triangles The image containing the triangles to compare to the reference image.
+   * @param bound The fitness above which the exact value is not needed.
+   * @return The fitness of the triangles where lower is better, or a partial sum that is
+   * greater than the bound if it was cut off. Use {@link #isLastSumExact()} to tell which.
+   */
+  public long differenceSumJava(BufferedImage triangles, long bound)
+  {
+    checkTriangleImageArgument(triangles);
+    
+    int [] rRGB = referenceBufferInt.getData();
+    int [] tRGB = ((DataBufferInt)triangles.getRaster().getDataBuffer()).getData();
+    
+    long sum = 0;
+    for (int y = 0; y < referenceHeight; y++)
+    {
+      int end = (y + 1) * referenceWidth;
+      if (useVectorAPI())
+      {
+        sum += vectorSum.sum(rRGB, tRGB, y * referenceWidth, end);
+      }
+      else
+      {
+        for (int i = y * referenceWidth; i < end; i++)
+        {
+          sum += colorDistance.distance(rRGB[i], tRGB[i]);
+        }
+      }
+      if (sum > bound && y + 1 < referenceHeight)
+      {
+        lastSumExact = false;
+        return sum;
+      }
+    }
+    lastSumExact = true;
+    return sum;
+  }
+  
+  /**
+   * Returns whether the last call to {@link #differenceSum(BufferedImage, long)},
+   * {@link #differenceSumJava(BufferedImage, long)} or
+   * {@link #differenceSumRegion(BufferedImage, Rectangle, long)} scored every pixel. When it
+   * did not, the value it returned is only known to be greater than the bound.
+   * @return True when the last bounded sum is the exact fitness.
+   */
+  public boolean isLastSumExact()
+  {
+    return lastSumExact;
+  }
+  
+  /**
+   * Scores a whole image like {@link #differenceSumJava(BufferedImage)} and also remembers the
+   * difference of every pixel in the {@link #errorBuffer}. After this, changes to the image can
+   * be scored with {@link #differenceSumRegion(BufferedImage, Rectangle)}, which only looks at
+   * the pixels that changed.
+   * @param triangles The image containing the triangles to compare to the reference image.
+   * @return The fitness of the triangles where lower is better. 
+   */
+  public long initializeErrorBuffer(BufferedImage triangles)
+  {
+    checkTriangleImageArgument(triangles);
+    
+    int [] rRGB = referenceBufferInt.getData();
+    int [] tRGB = ((DataBufferInt)triangles.getRaster().getDataBuffer()).getData();
+    
+    if (errorBuffer == null)
+    {
+      errorBuffer = new int[elementCount];
+      savedErrors = new int[elementCount];
+    }
+    
+    long sum = 0;
     for (int i = 0; i < elementCount; i++)
     {
-      int rRGBVal = rRGB[i];
-      int tRGBVal = tRGB[i];
-      int rr = (rRGBVal >> 0x04) & 0xFF;
-      int rg = (rRGBVal >> 0x02) & 0xFF;
-      int rb = rRGBVal & 0xFF;
-      int tr = (tRGBVal >> 0x04) & 0xFF;
-      int tg = (tRGBVal >> 0x02) & 0xFF;
-      int tb = tRGBVal & 0xFF;
-      
-      double dr2 = pow(rr - tr, 2.0);
-      double dg2 = pow(rg - tg, 2.0);
-      double db2 = pow(rb - tb, 2.0);
-      
-      sum += sqrt(dr2 + dg2 + db2);
+      int error = colorDistance.distance(rRGB[i], tRGB[i]);
+      errorBuffer[i] = error;
+      sum += error;
     }
+    errorSum = sum;
+    pendingErrorSum = sum;
+    lastSumExact = true;
+    savedWidth = 0;
+    savedHeight = 0;
     return sum;
   }
   
+  /**
+   * Rescores only the pixels inside a region of an image that was last scored with
+   * {@link #initializeErrorBuffer(BufferedImage)} (and possibly changed since then by committed
+   * regions). The old differences inside the region are saved so that the change can be undone
+   * with {@link #rollbackRegion()}; call {@link #commitRegion()} to keep it instead.
+   * @param triangles The image containing the triangles to compare to the reference image.
+   * @param region The region of the image that changed.
+   * @return The fitness of the whole image where lower is better, computed as the previous
+   * fitness minus the old differences of the region plus the new ones.
+   */
+  public long differenceSumRegion(BufferedImage triangles, Rectangle region)
+  {
+    return differenceSumRegion(triangles, region, Long.MAX_VALUE);
+  }
+  
+  /**
+   * Like {@link #differenceSumRegion(BufferedImage, Rectangle)}, but stops after any row of the
+   * region once the fitness is known to be greater than a bound. The rows that were not rescored
+   * are left out of the sum, so a cut off sum is still less than or equal to the real fitness.
+   * Check {@link #isLastSumExact()} to find out whether
+   * the whole region was rescored; if it was not, the change can only be rolled back.
+   * @param triangles The image containing the triangles to compare to the reference image.
+   * @param region The region of the image that changed.
+   * @param bound The fitness above which the exact value is not needed.
+   * @return The fitness of the whole image where lower is better, or a value greater than the
+   * bound if it was cut off.
+   */
+  public long differenceSumRegion(BufferedImage triangles, Rectangle region, long bound)
+  {
+    checkTriangleImageArgument(triangles);
+    if (errorBuffer == null)
+    {
+      throw new IllegalStateException(ERROR_NO_BUFFER);
+    }
+    
+    int [] rRGB = referenceBufferInt.getData();
+    int [] tRGB = ((DataBufferInt)triangles.getRaster().getDataBuffer()).getData();
+    
+    savedX = max(region.x, 0);
+    savedY = max(region.y, 0);
+    savedWidth = max(min(region.x + region.width, referenceWidth) - savedX, 0);
+    savedHeight = max(min(region.y + region.height, referenceHeight) - savedY, 0);
+    
+    // Save the old differences first so that a cut off region can still be rolled back
+    long sum = errorSum;
+    int saved = 0;
+    for (int y = savedY; y < savedY + savedHeight; y++)
+    {
+      int start = y * referenceWidth + savedX;
+      System.arraycopy(errorBuffer, start, savedErrors, saved, savedWidth);
+      for (int i = start; i < start + savedWidth; i++) sum -= errorBuffer[i];
+      saved += savedWidth;
+    }
+    
+    // Differences are never negative, so adding rows back only makes the sum larger
+    for (int y = savedY; y < savedY + savedHeight; y++)
+    {
+      int start = y * referenceWidth + savedX;
+      int end = start + savedWidth;
+      for (int i = start; i < end; i++)
+      {
+        int error = colorDistance.distance(rRGB[i], tRGB[i]);
+        errorBuffer[i] = error;
+        sum += error;
+      }
+      if (sum > bound && y + 1 < savedY + savedHeight)
+      {
+        lastSumExact = false;
+        pendingErrorSum = sum;
+        return sum;
+      }
+    }
+    lastSumExact = true;
+    pendingErrorSum = sum;
+    return sum;
+  }
+  
+  /**
+   * Estimates the fitness after a change inside a region from a stratified random sample of
+   * its pixels, without drawing the change. The region is split into a grid of up to 4 by 4
+   * strata and each stratum gets an equal share of the samples. For each sampled pixel, the
+   * new difference (from the sampler) minus the old one (from the {@link #errorBuffer}) is
+   * scaled up by the size of its stratum. Strata with no more pixels than samples are scored
+   * exactly. The error buffer is not changed.
+   * @param sampler Gives the color of a pixel after the change.
+   * @param region The region of the image that the change affects.
+   * @param samples The number of pixels to sample.
+   * @return The estimated fitness of the whole image, and its standard error. This is not a
+   * copy, and it is reused by the next call.
+   */
+  public FitnessEstimate estimateDifferenceSumRegion(PixelSampler sampler, Rectangle region,
+      int samples)
+  {
+    if (errorBuffer == null)
+    {
+      throw new IllegalStateException(ERROR_NO_BUFFER);
+    }
+    int[] rRGB = referenceBufferInt.getData();
+    int x0 = max(region.x, 0);
+    int y0 = max(region.y, 0);
+    int width = max(min(region.x + region.width, referenceWidth) - x0, 0);
+    int height = max(min(region.y + region.height, referenceHeight) - y0, 0);
+    
+    int columns = min(STRATA, max(width, 1));
+    int rows = min(STRATA, max(height, 1));
+    int perStratum = max(2, samples / (columns * rows));
+    
+    double change = 0;
+    double variance = 0;
+    boolean exact = true;
+    for (int row = 0; row < rows; row++)
+    {
+      int sy0 = y0 + height * row / rows;
+      int sy1 = y0 + height * (row + 1) / rows;
+      for (int column = 0; column < columns; column++)
+      {
+        int sx0 = x0 + width * column / columns;
+        int sx1 = x0 + width * (column + 1) / columns;
+        int size = (sx1 - sx0) * (sy1 - sy0);
+        if (size == 0) continue;
+        
+        if (size <= perStratum)
+        {
+          for (int y = sy0; y < sy1; y++)
+          {
+            for (int x = sx0; x < sx1; x++) change += sampleChange(sampler, rRGB, x, y);
+          }
+          continue;
+        }
+        
+        double sum = 0;
+        double sumOfSquares = 0;
+        for (int i = 0; i < perStratum; i++)
+        {
+          int x = sx0 + sampleRandom.nextInt(sx1 - sx0);
+          int y = sy0 + sampleRandom.nextInt(sy1 - sy0);
+          int d = sampleChange(sampler, rRGB, x, y);
+          sum += d;
+          sumOfSquares += (double)d * d;
+        }
+        double mean = sum / perStratum;
+        double sampleVariance = max(0, (sumOfSquares - sum * mean) / (perStratum - 1));
+        change += size * mean;
+        variance += (double)size * size * sampleVariance / perStratum;
+        exact = false;
+      }
+    }
+    estimate.set(errorSum + Math.round(change), Math.sqrt(variance), exact);
+    return estimate;
+  }
+  
+  /**
+   * Returns the new difference of one pixel minus its difference in the {@link #errorBuffer}.
+   */
+  private int sampleChange(PixelSampler sampler, int[] rRGB, int x, int y)
+  {
+    int i = y * referenceWidth + x;
+    return colorDistance.distance(rRGB[i], sampler.samplePixel(x, y)) - errorBuffer[i];
+  }
+  
+  /**
+   * Keeps the change scored by the last call to
+   * {@link #differenceSumRegion(BufferedImage, Rectangle)}. A region that was cut off by a bound
+   * cannot be committed.
+   */
+  public void commitRegion()
+  {
+    if (!lastSumExact)
+    {
+      throw new IllegalStateException(ERROR_CUT_OFF);
+    }
+    errorSum = pendingErrorSum;
+    savedWidth = 0;
+    savedHeight = 0;
+  }
+  
+  /**
+   * Undoes the change scored by the last call to
+   * {@link #differenceSumRegion(BufferedImage, Rectangle)}, so that the {@link #errorBuffer}
+   * matches the image as it was before that change. The image itself must be restored by the
+   * caller.
+   */
+  public void rollbackRegion()
+  {
+    int saved = 0;
+    for (int y = savedY; y < savedY + savedHeight; y++)
+    {
+      int start = y * referenceWidth + savedX;
+      System.arraycopy(savedErrors, saved, errorBuffer, start, savedWidth);
+      saved += savedWidth;
+    }
+    pendingErrorSum = errorSum;
+    lastSumExact = true;
+    savedWidth = 0;
+    savedHeight = 0;
+  }
+  
   /**
    * Throws an IllegalArgumentException if one of the following is true about a given image:
    * <li> The width and height are not {@link #referenceHeight} and
@@ -235,24 +702,35 @@ public class FitnessEvaluator
   }
   
   /**
-   * Returns a buffer size to use for the CLBuffers based on element count.
-   * @param elementCount The element count.
-   * @return A buffer size to use for the CLBuffers based on element count.
+   * Returns whether {@link #differenceSum(BufferedImage)} should use OpenCL.
+   * @return True when {@link Constants#useOpenCL} is set and OpenCL is available.
    */
-  private int getBufferSize(int elementCount)
+  private boolean useOpenCL()
   {
-    int mwSize = device.getMaxWorkGroupSize();
-    int wgs = mwSize / elementCount + 1; 
-    return wgs * elementCount;
+    return Constants.useOpenCL && shared != null;
   }
   
+  /**
+   * Returns whether the Java methods should use the Vector API.
+   * @return True when {@link Constants#useVectorAPI} is set and the Vector API is available.
+   */
+  private boolean useVectorAPI()
+  {
+    return Constants.useVectorAPI && vectorSum != null;
+  }
+  
+  /**
+   * Releases this evaluator's queue, kernel and buffers. The shared context is kept for the
+   * other evaluators.
+   */
   @Override
   public void finalize()
   {
+    if (shared == null) return;
     referenceCLBuffer.release();
-    context.release();
+    trianglesCLBuffer.release();
+    sumCLBuffer.release();
     kernel.release();
     queue.release();
-    program.release();
   }
-}
+}
\ No newline at end of file
@@ -1,89 +1,288 @@
 package trianglegenome;
 
+import static java.lang.Math.max;
 import static java.lang.Math.min;
 
+import java.awt.Rectangle;
+import java.util.AbstractList;
 import java.util.Arrays;
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.Collections;
 import java.util.List;
 
 import javax.xml.bind.annotation.XmlElement;
 import javax.xml.bind.annotation.XmlRootElement;
+import javax.xml.bind.annotation.XmlTransient;
 
 import trianglegenome.util.Constants;
 
+/**
+ * A genome of up to {@link Constants#TRIANGLE_COUNT} triangles. The DNA of every triangle is
+ * kept in one flat int array so that the hill climbers can read and write any gene in O(1)
+ * without walking a list or touching per-triangle objects.
+ * <br /><br />
+ * Triangle i occupies indices [i * {@link Triangle#DNA_LENGTH}, (i + 1) *
+ * {@link Triangle#DNA_LENGTH}) of the array and uses the same layout as {@link Triangle#dna}.
+ * <br /><br />
+ * A genome in the population is only ever replaced as a whole, by {@link #publish(Genome)},
+ * which also stamps it with a new {@link #getVersion() version}. A hill climber that sees the
+ * version change while it works on the genome drops its step and starts over from the new DNA.
+ * <br /><br />
+ * A genome whose DNA is changed by anything but hill climbing, such as crossover in place or
+ * {@link #setTriangle(int, Triangle)}, is {@link #isDirty() dirty}: its fitness is stale until
+ * it is scored again. Dirty genomes are left out of every {@link RankedPopulation}, so they are
+ * never selected or reported by a stale fitness, and setting the fitness cleans the genome.
+ * <br /><br />
+ * Every genome keeps a 64-bit {@link #getFingerprint() fingerprint} of its DNA: the XOR of a
+ * hash of each DNA value and its index, as in Zobrist hashing. A write to one value changes
+ * the fingerprint in O(1), by XORing out the old value's hash and XORing in the new one, so
+ * equal genomes have equal fingerprints whatever way they got their DNA. The fingerprint is
+ * the {@link #hashCode()} of the genome and the key of a {@link trianglegenome.fitness.FitnessCache}.
+ */
 @XmlRootElement(name="genome")
 public class Genome implements Cloneable
 {
-  private List<Triangle> genes = new LinkedList<>();
-  
+  /** The number of DNA values in a genome with {@link Constants#TRIANGLE_COUNT} triangles. */
+  public static final int GENOME_LENGTH = Constants.TRIANGLE_COUNT * Triangle.DNA_LENGTH;
+
+  /** The DNA of every triangle in this genome, stored contiguously. */
+  private final int[] dna = new int[GENOME_LENGTH];
+
+  /** The number of triangles currently stored in {@link #dna}. */
+  private int triangleCount = 0;
+
+  /** A live {@link List} view of {@link #dna} that the XML parser reads and fills. */
+  @XmlElement(name="gene")
+  private final List<Triangle> genes = new GeneList();
+
+  /** The read-only view of {@link #genes} given out by {@link #getGenes()}. */
+  private final List<Triangle> readOnlyGenes = Collections.unmodifiableList(genes);
+
   private long fitness = Integer.MAX_VALUE;
-  
+
+  /** Whether {@link #fitness} was ever set, since a real fitness can be any long. */
+  private volatile boolean scored = false;
+
+  /** The XOR of {@link #hash(int, int)} over every meaningful DNA value. */
+  private long fingerprint = 0;
+
+  /** The fingerprint when {@link #fitness} was last set. */
+  private long scoredFingerprint = 0;
+
+  /** Incremented every time the DNA is replaced by {@link #publish(Genome)} or changed by
+   * anything but hill climbing. */
+  private volatile long version = 0;
+
+  /** Whether the DNA changed since {@link #fitness} was last set. */
+  private volatile boolean dirty = false;
+
+  private static final RankedPopulation[] NO_RANKINGS = new RankedPopulation[0];
+
+  /** The rankings that this genome is in, replaced as a whole when one is added or removed. */
+  private volatile RankedPopulation[] rankings = NO_RANKINGS;
+
   public Genome()
   {
   }
-  
+
   public Genome(Triangle ... triangles)
   {
     for (Triangle t : triangles) addGene(t);
   }
-  
+
   public Genome(int ... dna)
   {
     if (dna.length % Triangle.DNA_LENGTH != 0)
     {
       throw new IllegalArgumentException("DNA must be divisible by " + Triangle.DNA_LENGTH);
     }
-    for (int i = 0; i < dna.length / Triangle.DNA_LENGTH; i ++)
-    {
-      int[] tDna = Arrays.copyOfRange(dna, i * Triangle.DNA_LENGTH, (i+1) * Triangle.DNA_LENGTH);
-      Triangle t = new Triangle(tDna);
-      addGene(t);
-    }
+    int length = min(dna.length, GENOME_LENGTH);
+    System.arraycopy(dna, 0, this.dna, 0, length);
+    triangleCount = length / Triangle.DNA_LENGTH;
+    for (int i = 0; i < length; i++) fingerprint ^= hash(i, dna[i]);
   }
-  
+
   public void addGene(Triangle gene)
   {
-    if (genes.size() == Constants.TRIANGLE_COUNT) return;
-    genes.add(gene);
+    if (triangleCount == Constants.TRIANGLE_COUNT) return;
+    int offset = triangleCount * Triangle.DNA_LENGTH;
+    System.arraycopy(gene.dna, 0, dna, offset, Triangle.DNA_LENGTH);
+    for (int i = offset; i < offset + Triangle.DNA_LENGTH; i++) fingerprint ^= hash(i, dna[i]);
+    triangleCount++;
   }
-  
+
   public void addGenes(List<Triangle> genes)
   {
-    if (this.genes.size() + genes.size() > Constants.TRIANGLE_COUNT) return;
-    
-    this.genes.addAll(genes);
+    if (triangleCount + genes.size() > Constants.TRIANGLE_COUNT) return;
+
+    for (Triangle t : genes) addGene(t);
   }
-  
-  @XmlElement(name="gene")
+
+  /**
+   * Returns a read-only view of this genome's triangles. Each call to get on the returned list
+   * creates a new {@link Triangle} holding a copy of the DNA, so changing that triangle does
+   * not change this genome, and changing the list throws an
+   * {@link UnsupportedOperationException}; use {@link #setTriangle(int, Triangle)} or
+   * {@link #setDNA(int, int, int)} instead. This view is meant for the GUI, not for hill
+   * climbing.
+   * @return A read-only view of this genome's triangles.
+   */
+  @XmlTransient
   public List<Triangle> getGenes()
   {
-    return genes;
+    return readOnlyGenes;
+  }
+
+  /**
+   * Returns the number of triangles in this genome.
+   * @return The number of triangles in this genome.
+   */
+  public int getTriangleCount()
+  {
+    return triangleCount;
+  }
+
+  /**
+   * Returns the array that backs this genome. Only the first
+   * {@link #getTriangleCount()} * {@link Triangle#DNA_LENGTH} values are meaningful.
+   * Callers that may race with hill climbing should hold this genome's monitor. The array is
+   * for reading; writing it directly would leave the {@link #getFingerprint() fingerprint}
+   * stale, so use {@link #setDNA(int, int, int)} instead.
+   * @return The array that backs this genome.
+   */
+  public int[] getDNA()
+  {
+    return dna;
+  }
+
+  /**
+   * Returns a single DNA value of a triangle.
+   * @param triangle The index of the triangle.
+   * @param index The index into the triangle's DNA (see {@link Triangle#dna}).
+   * @return The DNA value.
+   */
+  public int getDNA(int triangle, int index)
+  {
+    return dna[triangle * Triangle.DNA_LENGTH + index];
+  }
+
+  /**
+   * Sets a single DNA value of a triangle. This is the hill climbers' write, which leaves the
+   * fitness to them; it does not make the genome {@link #isDirty() dirty}.
+   * @param triangle The index of the triangle.
+   * @param index The index into the triangle's DNA (see {@link Triangle#dna}).
+   * @param value The new DNA value.
+   */
+  public void setDNA(int triangle, int index, int value)
+  {
+    int i = triangle * Triangle.DNA_LENGTH + index;
+    fingerprint ^= hash(i, dna[i]) ^ hash(i, value);
+    dna[i] = value;
+  }
+
+  /**
+   * Returns the 64-bit fingerprint of this genome's DNA. Equal genomes have equal
+   * fingerprints, and two different genomes have the same one with a chance of about 1 in
+   * 2^64. Callers that may race with hill climbing should hold this genome's monitor.
+   * @return The fingerprint of this genome's DNA.
+   */
+  public long getFingerprint()
+  {
+    return fingerprint;
   }
-  
+
+  /**
+   * Returns the hash of one DNA value at one index, the Zobrist key of that value. The keys
+   * are computed with the SplitMix64 finalizer instead of looked up in a table of random
+   * numbers, since a DNA value can be any int.
+   * @param index The index into {@link #dna}.
+   * @param value The DNA value.
+   * @return The hash of the value at the index.
+   */
+  private static long hash(int index, int value)
+  {
+    long z = ((long)index << 32 | (value & 0xFFFFFFFFL)) + 0x9E3779B97F4A7C15L;
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    return z ^ (z >>> 31);
+  }
+
+  /**
+   * Returns a new {@link Triangle} holding a copy of a triangle's DNA.
+   * @param triangle The index of the triangle.
+   * @return A new Triangle holding a copy of the triangle's DNA.
+   */
+  public Triangle getTriangle(int triangle)
+  {
+    int[] tDna = new int[Triangle.DNA_LENGTH];
+    System.arraycopy(dna, triangle * Triangle.DNA_LENGTH, tDna, 0, Triangle.DNA_LENGTH);
+    return new Triangle(tDna);
+  }
+
+  /**
+   * Copies a triangle's DNA into this genome, which makes it {@link #isDirty() dirty}.
+   * @param triangle The index of the triangle to overwrite.
+   * @param gene The triangle whose DNA is copied.
+   */
+  public void setTriangle(int triangle, Triangle gene)
+  {
+    if (triangle < 0 || triangle >= triangleCount)
+    {
+      throw new IndexOutOfBoundsException("Index: " + triangle + ", Size: " + triangleCount);
+    }
+    for (int i = 0; i < Triangle.DNA_LENGTH; i++) setDNA(triangle, i, gene.dna[i]);
+    markDirty();
+  }
+
+  /**
+   * Returns the bounding box of a triangle, the same as {@link Triangle#getBoundingBox()}.
+   * @param triangle The index of the triangle.
+   * @return The bounding box of the triangle.
+   */
+  public Rectangle getBoundingBox(int triangle)
+  {
+    return getBoundingBox(triangle, new Rectangle());
+  }
+
+  /**
+   * Writes the bounding box of a triangle into an existing rectangle, so that hill climbing
+   * does not allocate one for every mutation.
+   * @param triangle The index of the triangle.
+   * @param into The rectangle to overwrite.
+   * @return The same rectangle.
+   */
+  public Rectangle getBoundingBox(int triangle, Rectangle into)
+  {
+    int offset = triangle * Triangle.DNA_LENGTH;
+    int lowestX = min(dna[offset], min(dna[offset + 1], dna[offset + 2]));
+    int highestX = max(dna[offset], max(dna[offset + 1], dna[offset + 2]));
+    int lowestY = min(dna[offset + 3], min(dna[offset + 4], dna[offset + 5]));
+    int highestY = max(dna[offset + 3], max(dna[offset + 4], dna[offset + 5]));
+
+    into.setBounds(lowestX, lowestY, highestX - lowestX, highestY - lowestY);
+    return into;
+  }
+
   public static int getHammingDistance(Genome genome1, Genome genome2)
   {
     int distance = 0;
-    List<Triangle> genes1 = genome1.getGenes();
-    List<Triangle> genes2 = genome2.getGenes();
-    
-    for (int i = 0; i < Constants.TRIANGLE_COUNT; i++)
+
+    for (int i = 0; i < GENOME_LENGTH; i++)
     {
-      distance += genes1.get(i).countDifferences(genes2.get(i));
+      if (genome1.dna[i] != genome2.dna[i]) distance++;
     }
-    
+
     return distance;
   }
-  
+
   /**
    * Given two parents and two children, performs a double point crossover
-   * of the two parents and writes the data to the two children. 
+   * of the two parents and writes the data to the two children.
    * @param parent1 The first parent of the crossover.
    * @param parent2 The second parent of the crossover.
    * @param child1 The first child, to which the data will be overwritten.
    * @param child2 The second child, to which the data will be overwritten.
    * @param start The starting point of the swap (inclusive).
-   * @param end The ending point of the swap (inclusive).
+   * @param end The ending point of the swap (exclusive).
    */
   public static void doublePointCrossover(
       Genome parent1, Genome parent2,
@@ -92,13 +291,13 @@ public class Genome implements Cloneable
   {
     child1.copyFrom(parent1);
     child2.copyFrom(parent2);
-    
+
     doublePointCrossoverInPlace(child2, child1, start, end);
   }
-  
+
   /**
    * Given two parents and two children, performs a single point crossover
-   * of the two parents and writes the data to the two children. 
+   * of the two parents and writes the data to the two children.
    * @param parent1 The first parent of the crossover.
    * @param parent2 The second parent of the crossover.
    * @param child1 The first child, to which the data will be overwritten.
@@ -122,50 +321,34 @@ public class Genome implements Cloneable
    * @param a The first Genome of the crossover.
    * @param b The second Genome of the crossover.
    * @param start The starting point of the swap (inclusive).
-   * @param end The ending point of the swap (inclusive).
+   * @param end The ending point of the swap (exclusive).
    */
   public static void doublePointCrossoverInPlace(Genome a, Genome b, int start, int end)
   {
-    synchronized (a.genes)
+    synchronized (a)
     {
-      synchronized (b.genes)
+      synchronized (b)
       {
-        // The swap ending point for the last triangle pair to be swapped.
-        int end2 = end % Triangle.DNA_LENGTH;
-
-        // The swap starting point for the first triangle pair to be swapped.
-        int start1 = start % Triangle.DNA_LENGTH;
-
-        // Number of triangles that can be fully swapped.
-        int fullSwaps = ((end - end2) - (start + start1)) / Triangle.DNA_LENGTH;
+        int swapEnd = min(end, min(a.triangleCount, b.triangleCount) * Triangle.DNA_LENGTH);
 
-        // The first triangle that will be swapped.
-        int firstTriangle = start / Triangle.DNA_LENGTH;
-
-        // The last triangle to be swapped.
-        int lastTriangle = end / Triangle.DNA_LENGTH;
-
-        List<Triangle> aSubList = a.genes.subList(firstTriangle, lastTriangle);
-        List<Triangle> bSubList = b.genes.subList(firstTriangle, lastTriangle);
-        Iterator<Triangle> aIterator = aSubList.iterator();
-        Iterator<Triangle> bIterator = bSubList.iterator();
-
-        if (start1 != 0 && aIterator.hasNext() && bIterator.hasNext())
-        {
-          Triangle.swapDNA(aIterator.next(), bIterator.next(), start1, Triangle.DNA_LENGTH);
-        }
-        for (int i = 0; i < fullSwaps && aIterator.hasNext() && bIterator.hasNext(); i++)
-        {
-          Triangle.swapDNA(aIterator.next(), bIterator.next());
-        }
-        if (aIterator.hasNext() && bIterator.hasNext())
+        for (int i = start; i < swapEnd; i++)
         {
-          Triangle.swapDNA(aIterator.next(), bIterator.next(), 0, end2);
+          int temp = a.dna[i];
+          if (temp == b.dna[i]) continue;
+          long swap = hash(i, temp) ^ hash(i, b.dna[i]);
+          a.fingerprint ^= swap;
+          b.fingerprint ^= swap;
+          a.dna[i] = b.dna[i];
+          b.dna[i] = temp;
         }
+        a.dirty();
+        b.dirty();
       }
     }
+    a.rerank();
+    b.rerank();
   }
-  
+
   /**
    * Given two triangle Genomes, performs a crossover from the beginning to a given end point.
    * The ending point should not be greater than the number of triangles in a Genome
@@ -176,13 +359,12 @@ public class Genome implements Cloneable
    */
   public static void singlePointCrossoverInPlace(Genome a, Genome b, int start)
   {
-    int end = min(a.genes.size(), b.genes.size()) * Triangle.DNA_LENGTH;
+    int end = min(a.triangleCount, b.triangleCount) * Triangle.DNA_LENGTH;
     doublePointCrossoverInPlace(a, b, start, end);
   }
-  
+
   /**
-   * Clears this Genome's {{@link #genes} and clones each {@link trianglegenome.Triangle}
-   * from a different Genome into this Genome's genes. 
+   * Overwrites this Genome's {@link #dna} with a copy of the DNA of a different Genome.
    * @param other The other Genome from which to copy the genes.
    */
   public void copyFrom(Genome other)
@@ -191,16 +373,95 @@ public class Genome implements Cloneable
     {
       throw new IllegalArgumentException("other must different from this instance.");
     }
-    synchronized (this.genes)
+    synchronized (this)
     {
-      synchronized (other.genes)
+      synchronized (other)
       {
-        this.genes.clear();
-        for (Triangle t : other.genes) this.genes.add(t.clone());
+        System.arraycopy(other.dna, 0, this.dna, 0, GENOME_LENGTH);
+        this.triangleCount = other.triangleCount;
+        this.fingerprint = other.fingerprint;
+        dirty();
       }
     }
+    rerank();
   }
-  
+
+  /**
+   * Replaces this Genome's DNA and fitness with those of another Genome in one step, under
+   * this Genome's monitor, and gives it a new version. The other Genome should not be shared
+   * with any other thread, such as a child built from snapshots of its parents.
+   * @param other The Genome to copy the DNA and fitness of.
+   */
+  public void publish(Genome other)
+  {
+    if (this == other)
+    {
+      throw new IllegalArgumentException("other must different from this instance.");
+    }
+    synchronized (this)
+    {
+      System.arraycopy(other.dna, 0, this.dna, 0, GENOME_LENGTH);
+      this.triangleCount = other.triangleCount;
+      this.fingerprint = other.fingerprint;
+      this.fitness = other.fitness;
+      this.scored = other.scored;
+      this.scoredFingerprint = other.scoredFingerprint;
+      this.dirty = other.dirty;
+      version++;
+    }
+    rerank();
+  }
+
+  /**
+   * Returns the number of times this Genome has been replaced by {@link #publish(Genome)}.
+   * @return The version of this Genome's DNA.
+   */
+  public long getVersion()
+  {
+    return version;
+  }
+
+  /**
+   * Returns whether the DNA of this Genome changed, other than by hill climbing, since its
+   * fitness was last set, so that its fitness is stale.
+   * @return Whether this Genome needs to be scored again.
+   */
+  public boolean isDirty()
+  {
+    return dirty;
+  }
+
+  /**
+   * Marks this Genome as changed by something other than hill climbing, so that its fitness is
+   * stale until it is set again. This also gives it a new version, so that a hill climber
+   * working on it drops its step.
+   */
+  public void markDirty()
+  {
+    synchronized (this)
+    {
+      dirty();
+    }
+    rerank();
+  }
+
+  /**
+   * Marks this Genome dirty and gives it a new version. Called with the monitor held.
+   */
+  private void dirty()
+  {
+    dirty = true;
+    version++;
+  }
+
+  /**
+   * Tells every ranking that this genome is in that its fitness or dirtiness changed.
+   */
+  private void rerank()
+  {
+    for (RankedPopulation ranking : rankings) ranking.update(this);
+  }
+
   /**
    * Returns a deep-copy of this Genome.
    * @return A deep-copy of this Genome.
@@ -209,17 +470,19 @@ public class Genome implements Cloneable
   public Genome clone()
   {
     Genome copy = new Genome();
-    synchronized (this.genes)
+    synchronized (this)
     {
-      for (Triangle t : this.genes) copy.addGene(t.clone());
+      System.arraycopy(this.dna, 0, copy.dna, 0, GENOME_LENGTH);
+      copy.triangleCount = this.triangleCount;
+      copy.fingerprint = this.fingerprint;
     }
     return copy;
   }
-  
+
   /**
    * Compares this Genome with an Object. If the Object is not an instance
    * of Genome then this automatically returns false. Otherwise, does
-   * a element-wise comparison of the two Genome's {@link Genome#genes}
+   * a element-wise comparison of the two Genome's {@link Genome#dna}
    * fields.
    * @param other The other object to compare with this Genome.
    */
@@ -228,30 +491,106 @@ public class Genome implements Cloneable
   {
     if (other instanceof Genome)
     {
-      if (this.genes.size() != ((Genome)other).genes.size()) return false;
-      
-      Iterator<Triangle> t1Iterator = this.genes.iterator();
-      Iterator<Triangle> t2Iterator = ((Genome)other).genes.iterator();
-      boolean isEqual = true;
-      while (t1Iterator.hasNext())
+      Genome otherGenome = (Genome)other;
+      if (this.triangleCount != otherGenome.triangleCount) return false;
+
+      int length = triangleCount * Triangle.DNA_LENGTH;
+      for (int i = 0; i < length; i++)
       {
-        isEqual &= t1Iterator.next().equals(t2Iterator.next());
+        if (this.dna[i] != otherGenome.dna[i]) return false;
       }
-      return isEqual;
+      return true;
     }
     else return false;
   }
-  
+
+  /**
+   * Returns a hash code consistent with {@link #equals(Object)}, folded from the
+   * {@link #getFingerprint() fingerprint}. It changes with the DNA, so a genome must not be
+   * changed while it is a key of a hash based collection.
+   * @return The hash code of this Genome's DNA.
+   */
+  @Override
+  public int hashCode()
+  {
+    return (int)(fingerprint ^ (fingerprint >>> 32));
+  }
+
   public long getFitness()
   {
     return fitness;
   }
-  
+
+  /**
+   * Sets the fitness of this genome, which is no longer {@link #isDirty() dirty}, and moves it
+   * to its new place in every {@link RankedPopulation} it is in. The rankings are also told
+   * when only the DNA changed, since they index genomes by fingerprint.
+   * @param value The new fitness.
+   */
   public void setFitness(long value)
+  {
+    if (value == fitness && scored && !dirty && fingerprint == scoredFingerprint) return;
+    setClimbedFitness(value);
+    rerank();
+  }
+
+  /**
+   * Sets the fitness of this genome, which is no longer {@link #isDirty() dirty}, without
+   * telling its rankings. A hill climber sets the fitness this way after every step, so that
+   * the climbers do not all wait on the rankings, and calls {@link #updateRankings()} once it
+   * moves on to another genome.
+   * @param value The new fitness.
+   */
+  public void setClimbedFitness(long value)
   {
     fitness = value;
+    scoredFingerprint = fingerprint;
+    dirty = false;
+    scored = true;
+  }
+
+  /**
+   * Returns whether this genome's fitness was ever set. Until it is, {@link #getFitness()}
+   * is only a placeholder.
+   * @return Whether this Genome has been scored.
+   */
+  public boolean isScored()
+  {
+    return scored;
+  }
+
+  /**
+   * Moves this genome to the place of its current fitness in every {@link RankedPopulation}
+   * it is in, such as after a run of {@link #setClimbedFitness(long)}.
+   */
+  public void updateRankings()
+  {
+    rerank();
+  }
+
+  /**
+   * Adds a ranking to tell about every change of fitness.
+   * @param ranking The ranking that this genome is now in.
+   */
+  synchronized void addRanking(RankedPopulation ranking)
+  {
+    RankedPopulation[] more = Arrays.copyOf(rankings, rankings.length + 1);
+    more[rankings.length] = ranking;
+    rankings = more;
+  }
+
+  /**
+   * Stops telling a ranking about changes of fitness.
+   * @param ranking The ranking that this genome is no longer in.
+   */
+  synchronized void removeRanking(RankedPopulation ranking)
+  {
+    rankings = Arrays
+        .stream(rankings)
+        .filter(r -> r != ranking)
+        .toArray(RankedPopulation[]::new);
   }
-  
+
   /**
    * Returns a string representation of this genome.
    * @return A string representation of this genome.
@@ -261,11 +600,57 @@ public class Genome implements Cloneable
   {
     StringBuilder sb = new StringBuilder();
     sb.append("{ Genome : ");
-    for (Triangle t : genes)
-    {
-      for (int i = 0; i < Triangle.DNA_LENGTH; i++) sb.append(t.dna[i] + " ");
-    }
+    int length = triangleCount * Triangle.DNA_LENGTH;
+    for (int i = 0; i < length; i++) sb.append(dna[i] + " ");
     sb.append("}");
     return sb.toString();
   }
+
+  /**
+   * A {@link List} view of the {@link Genome#dna} where each element is a {@link Triangle}.
+   * Reading a triangle copies its DNA. The XML parser clears the list and adds the triangles
+   * it reads; everyone else gets the read-only view.
+   */
+  private class GeneList extends AbstractList<Triangle>
+  {
+    @Override
+    public Triangle get(int index)
+    {
+      checkIndex(index);
+      return getTriangle(index);
+    }
+
+    @Override
+    public boolean add(Triangle gene)
+    {
+      if (triangleCount == Constants.TRIANGLE_COUNT) return false;
+      addGene(gene);
+      modCount++;
+      markDirty();
+      return true;
+    }
+
+    @Override
+    public void clear()
+    {
+      triangleCount = 0;
+      fingerprint = 0;
+      modCount++;
+      markDirty();
+    }
+
+    @Override
+    public int size()
+    {
+      return triangleCount;
+    }
+
+    private void checkIndex(int index)
+    {
+      if (index < 0 || index >= triangleCount)
+      {
+        throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + triangleCount);
+      }
+    }
+  }
 }
@@ -2,32 +2,41 @@ package trianglegenome;
 
 import static java.lang.Math.abs;
 
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
-import java.util.Random;
 import java.util.Set;
+import java.util.SplittableRandom;
 
-import trianglegenome.util.Constants;
+import trianglegenome.fitness.BatchFitnessEvaluator;
 
 /**
  * Performs crossover on genomes.
+ * <br /><br />
+ * Crossover does not need the hill climbers to be paused. The parents are copied first, the
+ * children are built and scored from those copies, and only then is each child published into
+ * the genome it replaces with {@link Genome#publish(Genome)}. A hill climber working on a
+ * replaced genome drops its step and climbs the new version from its next step on, and the
+ * others never notice.
+ * <br /><br />
+ * Parents are picked from the front of the list and children from the back. Given a
+ * {@link RankedPopulation}, the front is the most fit genomes at the moment of each pick,
+ * without sorting the list.
  * @author David Collins
  * <br /><br />
  * Example code:<br/>
  * <code><pre>
  *  
  *  // assume genomes is a List&lt;Genome&gt;
- *  // assume hcsp is a HillClimbingSpawner
  *  
  *  GenomeCrossover gc = new GenomeCrossover(genomes);
  *  
- *  // While program is running
+ *  // While program is running, and the hill climbers are climbing
  *  {
  *    // if a crossover is needed
  *    {
- *      hcsp.pauseHillClimbers();
  *      gc.crossover(10); // 10 is an arbitrary number
- *      hcsp.unpauseHillClimbers();
  *    }
  *  }
  *  
@@ -40,79 +49,212 @@ public class GenomeCrossover
    * GenomeCrossover will overwrite two random genomes. */
   public static final boolean IN_PLACE = false;
   
+  /** The most times to pick two parents, or two children, before giving up on the crossovers
+   * that are left. Only reached when the climbers have made most genomes dirty meanwhile. */
+  private static final int MAX_PICKS = 1000;
+  
   /** A list of genomes on which this GenomeCrossover will perform a crossover.
    * This list should consist of every genome from every tribe. */
   private List<Genome> genomes;
   
+  /** Orders the {@link #genomes} by fitness, or null to take them in the order of the list. */
+  private RankedPopulation ranking;
+  
   /** The total number of crossovers performed by this GenomeCrossover */
   private long stepCount;
   
+  /** Scores the offspring of each call to {@link #crossover(int)}, or null to leave their
+   * fitness until they are hill climbed. */
+  private BatchFitnessEvaluator batchFitnessEvaluator;
+  
+  /** The children built by the current call to {@link #crossover(int)}, not yet published. */
+  private List<Genome> offspring = new ArrayList<Genome>();
+  
+  /** The genomes of the population that each of the {@link #offspring} replaces. */
+  private List<Genome> replaced = new ArrayList<Genome>();
+  
+  /** Picks the parents and children of every crossover. */
+  private SplittableRandom random;
+  
   /**
    * Creates a GenomeCrossover, given a list of {@link Genome}
    * @param genomes A list of all genomes from every tribe.
    */
   public GenomeCrossover(List<Genome> genomes)
+  {
+    this(genomes, null);
+  }
+  
+  /**
+   * Creates a GenomeCrossover, given a list of {@link Genome}, that scores the offspring of
+   * every crossover together in one batch.
+   * @param genomes A list of all genomes from every tribe.
+   * @param batchFitnessEvaluator Scores the offspring, or null to not score them.
+   */
+  public GenomeCrossover(List<Genome> genomes, BatchFitnessEvaluator batchFitnessEvaluator)
+  {
+    this(genomes, batchFitnessEvaluator, new SplittableRandom());
+  }
+  
+  /**
+   * Creates a GenomeCrossover, given a list of {@link Genome}, that scores the offspring of
+   * every crossover together in one batch and picks them with its own random number stream.
+   * @param genomes A list of all genomes from every tribe.
+   * @param batchFitnessEvaluator Scores the offspring, or null to not score them.
+   * @param random The random number stream to pick parents and children with. It must not be
+   * shared with another thread.
+   */
+  public GenomeCrossover(List<Genome> genomes, BatchFitnessEvaluator batchFitnessEvaluator,
+      SplittableRandom random)
   {
     this.genomes = genomes;
+    this.batchFitnessEvaluator = batchFitnessEvaluator;
+    this.random = random;
     stepCount = 0;
   }
   
+  /**
+   * Creates a GenomeCrossover that picks parents and children by their rank in a
+   * {@link RankedPopulation}, scores the offspring of every crossover together in one batch and
+   * picks them with its own random number stream.
+   * @param ranking The ranking of all genomes from every tribe.
+   * @param batchFitnessEvaluator Scores the offspring, or null to not score them.
+   * @param random The random number stream to pick parents and children with. It must not be
+   * shared with another thread.
+   */
+  public GenomeCrossover(RankedPopulation ranking, BatchFitnessEvaluator batchFitnessEvaluator,
+      SplittableRandom random)
+  {
+    this(ranking.getGenomes(), batchFitnessEvaluator, random);
+    this.ranking = ranking;
+  }
+  
   /**
    * Given a number of times to cross over and a list of genomes, perform some crossovers.
-   * This method assumes that the given genomes list is sorted where genomes toward the
-   * beginning should be more likely to be parents of the crossover.
+   * Without a {@link RankedPopulation}, this method assumes that the given genomes list is
+   * sorted where genomes toward the beginning should be more likely to be parents of the
+   * crossover. When this GenomeCrossover
+   * has a {@link BatchFitnessEvaluator}, the fitness of every offspring is computed before it
+   * is published. Otherwise the offspring are published {@link Genome#isDirty() dirty}, to be
+   * scored later by whoever needs their fitness first.
    * @param crossoverCount The number of times to perform a crossover.
    * @param genomes A sorted list of genomes on which the crossover will be performed.
    */
   public void crossover(int crossoverCount)
   {
-    Set<Integer> alreadyCrossed = new HashSet<Integer>(crossoverCount * 4);
-    Random rnd = Constants.rand;
-    int geneCount = genomes.size();
+    Set<Genome> alreadyCrossed = Collections.newSetFromMap(
+        new IdentityHashMap<Genome, Boolean>(crossoverCount * 8));
+    SplittableRandom rnd = random;
+    int geneCount = pickableCount();
     
     if (crossoverCount * 4 >= geneCount)
     {
       throw new IllegalArgumentException("crossoverCount exceeds 1/4th the number of genomes");
     }
+    offspring.clear();
+    replaced.clear();
     
     for (int i = 0; i < crossoverCount; i++)
     {
-      int parentIndex1;
-      int parentIndex2;
-      int childIndex1;
-      int childIndex2;
+      Genome parent1;
+      Genome parent2;
+      Genome child1;
+      Genome child2;
+      int picks = 0;
       do
       {
-        parentIndex1 = (int)(geneCount*abs(rnd.nextDouble() - rnd.nextDouble()));
-        parentIndex2 = (int)(geneCount*abs(rnd.nextDouble() - rnd.nextDouble()));
-      } while (alreadyCrossed.contains(parentIndex1) || alreadyCrossed.contains(parentIndex2));
-      alreadyCrossed.add(parentIndex1);
-      alreadyCrossed.add(parentIndex2);
+        // The climbers can unrank genomes meanwhile, until too few are left to pick from
+        if (++picks > MAX_PICKS || pickableCount() - alreadyCrossed.size() < 2)
+        {
+          parent1 = null;
+          parent2 = null;
+          break;
+        }
+        parent1 = pick(abs(rnd.nextDouble() - rnd.nextDouble()));
+        parent2 = pick(abs(rnd.nextDouble() - rnd.nextDouble()));
+      } while (parent1 != null && (parent1 == parent2
+          || alreadyCrossed.contains(parent1) || alreadyCrossed.contains(parent2)));
+      // Too many genomes turned dirty since the crossover began
+      if (parent1 == null || parent2 == null) break;
+      alreadyCrossed.add(parent1);
+      alreadyCrossed.add(parent2);
       
-      Genome p1 = genomes.get(parentIndex1);
-      Genome p2 = genomes.get(parentIndex2);
-      int genomeLength = p1.getGenes().size();
+      // Snapshots, since the parents may be climbed while this runs
+      Genome p1 = parent1.clone();
+      Genome p2 = parent2.clone();
+      int genomeLength = p1.getTriangleCount();
       
       if (!IN_PLACE)
       {
+        picks = 0;
         do
         {
-          childIndex1 = (int)(geneCount - geneCount*abs(rnd.nextDouble() - rnd.nextDouble()));
-          childIndex2 = (int)(geneCount - geneCount*abs(rnd.nextDouble() - rnd.nextDouble()));
-        } while (alreadyCrossed.contains(childIndex1) || alreadyCrossed.contains(childIndex2));
-        Genome c1 = genomes.get(childIndex1);
-        Genome c2 = genomes.get(childIndex2);
+          if (++picks > MAX_PICKS || pickableCount() - alreadyCrossed.size() < 2)
+          {
+            child1 = null;
+            child2 = null;
+            break;
+          }
+          child1 = pick(1 - abs(rnd.nextDouble() - rnd.nextDouble()));
+          child2 = pick(1 - abs(rnd.nextDouble() - rnd.nextDouble()));
+        } while (child1 != null && (child1 == child2
+            || alreadyCrossed.contains(child1) || alreadyCrossed.contains(child2)));
+        if (child1 == null || child2 == null) break;
+        Genome c1 = new Genome();
+        Genome c2 = new Genome();
         Genome.doublePointCrossover(p1, p2, c1, c2, genomeLength, genomeLength * 2);
-        alreadyCrossed.add(childIndex1);
-        alreadyCrossed.add(childIndex2);
+        alreadyCrossed.add(child1);
+        alreadyCrossed.add(child2);
+        offspring.add(c1);
+        offspring.add(c2);
+        replaced.add(child1);
+        replaced.add(child2);
+      }
+      else
+      {
+        Genome.doublePointCrossoverInPlace(p1, p2, genomeLength, genomeLength * 2);
+        offspring.add(p1);
+        offspring.add(p2);
+        replaced.add(parent1);
+        replaced.add(parent2);
       }
-      else Genome.doublePointCrossoverInPlace(p1, p2, genomeLength, genomeLength * 2);
-      
-      alreadyCrossed.add(parentIndex1);
-      alreadyCrossed.add(parentIndex2);
       
       stepCount++;
     }
+    
+    if (batchFitnessEvaluator != null) batchFitnessEvaluator.evaluateBatch(offspring);
+    for (int i = 0; i < offspring.size(); i++) replaced.get(i).publish(offspring.get(i));
+  }
+  
+  /**
+   * Returns the number of genomes that parents and children can be picked from. Dirty genomes
+   * are not ranked, so with a ranking they are neither parents nor children.
+   */
+  private int pickableCount()
+  {
+    return (ranking != null) ? ranking.size() : genomes.size();
+  }
+  
+  /**
+   * Returns the genome at a fraction of the way through the order that parents and children
+   * are picked from.
+   * @param fraction The fraction of the list, or of the ranks when there is a ranking.
+   * @return The genome at that place, or null when no genome is ranked.
+   */
+  private Genome pick(double fraction)
+  {
+    if (ranking != null) return ranking.getByFraction(fraction);
+    // 1 - abs(...) can reach 1 itself
+    return genomes.get(Math.min((int)(fraction * genomes.size()), genomes.size() - 1));
+  }
+  
+  /**
+   * Returns the genomes that this GenomeCrossover crosses over.
+   * @return The genomes that this GenomeCrossover crosses over.
+   */
+  public List<Genome> getGenomes()
+  {
+    return genomes;
   }
   
   /**
@@ -1,20 +1,21 @@
 package trianglegenome;
 
-import trianglegenome.gui.DrawPanel;
+import trianglegenome.render.GenomeRenderer;
 
 /**
- * A class to keep track of a mapping between a {@link trianglegenome.Genome} and a
- * {@link trianglegenome.gui.DrawPanel}.
+ * A class to keep track of a mapping between a {@link trianglegenome.Genome} and the
+ * {@link trianglegenome.render.GenomeRenderer} (a {@link trianglegenome.gui.DrawPanel} or a
+ * {@link trianglegenome.render.SoftwareRasterizer}) that draws it.
  * <br /><br />
  * Example code:<br/>
  * <code><pre>
  *  Genome g = RandomGenome.generateGenome();
- *  DrawPanel d = new DrawPanel(640, 480); 
+ *  GenomeRenderer r = new SoftwareRasterizer(640, 480); 
  *  
- *  GenomeDrawPanelPair gdpp = new GenomeDrawPanelPair(g, d);
+ *  GenomeDrawPanelPair gdpp = new GenomeDrawPanelPair(g, r);
  *  
  *  Genome gg = gdpp.genome;
- *  DrawPanel dd = gdpp.drawPanel;
+ *  GenomeRenderer rr = gdpp.renderer;
  *  
  * </pre></code>
  * @author collinsd
@@ -24,18 +25,18 @@ public class GenomeDrawPanelPair
   /** The {@link trianglegenome.Genome} in the genome to draw panel mapping */
   public final Genome genome;
   
-  /** The {@link trianglegenome.gui.DrawPanel} in the genome to draw panel mapping */
-  public final DrawPanel drawPanel;
+  /** The {@link trianglegenome.render.GenomeRenderer} in the genome to draw panel mapping */
+  public final GenomeRenderer renderer;
   
   /**
    * Creates a new GenomePanelPair where {@link GenomeDrawPanelPair#previous}
    * is a deep copy of {@link GenomeDrawPanelPair#genome}.
    * @param genome The Genome in the Genome/DrawPanel mapping.
-   * @param drawPanel The DrawPanel in the Genome/DrawPanel mapping. 
+   * @param renderer The GenomeRenderer in the Genome/DrawPanel mapping. 
    */
-  public GenomeDrawPanelPair(Genome genome, DrawPanel drawPanel)
+  public GenomeDrawPanelPair(Genome genome, GenomeRenderer renderer)
   {
     this.genome = genome;
-    this.drawPanel = drawPanel;
+    this.renderer = renderer;
   }
 }
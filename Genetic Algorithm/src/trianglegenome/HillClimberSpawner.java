@@ -3,18 +3,30 @@ package trianglegenome;
 import static java.lang.Math.ceil;
 
 import java.awt.image.BufferedImage;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.SplittableRandom;
 import java.util.stream.Collectors;
 
-import trianglegenome.gui.DrawPanel;
+import trianglegenome.fitness.BatchFitnessEvaluator;
+import trianglegenome.fitness.ScreenCounters;
 import trianglegenome.gui.DrawPanelBufferedImage;
 import trianglegenome.gui.DrawPanelVolatileImage;
+import trianglegenome.render.GenomeRenderer;
+import trianglegenome.render.SoftwareRasterizer;
 import trianglegenome.util.Constants;
 
 /**
- * Manages the threads that will perform hill climbing with collections of genomes.
+ * Manages the threads that will perform hill climbing with collections of genomes. By default
+ * the genomes are split into one fixed slice per {@link HillClimbing} thread. When
+ * {@link Constants#useWorkStealing} is on, every genome is instead climbed by whichever worker
+ * of a {@link WorkStealingScheduler} is free, and when {@link Constants#useVirtualThreads} is on
+ * and the JVM has virtual threads, every genome is climbed in its own virtual thread by a
+ * {@link VirtualThreadScheduler}. With either, a tribe is only the slice of genomes that
+ * {@link #getGenomesFromThread(int)} returns. Otherwise, when {@link Constants#useIslands} is
+ * on, each tribe is an island of an {@link IslandModel} that its thread migrates.
  * <br /><br />
  * Example code:<br/>
  * <code><pre>
@@ -28,11 +40,7 @@ import trianglegenome.util.Constants;
  *  Thread.sleep(500);
  *  hcsp.unpauseHillClimbers();
  *  Thread.sleep(500);
- *  synchronized (hcsp)
- *  {
- *    hcsp.stopHillClimbing();
- *    hcsp.wait();
- *  }
+ *  hcsp.stopHillClimbing(); // returns once every thread has ended
  *  
  * </pre></code>
  * 
@@ -52,6 +60,28 @@ public class HillClimberSpawner
   
   /** The image that the genomes should eventually resemble */
   private BufferedImage target;
+  
+  /** Scores all of the {@link HillClimberSpawner#genomes} at once */
+  private BatchFitnessEvaluator batchFitnessEvaluator;
+  
+  /** The stream that each {@link HillClimbing} thread's own stream is split from */
+  private SplittableRandom random;
+  
+  /** Climbs the genomes instead of {@link HillClimberSpawner#hillClimbingThreads}, or null
+   * when neither {@link Constants#useWorkStealing} nor {@link Constants#useVirtualThreads}
+   * was on */
+  private ClimbingScheduler scheduler;
+
+  /** Where the {@link HillClimberSpawner#hillClimbingThreads} wait while paused, and which
+   * keeps the pause and resume latencies in every mode */
+  private Safepoint safepoint;
+
+  /** What the coarse screens of the {@link HillClimberSpawner#hillClimbingThreads} counted */
+  private final ScreenCounters screenCounters = new ScreenCounters();
+
+  /** Migrates genomes between the tribes of the {@link HillClimberSpawner#hillClimbingThreads},
+   * or null when {@link Constants#useIslands} was off */
+  private IslandModel islandModel;
 
   /**
    * Given a thread count, a global genome list and a target image,
@@ -61,11 +91,30 @@ public class HillClimberSpawner
    * @param target The image that the genomes should eventually resemble.
    */
   public HillClimberSpawner(int threadCount, List<Genome> genomes, BufferedImage target)
+  {
+    this(threadCount, genomes, target, new SplittableRandom(Constants.seed));
+  }
+
+  /**
+   * Given a thread count, a global genome list, a target image and a random number stream,
+   * create a HillClimberSpawner and create HillClimbing threads but don't start them.
+   * Each thread gets its own stream split from the given one, in thread order, so the same
+   * stream state and thread count always hand each thread the same stream.
+   * @param threadCount The number of {@link HillClimbing} threads to create.
+   * @param genomes A global population of genomes.
+   * @param target The image that the genomes should eventually resemble.
+   * @param random The stream to split the threads' streams from.
+   */
+  public HillClimberSpawner(int threadCount, List<Genome> genomes, BufferedImage target,
+      SplittableRandom random)
   {
     this.threadCount = threadCount;
+    this.random = random;
     this.genomes = genomes;
     this.hillClimbingThreads = new LinkedList<HillClimbing>();
     this.target = target;
+    this.batchFitnessEvaluator = new BatchFitnessEvaluator(target);
+    this.safepoint = new Safepoint();
 
     populateHillClimbingThreads(this.threadCount);
   }
@@ -78,24 +127,63 @@ public class HillClimberSpawner
   {
     stopHillClimbing();
 
+    if (Constants.useVirtualThreads && VirtualThreadScheduler.isAvailable())
+    {
+      scheduler = new VirtualThreadScheduler(genomes, target, random.split(),
+          this::createRenderer);
+      return;
+    }
+    // Without virtual threads, the work-stealing pool is the closest thing
+    if (Constants.useWorkStealing || Constants.useVirtualThreads)
+    {
+      scheduler = new WorkStealingScheduler(threadCount, genomes, target, random.split(),
+          this::createRenderer);
+      return;
+    }
+
     int genomesPerThread = (int) ceil((double) genomes.size() / (double) threadCount);
+    List<List<Genome>> tribes = new ArrayList<List<Genome>>(threadCount);
 
     for (int i = 0; i < threadCount; i++)
     {
-      DrawPanel drawPanel = (Constants.useVolatileImage)
-          ? new DrawPanelVolatileImage(Constants.width, Constants.height)
-          : new DrawPanelBufferedImage(Constants.width, Constants.height);
+      GenomeRenderer renderer = createRenderer();
 
       List<GenomeDrawPanelPair> threadGenomes = genomes
           .stream()
           .skip(i * genomesPerThread)
           .limit(genomesPerThread)
-          .map(g -> new GenomeDrawPanelPair(g, drawPanel))
+          .map(g -> new GenomeDrawPanelPair(g, renderer))
           .collect(Collectors.toList());
 
-      HillClimbing hillClimbingThread = new HillClimbing(threadGenomes, target);
+      HillClimbing hillClimbingThread = new HillClimbing(threadGenomes, target, random.split());
+      hillClimbingThread.setSafepoint(safepoint);
+      hillClimbingThread.setScreenCounters(screenCounters);
       hillClimbingThreads.add(hillClimbingThread);
+      tribes.add(getGenomesFromThread(i));
+    }
+
+    if (Constants.useIslands)
+    {
+      islandModel = new IslandModel(tribes, random.split());
+      int island = 0;
+      for (HillClimbing hc : hillClimbingThreads) hc.setIsland(islandModel, island++);
+    }
+  }
+
+  /**
+   * Creates the renderer that one {@link HillClimbing} thread will draw its genomes with,
+   * depending on {@link Constants#useSoftwareRenderer} and {@link Constants#useVolatileImage}.
+   * @return A new renderer the size of the target image.
+   */
+  private GenomeRenderer createRenderer()
+  {
+    if (Constants.useSoftwareRenderer)
+    {
+      return new SoftwareRasterizer(Constants.width, Constants.height);
     }
+    return (Constants.useVolatileImage)
+        ? new DrawPanelVolatileImage(Constants.width, Constants.height)
+        : new DrawPanelBufferedImage(Constants.width, Constants.height);
   }
 
   /**
@@ -104,6 +192,7 @@ public class HillClimberSpawner
    */
   public boolean hillClimbersArePaused()
   {
+    if (scheduler != null) return scheduler.isPaused();
     return hillClimbingThreads
         .stream()
         .allMatch(t -> t.isPaused());
@@ -115,6 +204,7 @@ public class HillClimberSpawner
    */
   public boolean hillClimbersAreRunning()
   {
+    if (scheduler != null) return scheduler.isRunning();
     return hillClimbingThreads
         .stream()
         .allMatch(t -> t.isAlive());
@@ -126,6 +216,7 @@ public class HillClimberSpawner
    */
   public boolean anyHillClimberIsNotRunning()
   {
+    if (scheduler != null) return scheduler.isRunning();
     return hillClimbingThreads
         .stream()
         .allMatch(t -> t.isAlive());
@@ -137,6 +228,7 @@ public class HillClimberSpawner
    */
   public boolean anyHillClimberIsPaused()
   {
+    if (scheduler != null) return scheduler.isPaused();
     return hillClimbingThreads
         .stream()
         .anyMatch(t -> t.isPaused());
@@ -148,6 +240,7 @@ public class HillClimberSpawner
    */
   public boolean anyHillClimberIsUnpaused()
   {
+    if (scheduler != null) return !scheduler.isPaused();
     return hillClimbingThreads
         .stream()
         .anyMatch(t -> !t.isPaused());
@@ -158,26 +251,24 @@ public class HillClimberSpawner
    */
   public void performOneEvolution()
   {
+    if (scheduler != null) scheduler.performOneEvolution();
     hillClimbingThreads.forEach(t->t.performOneEvolution());
   }
   
   /**
-   * Synchronously pauses all hill climbers.
+   * Synchronously pauses all hill climbers, returning once none of them is in the middle of a
+   * step.
    */
   public void pauseHillClimbers()
   {
-    for (HillClimbing hc : hillClimbingThreads)
+    if (scheduler != null)
     {
-      hc.pause();
-      if (!hc.isPaused())
-      {
-        try
-        {
-          synchronized (hc) { hc.wait(); }
-        }
-        catch (Exception e) {}
-      }
+      long start = System.nanoTime();
+      scheduler.pause();
+      safepoint.recordPause(System.nanoTime() - start);
+      return;
     }
+    safepoint.pause();
   }
 
   /**
@@ -185,37 +276,92 @@ public class HillClimberSpawner
    */
   public void unpauseHillClimbers()
   {
-    hillClimbingThreads.forEach(t -> t.unpause());
+    if (scheduler != null)
+    {
+      long start = System.nanoTime();
+      scheduler.unpause();
+      safepoint.recordResume(System.nanoTime() - start);
+      return;
+    }
+    safepoint.resume();
   }
 
   /**
-   * Starts the hill climbers.
+   * Scores every genome in one batch, so that genomes that have not been climbed yet still
+   * have their real fitness, and then starts the hill climbers.
    */
   public void startHillClimbing()
   {
+    batchFitnessEvaluator.evaluateBatch(genomes);
+    if (scheduler != null) scheduler.unpause();
     hillClimbingThreads.forEach(t -> t.start());
   }
+  
+  /**
+   * Returns the evaluator that scores many genomes at once, for scoring the offspring of
+   * crossovers.
+   * @return The evaluator that scores many genomes at once.
+   */
+  public BatchFitnessEvaluator getBatchFitnessEvaluator()
+  {
+    return batchFitnessEvaluator;
+  }
 
   /**
    * Synchronously interrupts all hill climbers.
    */
   public void stopHillClimbing()
   {
+    if (scheduler != null) scheduler.stop();
+    // Interrupting also resumes the safepoint, so that paused threads can end
+    hillClimbingThreads.forEach(t -> t.interrupt());
+    boolean interrupted = false;
     for (HillClimbing hc : hillClimbingThreads)
     {
-      try
+      while (hc.isAlive())
       {
-        synchronized (hc)
+        try
+        {
+          hc.join();
+        }
+        catch (InterruptedException e)
         {
-          hc.pause();
-          hc.interrupt();
-          hc.wait();
+          interrupted = true;
         }
       }
-      catch (Exception e) {}
     }
+    if (interrupted) Thread.currentThread().interrupt();
     hillClimbingThreads.clear();
-    synchronized (this) { this.notify(); }
+  }
+
+  /**
+   * Returns the safepoint whose counters tell how long pausing and resuming the hill climbers
+   * takes.
+   * @return The safepoint of the hill climbers.
+   */
+  public Safepoint getSafepoint()
+  {
+    return safepoint;
+  }
+
+  /**
+   * Sets the engine that the hill climbers tell about the steps they climb, so that it can
+   * do its work between their steps, on their threads.
+   * @param engine The engine, or null for none.
+   */
+  public void setEvolutionEngine(EvolutionEngine engine)
+  {
+    if (scheduler != null) scheduler.setEvolutionEngine(engine);
+    hillClimbingThreads.forEach(t -> t.setEvolutionEngine(engine));
+  }
+
+  /**
+   * Returns the island model that the tribes migrate genomes through.
+   * @return The island model, or null when the tribes are not islands.
+   */
+  public IslandModel getIslandModel()
+  {
+    return islandModel;
   }
 
   /**
@@ -248,12 +394,24 @@ public class HillClimberSpawner
    */
   public long getHillClimbGenerations()
   {
+    if (scheduler != null) return scheduler.getGenerationCount();
     return hillClimbingThreads
         .stream()
         .mapToLong(hc -> hc.getGenerationCount())
         .sum();
   }
 
+  /**
+   * Returns how often the coarse screens of all of the hill climbers agreed with the full size
+   * score. The counters stay at 0 when {@link Constants#usePyramidScreen} is off.
+   * @return The screen counters of all of the hill climbers.
+   */
+  public ScreenCounters getScreenCounters()
+  {
+    if (scheduler != null) return scheduler.getScreenCounters();
+    return screenCounters;
+  }
+
   /*
    * (non-Javadoc)
    * @see java.lang.Object#finalize()
@@ -1,7 +1,16 @@
 package trianglegenome;
 
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 import java.util.List;
+import java.util.SplittableRandom;
+
+import trianglegenome.fitness.CoarseScreen;
+import trianglegenome.fitness.ScreenCounters;
+import trianglegenome.fitness.FitnessEstimate;
+import trianglegenome.fitness.OptimalColor;
+import trianglegenome.render.GenomeRenderer;
+import trianglegenome.render.SoftwareRasterizer;
 import trianglegenome.util.Constants;
 
 /**
@@ -13,37 +22,75 @@ import trianglegenome.util.Constants;
  */
 public class HillClimbing extends Thread
 {
-  private int fitnessBefore = 0;
-  private int fitnessAfter = 0;
-  private int successfulDNA = Constants.rand.nextInt(10);
+  private long fitnessBefore = 0;
+  private long fitnessAfter = 0;
+  private SplittableRandom random; // this thread's own stream, split from the run's seed
+  private int successfulDNA;
   private int successfulMultiplier = 1;
-  private int evenOrOdd = Constants.rand.nextInt(100000) % 2; // used for
-                                                              // switching
-                                                              // between
-                                                              // operations
-  private int stepSize = Constants.rand.nextInt(2) + 1;
-  private int triangle = Constants.rand.nextInt(Constants.TRIANGLE_COUNT);
+  private int evenOrOdd; // used for switching between operations
+  private int stepSize;
+  private int triangle;
+  private final Rectangle dirtyRegion = new Rectangle(); // area changed by the last evolve
+  private final Rectangle newBox = new Rectangle(); // reused so that evolve does not allocate
+  private OptimalColor optimalColor;
+  private CoarseScreen coarseScreen; // null when mutations are only scored at full size
+  private boolean colorSolved = false; // the last change was a solved color
+  private long version; // the version of the genome that the current step started from
+  private Genome drawnGenome; // the genome that the renderer and error buffer hold, or null
+  private GenomeRenderer drawnRenderer; // the renderer that drawnGenome was drawn with
+  private long drawnVersion; // the version of drawnGenome when it was drawn
+  private long drawnFingerprint; // the fingerprint of the DNA that drawnGenome was drawn with
+  private int[] savedColor = new int[3]; // the color before it was solved
   private BufferedImage targetImage;
   private FitnessEvaluator fitnessEvaluator;
   private List<GenomeDrawPanelPair> genomeStates; // List of Genome/DrawPanel
                                                   // pair
-  private volatile boolean paused = false;
+  private Safepoint safepoint = new Safepoint(); // where this thread waits while paused
+  private IslandModel islandModel; // null when this thread's genomes are not an island
+  private int island;
+  private volatile EvolutionEngine evolutionEngine; // told after every pass, or null
   private volatile boolean interrupted = false;
   private volatile long stepCount;
 
   /**
-   * This is the constructor for the hill climbing thread.
+   * This is the constructor for the hill climbing thread. It draws its mutations from an
+   * unseeded random number stream.
    * 
    * @param genomeStates
    * @param target
    */
   public HillClimbing(List<GenomeDrawPanelPair> genomeStates, BufferedImage target)
+  {
+    this(genomeStates, target, new SplittableRandom());
+  }
+
+  /**
+   * Creates a hill climbing thread that draws every mutation from its own random number
+   * stream, so that the same stream state climbs the same genomes the same way.
+   * 
+   * @param genomeStates
+   * @param target
+   * @param random The stream to draw from. It must not be shared with another thread.
+   */
+  public HillClimbing(List<GenomeDrawPanelPair> genomeStates, BufferedImage target,
+      SplittableRandom random)
   {
     super("HillClimbing-Thread");
+    this.random = random;
     targetImage = target;
     fitnessEvaluator = new FitnessEvaluator(targetImage);
+    fitnessEvaluator.setSampleRandom(random.split());
+    optimalColor = new OptimalColor(fitnessEvaluator.getSummedAreaTable());
+    if (Constants.usePyramidScreen)
+    {
+      coarseScreen = new CoarseScreen(fitnessEvaluator.getReferencePyramid(),
+          Constants.pyramidLevel, Constants.pyramidTolerance);
+      coarseScreen.setAuditInterval(Constants.pyramidAuditInterval);
+      coarseScreen.setAuditRandom(random.split());
+    }
     this.genomeStates = genomeStates;
     stepCount = 0;
+    chooseNewMutation();
   }
 
   /*
@@ -55,62 +102,103 @@ public class HillClimbing extends Thread
   @Override
   public void run()
   {
-    // performEvolution on all genomeStates
-    while (!interrupted)
+    safepoint.register();
+    try
     {
-      if (!this.paused)
+      // performEvolution on all genomeStates
+      while (!interrupted)
       {
+        // Also polled here so that a thread without genomes can still be paused
+        safepoint.poll();
+        int performed = 0;
+        // Climbs each genome for a run of steps, so that the renderer it shares with the other
+        // genomes of this thread only redraws it from scratch once per run
         for (GenomeDrawPanelPair state : genomeStates)
         {
-          if (super.isInterrupted()) break;
-          performEvolution(state);
-        }
-      }
-      else
-      {
-        try
-        {
-          synchronized (this)
+          for (int step = 0; step < Constants.leaseSteps; step++)
           {
-            this.notify();
+            // Waits here, between two steps, while the climbers are paused
+            safepoint.poll();
+            if (interrupted || super.isInterrupted()) break;
+            performEvolution(state);
+            performed++;
           }
-          Thread.sleep(100);
-        }
-        catch (Exception e)
-        {
+          endRun(state);
+          if (interrupted || super.isInterrupted()) break;
         }
+        if (islandModel != null) islandModel.migrate(island);
+        EvolutionEngine engine = evolutionEngine;
+        if (engine != null) engine.afterClimb(performed);
       }
     }
-    synchronized (this)
+    finally
     {
-      this.notify();
+      safepoint.deregister();
     }
   }
 
-  /*
-   * (non-Javadoc)
-   * 
-   * @see java.lang.Thread#interrupt()
+  /**
+   * Ends the thread after its current step. This also resumes its safepoint, and with it any
+   * other thread that shares it, so that a paused thread can end.
    */
   public void interrupt()
   {
     interrupted = true;
+    safepoint.resume();
+  }
+
+  /**
+   * Sets the safepoint that this thread waits at while paused, so that one call to
+   * {@link Safepoint#pause()} pauses every thread that shares it. Must be called before the
+   * thread is started.
+   * 
+   * @param safepoint The safepoint to share.
+   */
+  public void setSafepoint(Safepoint safepoint)
+  {
+    this.safepoint = safepoint;
   }
 
   /**
-   * Pauses the current hill climbing thread
+   * Makes this thread's genomes an island of an island model, which this thread migrates
+   * after every pass over them. Must be called before the thread is started.
+   * 
+   * @param islandModel The island model.
+   * @param island The index of this thread's island.
+   */
+  public void setIsland(IslandModel islandModel, int island)
+  {
+    this.islandModel = islandModel;
+    this.island = island;
+  }
+
+  /**
+   * Sets the engine that this thread tells after every pass over its genomes, so that the
+   * engine can do its work between the steps of the climbers.
+   * 
+   * @param engine The engine, or null for none.
+   */
+  public void setEvolutionEngine(EvolutionEngine engine)
+  {
+    this.evolutionEngine = engine;
+  }
+
+  /**
+   * Pauses the current hill climbing thread, and every other thread that shares its
+   * safepoint, and returns once none of them is in the middle of a step.
    */
   public void pause()
   {
-    this.paused = true;
+    safepoint.pause();
   }
 
   /**
-   * unpauses the current hill climbing thread
+   * unpauses the current hill climbing thread, and every other thread that shares its
+   * safepoint
    */
   public void unpause()
   {
-    this.paused = false;
+    safepoint.resume();
   }
 
   /**
@@ -120,8 +208,7 @@ public class HillClimbing extends Thread
    */
   public boolean isPaused()
   {
-    if (this.paused) return true;
-    return false;
+    return safepoint.isPaused();
   }
 
   /**
@@ -134,6 +221,34 @@ public class HillClimbing extends Thread
     return stepCount;
   }
 
+  /**
+   * Switches the stream that mutations and sampled pixels are drawn from, and draws a new
+   * mutation from it. A scheduler that climbs many genomes with one engine calls this before
+   * each lease with the genome's own stream, so that what happens to a genome only depends on
+   * its stream and not on which engine climbs it.
+   * 
+   * @param random The stream to draw from. It must not be used by another thread meanwhile.
+   */
+  public void setRandom(SplittableRandom random)
+  {
+    this.random = random;
+    fitnessEvaluator.setSampleRandom(random);
+    if (coarseScreen != null) coarseScreen.setAuditRandom(random);
+    chooseNewMutation();
+  }
+
+  /**
+   * Sets the counters that tell how often the screen, which scores mutations on a smaller
+   * image first, agrees with the full size score. Does nothing when
+   * {@link Constants#usePyramidScreen} was off.
+   * 
+   * @param counters The counters, usually shared by every climber of a run.
+   */
+  public void setScreenCounters(ScreenCounters counters)
+  {
+    if (coarseScreen != null) coarseScreen.setCounters(counters);
+  }
+
   /**
    * performs a single evolution on a genome if the thread is paused.
    */
@@ -145,6 +260,7 @@ public class HillClimbing extends Thread
       for (GenomeDrawPanelPair state : genomeStates)
       {
         performEvolution(state);
+        endRun(state);
       }
     }
   }
@@ -156,18 +272,16 @@ public class HillClimbing extends Thread
    */
   public void evolve(Genome genome)
   {
-    synchronized (genome.getGenes())
+    synchronized (genome)
     {
-      List<Triangle> genes = genome.getGenes();
-      Triangle tri = genes.get(triangle);// triangle to evolve
       int val;
       int newVal;
       int upperBound;
       int lowerBound;
       do
       {
-        if (interrupted) return;
-        val = tri.dna[successfulDNA];
+        if (interrupted || replaced(genome)) return;
+        val = genome.getDNA(triangle, successfulDNA);// gene to evolve
         upperBound = 0;
         lowerBound = 0;
         if (successfulDNA >= 0 && successfulDNA < 3)
@@ -186,29 +300,85 @@ public class HillClimbing extends Thread
           //changes paramaters before grabbing a new value to check.
           evenOrOdd = (evenOrOdd + 1) % 2;
           successfulMultiplier = 1;
-          successfulDNA = Constants.rand.nextInt(10);
-          evenOrOdd = Constants.rand.nextInt(100000) % 2;
-          stepSize = Constants.rand.nextInt(2) + 1;
-          triangle = Constants.rand.nextInt(Constants.TRIANGLE_COUNT);
+          successfulDNA = random.nextInt(10);
+          evenOrOdd = random.nextInt(100000) % 2;
+          stepSize = random.nextInt(2) + 1;
+          triangle = random.nextInt(Constants.TRIANGLE_COUNT);
         }
         else
-          tri.dna[successfulDNA] = newVal;//keep the evolution
+        {
+          genome.getBoundingBox(triangle, dirtyRegion);
+          genome.setDNA(triangle, successfulDNA, newVal);//keep the evolution
+          dirtyRegion.add(genome.getBoundingBox(triangle, newBox));
+        }
       }
       while (newVal > upperBound || newVal < lowerBound);
     }
   }
 
+  /**
+   * Replaces the color of the selected triangle with the color that best matches the target
+   * image under it (see {@link OptimalColor}).
+   * @param genome
+   * @param rasterizer The rasterizer that is drawing the genome.
+   * @return false if no better color was found, in which case the genome was not changed.
+   */
+  private boolean solveColor(Genome genome, SoftwareRasterizer rasterizer)
+  {
+    synchronized (genome)
+    {
+      if (replaced(genome)) return false;
+      Rectangle bound = genome.getBoundingBox(triangle, newBox);
+      int[] below = rasterizer.compositeBelow(triangle, bound);
+      if (!optimalColor.solve(genome.getDNA(), triangle * Triangle.DNA_LENGTH, below)) return false;
+      if (optimalColor.getImprovement() <= 0) return false;
+
+      for (int c = 0; c < 3; c++)
+      {
+        savedColor[c] = genome.getDNA(triangle, 6 + c);
+        genome.setDNA(triangle, 6 + c, optimalColor.getColor(c));
+      }
+      dirtyRegion.setBounds(bound);
+      colorSolved = true;
+      return true;
+    }
+  }
+
+  /**
+   * Estimates the fitness of the last evolution from a sample of pixels without drawing it.
+   * A mutation that is surely better is drawn and scored exactly anyway, because the image
+   * has to be drawn to keep it.
+   * @param rasterizer The rasterizer that is drawing the genome.
+   * @return true if the whole confidence interval is worse than {@link #fitnessBefore}.
+   */
+  private boolean surelyWorse(SoftwareRasterizer rasterizer)
+  {
+    rasterizer.updateIndex(triangle);
+    FitnessEstimate estimate = fitnessEvaluator.estimateDifferenceSumRegion(
+        rasterizer, dirtyRegion, Constants.sampleCount);
+    return estimate.compareTo(fitnessBefore, Constants.sampleConfidence) > 0;
+  }
+
   /**
    * This method undoes an unsuccessful evolution
    * @param genome
    */
   public void devolve(Genome genome)
   {
-    synchronized (genome.getGenes())
+    synchronized (genome)
     {
-      List<Triangle> genes = genome.getGenes();
-      Triangle tri = genes.get(triangle);
-      int val = tri.dna[successfulDNA];
+      if (colorSolved)
+      {
+        if (!replaced(genome))
+        {
+          for (int c = 0; c < 3; c++) genome.setDNA(triangle, 6 + c, savedColor[c]);
+        }
+        colorSolved = false;
+        return;
+      }
+      // The new version does not have this evolution to undo
+      if (replaced(genome)) return;
+      int val = genome.getDNA(triangle, successfulDNA);
       int newVal;
       int upperBound = 0;
       int lowerBound = 0;
@@ -221,7 +391,7 @@ public class HillClimbing extends Thread
         newVal = val - successfulMultiplier * stepSize;
       else
         newVal = val + successfulMultiplier * stepSize;
-      if (!(newVal > upperBound || newVal < lowerBound)) tri.dna[successfulDNA] = newVal;
+      if (!(newVal > upperBound || newVal < lowerBound)) genome.setDNA(triangle, successfulDNA, newVal);
     }
   }
 
@@ -232,31 +402,130 @@ public class HillClimbing extends Thread
    */
   public void performEvolution(GenomeDrawPanelPair genomeState)
   {
-    genomeState.drawPanel.setTriangles(genomeState.genome.getGenes());
-    BufferedImage drawPanelSnapshot = genomeState.drawPanel.getSnapshot();
-    fitnessBefore = fitnessEvaluator.differenceSum(drawPanelSnapshot);
-    genomeState.genome.setFitness(fitnessBefore);
+    Genome genome = genomeState.genome;
+    GenomeRenderer renderer = genomeState.renderer;
+    version = genome.getVersion();
+    // The steps keep the image and error buffer current with every change they commit or
+    // roll back, so they only need drawing again for another genome or a new version, or once
+    // another climber has changed the DNA since this one last climbed the genome
+    if (genome != drawnGenome || renderer != drawnRenderer || version != drawnVersion
+        || genome.getFingerprint() != drawnFingerprint)
+    {
+      renderer.setGenome(genome);
+      fitnessBefore = fitnessEvaluator.initializeErrorBuffer(renderer.getSnapshot());
+      if (coarseScreen != null) coarseScreen.reset(genome);
+      drawnGenome = genome;
+      drawnRenderer = renderer;
+      drawnVersion = version;
+      drawnFingerprint = genome.getFingerprint();
+    }
+    setFitness(genome, fitnessBefore);
     do
     {
       if (interrupted) return;
-      evolve(genomeState.genome);
-      Triangle t = genomeState.genome.getGenes().get(triangle);
-      genomeState.drawPanel.updateRegion(t.getBoundingBox());
-      genomeState.drawPanel.repaint();
-      drawPanelSnapshot = genomeState.drawPanel.getSnapshot();
-      fitnessAfter = fitnessEvaluator.differenceSum(drawPanelSnapshot);
+      boolean solved = Constants.useOptimalColor
+          && successfulDNA >= 6 && successfulDNA < 9
+          && renderer instanceof SoftwareRasterizer
+          && solveColor(genome, (SoftwareRasterizer)renderer);
+      if (!solved) evolve(genome);
+      // Crossover published a new version, which the next step starts over from
+      if (replaced(genome)) return;
+      // A mutation that looks worse on the smaller image is not drawn at full size
+      boolean promising = coarseScreen == null || coarseScreen.screen(genome, triangle);
+      boolean scored = promising || coarseScreen.audit();
+      boolean estimated = false;
+      if (scored && Constants.useSampledFitness && renderer instanceof SoftwareRasterizer)
+      {
+        scored = !surelyWorse((SoftwareRasterizer)renderer);
+        estimated = true;
+      }
+      if (scored)
+      {
+        renderer.updateTriangle(triangle, dirtyRegion);
+        fitnessAfter = fitnessEvaluator.differenceSumRegion(
+            renderer.getSnapshot(), dirtyRegion, fitnessBefore);
+        if (coarseScreen != null) coarseScreen.record(promising, fitnessAfter <= fitnessBefore);
+      }
+      else
+      {
+        fitnessAfter = Long.MAX_VALUE;
+      }
       if (fitnessAfter > fitnessBefore)
       {
-        devolve(genomeState.genome);
-        successfulMultiplier = 1;
-        successfulDNA = Constants.rand.nextInt(10);
-        evenOrOdd = Constants.rand.nextInt(100000) % 2;
-        stepSize = Constants.rand.nextInt(2) + 1;
-        triangle = Constants.rand.nextInt(Constants.TRIANGLE_COUNT);
+        devolve(genome);
+        if (scored)
+        {
+          renderer.updateTriangle(triangle, dirtyRegion);
+          fitnessEvaluator.rollbackRegion();
+        }
+        else if (estimated)
+        {
+          ((SoftwareRasterizer)renderer).updateIndex(triangle);
+        }
+        if (coarseScreen != null) coarseScreen.rollback(genome, triangle);
+        chooseNewMutation();
+      }
+      else
+      {
+        if (coarseScreen != null) coarseScreen.commit();
+        if (colorSolved)
+        {
+          // solving the same triangle again would give the same color
+          colorSolved = false;
+          chooseNewMutation();
+        }
       }
     } while (fitnessAfter > fitnessBefore);
-    genomeState.genome.setFitness(fitnessAfter);
+    fitnessEvaluator.commitRegion();
+    fitnessBefore = fitnessAfter;
+    drawnFingerprint = genome.getFingerprint();
+    setFitness(genome, fitnessAfter);
     successfulMultiplier += .5;
     stepCount++;
   }
+
+  /**
+   * Returns whether crossover has published a new version of the genome since the current
+   * step started, in which case this step must not write to it.
+   */
+  private boolean replaced(Genome genome)
+  {
+    return genome.getVersion() != version;
+  }
+
+  /**
+   * Sets the fitness of the genome, unless crossover has published a new version of it since
+   * the current step started. Its rankings are told in {@link #endRun(GenomeDrawPanelPair)}.
+   */
+  private void setFitness(Genome genome, long fitness)
+  {
+    synchronized (genome)
+    {
+      if (!replaced(genome)) genome.setClimbedFitness(fitness);
+    }
+  }
+
+  /**
+   * Moves a genome to its new place in its rankings after a run of steps on it. Called
+   * whenever a climber moves on from a genome, so that the rankings lag the genome by no more
+   * than {@link Constants#leaseSteps} steps.
+   * 
+   * @param genomeState The genome that was climbed.
+   */
+  public void endRun(GenomeDrawPanelPair genomeState)
+  {
+    genomeState.genome.updateRankings();
+  }
+
+  /**
+   * Picks a new random gene, direction and step size for the next evolution.
+   */
+  private void chooseNewMutation()
+  {
+    successfulMultiplier = 1;
+    successfulDNA = random.nextInt(10);
+    evenOrOdd = random.nextInt(100000) % 2;
+    stepSize = random.nextInt(2) + 1;
+    triangle = random.nextInt(Constants.TRIANGLE_COUNT);
+  }
 }
\ No newline at end of file
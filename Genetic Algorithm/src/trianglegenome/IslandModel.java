@@ -0,0 +1,361 @@
+package trianglegenome;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import trianglegenome.util.Constants;
+
+/**
+ * Treats every tribe as an island that evolves on its own and, every migration interval, sends
+ * copies of its best genomes to the islands next to it. Each island has a bounded lock-free
+ * queue of arriving genomes. Sending never waits: a genome sent to a full queue is dropped. An
+ * arriving genome replaces the island's worst scored genome, through
+ * {@link Genome#publish(Genome)}, when it is better.
+ * <br /><br />
+ * Each island migrates from whichever thread calls {@link #migrate(int)} for it, normally the
+ * {@link HillClimbing} thread that climbs the tribe, between two passes over its genomes. Only
+ * one thread migrates an island at a time, and a second caller returns at once instead of
+ * waiting, so no island ever blocks another.
+ * <br /><br />
+ * Example code:<br/>
+ * <code><pre>
+ *  // Assume that tribes holds the genomes of each tribe
+ *
+ *  IslandModel islands = new IslandModel(tribes, IslandModel.Topology.RING, 2000, 4, 1,
+ *      new SplittableRandom(Constants.seed));
+ *
+ *  // In the thread of tribe i, between two passes
+ *  islands.migrate(i);
+ *
+ * </pre></code>
+ */
+public class IslandModel
+{
+  private final String ERROR_NO_ISLANDS = "There must be at least one island";
+  private final String ERROR_CAPACITY = "queueCapacity must be at least 1";
+  private final String ERROR_ELITES = "elites must be at least 1";
+
+  /**
+   * Which islands each island sends its genomes to.
+   */
+  public enum Topology
+  {
+    /** Each island sends to the next one, and the last one to the first. */
+    RING,
+
+    /** The islands are laid out in a grid whose edges wrap around, as close to square as the
+     * number of islands allows, and each island sends to the four around it. */
+    TORUS,
+
+    /** Each island sends to one other island picked at random every migration. */
+    RANDOM
+  }
+
+  private final Island[] islands;
+  private final Topology topology;
+  private final long intervalNanos;
+  private final int elites;
+
+  private final LongAdder sent = new LongAdder();
+  private final LongAdder dropped = new LongAdder();
+  private final LongAdder accepted = new LongAdder();
+
+  /**
+   * Creates an island model with the migration settings in {@link Constants}.
+   * @param tribes The genomes of each island.
+   * @param random The stream that each island's stream is split from.
+   */
+  public IslandModel(List<List<Genome>> tribes, SplittableRandom random)
+  {
+    this(tribes, Constants.islandTopology, Constants.migrationInterval,
+        Constants.migrationQueueCapacity, Constants.migrationElites, random);
+  }
+
+  /**
+   * Creates an island model.
+   * @param tribes The genomes of each island.
+   * @param topology Which islands each island sends its genomes to.
+   * @param intervalMillis The time between two migrations of the same island.
+   * @param queueCapacity The number of genomes that can wait in each island's queue.
+   * @param elites The number of best genomes that an island sends to each neighbor.
+   * @param random The stream that each island's stream is split from.
+   */
+  public IslandModel(List<List<Genome>> tribes, Topology topology, long intervalMillis,
+      int queueCapacity, int elites, SplittableRandom random)
+  {
+    if (tribes.isEmpty()) throw new IllegalArgumentException(ERROR_NO_ISLANDS);
+    if (queueCapacity < 1) throw new IllegalArgumentException(ERROR_CAPACITY);
+    if (elites < 1) throw new IllegalArgumentException(ERROR_ELITES);
+    this.topology = topology;
+    this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+    this.elites = elites;
+    islands = new Island[tribes.size()];
+    for (int i = 0; i < islands.length; i++)
+    {
+      islands[i] = new Island(tribes.get(i), queueCapacity, random.split());
+    }
+    for (int i = 0; i < islands.length; i++) islands[i].neighbors = neighbors(i);
+  }
+
+  /**
+   * Lets an island take in the genomes that have arrived for it and, when its migration
+   * interval has passed, send copies of its best genomes to its neighbors. Returns at once
+   * when another thread is migrating the same island.
+   * @param island The index of the island.
+   * @return Whether the island sent genomes.
+   */
+  public boolean migrate(int island)
+  {
+    Island self = islands[island];
+    if (!self.busy.compareAndSet(false, true)) return false;
+    try
+    {
+      self.receive();
+      long now = System.nanoTime();
+      if (now - self.lastMigration < intervalNanos) return false;
+      self.lastMigration = now;
+      self.send();
+      return true;
+    }
+    finally
+    {
+      self.busy.set(false);
+    }
+  }
+
+  /**
+   * Returns the number of islands.
+   * @return The number of islands.
+   */
+  public int getIslandCount()
+  {
+    return islands.length;
+  }
+
+  /**
+   * Returns the islands that an island sends its genomes to. With a {@link Topology#RANDOM}
+   * topology, this is every other island.
+   * @param island The index of the island.
+   * @return The indices of the island's neighbors.
+   */
+  public int[] getNeighbors(int island)
+  {
+    return islands[island].neighbors.clone();
+  }
+
+  /**
+   * Returns the number of genomes sent to a queue that had room for them.
+   * @return The number of genomes sent.
+   */
+  public long getSentCount()
+  {
+    return sent.sum();
+  }
+
+  /**
+   * Returns the number of genomes dropped because the queue they were sent to was full.
+   * @return The number of genomes dropped.
+   */
+  public long getDroppedCount()
+  {
+    return dropped.sum();
+  }
+
+  /**
+   * Returns the number of arriving genomes that replaced a worse genome.
+   * @return The number of genomes accepted.
+   */
+  public long getAcceptedCount()
+  {
+    return accepted.sum();
+  }
+
+  /**
+   * Works out the islands that an island sends to, without itself or duplicates.
+   */
+  private int[] neighbors(int island)
+  {
+    int n = islands.length;
+    List<Integer> result = new ArrayList<Integer>(4);
+    switch (topology)
+    {
+      case RING:
+        result.add((island + 1) % n);
+        break;
+      case TORUS:
+        // The largest divisor of n that is no more than its square root
+        int rows = (int)Math.sqrt(n);
+        while (n % rows != 0) rows--;
+        int columns = n / rows;
+        int row = island / columns;
+        int column = island % columns;
+        result.add(row * columns + (column + 1) % columns);
+        result.add(row * columns + (column + columns - 1) % columns);
+        result.add(((row + 1) % rows) * columns + column);
+        result.add(((row + rows - 1) % rows) * columns + column);
+        break;
+      case RANDOM:
+        for (int i = 0; i < n; i++) result.add(i);
+        break;
+    }
+    return result
+        .stream()
+        .filter(i -> i != island)
+        .distinct()
+        .mapToInt(i -> i)
+        .toArray();
+  }
+
+  /**
+   * A tribe, its queue of arriving genomes, and what only the thread migrating it may touch.
+   */
+  private final class Island
+  {
+    private final List<Genome> genomes;
+    private final MigrationQueue inbound;
+
+    /** Picks the neighbor of a {@link Topology#RANDOM} migration. */
+    private final SplittableRandom random;
+
+    private int[] neighbors;
+
+    /** Held by the thread migrating this island. */
+    private final AtomicBoolean busy = new AtomicBoolean();
+
+    /** When this island last sent genomes, from {@link System#nanoTime()}. */
+    private long lastMigration = System.nanoTime();
+
+    private Island(List<Genome> genomes, int queueCapacity, SplittableRandom random)
+    {
+      this.genomes = genomes;
+      this.inbound = new MigrationQueue(queueCapacity);
+      this.random = random;
+    }
+
+    /**
+     * Replaces the worst genome with each arriving genome that is better than it. Like the
+     * elites, the worst genome is picked only among genomes whose fitness is known.
+     */
+    private void receive()
+    {
+      Genome immigrant;
+      while ((immigrant = inbound.poll()) != null)
+      {
+        Genome worst = null;
+        long worstFitness = 0;
+        for (Genome genome : genomes)
+        {
+          // Read once, for the same reason as in send()
+          long fitness = genome.getFitness();
+          if (!genome.isScored() || genome.isDirty()) continue;
+          if (worst == null || fitness > worstFitness)
+          {
+            worst = genome;
+            worstFitness = fitness;
+          }
+        }
+        if (worst != null && immigrant.getFitness() < worstFitness)
+        {
+          worst.publish(immigrant);
+          accepted.increment();
+        }
+      }
+    }
+
+    /**
+     * Sends copies of the best genomes to the neighbors.
+     */
+    private void send()
+    {
+      if (neighbors.length == 0 || genomes.isEmpty()) return;
+      // Read once, since crossover may publish over a genome while the elites are picked
+      long[] fitness = new long[genomes.size()];
+      boolean[] eligible = new boolean[fitness.length];
+      for (int i = 0; i < fitness.length; i++)
+      {
+        Genome genome = genomes.get(i);
+        fitness[i] = genome.getFitness();
+        // A genome never scored or with a stale fitness is not known to be an elite
+        eligible[i] = genome.isScored() && !genome.isDirty();
+      }
+      int[] targets = (topology == Topology.RANDOM)
+          ? new int[] { neighbors[random.nextInt(neighbors.length)] }
+          : neighbors;
+      for (int e = 0; e < elites; e++)
+      {
+        int best = -1;
+        for (int i = 0; i < fitness.length; i++)
+        {
+          if (eligible[i] && (best < 0 || fitness[i] < fitness[best])) best = i;
+        }
+        if (best < 0) break;
+        eligible[best] = false;
+        Genome elite = genomes.get(best);
+        for (int target : targets)
+        {
+          // Each neighbor gets its own copy, so that none of them shares DNA with another
+          Genome copy;
+          synchronized (elite)
+          {
+            copy = elite.clone();
+            copy.setFitness(elite.getFitness());
+          }
+          if (islands[target].inbound.offer(copy)) sent.increment();
+          else dropped.increment();
+        }
+      }
+    }
+  }
+
+  /**
+   * A bounded queue that many threads can offer to and one thread polls, without locks. The
+   * size is reserved with a compare-and-set before a genome is added, so the queue never holds
+   * more than its capacity.
+   */
+  private static final class MigrationQueue
+  {
+    private final Queue<Genome> queue = new ConcurrentLinkedQueue<Genome>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final int capacity;
+
+    private MigrationQueue(int capacity)
+    {
+      this.capacity = capacity;
+    }
+
+    /**
+     * Adds a genome unless the queue is full.
+     * @return Whether the genome was added.
+     */
+    private boolean offer(Genome genome)
+    {
+      int current;
+      do
+      {
+        current = size.get();
+        if (current >= capacity) return false;
+      }
+      while (!size.compareAndSet(current, current + 1));
+      queue.add(genome);
+      return true;
+    }
+
+    /**
+     * Takes the genome that arrived first.
+     * @return The genome, or null when the queue is empty.
+     */
+    private Genome poll()
+    {
+      Genome genome = queue.poll();
+      if (genome != null) size.decrementAndGet();
+      return genome;
+    }
+  }
+}
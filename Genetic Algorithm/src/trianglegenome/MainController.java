@@ -6,6 +6,7 @@ import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.ResourceBundle;
+import java.util.SplittableRandom;
 
 import javafx.application.Platform;
 import javafx.embed.swing.SwingFXUtils;
@@ -23,6 +24,7 @@ import javafx.scene.image.ImageView;
 
 import javax.swing.JOptionPane;
 
+import trianglegenome.fitness.ScreenCounters;
 import trianglegenome.gui.DrawPanel;
 import trianglegenome.gui.DrawPanelBufferedImage;
 import trianglegenome.gui.DrawPanelVolatileImage;
@@ -67,7 +69,7 @@ public class MainController extends Control implements Initializable
   private Button toggleRunning, nextGeneration, genomeTable, readGenome, writeGenome;
   @FXML
   private Label elapsedTime, totalGen, hillClimbGen, crossGen, genPerSecond, tribeFitPerMin, totalFitPerMin,
-      tribeDiversity, totalDiversity;
+      tribeDiversity, totalDiversity, seed, screenHits;
 
   /**
    * Called whenever the start/pause button is pressed.
@@ -114,24 +116,17 @@ public class MainController extends Control implements Initializable
   }
 
   /**
-   * A simple helper method to get the global population sorted by fitness.
-   * 
-   * @return The sorted global population
-   */
-  private List<Genome> getSortedPopulation()
-  {
-    List<Genome> genomes = globalPopulation;
-    genomes.sort((Genome g1, Genome g2) -> Long.compare(g1.getFitness(), g2.getFitness()));
-    return genomes;
-  }
-
-  /**
-   * Called when the Show Genome button is pressed. Constructs a new genome table.
+   * Called when the Show Genome button is pressed. Constructs a new genome table of the best
+   * genome, or of the selected genome while no genome has been scored.
    */
   @FXML
   private void showGenomeTable()
   {
-    Genome genome = getSortedPopulation().get(0);
+    // The ranking follows the climbers, so the population is never sorted under them
+    Genome genome = evolutionModel.getRanking().getBest();
+    // Until a genome is scored nothing is ranked, so show the one being drawn instead
+    if (genome == null) genome = selectedGenome;
+    if (genome == null) return;
     new GenomeTable(genome);
   }
 
@@ -180,9 +175,13 @@ public class MainController extends Control implements Initializable
     drawPanel = (Constants.useVolatileImage) ? new DrawPanelVolatileImage(Constants.width, Constants.height)
         : new DrawPanelBufferedImage(Constants.width, Constants.height);
     globalPopulation.clear();
-    for (int i = 0; i < 10 * Constants.threadCount; ++i)
+    seed.setText("Seed: " + Constants.seed);
+    SplittableRandom random = new SplittableRandom(Constants.seed);
+    int populationSize = (Constants.populationSize > 0)
+        ? Constants.populationSize : 10 * Constants.threadCount;
+    for (int i = 0; i < populationSize; ++i)
     {
-      globalPopulation.add(SeedGenome.generateSeed(target));
+      globalPopulation.add(SeedGenome.generateSeed(target, random));
     }
     selectedGenome = globalPopulation.get(0);
     tribeSelect.itemsProperty().get().clear();
@@ -193,7 +192,7 @@ public class MainController extends Control implements Initializable
     }
 
     if (evolutionModel != null) evolutionModel.interrupt();
-    evolutionModel = new EvolutionModel(Constants.threadCount, globalPopulation, target);
+    evolutionModel = new EvolutionModel(Constants.threadCount, globalPopulation, target, random.split());
     evolutionModel.pause();
     evolutionModel.start();
     selectedTribePopulation = evolutionModel.getGenomesFromTribe(0);
@@ -271,7 +270,7 @@ public class MainController extends Control implements Initializable
    */
   private void updateDrawPanel()
   {
-    drawPanel.setTriangles(selectedGenome.getGenes());
+    drawPanel.setGenome(selectedGenome);
     drawPanelContainer.setImage(drawPanel.getFXImage());
     fitness.textProperty().set("Fitness: " + selectedGenome.getFitness() / (Constants.height * Constants.width));
 
@@ -293,6 +292,11 @@ public class MainController extends Control implements Initializable
     totalGen.setText("Total Generations: " + evolutionModel.getTotalGenerations());
     hillClimbGen.setText("HillClimb Gens.: " + evolutionModel.getHillClimbGenerations());
     crossGen.setText("Crossover Gens.: " + evolutionModel.getCrossoverGenerations());
+    ScreenCounters screen = evolutionModel.getScreenCounters();
+    screenHits.setText(Constants.usePyramidScreen
+        ? "Screen Hits/Misses/Skips: " + screen.getHits() + "/" + screen.getMisses() + "/"
+            + screen.getScreenedOut()
+        : "Screen: off");
     genPerSecond.setText("Gens. Per Second: " + generationDelta);
     SelectionModel<String> tribeSelector = tribeSelect.getSelectionModel();
     int selectedTribe = tribeSelector.getSelectedIndex();
@@ -0,0 +1,520 @@
+package trianglegenome;
+
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+import trianglegenome.util.LongMultiset;
+
+/**
+ * Keeps a population of genomes ordered by fitness while they are being climbed, without
+ * sorting or copying it. Every genome in the population tells its rankings when its fitness
+ * changes, through {@link Genome#setFitness(long)} and {@link Genome#publish(Genome)}, and the
+ * ranking moves it to its new place in a treap whose nodes count the genomes below them. The
+ * hill climbers tell the rankings once per run of {@link trianglegenome.util.Constants#leaseSteps}
+ * steps rather than after every step, so that they seldom wait on the ranking's lock, and a
+ * genome being climbed can be ranked by a fitness up to that many steps old.
+ * <br /><br />
+ * Moving a genome and finding the genome of a rank take O(log n), and the best and worst
+ * genomes and fitnesses are kept at hand after every move so that reading them takes O(1) and
+ * no lock. The rank of the most fit genome is 0. Genomes of equal fitness keep the order in
+ * which they are in the list.
+ * <br /><br />
+ * A {@link Genome#isDirty() dirty} genome is left out of the ranking until it is scored again,
+ * so ranks, selection and the best, worst and average fitness only ever count genomes whose
+ * fitness is known.
+ * <br /><br />
+ * The ranking also counts the {@link Genome#getFingerprint() fingerprints} of its genomes,
+ * dirty or not, so that whether a genome or a child about to be published is a duplicate of
+ * one already in the population takes O(1), without comparing genomes pairwise.
+ * <br /><br />
+ * A genome can be in several rankings at once, such as the global population and its tribe.
+ * A ranking that is no longer needed must be {@link #close() closed}, or the genomes keep
+ * telling it about their fitness.
+ * <br /><br />
+ * Example code:<br/>
+ * <code><pre>
+ *  // Assume that genomes is a List&lt;Genome&gt; that is being hill climbed
+ *
+ *  RankedPopulation ranking = new RankedPopulation(genomes);
+ *  Genome best = ranking.getBest();
+ *  Genome median = ranking.get(ranking.size() / 2);
+ *
+ *  // When the genomes are replaced
+ *  ranking.close();
+ *
+ * </pre></code>
+ */
+public class RankedPopulation
+{
+  private final String ERROR_RANK = "Rank out of range 0 to size - 1: ";
+
+  /** The genomes in the order they were given. */
+  private final List<Genome> genomes;
+
+  /** The node of every genome, guarded by this. */
+  private final Map<Genome, Node> nodes;
+
+  /** The root of the treap, guarded by this. */
+  private Node root;
+
+  /** The fingerprint of every genome, as of its last update, guarded by this. */
+  private final LongMultiset fingerprints;
+
+  /** The sum of the fitnesses of every ranked genome, guarded by this. */
+  private long fitnessSum;
+
+  private volatile Genome best;
+  private volatile Genome worst;
+  private volatile long bestFitness;
+  private volatile long worstFitness;
+
+  /** The number of times a genome moved to a new place. */
+  private volatile long updateCount = 0;
+
+  /**
+   * Ranks a population of genomes and starts following their fitness.
+   * @param genomes The genomes to rank. The list must not change while it is ranked, though
+   * the genomes in it do.
+   */
+  public RankedPopulation(List<Genome> genomes)
+  {
+    this.genomes = genomes;
+    nodes = new IdentityHashMap<Genome, Node>(genomes.size() * 2);
+    fingerprints = new LongMultiset(genomes.size());
+    // Registered before the genomes are read, so that a change made in between is not lost:
+    // an update that runs first finds no node and the read below sees the change, and one
+    // that runs later waits for the lock and then moves the node
+    for (Genome genome : genomes) genome.addRanking(this);
+    // The shape of the treap does not change any result, so its priorities need no seed
+    SplittableRandom priorities = new SplittableRandom(genomes.size());
+    synchronized (this)
+    {
+      for (int i = 0; i < genomes.size(); i++)
+      {
+        Genome genome = genomes.get(i);
+        Node node = new Node(genome, i, priorities.nextInt());
+        nodes.put(genome, node);
+        node.fingerprint = genome.getFingerprint();
+        fingerprints.add(node.fingerprint);
+        if (genome.isDirty()) continue;
+        node.ranked = true;
+        node.fitness = genome.getFitness();
+        fitnessSum += node.fitness;
+        root = insert(root, node);
+      }
+      refreshEnds();
+    }
+  }
+
+  /**
+   * Stops following the fitness of the genomes. The ranking keeps the order it had.
+   */
+  public void close()
+  {
+    for (Genome genome : genomes) genome.removeRanking(this);
+  }
+
+  /**
+   * Moves a genome to the place of its current fitness, or takes it out of the ranking while
+   * it is dirty, and counts its new fingerprint. Called by the genome whenever its fitness,
+   * dirtiness or DNA changes.
+   * @param genome The genome whose fitness changed.
+   */
+  synchronized void update(Genome genome)
+  {
+    Node node = nodes.get(genome);
+    if (node == null) return;
+    // Reading the genome under the lock leaves the last of two racing updates in place
+    long fingerprint = genome.getFingerprint();
+    if (node.fingerprint != fingerprint)
+    {
+      fingerprints.remove(node.fingerprint);
+      fingerprints.add(fingerprint);
+      node.fingerprint = fingerprint;
+    }
+    boolean ranked = !genome.isDirty();
+    long fitness = genome.getFitness();
+    if (node.ranked == ranked && (!ranked || node.fitness == fitness)) return;
+    if (node.ranked)
+    {
+      root = remove(root, node);
+      fitnessSum -= node.fitness;
+    }
+    node.ranked = ranked;
+    if (ranked)
+    {
+      node.fitness = fitness;
+      fitnessSum += fitness;
+      root = insert(root, node);
+    }
+    refreshEnds();
+    updateCount++;
+  }
+
+  /**
+   * Returns the genome of a rank, where rank 0 is the most fit genome.
+   * @param rank The rank of the genome.
+   * @return The genome of the rank.
+   */
+  public synchronized Genome get(int rank)
+  {
+    if (rank < 0 || rank >= size(root)) throw new IllegalArgumentException(ERROR_RANK + rank);
+    return select(rank);
+  }
+
+  /**
+   * Returns the genome at a fraction of the way from the most fit genome to the least fit,
+   * in one step, so that the number of ranked genomes cannot change between picking a rank
+   * and finding its genome.
+   * @param fraction From 0 for the most fit genome up to, but not including, 1.
+   * @return The genome at that fraction of the ranks, or null when no genome is ranked.
+   */
+  public synchronized Genome getByFraction(double fraction)
+  {
+    int size = size(root);
+    if (size == 0) return null;
+    return select(max(0, min(size - 1, (int)(fraction * size))));
+  }
+
+  /**
+   * Returns the genome of a rank counted from the least fit genome, in one step.
+   * @param offset The number of genomes that are less fit, 0 for the least fit.
+   * @return The genome, or null when fewer genomes are ranked.
+   */
+  public synchronized Genome getFromWorst(int offset)
+  {
+    int size = size(root);
+    if (offset < 0 || offset >= size) return null;
+    return select(size - 1 - offset);
+  }
+
+  /**
+   * Finds the genome of a rank that is known to be in range.
+   */
+  private Genome select(int rank)
+  {
+    Node node = root;
+    while (true)
+    {
+      int leftSize = size(node.left);
+      if (rank < leftSize) node = node.left;
+      else if (rank == leftSize) return node.genome;
+      else
+      {
+        rank -= leftSize + 1;
+        node = node.right;
+      }
+    }
+  }
+
+  /**
+   * Returns the rank of a genome, where rank 0 is the most fit genome.
+   * @param genome The genome to find the rank of.
+   * @return The rank of the genome, or -1 if it is not in this ranking or is dirty.
+   */
+  public synchronized int rankOf(Genome genome)
+  {
+    Node target = nodes.get(genome);
+    if (target == null || !target.ranked) return -1;
+    int rank = 0;
+    Node node = root;
+    while (node != target)
+    {
+      if (target.compareTo(node) < 0) node = node.left;
+      else
+      {
+        rank += size(node.left) + 1;
+        node = node.right;
+      }
+    }
+    return rank + size(node.left);
+  }
+
+  /**
+   * Returns the number of genomes that are ranked, which leaves out the dirty ones.
+   * @return The number of genomes that are ranked.
+   */
+  public synchronized int size()
+  {
+    return size(root);
+  }
+
+  /**
+   * Returns whether a genome in this ranking has a fingerprint, such as that of a child that
+   * is about to be published into the population.
+   * @param fingerprint The fingerprint to look for.
+   * @return Whether a genome has the fingerprint.
+   */
+  public synchronized boolean containsFingerprint(long fingerprint)
+  {
+    return fingerprints.count(fingerprint) > 0;
+  }
+
+  /**
+   * Returns whether another genome in this ranking has the same DNA as a genome in it.
+   * @param genome A genome in this ranking.
+   * @return Whether the genome has a duplicate.
+   */
+  public synchronized boolean isDuplicate(Genome genome)
+  {
+    Node node = nodes.get(genome);
+    if (node == null) return false;
+    return fingerprints.count(node.fingerprint) > 1;
+  }
+
+  /**
+   * Returns the number of genomes that have the same DNA as another genome with a lower index,
+   * which is 0 for a population without duplicates.
+   * @return The number of duplicate genomes.
+   */
+  public synchronized int getDuplicateCount()
+  {
+    return fingerprints.size() - fingerprints.distinct();
+  }
+
+  /**
+   * Returns every genome given to this ranking, dirty or not, in the order they were given.
+   * @return The genomes given to this ranking.
+   */
+  public List<Genome> getGenomes()
+  {
+    return genomes;
+  }
+
+  /**
+   * Returns the most fit genome.
+   * @return The most fit genome, or null when no genome is ranked.
+   */
+  public Genome getBest()
+  {
+    return best;
+  }
+
+  /**
+   * Returns the least fit genome.
+   * @return The least fit genome, or null when no genome is ranked.
+   */
+  public Genome getWorst()
+  {
+    return worst;
+  }
+
+  /**
+   * Returns the fitness of the most fit genome.
+   * @return The best fitness, or Long.MAX_VALUE when no genome is ranked.
+   */
+  public long getBestFitness()
+  {
+    return bestFitness;
+  }
+
+  /**
+   * Returns the fitness of the least fit genome.
+   * @return The worst fitness, or Long.MAX_VALUE when no genome is ranked.
+   */
+  public long getWorstFitness()
+  {
+    return worstFitness;
+  }
+
+  /**
+   * Returns the average fitness of the ranked genomes.
+   * @return The average fitness, or Long.MAX_VALUE when no genome is ranked.
+   */
+  public synchronized long getAverageFitness()
+  {
+    return (root == null) ? Long.MAX_VALUE : fitnessSum / root.size;
+  }
+
+  /**
+   * Returns the number of times a genome moved because its fitness changed.
+   * @return The number of updates.
+   */
+  public long getUpdateCount()
+  {
+    return updateCount;
+  }
+
+  /**
+   * Keeps the best and worst genome and fitness of the treap at hand.
+   */
+  private void refreshEnds()
+  {
+    if (root == null)
+    {
+      bestFitness = Long.MAX_VALUE;
+      worstFitness = Long.MAX_VALUE;
+      best = null;
+      worst = null;
+      return;
+    }
+    Node first = root;
+    while (first.left != null) first = first.left;
+    Node last = root;
+    while (last.right != null) last = last.right;
+    bestFitness = first.fitness;
+    worstFitness = last.fitness;
+    best = first.genome;
+    worst = last.genome;
+  }
+
+  /**
+   * Inserts a node, that is not in the treap, below another.
+   * @return The new root of the subtree.
+   */
+  private static Node insert(Node subtree, Node node)
+  {
+    if (subtree == null)
+    {
+      node.left = null;
+      node.right = null;
+      node.size = 1;
+      return node;
+    }
+    if (node.priority > subtree.priority)
+    {
+      split(subtree, node);
+      node.size = 1 + size(node.left) + size(node.right);
+      return node;
+    }
+    if (node.compareTo(subtree) < 0) subtree.left = insert(subtree.left, node);
+    else subtree.right = insert(subtree.right, node);
+    subtree.size++;
+    return subtree;
+  }
+
+  /**
+   * Splits a subtree into the nodes before a node, which become its left subtree, and those
+   * after it, which become its right subtree.
+   */
+  private static void split(Node subtree, Node node)
+  {
+    Node left = null;
+    Node right = null;
+    // Nodes are appended to the inner edge of each side, so the sizes are set at the end
+    Node lastLeft = null;
+    Node lastRight = null;
+    Node current = subtree;
+    while (current != null)
+    {
+      Node next;
+      if (current.compareTo(node) < 0)
+      {
+        next = current.right;
+        if (lastLeft == null) left = current;
+        else lastLeft.right = current;
+        lastLeft = current;
+        current.right = null;
+      }
+      else
+      {
+        next = current.left;
+        if (lastRight == null) right = current;
+        else lastRight.left = current;
+        lastRight = current;
+        current.left = null;
+      }
+      current = next;
+    }
+    node.left = left;
+    node.right = right;
+    resize(left, false);
+    resize(right, true);
+  }
+
+  /**
+   * Recounts the sizes along the inner edge of one side of a split.
+   */
+  private static int resize(Node node, boolean leftEdge)
+  {
+    if (node == null) return 0;
+    Node inner = leftEdge ? node.left : node.right;
+    Node outer = leftEdge ? node.right : node.left;
+    node.size = 1 + size(outer) + resize(inner, leftEdge);
+    return node.size;
+  }
+
+  /**
+   * Removes a node that is in the treap from below another.
+   * @return The new root of the subtree.
+   */
+  private static Node remove(Node subtree, Node node)
+  {
+    if (subtree == node) return merge(node.left, node.right);
+    if (node.compareTo(subtree) < 0) subtree.left = remove(subtree.left, node);
+    else subtree.right = remove(subtree.right, node);
+    subtree.size--;
+    return subtree;
+  }
+
+  /**
+   * Joins two subtrees where every node of the first comes before every node of the second.
+   * @return The root of the joined subtree.
+   */
+  private static Node merge(Node left, Node right)
+  {
+    if (left == null) return right;
+    if (right == null) return left;
+    if (left.priority > right.priority)
+    {
+      left.right = merge(left.right, right);
+      left.size = 1 + size(left.left) + size(left.right);
+      return left;
+    }
+    right.left = merge(left, right.left);
+    right.size = 1 + size(right.left) + size(right.right);
+    return right;
+  }
+
+  private static int size(Node node)
+  {
+    return (node == null) ? 0 : node.size;
+  }
+
+  /**
+   * The place of one genome in the treap, ordered by fitness and then by its index in the
+   * list.
+   */
+  private static final class Node implements Comparable<Node>
+  {
+    private final Genome genome;
+    private final int index;
+    private final int priority;
+
+    /** The fitness that the genome is ranked by, which lags its own until it is updated. */
+    private long fitness;
+
+    /** The fingerprint of the genome when it was last updated. */
+    private long fingerprint;
+
+    /** Whether the node is in the treap, which it is not while its genome is dirty. */
+    private boolean ranked = false;
+
+    private int size = 1;
+    private Node left;
+    private Node right;
+
+    private Node(Genome genome, int index, int priority)
+    {
+      this.genome = genome;
+      this.index = index;
+      this.priority = priority;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.lang.Comparable#compareTo(java.lang.Object)
+     */
+    @Override
+    public int compareTo(Node other)
+    {
+      int c = Long.compare(fitness, other.fitness);
+      return (c != 0) ? c : Integer.compare(index, other.index);
+    }
+  }
+}
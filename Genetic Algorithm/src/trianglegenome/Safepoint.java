@@ -0,0 +1,202 @@
+package trianglegenome;
+
+import java.util.concurrent.Phaser;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A point between two steps of work where a group of worker threads can be held, so that one
+ * controller can pause them all and know that none of them is in the middle of a step. Each
+ * worker registers itself, calls {@link #poll()} before every step and deregisters when it
+ * ends. {@link #pause()} returns as soon as every registered worker has reached its next poll,
+ * which is within one step, and {@link #resume()} lets them all go at once. A paused worker
+ * waits without polling a flag or sleeping.
+ * <br /><br />
+ * It is built on a {@link Phaser} that the controller is always registered with: even phases
+ * run and odd phases are paused, so a pause is the end of a running phase and a resume is the
+ * end of a paused one. A worker that registers while paused waits at its first poll.
+ * <br /><br />
+ * The safepoint also keeps how long the last and the longest pause took to bring the workers
+ * to a stop, and how long the slowest worker took to start again after the last and the
+ * longest resume.
+ * <br /><br />
+ * Example code:<br/>
+ * <code><pre>
+ *  // In each worker thread
+ *  safepoint.register();
+ *  try
+ *  {
+ *    while (running)
+ *    {
+ *      safepoint.poll();
+ *      step();
+ *    }
+ *  }
+ *  finally
+ *  {
+ *    safepoint.deregister();
+ *  }
+ *
+ *  // In the controller
+ *  safepoint.pause(); // no worker is in step() until resume()
+ *  safepoint.resume();
+ *  long nanos = safepoint.getLastPauseLatency();
+ *
+ * </pre></code>
+ */
+public class Safepoint
+{
+  /** Has the controller and every registered worker as parties. */
+  private final Phaser phaser = new Phaser(1);
+
+  /** The running phase that a pause has been asked for in. */
+  private volatile int requestedPhase = -1;
+
+  private volatile boolean paused = false;
+
+  /** When the last resume was asked for, from {@link System#nanoTime()}. */
+  private volatile long resumeStart;
+
+  private volatile long lastPauseLatency = 0;
+  private volatile long maxPauseLatency = 0;
+  private volatile long pauseCount = 0;
+  private final AtomicLong lastResumeLatency = new AtomicLong();
+  private final AtomicLong maxResumeLatency = new AtomicLong();
+
+  /**
+   * Adds the calling worker to the workers that a pause waits for. Call this from the worker
+   * before its first {@link #poll()}.
+   */
+  public void register()
+  {
+    phaser.register();
+  }
+
+  /**
+   * Removes the calling worker from the workers that a pause waits for. Call this from the
+   * worker once it will not poll again.
+   */
+  public void deregister()
+  {
+    phaser.arriveAndDeregister();
+  }
+
+  /**
+   * Returns at once unless a pause has been asked for. Otherwise waits here until the workers
+   * are resumed. Call this from a registered worker between two steps.
+   */
+  public void poll()
+  {
+    int phase = phaser.getPhase();
+    if ((phase & 1) == 0)
+    {
+      if (phase != requestedPhase) return;
+      phaser.arriveAndAwaitAdvance();
+    }
+    phaser.arriveAndAwaitAdvance();
+
+    long latency = System.nanoTime() - resumeStart;
+    lastResumeLatency.accumulateAndGet(latency, Math::max);
+    maxResumeLatency.accumulateAndGet(latency, Math::max);
+  }
+
+  /**
+   * Asks every registered worker to stop at its next poll, and returns once they all have.
+   * Does nothing when already paused.
+   */
+  public synchronized void pause()
+  {
+    if (paused) return;
+    long start = System.nanoTime();
+    requestedPhase = phaser.getPhase();
+    phaser.arriveAndAwaitAdvance();
+    paused = true;
+    recordPause(System.nanoTime() - start);
+  }
+
+  /**
+   * Lets every worker waiting at a poll go on. Does nothing when not paused.
+   */
+  public synchronized void resume()
+  {
+    if (!paused) return;
+    paused = false;
+    lastResumeLatency.set(0);
+    resumeStart = System.nanoTime();
+    phaser.arrive();
+  }
+
+  /**
+   * Returns whether the workers are paused, in which case none of them is in a step.
+   * @return Whether the workers are paused.
+   */
+  public boolean isPaused()
+  {
+    return paused;
+  }
+
+  /**
+   * Returns how long the last pause took to bring every worker to a stop.
+   * @return The latency of the last pause in nanoseconds, 0 before the first pause.
+   */
+  public long getLastPauseLatency()
+  {
+    return lastPauseLatency;
+  }
+
+  /**
+   * Returns the longest time that any pause took to bring every worker to a stop.
+   * @return The latency of the slowest pause in nanoseconds.
+   */
+  public long getMaxPauseLatency()
+  {
+    return maxPauseLatency;
+  }
+
+  /**
+   * Returns how long after the last resume the slowest worker to start again did so.
+   * @return The latency of the last resume in nanoseconds.
+   */
+  public long getLastResumeLatency()
+  {
+    return lastResumeLatency.get();
+  }
+
+  /**
+   * Returns the longest time that any worker took to start again after a resume.
+   * @return The latency of the slowest resume in nanoseconds.
+   */
+  public long getMaxResumeLatency()
+  {
+    return maxResumeLatency.get();
+  }
+
+  /**
+   * Returns the number of pauses recorded.
+   * @return The number of pauses recorded.
+   */
+  public long getPauseCount()
+  {
+    return pauseCount;
+  }
+
+  /**
+   * Records the latency of a pause, for workers that are paused some other way.
+   * @param nanos How long the pause took, in nanoseconds.
+   */
+  synchronized void recordPause(long nanos)
+  {
+    lastPauseLatency = nanos;
+    maxPauseLatency = Math.max(maxPauseLatency, nanos);
+    pauseCount++;
+  }
+
+  /**
+   * Records the latency of a resume, for workers that are resumed some other way.
+   * @param nanos How long the resume took, in nanoseconds.
+   */
+  synchronized void recordResume(long nanos)
+  {
+    lastResumeLatency.set(nanos);
+    maxResumeLatency.accumulateAndGet(nanos, Math::max);
+  }
+}
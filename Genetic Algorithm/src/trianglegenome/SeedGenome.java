@@ -4,6 +4,7 @@ import java.awt.Color;
 import java.awt.Graphics;
 import java.awt.Image;
 import java.awt.image.BufferedImage;
+import java.util.SplittableRandom;
 
 import trianglegenome.util.Constants;
 
@@ -28,6 +29,19 @@ public class SeedGenome
    * @return A genome to seed evolution.
    */
   public static Genome generateSeed(BufferedImage image)
+  {
+    return generateSeed(image, new SplittableRandom());
+  }
+
+  /**
+   * Generate a genome based on a given target image, drawing the random triangles from the given
+   * stream. The same image and stream state give the same genome.
+   * 
+   * @param image The target image.
+   * @param random The random number stream to draw the random triangles from.
+   * @return A genome to seed evolution.
+   */
+  public static Genome generateSeed(BufferedImage image, SplittableRandom random)
   {
     Image scaledImage = image.getScaledInstance(3, 3, Image.SCALE_AREA_AVERAGING);
     int width = scaledImage.getWidth(null);
@@ -89,22 +103,22 @@ public class SeedGenome
       int xPoints[] = new int[3];
       for (int j = 0; j < xPoints.length; j++)
       {
-        xPoints[j] = (int) (Math.floor(Constants.width) * Math.pow(Math.random(), 2.0));
+        xPoints[j] = (int) (Math.floor(Constants.width) * Math.pow(random.nextDouble(), 2.0));
       }
 
       int yPoints[] = new int[3];
       for (int j = 0; j < yPoints.length; j++)
       {
-        yPoints[j] = (int) Constants.rand.nextInt(Constants.height);
+        yPoints[j] = random.nextInt(Constants.height);
       }
 
       int rgba[] = new int[4];
       for (int j = 0; j < rgba.length - 1; j++)
       {
-        rgba[j] = averageRGB[j] + (40 - Constants.rand.nextInt(80));
+        rgba[j] = averageRGB[j] + (40 - random.nextInt(80));
       }
 
-      rgba[3] = (int) Math.sqrt(Constants.rand.nextInt(150 * 150));
+      rgba[3] = (int) Math.sqrt(random.nextInt(150 * 150));
       ;
 
       Triangle gene = new Triangle(xPoints, yPoints, rgba);
@@ -116,22 +130,22 @@ public class SeedGenome
       int xPoints[] = new int[3];
       for (int j = 0; j < xPoints.length; j++)
       {
-        xPoints[j] = (int) (Math.sqrt(Constants.rand.nextInt(Constants.width * Constants.width)));
+        xPoints[j] = (int) (Math.sqrt(random.nextInt(Constants.width * Constants.width)));
       }
 
       int yPoints[] = new int[3];
       for (int j = 0; j < yPoints.length; j++)
       {
-        yPoints[j] = Constants.rand.nextInt(Constants.height);
+        yPoints[j] = random.nextInt(Constants.height);
       }
 
       int rgba[] = new int[4];
       for (int j = 0; j < rgba.length - 1; j++)
       {
-        rgba[j] = averageRGB[j] + (40 - Constants.rand.nextInt(80));
+        rgba[j] = averageRGB[j] + (40 - random.nextInt(80));
       }
 
-      rgba[3] = (int) Math.sqrt(Constants.rand.nextInt(150 * 150));
+      rgba[3] = (int) Math.sqrt(random.nextInt(150 * 150));
 
       Triangle gene = new Triangle(xPoints, yPoints, rgba);
       seed.addGene(gene);
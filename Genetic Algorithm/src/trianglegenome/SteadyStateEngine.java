@@ -0,0 +1,271 @@
+package trianglegenome;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import trianglegenome.fitness.BatchFitnessEvaluator;
+import trianglegenome.util.Constants;
+
+/**
+ * Breeds continuously between hill climbing steps instead of waiting for the population to
+ * stop improving. Every interval of steps, counted over all hill climbers, the climber that
+ * reaches it picks two parents by tournament, crosses them over into two children, scores
+ * them in one batch and publishes each child into one of the two worst genomes when it is
+ * better. There are no idle windows, and the interval sets how much of the climbers' time
+ * goes to crossover.
+ * <br /><br />
+ * A child with the same DNA as a genome already in its group, such as a child of two parents
+ * that share the swapped triangles, is dropped, so that the group does not fill up with
+ * copies of its best genome. Finding out takes O(1) by fingerprint (see
+ * {@link RankedPopulation#containsFingerprint(long)}).
+ * <br /><br />
+ * A tournament picks a few genomes at random and keeps the most fit. Since the genomes are
+ * ranked, it picks ranks instead, and the lowest rank wins without reading any fitness.
+ * <br /><br />
+ * Only one climber breeds at a time. A climber that reaches the interval while another is
+ * breeding skips it instead of waiting, as in {@link IslandModel}.
+ * <br /><br />
+ * Example code:<br/>
+ * <code><pre>
+ *  // Assume that rankings ranks the genomes of each group that breeds within itself
+ *
+ *  SteadyStateEngine engine = new SteadyStateEngine(rankings, batchFitnessEvaluator, random);
+ *
+ *  // In any hill climbing thread, after climbing some steps
+ *  engine.afterClimb(steps);
+ *
+ * </pre></code>
+ */
+public class SteadyStateEngine implements EvolutionEngine
+{
+  private final String ERROR_INTERVAL = "interval must be at least 1";
+  private final String ERROR_TOURNAMENT = "tournamentSize must be at least 1";
+
+  /** The smallest group that has two parents and two worst genomes that are not them. */
+  private static final int MIN_SIZE = 4;
+
+  /** The groups of genomes that breed within themselves, taken in turn. */
+  private final List<RankedPopulation> rankings;
+
+  private final BatchFitnessEvaluator batchFitnessEvaluator;
+
+  /** Used only by the climber that holds {@link #busy}. */
+  private final SplittableRandom random;
+
+  private final int interval;
+  private final int tournamentSize;
+
+  /** The steps climbed by every climber. */
+  private final AtomicLong steps = new AtomicLong();
+
+  /** Held by the climber that is breeding. */
+  private final AtomicBoolean busy = new AtomicBoolean();
+
+  /** The group that breeds next, guarded by {@link #busy}. */
+  private int next = 0;
+
+  /** The children of the current breeding, guarded by {@link #busy}. */
+  private final List<Genome> offspring = new ArrayList<Genome>(2);
+  private final long[] fitness = new long[2];
+
+  private final LongAdder generations = new LongAdder();
+  private final LongAdder skipped = new LongAdder();
+  private final LongAdder accepted = new LongAdder();
+  private final LongAdder duplicates = new LongAdder();
+
+  /**
+   * Creates an engine with the interval and tournament size in {@link Constants}.
+   * @param rankings The groups of genomes that breed within themselves.
+   * @param batchFitnessEvaluator Scores the children.
+   * @param random The stream to pick parents and crossover points with.
+   */
+  public SteadyStateEngine(List<RankedPopulation> rankings,
+      BatchFitnessEvaluator batchFitnessEvaluator, SplittableRandom random)
+  {
+    this(rankings, batchFitnessEvaluator, random, Constants.steadyStateInterval,
+        Constants.tournamentSize);
+  }
+
+  /**
+   * Creates an engine.
+   * @param rankings The groups of genomes that breed within themselves.
+   * @param batchFitnessEvaluator Scores the children.
+   * @param random The stream to pick parents and crossover points with.
+   * @param interval The number of hill climbing steps between two breedings.
+   * @param tournamentSize The number of genomes in the tournament for each parent.
+   */
+  public SteadyStateEngine(List<RankedPopulation> rankings,
+      BatchFitnessEvaluator batchFitnessEvaluator, SplittableRandom random, int interval,
+      int tournamentSize)
+  {
+    if (interval < 1) throw new IllegalArgumentException(ERROR_INTERVAL);
+    if (tournamentSize < 1) throw new IllegalArgumentException(ERROR_TOURNAMENT);
+    this.rankings = rankings;
+    this.batchFitnessEvaluator = batchFitnessEvaluator;
+    this.random = random;
+    this.interval = interval;
+    this.tournamentSize = tournamentSize;
+    offspring.add(new Genome());
+    offspring.add(new Genome());
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see trianglegenome.EvolutionEngine#getInterval()
+   */
+  @Override
+  public long getInterval()
+  {
+    return Long.MAX_VALUE;
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see trianglegenome.EvolutionEngine#evolve()
+   */
+  @Override
+  public void evolve()
+  {
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see trianglegenome.EvolutionEngine#afterClimb(int)
+   */
+  @Override
+  public void afterClimb(int steps)
+  {
+    long total = this.steps.addAndGet(steps);
+    if (total / interval == (total - steps) / interval) return;
+    if (!busy.compareAndSet(false, true))
+    {
+      skipped.increment();
+      return;
+    }
+    try
+    {
+      breed();
+    }
+    finally
+    {
+      busy.set(false);
+    }
+  }
+
+  /**
+   * Breeds two children in the next group that is big enough, and publishes each into one of
+   * the group's two worst genomes when it is better and not a duplicate.
+   */
+  private void breed()
+  {
+    RankedPopulation ranking = null;
+    for (int i = 0; i < rankings.size() && ranking == null; i++)
+    {
+      RankedPopulation r = rankings.get(next);
+      next = (next + 1) % rankings.size();
+      if (r.size() >= MIN_SIZE) ranking = r;
+    }
+    if (ranking == null) return;
+
+    Genome parent1 = tournament(ranking);
+    Genome parent2;
+    do
+    {
+      parent2 = tournament(ranking);
+    } while (parent2 != null && parent2 == parent1 && ranking.size() > 1);
+    // The genomes turned dirty since the group was picked
+    if (parent1 == null || parent2 == null || parent1 == parent2) return;
+    // Snapshots, since the parents may be climbed while this runs
+    Genome p1 = parent1.clone();
+    Genome p2 = parent2.clone();
+
+    int triangles = Math.min(p1.getTriangleCount(), p2.getTriangleCount());
+    if (triangles == 0) return;
+    int start = random.nextInt(triangles);
+    int end = start + 1 + random.nextInt(triangles - start);
+    Genome.doublePointCrossover(p1, p2, offspring.get(0), offspring.get(1),
+        start * Triangle.DNA_LENGTH, end * Triangle.DNA_LENGTH);
+    batchFitnessEvaluator.evaluateBatch(offspring, fitness);
+    generations.increment();
+
+    // A published child is ranked again, so every target is read before any child is
+    // published, and a genome that moved up the ranking meanwhile is not replaced twice
+    Genome[] targets = new Genome[offspring.size()];
+    for (int i = 0; i < targets.length; i++)
+    {
+      targets[i] = ranking.getFromWorst(i);
+      for (int j = 0; j < i; j++)
+      {
+        if (targets[i] == targets[j]) targets[i] = null;
+      }
+    }
+
+    for (int i = 0; i < offspring.size(); i++)
+    {
+      if (ranking.containsFingerprint(offspring.get(i).getFingerprint()))
+      {
+        duplicates.increment();
+        continue;
+      }
+      Genome worst = targets[i];
+      if (worst == null || worst == parent1 || worst == parent2) continue;
+      if (fitness[i] < worst.getFitness())
+      {
+        worst.publish(offspring.get(i));
+        accepted.increment();
+      }
+    }
+  }
+
+  /**
+   * Picks the most fit of {@link #tournamentSize} genomes picked at random, or null when no
+   * genome is ranked.
+   */
+  private Genome tournament(RankedPopulation ranking)
+  {
+    double best = 1;
+    for (int i = 0; i < tournamentSize; i++) best = Math.min(best, random.nextDouble());
+    return ranking.getByFraction(best);
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see trianglegenome.EvolutionEngine#getGenerationCount()
+   */
+  @Override
+  public long getGenerationCount()
+  {
+    return generations.sum();
+  }
+
+  /**
+   * Returns the number of children that replaced a worse genome.
+   * @return The number of children accepted.
+   */
+  public long getAcceptedCount()
+  {
+    return accepted.sum();
+  }
+
+  /**
+   * Returns the number of children dropped because a genome in their group had the same DNA.
+   * @return The number of duplicate children.
+   */
+  public long getDuplicateCount()
+  {
+    return duplicates.sum();
+  }
+
+  /**
+   * Returns the number of breedings skipped because another climber was breeding.
+   * @return The number of breedings skipped.
+   */
+  public long getSkippedCount()
+  {
+    return skipped.sum();
+  }
+}
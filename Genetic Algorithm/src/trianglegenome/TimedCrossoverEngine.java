@@ -0,0 +1,122 @@
+package trianglegenome;
+
+import static java.lang.Math.abs;
+import static java.lang.Math.max;
+
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the average fitness of the population every interval and, once it improves by
+ * less than 1/64 of the first improvement measured, performs a random number of crossovers on
+ * each of its {@link GenomeCrossover}s, up to an eighth of their genomes. Measuring then starts
+ * over. Everything runs on the {@link EvolutionModel} thread.
+ * <br /><br />
+ * Example code:<br/>
+ * <code><pre>
+ *  // Assume that ranking ranks the genomes and crossovers cross them over
+ *
+ *  EvolutionEngine engine = new TimedCrossoverEngine(ranking, crossovers, random);
+ *
+ * </pre></code>
+ */
+public class TimedCrossoverEngine implements EvolutionEngine
+{
+  /** How long the hill climbers run between two measurements of the average fitness. */
+  public static final long MEASURE_INTERVAL = TimeUnit.SECONDS.toNanos(10);
+
+  /** The genomes whose average fitness is measured. */
+  private final RankedPopulation ranking;
+
+  /** Each performs crossovers on its own genomes. */
+  private final List<GenomeCrossover> crossovers;
+
+  /** Picks the number of crossovers, only from the {@link EvolutionModel} thread. */
+  private final SplittableRandom random;
+
+  /** The average fitness at the last measurement. */
+  private long averageFitness = 0;
+
+  /** The improvement measured first since the last crossover, or 0 before it. */
+  private long firstFitnessDelta = 0;
+
+  /**
+   * Creates an engine that measures the fitness of a population and crosses it over.
+   * @param ranking The ranking of all genomes.
+   * @param crossovers The crossovers to perform, such as one for all genomes or one per
+   * tribe.
+   * @param random The stream to pick the number of crossovers with.
+   */
+  public TimedCrossoverEngine(RankedPopulation ranking, List<GenomeCrossover> crossovers,
+      SplittableRandom random)
+  {
+    this.ranking = ranking;
+    this.crossovers = crossovers;
+    this.random = random;
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see trianglegenome.EvolutionEngine#getInterval()
+   */
+  @Override
+  public long getInterval()
+  {
+    return MEASURE_INTERVAL;
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see trianglegenome.EvolutionEngine#evolve()
+   */
+  @Override
+  public void evolve()
+  {
+    long newAverageFitness = ranking.getAverageFitness();
+    long fitnessDelta = abs(newAverageFitness - averageFitness);
+    averageFitness = newAverageFitness;
+    if (firstFitnessDelta == 0) firstFitnessDelta = fitnessDelta;
+    else if (fitnessDelta <= firstFitnessDelta / 64)
+    {
+      // The hill climbers keep climbing, see GenomeCrossover
+      crossovers.forEach(c -> crossover(c));
+      firstFitnessDelta = 0;
+    }
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see trianglegenome.EvolutionEngine#afterClimb(int)
+   */
+  @Override
+  public void afterClimb(int steps)
+  {
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see trianglegenome.EvolutionEngine#getGenerationCount()
+   */
+  @Override
+  public long getGenerationCount()
+  {
+    return crossovers
+        .stream()
+        .mapToLong(c -> c.getGenerationCount())
+        .sum();
+  }
+
+  /**
+   * Performs a random number of crossovers, up to an eighth of the genomes, on the genomes of
+   * one GenomeCrossover. Too few genomes for a crossover are left alone.
+   * @param crossover The GenomeCrossover to perform the crossovers with.
+   */
+  private void crossover(GenomeCrossover crossover)
+  {
+    int size = crossover.getGenomes().size();
+    if (size < 5) return;
+    int bound = size / 8;
+    crossover.crossover((bound > 0) ? max(1, random.nextInt(bound)) : 1);
+  }
+}
@@ -14,7 +14,7 @@ public class Triangle implements Cloneable
   /**
    * The length of the {{@link #dna} array that keeps track of the triangle DNA.
    */
-  public static int DNA_LENGTH = 10;
+  public static final int DNA_LENGTH = 10;
   
   /**
    * Stores the color and the location of the triangle vertexes.
@@ -91,17 +91,24 @@ public class Triangle implements Cloneable
   
   public Rectangle getBoundingBox()
   {
-    int[] xs = Arrays.copyOfRange(dna, 0, 3);
-    Arrays.sort(xs);
-    int lowestX = xs[0];
-    int highestX = xs[2];
-    
-    int[] ys = Arrays.copyOfRange(dna, 3, 6);
-    Arrays.sort(ys);
-    int lowestY = ys[0];
-    int highestY = ys[2];
+    return getBoundingBox(new Rectangle());
+  }
+  
+  /**
+   * Writes the bounding box of this Triangle into an existing rectangle, so that callers on
+   * the hill climbing path do not allocate one.
+   * @param into The rectangle to overwrite.
+   * @return The same rectangle.
+   */
+  public Rectangle getBoundingBox(Rectangle into)
+  {
+    int lowestX = Math.min(dna[0], Math.min(dna[1], dna[2]));
+    int highestX = Math.max(dna[0], Math.max(dna[1], dna[2]));
+    int lowestY = Math.min(dna[3], Math.min(dna[4], dna[5]));
+    int highestY = Math.max(dna[3], Math.max(dna[4], dna[5]));
     
-    return new Rectangle(lowestX, lowestY, highestX - lowestX, highestY - lowestY);
+    into.setBounds(lowestX, lowestY, highestX - lowestX, highestY - lowestY);
+    return into;
   }
   
   /**
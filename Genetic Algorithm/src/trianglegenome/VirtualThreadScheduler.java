@@ -0,0 +1,513 @@
+package trianglegenome;
+
+import java.awt.image.BufferedImage;
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+import trianglegenome.fitness.ScreenCounters;
+import trianglegenome.render.GenomeRenderer;
+import trianglegenome.util.Constants;
+
+/**
+ * Hill climbs every genome of a population in its own virtual thread, so that a population of
+ * tens of thousands of genomes does not need as many platform threads and their stacks. The
+ * virtual threads share the JVM's carrier threads, one per core unless the
+ * <code>jdk.virtualThreadScheduler.parallelism</code> property says otherwise.
+ * <br /><br />
+ * Virtual threads are not time sliced, and a thread woken on a carrier runs before the threads
+ * queued from outside it, so the genomes would not take turns by themselves. Instead there is
+ * one slot per carrier, and a genome's thread climbs for a lease of a few steps only while it
+ * holds a slot. At the end of a lease the slot goes to the genome that has waited longest, and
+ * the thread waits at the back of the queue. The renderers and {@link HillClimbing} engines
+ * that the genomes are climbed with belong to the slots, so there is only one per carrier.
+ * The random number streams belong to the genomes, as in {@link WorkStealingScheduler}: each
+ * is split from the one given to the scheduler in the order of the list, and the engine
+ * switches to it for each lease, so a genome's mutations do not depend on the slot it gets.
+ * <br /><br />
+ * Virtual threads need Java 21 or later. This class only uses them through reflection, so it
+ * builds with the rest of src on Java 8 (only src-vector needs a newer JDK); check
+ * {@link #isAvailable()} before creating one.
+ * <br /><br />
+ * Example code:<br/>
+ * <code><pre>
+ *  if (VirtualThreadScheduler.isAvailable())
+ *  {
+ *    ClimbingScheduler s = new VirtualThreadScheduler(genomes, target,
+ *        new SplittableRandom(Constants.seed), () -> new SoftwareRasterizer(w, h));
+ *    s.unpause();
+ *  }
+ *
+ * </pre></code>
+ */
+public class VirtualThreadScheduler implements ClimbingScheduler
+{
+  private final String ERROR_UNAVAILABLE = "Virtual threads need Java 21 or later";
+  private final String ERROR_LEASE_STEPS = "leaseSteps must be at least 1";
+
+  /** Thread.ofVirtual(), or null when there are no virtual threads. */
+  private static final Method OF_VIRTUAL;
+
+  /** Thread.Builder#name(String, long) and Thread.Builder#unstarted(Runnable). */
+  private static final Method NAME;
+  private static final Method UNSTARTED;
+
+  static
+  {
+    Method ofVirtual = null;
+    Method name = null;
+    Method unstarted = null;
+    try
+    {
+      Class<?> builder = Class.forName("java.lang.Thread$Builder");
+      ofVirtual = Thread.class.getMethod("ofVirtual");
+      name = builder.getMethod("name", String.class, long.class);
+      unstarted = builder.getMethod("unstarted", Runnable.class);
+      // Thread.ofVirtual() is a preview on Java 19 and 20 and throws unless previews are enabled
+      ofVirtual.invoke(null);
+    }
+    catch (ReflectiveOperationException | LinkageError e)
+    {
+      ofVirtual = null;
+    }
+    OF_VIRTUAL = ofVirtual;
+    NAME = name;
+    UNSTARTED = unstarted;
+  }
+
+  private final List<Genome> genomes;
+  private final BufferedImage target;
+  private final Supplier<GenomeRenderer> rendererFactory;
+
+  /** The stream of each genome, split in the order of {@link #genomes}. A genome's stream is
+   * only used while it holds a slot. */
+  private final Map<Genome, SplittableRandom> streams =
+      new IdentityHashMap<Genome, SplittableRandom>();
+
+  /** One virtual thread per genome. */
+  private final List<Thread> threads;
+
+  /** Guards everything below it. A lock rather than synchronized, because a virtual thread
+   * waiting on a monitor holds on to its carrier. */
+  private final ReentrantLock lock = new ReentrantLock();
+
+  /** Signalled when {@link #climbing} becomes 0, or every thread has started waiting. */
+  private final Condition idle = lock.newCondition();
+
+  /** Signalled by {@link #unpause()} and {@link #stop()}, for the genomes whose lease threw. */
+  private final Condition resumed = lock.newCondition();
+
+  /** The scratch space of each slot that is not in use. */
+  private final ArrayDeque<Scratch> scratch = new ArrayDeque<Scratch>();
+
+  /** The genomes waiting for a slot, longest waiting first. */
+  private final ArrayDeque<Turn> queue = new ArrayDeque<Turn>();
+
+  /** The number of slots, one per carrier. */
+  private final int slots;
+
+  /** The number of slots held by a genome. */
+  private int climbing = 0;
+
+  /** The number of calls to {@link #unpause()}. */
+  private long unpauses = 0;
+
+  private volatile boolean paused = true;
+  private volatile boolean stopped = false;
+  private volatile int leaseSteps = Constants.leaseSteps;
+  private volatile EvolutionEngine evolutionEngine; // told after every lease, or null
+
+  /** What the coarse screen of every slot counted. */
+  private final ScreenCounters screenCounters = new ScreenCounters();
+
+  /** The number of steps performed on every genome. */
+  private final LongAdder stepCount = new LongAdder();
+
+  /**
+   * Returns whether this JVM can create virtual threads.
+   * @return Whether this JVM can create virtual threads.
+   */
+  public static boolean isAvailable()
+  {
+    return OF_VIRTUAL != null;
+  }
+
+  /**
+   * Returns the number of carrier threads that virtual threads are run on.
+   * @return The parallelism of the virtual thread scheduler.
+   */
+  public static int getCarrierCount()
+  {
+    return Integer.getInteger("jdk.virtualThreadScheduler.parallelism",
+        Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * Creates a paused scheduler with one virtual thread for each genome. Nothing is climbed
+   * until {@link #unpause()} is called.
+   * @param genomes The genomes to climb.
+   * @param target The image that the genomes should eventually resemble.
+   * @param random The stream that each genome's stream is split from.
+   * @param rendererFactory Creates the renderer of each slot.
+   */
+  public VirtualThreadScheduler(List<Genome> genomes, BufferedImage target,
+      SplittableRandom random, Supplier<GenomeRenderer> rendererFactory)
+  {
+    if (!isAvailable()) throw new IllegalStateException(ERROR_UNAVAILABLE);
+    this.genomes = genomes;
+    this.target = target;
+    this.rendererFactory = rendererFactory;
+    slots = getCarrierCount();
+    for (Genome genome : genomes) streams.put(genome, random.split());
+    for (int i = 0; i < slots; i++) scratch.add(new Scratch(random.split()));
+    threads = new ArrayList<Thread>(genomes.size());
+    startThreads();
+  }
+
+  /**
+   * Sets the number of steps a genome is climbed for before its slot goes to the next genome,
+   * which is {@link Constants#leaseSteps} by default.
+   * @param leaseSteps The number of steps per lease.
+   */
+  public void setLeaseSteps(int leaseSteps)
+  {
+    if (leaseSteps < 1) throw new IllegalArgumentException(ERROR_LEASE_STEPS);
+    this.leaseSteps = leaseSteps;
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see trianglegenome.ClimbingScheduler#unpause()
+   */
+  @Override
+  public void unpause()
+  {
+    lock.lock();
+    try
+    {
+      if (stopped) return;
+      paused = false;
+      unpauses++;
+      resumed.signalAll();
+      while (climbing < slots && !queue.isEmpty())
+      {
+        climbing++;
+        grant();
+      }
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see trianglegenome.ClimbingScheduler#pause()
+   */
+  @Override
+  public void pause()
+  {
+    lock.lock();
+    try
+    {
+      paused = true;
+      awaitIdle();
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see trianglegenome.ClimbingScheduler#isPaused()
+   */
+  @Override
+  public boolean isPaused()
+  {
+    lock.lock();
+    try
+    {
+      return paused && climbing == 0;
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see trianglegenome.ClimbingScheduler#isRunning()
+   */
+  @Override
+  public boolean isRunning()
+  {
+    return !stopped;
+  }
+
+  /**
+   * Climbs every genome by one step on the calling thread while paused.
+   * Does nothing when not paused.
+   */
+  @Override
+  public void performOneEvolution()
+  {
+    lock.lock();
+    try
+    {
+      if (!paused || climbing > 0 || stopped) return;
+      Scratch s = scratch.peek();
+      for (Genome genome : genomes)
+      {
+        GenomeDrawPanelPair state = new GenomeDrawPanelPair(genome, s.renderer);
+        s.engine.setRandom(streams.get(genome));
+        s.engine.performEvolution(state);
+        s.engine.endRun(state);
+        stepCount.increment();
+      }
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see trianglegenome.ClimbingScheduler#stop()
+   */
+  @Override
+  public void stop()
+  {
+    lock.lock();
+    try
+    {
+      stopped = true;
+      paused = true;
+      for (Turn turn : queue) turn.wake.signal();
+      queue.clear();
+      resumed.signalAll();
+      awaitIdle();
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see trianglegenome.ClimbingScheduler#setEvolutionEngine(trianglegenome.EvolutionEngine)
+   */
+  @Override
+  public void setEvolutionEngine(EvolutionEngine engine)
+  {
+    this.evolutionEngine = engine;
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see trianglegenome.ClimbingScheduler#getGenerationCount()
+   */
+  @Override
+  public long getGenerationCount()
+  {
+    return stepCount.sum();
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see trianglegenome.ClimbingScheduler#getScreenCounters()
+   */
+  @Override
+  public ScreenCounters getScreenCounters()
+  {
+    return screenCounters;
+  }
+
+  /**
+   * Creates and starts one virtual thread per genome, and waits until every one of them is in
+   * the queue.
+   */
+  private void startThreads()
+  {
+    try
+    {
+      Object builder = NAME.invoke(OF_VIRTUAL.invoke(null), "HillClimbing-Genome-", 0L);
+      for (Genome genome : genomes)
+      {
+        threads.add((Thread)UNSTARTED.invoke(builder, (Runnable)() -> climb(genome)));
+      }
+    }
+    catch (ReflectiveOperationException e)
+    {
+      throw new IllegalStateException(ERROR_UNAVAILABLE, e);
+    }
+    lock.lock();
+    try
+    {
+      threads.forEach(t -> t.start());
+      while (queue.size() < threads.size()) idle.awaitUninterruptibly();
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * The body of a genome's virtual thread: climbs the genome a lease at a time, whenever it
+   * holds a slot, until stopped. A lease that throws is reported as an uncaught exception of
+   * the thread, and the genome is not climbed again until the next {@link #unpause()}.
+   */
+  private void climb(Genome genome)
+  {
+    Turn turn = new Turn();
+    lock.lock();
+    try
+    {
+      while (awaitTurn(turn))
+      {
+        Scratch s = scratch.poll();
+        lock.unlock();
+        boolean climbed = false;
+        try
+        {
+          GenomeDrawPanelPair state = new GenomeDrawPanelPair(genome, s.renderer);
+          s.engine.setRandom(streams.get(genome));
+          int performed = 0;
+          for (; performed < leaseSteps && !paused; performed++)
+          {
+            s.engine.performEvolution(state);
+          }
+          s.engine.endRun(state);
+          stepCount.add(performed);
+          EvolutionEngine engine = evolutionEngine;
+          if (engine != null && performed > 0) engine.afterClimb(performed);
+          climbed = true;
+        }
+        catch (RuntimeException e)
+        {
+          Thread thread = Thread.currentThread();
+          thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+        }
+        finally
+        {
+          // Also when a step throws, or pause() would wait for this slot forever
+          lock.lock();
+          scratch.add(s);
+          endTurn();
+        }
+        long seen = unpauses;
+        while (!climbed && unpauses == seen && !stopped) resumed.awaitUninterruptibly();
+      }
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Takes a free slot when no other genome is waiting for one, and otherwise waits in the queue
+   * until a slot is handed over. Must hold {@link #lock}.
+   * @return False when the scheduler was stopped.
+   */
+  private boolean awaitTurn(Turn turn)
+  {
+    if (stopped) return false;
+    if (!paused && !stopped && climbing < slots && queue.isEmpty())
+    {
+      climbing++;
+      return true;
+    }
+    queue.add(turn);
+    if (queue.size() == threads.size()) idle.signalAll();
+    while (true)
+    {
+      turn.wake.awaitUninterruptibly();
+      if (!turn.granted)
+      {
+        if (stopped) return false;
+        continue;
+      }
+      turn.granted = false;
+      if (!paused) return true;
+      // Paused or stopped after this slot was handed over: give it back, and keep this place
+      // in the queue
+      if (--climbing == 0) idle.signalAll();
+      if (stopped) return false;
+      queue.addFirst(turn);
+    }
+  }
+
+  /**
+   * Hands the slot of a finished lease to the genome that has waited longest, or frees it.
+   * Must hold {@link #lock}.
+   */
+  private void endTurn()
+  {
+    if (!paused && !queue.isEmpty())
+    {
+      grant();
+      return;
+    }
+    if (--climbing == 0) idle.signalAll();
+  }
+
+  /**
+   * Wakes the genome that has waited longest with a slot that has already been counted in
+   * {@link #climbing}. Must hold {@link #lock}.
+   */
+  private void grant()
+  {
+    Turn next = queue.poll();
+    next.granted = true;
+    next.wake.signal();
+  }
+
+  /**
+   * Waits until no genome holds a slot. Must hold {@link #lock}.
+   */
+  private void awaitIdle()
+  {
+    while (climbing > 0) idle.awaitUninterruptibly();
+  }
+
+  /**
+   * A genome's place in the queue.
+   */
+  private final class Turn
+  {
+    private final Condition wake = lock.newCondition();
+
+    /** Whether a slot has been handed to this genome. */
+    private boolean granted = false;
+  }
+
+  /**
+   * The renderer and engine of one slot.
+   */
+  private final class Scratch
+  {
+    private final GenomeRenderer renderer = rendererFactory.get();
+    private final HillClimbing engine;
+
+    private Scratch(SplittableRandom random)
+    {
+      engine = new HillClimbing(new ArrayList<GenomeDrawPanelPair>(0), target, random);
+      engine.setScreenCounters(screenCounters);
+    }
+  }
+}
@@ -0,0 +1,387 @@
+package trianglegenome;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import trianglegenome.fitness.ScreenCounters;
+import trianglegenome.render.GenomeRenderer;
+import trianglegenome.util.Constants;
+
+/**
+ * Hill climbs a population of genomes on a work-stealing {@link ForkJoinPool} instead of
+ * binding each genome to one {@link HillClimbing} thread. Every genome is a work item that is
+ * climbed for a lease of a few steps and then queued again, so a worker that runs out of leases
+ * steals the next one from a busier worker instead of sitting idle. Each lease climbs whichever
+ * genome has waited longest, so that the genomes take turns, and a genome is never climbed by
+ * two workers at once.
+ * <br /><br />
+ * Each worker thread keeps its own renderer and its own {@link HillClimbing}, used only as the
+ * engine that performs the steps. Every genome has its own random number stream, split from
+ * the one given to the scheduler in the order of the list, which the engine switches to for
+ * each lease. A genome's mutations then do not depend on which worker climbs it, so a seeded
+ * run can be replayed. Tribes are then only labels that the GUI groups genomes by, not threads.
+ * <br /><br />
+ * Example code:<br/>
+ * <code><pre>
+ *  // Assume that genomes is a global population of genomes
+ *  // Assume that target is the reference image.
+ *
+ *  WorkStealingScheduler s = new WorkStealingScheduler(32, genomes, target,
+ *      new SplittableRandom(Constants.seed), () -> new SoftwareRasterizer(w, h));
+ *  s.unpause();
+ *  Thread.sleep(500); // Assume exception is thrown by method
+ *  s.pause(); // returns once no genome is being climbed
+ *  s.unpause();
+ *  s.stop();
+ *
+ * </pre></code>
+ */
+public class WorkStealingScheduler implements ClimbingScheduler
+{
+  private final String ERROR_THREAD_COUNT = "threadCount must be at least 1";
+  private final String ERROR_LEASE_STEPS = "leaseSteps must be at least 1";
+
+  private final ForkJoinPool pool;
+  private final List<Genome> genomes;
+  private final BufferedImage target;
+
+  /** Creates the renderer of each worker. */
+  private final Supplier<GenomeRenderer> rendererFactory;
+
+  /** The stream of each genome, split in the order of {@link #genomes}. A genome's stream is
+   * only used by the worker holding its lease. */
+  private final Map<Genome, SplittableRandom> streams =
+      new IdentityHashMap<Genome, SplittableRandom>();
+
+  /** Guards {@link #parked} and {@link #active}, and is notified when {@link #active} is 0. */
+  private final Object lock = new Object();
+
+  /** The genomes that are not queued or being climbed. */
+  private final Queue<Genome> parked = new ArrayDeque<Genome>();
+
+  /** The genomes waiting for a worker, longest waiting first. */
+  private final Queue<Genome> ready = new ConcurrentLinkedQueue<Genome>();
+
+  /** The number of genomes that are queued or being climbed. */
+  private int active = 0;
+
+  private volatile boolean paused = true;
+  private volatile boolean stopped = false;
+  private volatile int leaseSteps = Constants.leaseSteps;
+  private volatile EvolutionEngine evolutionEngine; // told after every lease, or null
+
+  /** What the coarse screen of every worker counted. */
+  private final ScreenCounters screenCounters = new ScreenCounters();
+
+  /** The number of steps performed by every worker. */
+  private final LongAdder stepCount = new LongAdder();
+
+  /**
+   * Creates a paused scheduler with a pool of the given number of workers. Nothing is climbed
+   * until {@link #unpause()} is called.
+   * @param threadCount The number of worker threads.
+   * @param genomes The genomes to climb.
+   * @param target The image that the genomes should eventually resemble.
+   * @param random The stream that each genome's stream is split from.
+   * @param rendererFactory Creates the renderer of each worker.
+   */
+  public WorkStealingScheduler(int threadCount, List<Genome> genomes, BufferedImage target,
+      SplittableRandom random, Supplier<GenomeRenderer> rendererFactory)
+  {
+    if (threadCount < 1) throw new IllegalArgumentException(ERROR_THREAD_COUNT);
+    this.genomes = genomes;
+    this.target = target;
+    this.rendererFactory = rendererFactory;
+    for (Genome genome : genomes) streams.put(genome, random.split());
+    parked.addAll(genomes);
+    // Leases are never joined, so async mode runs each worker's queue first in, first out
+    pool = new ForkJoinPool(threadCount, ClimbingWorker::new, null, true);
+  }
+
+  /**
+   * Sets the number of steps a genome is climbed for before it is queued again, which is
+   * {@link Constants#leaseSteps} by default. Shorter leases spread the genomes more evenly and
+   * pause sooner. Longer ones queue less often, and since a genome usually goes to another
+   * worker, which draws it from scratch, they also redraw less often.
+   * @param leaseSteps The number of steps per lease.
+   */
+  public void setLeaseSteps(int leaseSteps)
+  {
+    if (leaseSteps < 1) throw new IllegalArgumentException(ERROR_LEASE_STEPS);
+    this.leaseSteps = leaseSteps;
+  }
+
+  /**
+   * Queues every parked genome to be climbed until the next call to {@link #pause()}.
+   */
+  @Override
+  public void unpause()
+  {
+    synchronized (lock)
+    {
+      if (stopped) return;
+      paused = false;
+      submitParked(true);
+    }
+  }
+
+  /**
+   * Stops queueing genomes and returns once every genome being climbed has finished its lease.
+   */
+  @Override
+  public void pause()
+  {
+    paused = true;
+    awaitParked();
+  }
+
+  /**
+   * Returns whether the scheduler is paused and no genome is being climbed.
+   * @return Whether the scheduler is paused and no genome is being climbed.
+   */
+  @Override
+  public boolean isPaused()
+  {
+    synchronized (lock)
+    {
+      return paused && active == 0;
+    }
+  }
+
+  /**
+   * Returns whether {@link #stop()} has not been called.
+   * @return Whether the scheduler can still climb.
+   */
+  @Override
+  public boolean isRunning()
+  {
+    return !stopped;
+  }
+
+  /**
+   * Climbs every genome by one step while paused, and returns once they are all done.
+   * Does nothing when not paused.
+   */
+  @Override
+  public void performOneEvolution()
+  {
+    synchronized (lock)
+    {
+      if (!paused || stopped) return;
+      submitParked(false);
+    }
+    awaitParked();
+  }
+
+  /**
+   * Pauses, then shuts the worker threads down. The scheduler cannot be unpaused afterwards.
+   */
+  @Override
+  public void stop()
+  {
+    synchronized (lock)
+    {
+      stopped = true;
+      paused = true;
+    }
+    awaitParked();
+    pool.shutdown();
+  }
+
+  /**
+   * Sets the engine that the worker that climbed a lease tells about its steps.
+   * @param engine The engine, or null for none.
+   */
+  @Override
+  public void setEvolutionEngine(EvolutionEngine engine)
+  {
+    this.evolutionEngine = engine;
+  }
+
+  /**
+   * Returns the number of hill climbing steps performed by every worker.
+   * @return The number of hill climbing steps performed.
+   */
+  @Override
+  public long getGenerationCount()
+  {
+    return stepCount.sum();
+  }
+
+  /**
+   * Returns the counters that the coarse screen of every worker counts in.
+   * @return The screen counters of every worker.
+   */
+  @Override
+  public ScreenCounters getScreenCounters()
+  {
+    return screenCounters;
+  }
+
+  /**
+   * Returns the genomes climbed by this scheduler.
+   * @return The genomes climbed by this scheduler.
+   */
+  public List<Genome> getGenomes()
+  {
+    return genomes;
+  }
+
+  /**
+   * Queues every parked genome. Must hold {@link #lock}.
+   * @param repeat Whether each genome queues itself again after its lease.
+   */
+  private void submitParked(boolean repeat)
+  {
+    int steps = repeat ? leaseSteps : 1;
+    while (!parked.isEmpty())
+    {
+      active++;
+      ready.add(parked.poll());
+      pool.execute(new Lease(steps, repeat));
+    }
+  }
+
+  /**
+   * Waits until no genome is queued or being climbed.
+   */
+  private void awaitParked()
+  {
+    synchronized (lock)
+    {
+      while (active > 0)
+      {
+        try
+        {
+          lock.wait();
+        }
+        catch (InterruptedException e)
+        {
+          Thread.currentThread().interrupt();
+          return;
+        }
+      }
+    }
+  }
+
+  /**
+   * Puts a genome at the back of {@link #ready} and forks the lease that will climb the genome
+   * at the front, onto the current worker's queue where another worker may steal it.
+   */
+  private void requeue(Genome genome, int steps)
+  {
+    ready.add(genome);
+    new Lease(steps, true).fork();
+  }
+
+  /**
+   * Climbs the genome that has waited longest in {@link #ready} for a number of steps on
+   * whichever worker runs it, then queues it again.
+   */
+  private final class Lease extends RecursiveAction
+  {
+    private static final long serialVersionUID = 1L;
+
+    private final int steps;
+    private final boolean repeat;
+
+    private Lease(int steps, boolean repeat)
+    {
+      this.steps = steps;
+      this.repeat = repeat;
+    }
+
+    @Override
+    protected void compute()
+    {
+      // There is one lease for every genome in ready, so this is never null
+      Genome genome = ready.poll();
+      boolean climbed = false;
+      try
+      {
+        ClimbingWorker worker = (ClimbingWorker)Thread.currentThread();
+        GenomeDrawPanelPair state = new GenomeDrawPanelPair(genome, worker.renderer);
+        worker.engine.setRandom(streams.get(genome));
+        int performed = 0;
+        while (performed < steps && !(repeat && paused))
+        {
+          worker.engine.performEvolution(state);
+          performed++;
+        }
+        worker.engine.endRun(state);
+        stepCount.add(performed);
+        EvolutionEngine engine = evolutionEngine;
+        if (engine != null && performed > 0) engine.afterClimb(performed);
+        climbed = true;
+      }
+      catch (RuntimeException e)
+      {
+        // The pool would drop it, so it is reported as an uncaught exception of this worker
+        Thread worker = Thread.currentThread();
+        worker.getUncaughtExceptionHandler().uncaughtException(worker, e);
+      }
+      finally
+      {
+        // A lease that threw parks its genome until the next unpause(), so that pause() does
+        // not wait for it forever
+        release(genome, repeat && climbed);
+      }
+    }
+
+    /**
+     * Queues a genome again after its lease, or parks it while paused.
+     * @param again Whether the genome should be queued again unless paused.
+     */
+    private void release(Genome genome, boolean again)
+    {
+      if (again && !paused)
+      {
+        requeue(genome, steps);
+        return;
+      }
+      synchronized (lock)
+      {
+        // unpause() may have run since paused was read, after it had taken the parked genomes
+        if (again && !paused)
+        {
+          requeue(genome, steps);
+          return;
+        }
+        parked.add(genome);
+        if (--active == 0) lock.notifyAll();
+      }
+    }
+  }
+
+  /**
+   * A worker thread of the pool, with the scratch space that it climbs every genome with.
+   */
+  private final class ClimbingWorker extends ForkJoinWorkerThread
+  {
+    private final GenomeRenderer renderer;
+    private final HillClimbing engine;
+
+    private ClimbingWorker(ForkJoinPool pool)
+    {
+      super(pool);
+      setName("HillClimbing-Worker-" + getPoolIndex());
+      renderer = rendererFactory.get();
+      // Each lease switches the engine to the stream of its genome before climbing
+      engine = new HillClimbing(new ArrayList<GenomeDrawPanelPair>(0), target,
+          new SplittableRandom(0));
+      engine.setScreenCounters(screenCounters);
+    }
+  }
+}
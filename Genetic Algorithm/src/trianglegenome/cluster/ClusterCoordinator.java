@@ -0,0 +1,371 @@
+package trianglegenome.cluster;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+
+import trianglegenome.Genome;
+
+/**
+ * Collects the progress of the {@link ClusterNode}s of a cluster and hands the best genome
+ * of the whole cluster to every node that is behind it. Each node connects over TCP and, every
+ * interval, reports its best fitness and generation count and sends a copy of its best genome.
+ * When a node sends a genome better than any seen so far, the coordinator keeps it as the
+ * cluster's elite and sends it once to every node whose best fitness is worse.
+ * <br /><br />
+ * A connection starts with {@link #MAGIC} and the
+ * {@link GenomeCodec#problemId(java.awt.image.BufferedImage, trianglegenome.fitness.ColorDistance)
+ * problem id} of the node. The first node to connect sets the cluster's problem id, and a node
+ * with another one, such as one started on another image, is disconnected before it is sent
+ * anything, since its fitnesses cannot be compared with the others. After that every message
+ * is a type
+ * byte followed by its payload: {@link #PROGRESS} is the best fitness and the generation count
+ * as two longs, and {@link #GENOME} is a genome in the form of {@link GenomeCodec}. The
+ * coordinator only ever sends {@link #GENOME} messages.
+ * <br /><br />
+ * Example code:<br/>
+ * <code><pre>
+ *  ClusterCoordinator coordinator = new ClusterCoordinator(0); // any free port
+ *  coordinator.start();
+ *  int port = coordinator.getPort(); // for the nodes to connect to
+ *
+ *  // Later
+ *  long best = coordinator.getBestFitness();
+ *  coordinator.stop();
+ *
+ * </pre></code>
+ *
+ * Run it on its own with <code>java trianglegenome.cluster.ClusterCoordinator port</code>.
+ */
+public class ClusterCoordinator
+{
+  /** The first four bytes that a node sends, "TGC" and the protocol version. */
+  static final int MAGIC = 0x54474302;
+
+  /** The type of a message with a node's best fitness and generation count. */
+  static final byte PROGRESS = 1;
+
+  /** The type of a message with a genome. */
+  static final byte GENOME = 2;
+
+  private final String ERROR_MAGIC = "Not a cluster node";
+  private final String ERROR_PROBLEM = "Node evolves another image or color distance";
+  private final String ERROR_TYPE = "Unknown message type ";
+
+  private final ServerSocket serverSocket;
+  private final List<Connection> connections = new CopyOnWriteArrayList<Connection>();
+
+  /** The best genome that any node has sent, guarded by this. */
+  private Genome elite;
+
+  /** Incremented every time {@link #elite} changes, guarded by this. */
+  private long eliteVersion = 0;
+
+  /** The problem id of the first node, which every other node must have, guarded by this. */
+  private Long problemId;
+
+  private volatile boolean stopped = false;
+
+  private final LongAdder genomesReceived = new LongAdder();
+  private final LongAdder elitesSent = new LongAdder();
+  private final LongAdder nodesRejected = new LongAdder();
+
+  /**
+   * Creates a coordinator that listens on the loopback and every other interface.
+   * @param port The port to listen on, or 0 for any free port.
+   * @throws IOException When the port cannot be listened on.
+   */
+  public ClusterCoordinator(int port) throws IOException
+  {
+    serverSocket = new ServerSocket(port);
+  }
+
+  /**
+   * Starts accepting nodes on a thread of its own.
+   */
+  public void start()
+  {
+    Thread acceptor = new Thread(this::accept, "ClusterCoordinator-Acceptor");
+    acceptor.setDaemon(true);
+    acceptor.start();
+  }
+
+  /**
+   * Stops accepting nodes and closes every connection.
+   */
+  public void stop()
+  {
+    stopped = true;
+    try
+    {
+      serverSocket.close();
+    }
+    catch (IOException e) {}
+    connections.forEach(c -> c.close());
+  }
+
+  /**
+   * Returns the port that the coordinator listens on.
+   * @return The port that the coordinator listens on.
+   */
+  public int getPort()
+  {
+    return serverSocket.getLocalPort();
+  }
+
+  /**
+   * Returns the number of nodes that have connected with the cluster's problem id, including
+   * those that have since left.
+   * @return The number of nodes that have connected.
+   */
+  public int getNodeCount()
+  {
+    return connections.size();
+  }
+
+  /**
+   * Returns the best fitness that any node has reported.
+   * @return The best fitness in the cluster, or Long.MAX_VALUE before the first report.
+   */
+  public long getBestFitness()
+  {
+    return connections
+        .stream()
+        .mapToLong(c -> c.bestFitness)
+        .min()
+        .orElse(Long.MAX_VALUE);
+  }
+
+  /**
+   * Returns the sum of the generation counts that the nodes last reported.
+   * @return The number of generations in the cluster.
+   */
+  public long getTotalGenerations()
+  {
+    return connections
+        .stream()
+        .mapToLong(c -> c.generations)
+        .sum();
+  }
+
+  /**
+   * Returns a copy of the best genome that any node has sent.
+   * @return The cluster's elite, or null before the first genome.
+   */
+  public synchronized Genome getElite()
+  {
+    if (elite == null) return null;
+    Genome copy = elite.clone();
+    copy.setFitness(elite.getFitness());
+    return copy;
+  }
+
+  /**
+   * Returns the number of genomes that the nodes have sent.
+   * @return The number of genomes received.
+   */
+  public long getGenomesReceived()
+  {
+    return genomesReceived.sum();
+  }
+
+  /**
+   * Returns the number of nodes that were disconnected because their problem id was not the
+   * cluster's.
+   * @return The number of nodes rejected.
+   */
+  public long getNodesRejected()
+  {
+    return nodesRejected.sum();
+  }
+
+  /**
+   * Returns the number of times the elite was sent to a node that was behind it.
+   * @return The number of elites sent.
+   */
+  public long getElitesSent()
+  {
+    return elitesSent.sum();
+  }
+
+  /**
+   * Accepts nodes until stopped, each with a thread that reads its messages.
+   */
+  private void accept()
+  {
+    while (!stopped)
+    {
+      try
+      {
+        Connection connection = new Connection(serverSocket.accept());
+        Thread reader = new Thread(connection::read, "ClusterCoordinator-Node");
+        reader.setDaemon(true);
+        reader.start();
+      }
+      catch (IOException e)
+      {
+        // The server socket was closed by stop()
+      }
+    }
+  }
+
+  /**
+   * Takes the problem id of the first node as the cluster's, and tells whether a node has it.
+   */
+  private synchronized boolean admit(long id)
+  {
+    if (problemId == null) problemId = id;
+    return problemId == id;
+  }
+
+  /**
+   * Keeps a genome from a node if it is the best so far, and sends the elite to every node
+   * that is behind it and has not been sent it yet.
+   */
+  private void offer(Genome genome)
+  {
+    genomesReceived.increment();
+    Genome send;
+    long version;
+    synchronized (this)
+    {
+      if (elite == null || genome.getFitness() < elite.getFitness())
+      {
+        elite = genome;
+        eliteVersion++;
+      }
+      send = elite;
+      version = eliteVersion;
+    }
+    for (Connection c : connections)
+    {
+      if (c.bestFitness > send.getFitness() && c.sentVersion < version)
+      {
+        c.sentVersion = version;
+        if (c.send(send)) elitesSent.increment();
+      }
+    }
+  }
+
+  /**
+   * One node's socket and what it last reported.
+   */
+  private final class Connection
+  {
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+
+    private volatile long bestFitness = Long.MAX_VALUE;
+    private volatile long generations = 0;
+
+    /** The version of the elite last sent to this node. */
+    private volatile long sentVersion = 0;
+
+    private Connection(Socket socket) throws IOException
+    {
+      this.socket = socket;
+      socket.setTcpNoDelay(true);
+      in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+      out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+    }
+
+    /**
+     * Reads the node's messages until it disconnects.
+     */
+    private void read()
+    {
+      try
+      {
+        if (in.readInt() != MAGIC) throw new IOException(ERROR_MAGIC);
+        if (!admit(in.readLong()))
+        {
+          nodesRejected.increment();
+          throw new IOException(ERROR_PROBLEM);
+        }
+        // Only now can the node be sent the elite
+        connections.add(this);
+        while (!stopped)
+        {
+          byte type = in.readByte();
+          if (type == PROGRESS)
+          {
+            bestFitness = in.readLong();
+            generations = in.readLong();
+          }
+          else if (type == GENOME)
+          {
+            offer(GenomeCodec.read(in));
+          }
+          else throw new IOException(ERROR_TYPE + type);
+        }
+      }
+      catch (IOException e)
+      {
+        // The node disconnected, or the coordinator was stopped
+      }
+      close();
+    }
+
+    /**
+     * Sends a genome to the node.
+     * @return Whether it was sent.
+     */
+    private boolean send(Genome genome)
+    {
+      try
+      {
+        synchronized (out)
+        {
+          out.writeByte(GENOME);
+          GenomeCodec.write(genome, out);
+          out.flush();
+        }
+        return true;
+      }
+      catch (IOException e)
+      {
+        return false;
+      }
+    }
+
+    private void close()
+    {
+      try
+      {
+        socket.close();
+      }
+      catch (IOException e) {}
+    }
+  }
+
+  /**
+   * Runs a coordinator until the process is killed, printing the cluster's progress.
+   * @param args The port to listen on, 7654 by default.
+   * @throws IOException When the port cannot be listened on.
+   * @throws InterruptedException When interrupted between two reports.
+   */
+  public static void main(String[] args) throws IOException, InterruptedException
+  {
+    int port = (args.length > 0) ? Integer.parseInt(args[0]) : 7654;
+    ClusterCoordinator coordinator = new ClusterCoordinator(port);
+    coordinator.start();
+    System.out.println("Coordinating on " + InetAddress.getLocalHost().getHostName() + ":"
+        + coordinator.getPort());
+    while (true)
+    {
+      Thread.sleep(5000);
+      System.out.println(coordinator.getNodeCount() + " nodes, best fitness "
+          + coordinator.getBestFitness() + ", " + coordinator.getTotalGenerations()
+          + " generations, " + coordinator.getElitesSent() + " elites sent");
+    }
+  }
+}
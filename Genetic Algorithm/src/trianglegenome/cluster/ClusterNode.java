@@ -0,0 +1,281 @@
+package trianglegenome.cluster;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+import trianglegenome.EvolutionModel;
+import trianglegenome.Genome;
+import trianglegenome.RankedPopulation;
+import trianglegenome.SeedGenome;
+import trianglegenome.util.Constants;
+
+/**
+ * Connects the population of one {@link EvolutionModel} to a {@link ClusterCoordinator}, so
+ * that several processes, on one machine or many, evolve the same image together. Every
+ * interval the node reports its best fitness and generation count and sends a copy of its best
+ * genome. A genome that arrives from the coordinator replaces the node's worst genome, through
+ * {@link Genome#publish(Genome)}, when it is better, so the hill climbers never stop for it.
+ * The best and worst genomes are those of the model's {@link RankedPopulation}, so a genome
+ * whose fitness is stale is never sent or compared. The node connects with the problem id of
+ * the model's target image and {@link Constants#colorDistance}, so that the coordinator can
+ * turn away nodes whose fitnesses cannot be compared.
+ * <br /><br />
+ * Example code:<br/>
+ * <code><pre>
+ *  // Assume that model is a started EvolutionModel climbing genomes
+ *
+ *  ClusterNode node = new ClusterNode(model, 1000);
+ *  node.connect("localhost", 7654); // Assume exception is thrown by method
+ *
+ *  // Later
+ *  node.stop();
+ *
+ * </pre></code>
+ *
+ * Run a node on its own with
+ * <code>java trianglegenome.cluster.ClusterNode host port seconds [threads] [image] [seed]</code>
+ * from the project directory, so that the images can be found.
+ */
+public class ClusterNode
+{
+  private final String ERROR_INTERVAL = "intervalMillis must be at least 1";
+  private final String ERROR_TYPE = "Unknown message type ";
+
+  private final EvolutionModel model;
+  private final long intervalMillis;
+
+  private Socket socket;
+  private DataInputStream in;
+  private DataOutputStream out;
+  private Thread reporter;
+  private Thread receiver;
+  private volatile boolean stopped = false;
+
+  private final LongAdder reportsSent = new LongAdder();
+  private final LongAdder genomesReceived = new LongAdder();
+  private final LongAdder genomesAccepted = new LongAdder();
+
+  /**
+   * Creates a node that is not connected yet.
+   * @param model The model whose population and generation count are reported.
+   * @param intervalMillis The time between two reports to the coordinator.
+   */
+  public ClusterNode(EvolutionModel model, long intervalMillis)
+  {
+    if (intervalMillis < 1) throw new IllegalArgumentException(ERROR_INTERVAL);
+    this.model = model;
+    this.intervalMillis = intervalMillis;
+  }
+
+  /**
+   * Connects to a coordinator and starts reporting to it and taking genomes from it, each on
+   * a thread of its own.
+   * @param host The host of the coordinator.
+   * @param port The port of the coordinator.
+   * @throws IOException When the coordinator cannot be reached.
+   */
+  public void connect(String host, int port) throws IOException
+  {
+    socket = new Socket(host, port);
+    socket.setTcpNoDelay(true);
+    in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+    out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+    out.writeInt(ClusterCoordinator.MAGIC);
+    out.writeLong(GenomeCodec.problemId(model.getTarget(), Constants.colorDistance));
+    out.flush();
+
+    reporter = new Thread(this::report, "ClusterNode-Reporter");
+    receiver = new Thread(this::receive, "ClusterNode-Receiver");
+    reporter.setDaemon(true);
+    receiver.setDaemon(true);
+    reporter.start();
+    receiver.start();
+  }
+
+  /**
+   * Sends a last report, then disconnects.
+   */
+  public void stop()
+  {
+    stopped = true;
+    if (reporter == null) return;
+    reporter.interrupt();
+    try
+    {
+      reporter.join();
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+    }
+    sendReport();
+    try
+    {
+      socket.close();
+    }
+    catch (IOException e) {}
+  }
+
+  /**
+   * Returns the number of reports sent to the coordinator.
+   * @return The number of reports sent.
+   */
+  public long getReportsSent()
+  {
+    return reportsSent.sum();
+  }
+
+  /**
+   * Returns the number of genomes that arrived from the coordinator.
+   * @return The number of genomes received.
+   */
+  public long getGenomesReceived()
+  {
+    return genomesReceived.sum();
+  }
+
+  /**
+   * Returns the number of genomes from the coordinator that replaced a worse genome.
+   * @return The number of genomes accepted.
+   */
+  public long getGenomesAccepted()
+  {
+    return genomesAccepted.sum();
+  }
+
+  /**
+   * Sends a report every interval until stopped.
+   */
+  private void report()
+  {
+    while (!stopped)
+    {
+      try
+      {
+        Thread.sleep(intervalMillis);
+      }
+      catch (InterruptedException e)
+      {
+        return;
+      }
+      if (!sendReport()) return;
+    }
+  }
+
+  /**
+   * Sends the best fitness, the generation count and the best genome.
+   * @return Whether the report was sent.
+   */
+  private boolean sendReport()
+  {
+    RankedPopulation ranking = model.getRanking();
+    Genome best = ranking.getBest();
+    try
+    {
+      synchronized (out)
+      {
+        out.writeByte(ClusterCoordinator.PROGRESS);
+        out.writeLong(ranking.getBestFitness());
+        out.writeLong(model.getTotalGenerations());
+        if (best != null)
+        {
+          out.writeByte(ClusterCoordinator.GENOME);
+          GenomeCodec.write(best, out);
+        }
+        out.flush();
+      }
+      reportsSent.increment();
+      return true;
+    }
+    catch (IOException e)
+    {
+      return false;
+    }
+  }
+
+  /**
+   * Takes in the genomes from the coordinator until disconnected.
+   */
+  private void receive()
+  {
+    try
+    {
+      while (!stopped)
+      {
+        byte type = in.readByte();
+        if (type != ClusterCoordinator.GENOME) throw new IOException(ERROR_TYPE + type);
+        Genome genome = GenomeCodec.read(in);
+        genomesReceived.increment();
+
+        RankedPopulation ranking = model.getRanking();
+        Genome worst = ranking.getWorst();
+        if (worst != null && genome.getFitness() < ranking.getWorstFitness())
+        {
+          worst.publish(genome);
+          genomesAccepted.increment();
+        }
+      }
+    }
+    catch (IOException e)
+    {
+      // The coordinator went away, or this node was stopped
+    }
+  }
+
+  /**
+   * Evolves an image in this process as one node of a cluster for a number of seconds, then
+   * prints the node's counters.
+   * @param args The host and port of the coordinator, the number of seconds to run for, and
+   * optionally the number of hill climbing threads (1), the index of the image (1) and the
+   * seed.
+   * @throws IOException When the coordinator cannot be reached.
+   * @throws InterruptedException When interrupted while running.
+   */
+  public static void main(String[] args) throws IOException, InterruptedException
+  {
+    String host = args[0];
+    int port = Integer.parseInt(args[1]);
+    long seconds = Long.parseLong(args[2]);
+    int threadCount = (args.length > 3) ? Integer.parseInt(args[3]) : 1;
+    Constants.selectedImage = (args.length > 4) ? Integer.parseInt(args[4]) : 1;
+    if (args.length > 5) Constants.seed = Long.parseLong(args[5]);
+
+    BufferedImage target = Constants.IMAGES[Constants.selectedImage];
+    Constants.width = target.getWidth();
+    Constants.height = target.getHeight();
+    Constants.threadCount = threadCount;
+    SplittableRandom random = new SplittableRandom(Constants.seed);
+    int populationSize = (Constants.populationSize > 0)
+        ? Constants.populationSize : 10 * threadCount;
+    List<Genome> genomes = new ArrayList<Genome>(populationSize);
+    for (int i = 0; i < populationSize; i++)
+    {
+      genomes.add(SeedGenome.generateSeed(target, random));
+    }
+
+    EvolutionModel model = new EvolutionModel(threadCount, genomes, target, random.split());
+    model.pause();
+    model.start();
+    model.unpause();
+
+    ClusterNode node = new ClusterNode(model, 500);
+    node.connect(host, port);
+    Thread.sleep(seconds * 1000);
+    node.stop();
+    System.out.println("best " + model.getBestFitnessValue() + " generations "
+        + model.getTotalGenerations() + " reports " + node.getReportsSent() + " received "
+        + node.getGenomesReceived() + " accepted " + node.getGenomesAccepted());
+    model.interrupt();
+    model.join();
+    System.exit(0);
+  }
+}
@@ -0,0 +1,145 @@
+package trianglegenome.cluster;
+
+import java.awt.image.BufferedImage;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import trianglegenome.Genome;
+import trianglegenome.Triangle;
+import trianglegenome.fitness.ColorDistance;
+import trianglegenome.util.Constants;
+
+/**
+ * Writes and reads a {@link Genome} in a compact binary form, for sending genomes between
+ * processes. A genome is its triangle count as an unsigned short and its fitness as a long,
+ * followed by each triangle as its six coordinates in unsigned shorts and its four color and
+ * alpha values in unsigned bytes. That is 16 bytes per triangle instead of the 40 of the ints
+ * in {@link Genome#getDNA()}, and a fraction of the XML.
+ * <br /><br />
+ * A fitness only means something next to the target image and color distance that it was
+ * scored against, so genomes should only be exchanged between processes with the same
+ * {@link #problemId(BufferedImage, ColorDistance) problem id}. The cluster sends it in the
+ * header of every connection.
+ * <br /><br />
+ * Example code:<br/>
+ * <code><pre>
+ *  DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+ *  GenomeCodec.write(genome, out);
+ *
+ *  DataInputStream in = new DataInputStream(socket.getInputStream());
+ *  Genome copy = GenomeCodec.read(in); // has the DNA and fitness of genome
+ *
+ * </pre></code>
+ */
+public class GenomeCodec
+{
+  /** The number of DNA values of a triangle that are coordinates. */
+  private static final int COORDINATES = 6;
+
+  private static final String ERROR_COORDINATE = "Coordinate out of range 0 to 65535: ";
+  private static final String ERROR_COLOR = "Color out of range 0 to 255: ";
+  private static final String ERROR_COUNT = "Triangle count out of range 0 to "
+      + Constants.TRIANGLE_COUNT + ": ";
+
+  /**
+   * Returns a 64-bit id of a target image and a color distance, which is the same in every
+   * process that scores genomes against the same pixels with the same distance.
+   * @param target The target image.
+   * @param distance The color distance that fitnesses are summed with.
+   * @return The id of the problem.
+   */
+  public static long problemId(BufferedImage target, ColorDistance distance)
+  {
+    int width = target.getWidth();
+    int height = target.getHeight();
+    long id = mix(mix(distance.getKernelName().hashCode()) ^ width) ^ height;
+    for (int rgb : target.getRGB(0, 0, width, height, null, 0, width))
+    {
+      id = mix(id ^ (rgb & 0xFFFFFF));
+    }
+    return id;
+  }
+
+  /**
+   * Scrambles the bits of a value with the SplitMix64 finalizer.
+   */
+  private static long mix(long z)
+  {
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    return z ^ (z >>> 31);
+  }
+
+  /**
+   * Returns the number of bytes that {@link #write(Genome, DataOutput)} writes for a genome.
+   * @param genome The genome.
+   * @return The size of the genome when encoded.
+   */
+  public static int encodedSize(Genome genome)
+  {
+    return 2 + 8 + genome.getTriangleCount() * (COORDINATES * 2 + 4);
+  }
+
+  /**
+   * Writes the DNA and fitness of a genome, under its monitor so that they match.
+   * @param genome The genome to write.
+   * @param out Where to write it.
+   * @throws IOException When writing fails.
+   */
+  public static void write(Genome genome, DataOutput out) throws IOException
+  {
+    synchronized (genome)
+    {
+      int count = genome.getTriangleCount();
+      out.writeShort(count);
+      out.writeLong(genome.getFitness());
+      for (int t = 0; t < count; t++)
+      {
+        for (int i = 0; i < Triangle.DNA_LENGTH; i++)
+        {
+          int value = genome.getDNA(t, i);
+          if (i < COORDINATES)
+          {
+            if (value < 0 || value > 0xFFFF)
+            {
+              throw new IllegalArgumentException(ERROR_COORDINATE + value);
+            }
+            out.writeShort(value);
+          }
+          else
+          {
+            if (value < 0 || value > Constants.MAX_RGBA)
+            {
+              throw new IllegalArgumentException(ERROR_COLOR + value);
+            }
+            out.writeByte(value);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Reads a genome written by {@link #write(Genome, DataOutput)}.
+   * @param in Where to read it from.
+   * @return A new genome with the DNA and fitness that were written.
+   * @throws IOException When reading fails, or the triangle count is out of range.
+   */
+  public static Genome read(DataInput in) throws IOException
+  {
+    int count = in.readUnsignedShort();
+    if (count > Constants.TRIANGLE_COUNT) throw new IOException(ERROR_COUNT + count);
+    long fitness = in.readLong();
+    int[] dna = new int[count * Triangle.DNA_LENGTH];
+    for (int i = 0; i < dna.length; i++)
+    {
+      dna[i] = (i % Triangle.DNA_LENGTH < COORDINATES)
+          ? in.readUnsignedShort()
+          : in.readUnsignedByte();
+    }
+    Genome genome = new Genome(dna);
+    genome.setFitness(fitness);
+    return genome;
+  }
+}
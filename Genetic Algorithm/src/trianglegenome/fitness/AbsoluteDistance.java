@@ -0,0 +1,35 @@
+package trianglegenome.fitness;
+
+/**
+ * The sum of the absolute differences of the red, green and blue channels of two pixels,
+ * |dr| + |dg| + |db|. Cheap, and less dominated by a few very wrong pixels than squared
+ * distances are.
+ */
+public class AbsoluteDistance implements ColorDistance
+{
+  /*
+   * (non-Javadoc)
+   * @see trianglegenome.fitness.ColorDistance#distance(int, int)
+   */
+  @Override
+  public int distance(int rgb1, int rgb2)
+  {
+    int dr = ((rgb1 >> 16) & 0xFF) - ((rgb2 >> 16) & 0xFF);
+    int dg = ((rgb1 >> 8) & 0xFF) - ((rgb2 >> 8) & 0xFF);
+    int db = (rgb1 & 0xFF) - (rgb2 & 0xFF);
+    // (d ^ (d >> 31)) - (d >> 31) is |d| without a branch
+    return ((dr ^ (dr >> 31)) - (dr >> 31))
+        + ((dg ^ (dg >> 31)) - (dg >> 31))
+        + ((db ^ (db >> 31)) - (db >> 31));
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see trianglegenome.fitness.ColorDistance#getKernelName()
+   */
+  @Override
+  public String getKernelName()
+  {
+    return "fitnessSumAbsolute";
+  }
+}
@@ -0,0 +1,216 @@
+package trianglegenome.fitness;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+import trianglegenome.Genome;
+import trianglegenome.util.Constants;
+
+/**
+ * Scores the {@link Genome#isDirty() dirty} genomes of a population in batches, on a thread
+ * of its own, so that a genome changed by crossover or by hand gets its real fitness back
+ * without anyone waiting for it. The thread looks for dirty genomes every interval, or at once
+ * when {@link #signal() signalled}. A caller that needs every fitness to be right now, such as
+ * selection, can score the dirty genomes itself with {@link #scoreDirty()}.
+ * <br /><br />
+ * Each dirty genome is copied with its version, the copies are scored together by a
+ * {@link BatchFitnessEvaluator}, and a fitness is only set on a genome that is still dirty and
+ * still has the same version. A genome that a hill climber reached first, or that was changed
+ * again meanwhile, keeps what it has, so a late score never overwrites a newer one.
+ * <br /><br />
+ * Example code:<br/>
+ * <code><pre>
+ *  BackgroundScorer scorer = new BackgroundScorer(genomes, batchFitnessEvaluator);
+ *  scorer.start();
+ *
+ *  genome.setTriangle(0, triangle); // makes genome dirty
+ *  scorer.signal(); // scores it soon
+ *
+ *  scorer.stop();
+ *
+ * </pre></code>
+ */
+public class BackgroundScorer
+{
+  private final String ERROR_INTERVAL = "intervalMillis must be at least 1";
+
+  private final List<Genome> genomes;
+  private final BatchFitnessEvaluator batchFitnessEvaluator;
+  private final long intervalMillis;
+
+  /** Held while dirty genomes are scored, by the thread or by a caller. */
+  private final Object drainLock = new Object();
+
+  /** The dirty genomes of the current drain and the versions they were copied at. */
+  private final List<Genome> dirty = new ArrayList<Genome>();
+  private long[] versions = new long[0];
+
+  /** The copies that are scored, reused by every drain. */
+  private final List<Genome> snapshots = new ArrayList<Genome>();
+  private long[] fitness = new long[0];
+
+  /** Set by {@link #signal()}, guarded by this. */
+  private boolean signalled = false;
+
+  private Thread thread;
+  private volatile boolean stopped = false;
+
+  private final LongAdder scored = new LongAdder();
+  private final LongAdder discarded = new LongAdder();
+
+  /**
+   * Creates a scorer that looks for dirty genomes every {@link Constants#rescoreInterval}.
+   * @param genomes The population to keep scored.
+   * @param batchFitnessEvaluator Scores the dirty genomes.
+   */
+  public BackgroundScorer(List<Genome> genomes, BatchFitnessEvaluator batchFitnessEvaluator)
+  {
+    this(genomes, batchFitnessEvaluator, Constants.rescoreInterval);
+  }
+
+  /**
+   * Creates a scorer.
+   * @param genomes The population to keep scored.
+   * @param batchFitnessEvaluator Scores the dirty genomes.
+   * @param intervalMillis The milliseconds between two looks for dirty genomes.
+   */
+  public BackgroundScorer(List<Genome> genomes, BatchFitnessEvaluator batchFitnessEvaluator,
+      long intervalMillis)
+  {
+    if (intervalMillis < 1) throw new IllegalArgumentException(ERROR_INTERVAL);
+    this.genomes = genomes;
+    this.batchFitnessEvaluator = batchFitnessEvaluator;
+    this.intervalMillis = intervalMillis;
+  }
+
+  /**
+   * Starts scoring on a thread of its own.
+   */
+  public void start()
+  {
+    thread = new Thread(this::run, "BackgroundScorer-Thread");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Stops the thread and returns once it has ended.
+   */
+  public void stop()
+  {
+    stopped = true;
+    if (thread == null) return;
+    thread.interrupt();
+    try
+    {
+      thread.join();
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Wakes the thread to score the dirty genomes now instead of at the end of the interval.
+   */
+  public synchronized void signal()
+  {
+    signalled = true;
+    notifyAll();
+  }
+
+  /**
+   * Scores every genome that is dirty, in one batch on the calling thread, and returns once
+   * their fitness is set.
+   * @return The number of genomes whose fitness was set.
+   */
+  public int scoreDirty()
+  {
+    synchronized (drainLock)
+    {
+      dirty.clear();
+      if (versions.length < genomes.size())
+      {
+        versions = new long[genomes.size()];
+        fitness = new long[genomes.size()];
+      }
+      for (Genome genome : genomes)
+      {
+        if (!genome.isDirty()) continue;
+        synchronized (genome)
+        {
+          if (!genome.isDirty()) continue;
+          if (snapshots.size() == dirty.size()) snapshots.add(new Genome());
+          versions[dirty.size()] = genome.getVersion();
+          snapshots.get(dirty.size()).copyFrom(genome);
+          dirty.add(genome);
+        }
+      }
+      int count = dirty.size();
+      if (count == 0) return 0;
+
+      batchFitnessEvaluator.evaluateBatch(snapshots.subList(0, count), fitness);
+
+      int set = 0;
+      for (int i = 0; i < count; i++)
+      {
+        Genome genome = dirty.get(i);
+        synchronized (genome)
+        {
+          if (genome.isDirty() && genome.getVersion() == versions[i])
+          {
+            genome.setFitness(fitness[i]);
+            set++;
+          }
+        }
+      }
+      scored.add(set);
+      discarded.add(count - set);
+      return set;
+    }
+  }
+
+  /**
+   * Returns the number of genomes whose fitness was set.
+   * @return The number of genomes scored.
+   */
+  public long getScoredCount()
+  {
+    return scored.sum();
+  }
+
+  /**
+   * Returns the number of scores dropped because the genome was scored or changed by someone
+   * else first.
+   * @return The number of scores discarded.
+   */
+  public long getDiscardedCount()
+  {
+    return discarded.sum();
+  }
+
+  /**
+   * Scores the dirty genomes every interval, or when signalled, until stopped.
+   */
+  private void run()
+  {
+    while (!stopped)
+    {
+      try
+      {
+        synchronized (this)
+        {
+          if (!signalled) wait(intervalMillis);
+          signalled = false;
+        }
+      }
+      catch (InterruptedException e)
+      {
+        return;
+      }
+      scoreDirty();
+    }
+  }
+}
@@ -0,0 +1,161 @@
+package trianglegenome.fitness;
+
+import static java.lang.Math.min;
+
+import java.awt.image.BufferedImage;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import trianglegenome.FitnessEvaluator;
+import trianglegenome.Genome;
+import trianglegenome.render.SoftwareRasterizer;
+import trianglegenome.util.Constants;
+
+/**
+ * Renders and scores many genomes in one call, splitting them between workers that each keep
+ * their own {@link SoftwareRasterizer} and {@link FitnessEvaluator}. The workers are created
+ * once and reused by every batch, so a batch only pays for drawing and scoring, not for
+ * creating images, OpenCL queues or buffers.
+ * <br /><br />
+ * Before drawing a genome, a worker looks up its {@link Genome#getFingerprint() fingerprint}
+ * in a {@link FitnessCache}, the shared one when {@link Constants#useFitnessCache} is set, and
+ * only draws and scores the genomes that are not in it.
+ * <br /><br />
+ * Example code:<br/>
+ * <code><pre>
+ *  BatchFitnessEvaluator batch = new BatchFitnessEvaluator(target);
+ *
+ *  // Sets the fitness of every genome and returns the fitnesses in the same order
+ *  long[] fitness = batch.evaluateBatch(genomes);
+ *
+ * </pre></code>
+ */
+public class BatchFitnessEvaluator
+{
+  /** The reference image that the genomes are compared to. */
+  private final BufferedImage reference;
+
+  /** The distance that every worker measures with, fixed when this is created. */
+  private final ColorDistance colorDistance;
+
+  /** The fitnesses already known, or null to draw every genome. */
+  private final FitnessCache cache;
+
+  /** The id of the reference image and distance in {@link #cache}. */
+  private final int targetId;
+
+  /** The scratch of each worker, created the first time it is needed. */
+  private final Worker[] workers;
+
+  /**
+   * Creates a batch evaluator with one worker per available processor.
+   * @param reference The reference image that the genomes are compared to.
+   */
+  public BatchFitnessEvaluator(BufferedImage reference)
+  {
+    this(reference, Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * Creates a batch evaluator with a given number of workers.
+   * @param reference The reference image that the genomes are compared to.
+   * @param workerCount The most genomes to score at the same time.
+   */
+  public BatchFitnessEvaluator(BufferedImage reference, int workerCount)
+  {
+    this(reference, workerCount, Constants.useFitnessCache ? FitnessCache.getShared() : null);
+  }
+
+  /**
+   * Creates a batch evaluator with a given number of workers and cache.
+   * @param reference The reference image that the genomes are compared to.
+   * @param workerCount The most genomes to score at the same time.
+   * @param cache The fitnesses already known, or null to draw every genome.
+   */
+  public BatchFitnessEvaluator(BufferedImage reference, int workerCount, FitnessCache cache)
+  {
+    if (workerCount < 1)
+    {
+      throw new IllegalArgumentException("workerCount must be at least 1");
+    }
+    this.reference = reference;
+    this.colorDistance = Constants.colorDistance;
+    this.cache = cache;
+    this.targetId = FitnessCache.targetId(reference, colorDistance);
+    this.workers = new Worker[workerCount];
+  }
+
+  /**
+   * Renders and scores every genome in a list and sets each genome's fitness.
+   * @param genomes The genomes to score.
+   * @return The fitness of each genome, in the same order as the list.
+   */
+  public long[] evaluateBatch(List<Genome> genomes)
+  {
+    long[] fitness = new long[genomes.size()];
+    evaluateBatch(genomes, fitness);
+    return fitness;
+  }
+
+  /**
+   * Renders and scores every genome in a list, sets each genome's fitness and writes it into
+   * an array, so that callers that score batches often do not allocate a new array each time.
+   * @param genomes The genomes to score.
+   * @param fitness The array to write the fitness of each genome into, in the same order as
+   * the list. Must be at least as long as the list.
+   */
+  public synchronized void evaluateBatch(List<Genome> genomes, long[] fitness)
+  {
+    int count = genomes.size();
+    if (fitness.length < count)
+    {
+      throw new IllegalArgumentException("fitness must be at least as long as genomes");
+    }
+    if (count == 0) return;
+
+    int workerCount = min(workers.length, count);
+    int perWorker = (count + workerCount - 1) / workerCount;
+    IntStream.range(0, workerCount).parallel().forEach(w ->
+    {
+      if (workers[w] == null) workers[w] = new Worker();
+      int end = min(count, (w + 1) * perWorker);
+      for (int i = w * perWorker; i < end; i++)
+      {
+        fitness[i] = workers[w].evaluate(genomes.get(i));
+      }
+    });
+  }
+
+  /**
+   * The renderer and evaluator that one worker draws and scores its genomes with.
+   */
+  private class Worker
+  {
+    private final SoftwareRasterizer rasterizer;
+    private final FitnessEvaluator fitnessEvaluator;
+
+    Worker()
+    {
+      // Every genome is drawn from scratch, so checkpoints would only cost memory
+      rasterizer = new SoftwareRasterizer(reference.getWidth(), reference.getHeight(), 0);
+      fitnessEvaluator = new FitnessEvaluator(reference, colorDistance);
+    }
+
+    /**
+     * Looks up the fitness of one genome, or draws and scores it, and sets its fitness.
+     */
+    long evaluate(Genome genome)
+    {
+      long fingerprint = genome.getFingerprint();
+      long fitness = (cache == null) ? FitnessCache.MISS : cache.get(targetId, fingerprint);
+      if (fitness == FitnessCache.MISS)
+      {
+        rasterizer.setGenome(genome);
+        fitness = fitnessEvaluator.differenceSum(rasterizer.getSnapshot());
+        if (cache != null) cache.put(targetId, fingerprint, fitness);
+      }
+      genome.setFitness(fitness);
+      return fitness;
+    }
+  }
+}
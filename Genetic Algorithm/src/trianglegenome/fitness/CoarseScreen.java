@@ -0,0 +1,266 @@
+package trianglegenome.fitness;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.SplittableRandom;
+
+import trianglegenome.FitnessEvaluator;
+import trianglegenome.Genome;
+import trianglegenome.Triangle;
+import trianglegenome.render.SoftwareRasterizer;
+
+/**
+ * Scores a change to one triangle of a genome on a smaller copy of the image before it is
+ * drawn and scored at full size. A change that makes the small image clearly worse is almost
+ * always worse at full size too, so hill climbing can reject it after drawing only a fraction
+ * of the pixels.
+ * <br /><br />
+ * The screen keeps its own copy of the genome with every coordinate scaled down to one level of
+ * a {@link ReferencePyramid}, its own {@link SoftwareRasterizer} and its own
+ * {@link FitnessEvaluator}. A change passes the screen unless the small image gets worse by more
+ * than a tolerance for each small pixel that was redrawn.
+ * <br /><br />
+ * Hill climbing tells the screen what the full size score decided, so the screen counts hits
+ * (it agreed) and misses (it did not) in its {@link ScreenCounters}, which the screens of
+ * every climber of a run can share. Changes that are rejected are not scored at full size,
+ * except for one in every {@link #setAuditInterval(int) audit interval} on average, which keeps
+ * the counts honest about changes the screen threw away. Which ones are audited is drawn from
+ * a {@link #setAuditRandom(SplittableRandom) random stream}, so that it does not depend on the
+ * changes that the screen saw before, on this genome or on another.
+ * <br /><br />
+ * Example code:<br/>
+ * <code><pre>
+ *  CoarseScreen screen = new CoarseScreen(fitnessEvaluator.getReferencePyramid(), 2, 0);
+ *  screen.reset(genome);
+ *
+ *  genome.setDNA(5, 0, 10);
+ *  boolean promising = screen.screen(genome, 5);
+ *  if (promising || screen.audit())
+ *  {
+ *    // score the change at full size, then
+ *    screen.record(promising, improved);
+ *  }
+ *
+ *  // keep the change
+ *  screen.commit();
+ *
+ *  // or undo it in the genome first, then
+ *  screen.rollback(genome, 5);
+ *
+ * </pre></code>
+ */
+public class CoarseScreen
+{
+  private final String ERROR_LEVEL = "level must be from 1 to " + ReferencePyramid.LEVELS;
+
+  /** The number of times smaller the image is on each side is 2^level. */
+  private final int level;
+
+  /** How much worse per redrawn small pixel a change may look and still pass. */
+  private final double tolerance;
+
+  private final SoftwareRasterizer rasterizer;
+  private final FitnessEvaluator fitnessEvaluator;
+
+  /** The genome with its coordinates scaled down to the small image. */
+  private Genome scaled = new Genome(new int[Genome.GENOME_LENGTH]);
+
+  /** Whether the small image has been drawn yet. */
+  private boolean initialized = false;
+
+  /** The fitness of the small image before the last screened change. */
+  private long fitness;
+
+  /** The fitness of the small image after the last screened change. */
+  private long pendingFitness;
+
+  /** The part of the small image redrawn by the last screened change. */
+  private final Rectangle region = new Rectangle();
+
+  /** Reused to find the bounding box of the changed triangle. */
+  private final Rectangle newBox = new Rectangle();
+
+  /** One in this many rejected changes, on average, is checked at full size. */
+  private int auditInterval = 16;
+  private SplittableRandom auditRandom = new SplittableRandom();
+
+  private ScreenCounters counters = new ScreenCounters();
+
+  /**
+   * Creates a screen that scores changes on one level of a reference pyramid.
+   * @param pyramid The pyramid of the reference image.
+   * @param level The level to score on, from 1 to {@link ReferencePyramid#LEVELS}.
+   * @param tolerance How much worse per redrawn small pixel, in units of the fitness, a change
+   * may look on the small image and still pass.
+   */
+  public CoarseScreen(ReferencePyramid pyramid, int level, double tolerance)
+  {
+    if (level < 1 || level > ReferencePyramid.LEVELS)
+    {
+      throw new IllegalArgumentException(ERROR_LEVEL);
+    }
+    this.level = level;
+    this.tolerance = tolerance;
+    BufferedImage reference = pyramid.getLevel(level);
+    rasterizer = new SoftwareRasterizer(reference.getWidth(), reference.getHeight());
+    fitnessEvaluator = new FitnessEvaluator(reference);
+  }
+
+  /**
+   * Sets how many rejected changes pass between changes that are checked at full size anyway.
+   * @param auditInterval The number of rejected changes per audit, 0 to never audit.
+   */
+  public void setAuditInterval(int auditInterval)
+  {
+    this.auditInterval = auditInterval;
+  }
+
+  /**
+   * Sets the counters that this screen counts its hits, misses and screened out changes in,
+   * which may be shared with the screens of other climbers.
+   * @param counters The counters to count in.
+   */
+  public void setCounters(ScreenCounters counters)
+  {
+    this.counters = counters;
+  }
+
+  /**
+   * Returns the counters that this screen counts in.
+   * @return The counters of this screen.
+   */
+  public ScreenCounters getCounters()
+  {
+    return counters;
+  }
+
+  /**
+   * Sets the random numbers that pick the rejected changes to audit, so that the audits of a
+   * seeded run are repeatable. The stream must not be shared with another thread.
+   * @param auditRandom The random number stream to pick audits with.
+   */
+  public void setAuditRandom(SplittableRandom auditRandom)
+  {
+    this.auditRandom = auditRandom;
+  }
+
+  /**
+   * Copies a whole genome into the screen and scores it on the small image. Call this whenever
+   * the genome may have changed without going through {@link #screen(Genome, int)}. When the
+   * scaled genome turns out not to have changed, nothing is redrawn.
+   * @param genome The full size genome.
+   * @return The fitness of the small image.
+   */
+  public long reset(Genome genome)
+  {
+    boolean changed = !initialized;
+    synchronized (genome)
+    {
+      int count = genome.getTriangleCount();
+      if (scaled.getTriangleCount() != count)
+      {
+        scaled = new Genome(new int[count * Triangle.DNA_LENGTH]);
+        changed = true;
+      }
+      for (int t = 0; t < count; t++) changed |= copyTriangle(genome, t);
+    }
+    if (changed)
+    {
+      rasterizer.setGenome(scaled);
+      fitness = fitnessEvaluator.initializeErrorBuffer(rasterizer.getSnapshot());
+      initialized = true;
+    }
+    return fitness;
+  }
+
+  /**
+   * Copies a changed triangle into the screen, redraws it on the small image and decides
+   * whether the change is worth scoring at full size. The change must then be either kept with
+   * {@link #commit()} or undone with {@link #rollback(Genome, int)}.
+   * @param genome The full size genome, after the change.
+   * @param triangle The index of the triangle that changed.
+   * @return True when the change does not look worse on the small image by more than the
+   * tolerance.
+   */
+  public boolean screen(Genome genome, int triangle)
+  {
+    scaled.getBoundingBox(triangle, region);
+    synchronized (genome)
+    {
+      copyTriangle(genome, triangle);
+    }
+    region.add(scaled.getBoundingBox(triangle, newBox));
+    rasterizer.updateTriangle(triangle, region);
+
+    pendingFitness = fitnessEvaluator.differenceSumRegion(rasterizer.getSnapshot(), region);
+    return pendingFitness - fitness <= tolerance * Math.max(1, region.width * region.height);
+  }
+
+  /**
+   * Keeps the change last passed to {@link #screen(Genome, int)}.
+   */
+  public void commit()
+  {
+    fitnessEvaluator.commitRegion();
+    fitness = pendingFitness;
+  }
+
+  /**
+   * Undoes the change last passed to {@link #screen(Genome, int)}.
+   * @param genome The full size genome, after the change was undone in it.
+   * @param triangle The index of the triangle that changed.
+   */
+  public void rollback(Genome genome, int triangle)
+  {
+    fitnessEvaluator.rollbackRegion();
+    synchronized (genome)
+    {
+      copyTriangle(genome, triangle);
+    }
+    rasterizer.updateTriangle(triangle, region);
+  }
+
+  /**
+   * Returns whether a change that the screen rejected should be checked at full size anyway,
+   * to count how often the screen is wrong. Call this once for every rejected change. A
+   * rejected change that is not audited counts as screened out.
+   * @return True once every audit interval, on average.
+   */
+  public boolean audit()
+  {
+    if (auditInterval > 0 && auditRandom.nextInt(auditInterval) == 0) return true;
+    counters.screenOut();
+    return false;
+  }
+
+  /**
+   * Counts whether the screen agreed with the full size score of a change.
+   * @param promising What {@link #screen(Genome, int)} returned for the change.
+   * @param improved Whether the change was kept at full size.
+   */
+  public void record(boolean promising, boolean improved)
+  {
+    if (promising == improved) counters.hit();
+    else counters.miss();
+  }
+
+  /**
+   * Copies one triangle of a full size genome into {@link #scaled}, scaling its vertices down.
+   * @return Whether the scaled triangle changed.
+   */
+  private boolean copyTriangle(Genome genome, int triangle)
+  {
+    boolean changed = false;
+    for (int i = 0; i < Triangle.DNA_LENGTH; i++)
+    {
+      int value = genome.getDNA(triangle, i);
+      if (i < 6) value >>= level;
+      if (scaled.getDNA(triangle, i) != value)
+      {
+        scaled.setDNA(triangle, i, value);
+        changed = true;
+      }
+    }
+    return changed;
+  }
+}
@@ -0,0 +1,39 @@
+package trianglegenome.fitness;
+
+/**
+ * A way of measuring how different two pixels are. The fitness of a genome is the sum of the
+ * distances between each pixel of its image and the same pixel of the reference image, so
+ * changing the distance changes what hill climbing tries to match.
+ * <br /><br />
+ * Every distance has a Java path, {@link #distance(int, int)}, and a kernel path, a kernel in
+ * kernels/fitness.cl named by {@link #getKernelName()}. The two must give exactly the same
+ * result for every pair of pixels. Distances must not be negative and must be 0 for two equal
+ * pixels.
+ * <br /><br />
+ * Example code:<br/>
+ * <code><pre>
+ *  ColorDistance d = new AbsoluteDistance();
+ *  int a = d.distance(0x102030, 0x102030); // 0
+ *  int b = d.distance(0x000000, 0x0A0B0C); // 10 + 11 + 12 = 33
+ *
+ *  Constants.colorDistance = d; // Used by every FitnessEvaluator created after this
+ *
+ * </pre></code>
+ */
+public interface ColorDistance
+{
+  /**
+   * Returns the distance between two pixels.
+   * @param rgb1 The first pixel, as 0xRRGGBB.
+   * @param rgb2 The second pixel, as 0xRRGGBB.
+   * @return The distance between the two pixels, 0 or more.
+   */
+  public int distance(int rgb1, int rgb2);
+
+  /**
+   * Returns the name of the kernel in kernels/fitness.cl that sums this distance over every
+   * pixel of two images (see the fitnessSum kernels there).
+   * @return The name of the kernel.
+   */
+  public String getKernelName();
+}
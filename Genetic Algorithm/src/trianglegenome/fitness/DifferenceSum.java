@@ -0,0 +1,31 @@
+package trianglegenome.fitness;
+
+/**
+ * Adds up a {@link ColorDistance} over a run of pixels of two images. It is the part of
+ * {@link trianglegenome.FitnessEvaluator#differenceSumJava(java.awt.image.BufferedImage)} that
+ * can be swapped for a faster implementation, such as VectorFitnessSum in src-vector, which must
+ * give exactly the same sum as adding up {@link ColorDistance#distance(int, int)} one pixel at a
+ * time.
+ * <br /><br />
+ * Example code:<br/>
+ * <code><pre>
+ *  DifferenceSum s = new VectorFitnessSum(new EuclideanDistance());
+ *
+ *  // The fitness of the first row of a 100 pixel wide image
+ *  long row = s.sum(referencePixels, trianglePixels, 0, 100);
+ *
+ * </pre></code>
+ */
+public interface DifferenceSum
+{
+  /**
+   * Returns the sum of the distances between the pixels of two images from one index to
+   * another.
+   * @param reference The pixels of the reference image, as 0xRRGGBB.
+   * @param triangles The pixels of the image to score, as 0xRRGGBB.
+   * @param from The index of the first pixel (inclusive).
+   * @param to The index after the last pixel (exclusive).
+   * @return The sum of the distances.
+   */
+  public long sum(int[] reference, int[] triangles, int from, int to);
+}
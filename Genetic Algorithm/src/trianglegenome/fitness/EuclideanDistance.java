@@ -0,0 +1,53 @@
+package trianglegenome.fitness;
+
+/**
+ * The straight line distance between two pixels in RGB space, rounded down:
+ * floor(sqrt(dr^2 + dg^2 + db^2)). The squares come from a table of the 511 possible channel
+ * differences and the square root from a table of every possible sum of three squares, so a
+ * pixel costs six table reads and no floating point math.
+ */
+public class EuclideanDistance implements ColorDistance
+{
+  /** The largest possible sum of three squared channel differences. */
+  private static final int MAX_SQUARED = 3 * 255 * 255;
+
+  /** SQUARE[d + 255] is d * d for channel differences d from -255 to 255. */
+  private static final int[] SQUARE = new int[511];
+
+  /** SQRT[s] is floor(sqrt(s)) for sums s from 0 to {@link #MAX_SQUARED}. */
+  private static final char[] SQRT = new char[MAX_SQUARED + 1];
+
+  static
+  {
+    for (int d = -255; d <= 255; d++) SQUARE[d + 255] = d * d;
+    int root = 0;
+    for (int s = 0; s <= MAX_SQUARED; s++)
+    {
+      if ((root + 1) * (root + 1) <= s) root++;
+      SQRT[s] = (char)root;
+    }
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see trianglegenome.fitness.ColorDistance#distance(int, int)
+   */
+  @Override
+  public int distance(int rgb1, int rgb2)
+  {
+    int dr = ((rgb1 >> 16) & 0xFF) - ((rgb2 >> 16) & 0xFF);
+    int dg = ((rgb1 >> 8) & 0xFF) - ((rgb2 >> 8) & 0xFF);
+    int db = (rgb1 & 0xFF) - (rgb2 & 0xFF);
+    return SQRT[SQUARE[dr + 255] + SQUARE[dg + 255] + SQUARE[db + 255]];
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see trianglegenome.fitness.ColorDistance#getKernelName()
+   */
+  @Override
+  public String getKernelName()
+  {
+    return "fitnessSumEuclidean";
+  }
+}
@@ -0,0 +1,216 @@
+package trianglegenome.fitness;
+
+import java.awt.image.BufferedImage;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import trianglegenome.Genome;
+import trianglegenome.util.Constants;
+
+/**
+ * Remembers the fitness of genomes that were scored, by target and
+ * {@link Genome#getFingerprint() fingerprint}, so that a genome whose DNA was scored before,
+ * such as a child of two similar parents or a genome loaded again from a file, is not drawn
+ * again. The cache holds a fixed number of fitnesses and forgets the least recently used.
+ * <br /><br />
+ * A target is a reference image with the {@link ColorDistance} that measures it, since the
+ * same DNA has a different fitness under each. Each gets a small {@link #targetId(BufferedImage,
+ * ColorDistance) id} that is kept with the fingerprint.
+ * <br /><br />
+ * The fitnesses are kept in primitive arrays divided into sets of {@link #WAYS} entries. A
+ * fingerprint can only be in one set, which is kept in order of use, so finding it reads at
+ * most four entries and the least recently used entry of the set is the one replaced. Sets
+ * are locked in stripes, so threads that score different genomes rarely wait for each other.
+ * <br /><br />
+ * Example code:<br/>
+ * <code><pre>
+ *  FitnessCache cache = FitnessCache.getShared();
+ *  int target = FitnessCache.targetId(reference, Constants.colorDistance);
+ *
+ *  long fitness = cache.get(target, genome.getFingerprint());
+ *  if (fitness == FitnessCache.MISS)
+ *  {
+ *    fitness = score(genome);
+ *    cache.put(target, genome.getFingerprint(), fitness);
+ *  }
+ *
+ * </pre></code>
+ */
+public class FitnessCache
+{
+  private final String ERROR_CAPACITY = "capacity must be at least " + WAYS;
+  private final String ERROR_FITNESS = "fitness must not be negative";
+
+  /** Returned by {@link #get(int, long)} for a genome that is not in the cache. */
+  public static final long MISS = -1;
+
+  /** The number of entries in each set. */
+  private static final int WAYS = 4;
+
+  /** The number of locks that the sets are divided between. */
+  private static final int STRIPES = 64;
+
+  /** The id of each target by image and distance. Ids are never reused, so the fitness of a
+   * target whose image was collected is never mistaken for that of a new one. */
+  private static final Map<BufferedImage, Map<ColorDistance, Integer>> targetIds =
+      new WeakHashMap<BufferedImage, Map<ColorDistance, Integer>>();
+  private static int nextTargetId = 1;
+
+  private static FitnessCache shared;
+
+  /** The fingerprints, target ids and fitnesses of each set, most recently used first. A
+   * target id of 0 marks a free entry. */
+  private final long[] fingerprints;
+  private final int[] targets;
+  private final long[] fitness;
+
+  private final int setMask;
+  private final Object[] locks = new Object[STRIPES];
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+
+  /**
+   * Creates a cache.
+   * @param capacity The most fitnesses to keep, rounded up to a power of two.
+   */
+  public FitnessCache(int capacity)
+  {
+    if (capacity < WAYS) throw new IllegalArgumentException(ERROR_CAPACITY);
+    int sets = Integer.highestOneBit((capacity + WAYS - 1) / WAYS * 2 - 1);
+    setMask = sets - 1;
+    fingerprints = new long[sets * WAYS];
+    targets = new int[sets * WAYS];
+    fitness = new long[sets * WAYS];
+    for (int i = 0; i < STRIPES; i++) locks[i] = new Object();
+  }
+
+  /**
+   * Returns the cache shared by every {@link BatchFitnessEvaluator}, with
+   * {@link Constants#fitnessCacheSize} entries.
+   * @return The shared cache.
+   */
+  public static synchronized FitnessCache getShared()
+  {
+    if (shared == null) shared = new FitnessCache(Constants.fitnessCacheSize);
+    return shared;
+  }
+
+  /**
+   * Returns the id of a target, the same for every call with the same image and distance.
+   * @param reference The reference image that genomes are compared to.
+   * @param colorDistance The distance that the fitness is measured with.
+   * @return The id of the target, 1 or more.
+   */
+  public static synchronized int targetId(BufferedImage reference, ColorDistance colorDistance)
+  {
+    Map<ColorDistance, Integer> ids = targetIds.get(reference);
+    if (ids == null)
+    {
+      ids = new IdentityHashMap<ColorDistance, Integer>();
+      targetIds.put(reference, ids);
+    }
+    Integer id = ids.get(colorDistance);
+    if (id == null)
+    {
+      id = nextTargetId++;
+      ids.put(colorDistance, id);
+    }
+    return id;
+  }
+
+  /**
+   * Returns the fitness of a genome if it is in the cache, and marks it as the most recently
+   * used of its set.
+   * @param targetId The id of the target the genome was scored against.
+   * @param fingerprint The fingerprint of the genome.
+   * @return The fitness, or {@link #MISS}.
+   */
+  public long get(int targetId, long fingerprint)
+  {
+    int set = set(targetId, fingerprint);
+    int first = set * WAYS;
+    synchronized (locks[set & (STRIPES - 1)])
+    {
+      for (int i = first; i < first + WAYS; i++)
+      {
+        if (targets[i] == targetId && fingerprints[i] == fingerprint)
+        {
+          long value = fitness[i];
+          moveToFront(first, i, targetId, fingerprint, value);
+          hits.increment();
+          return value;
+        }
+      }
+    }
+    misses.increment();
+    return MISS;
+  }
+
+  /**
+   * Remembers the fitness of a genome, as the most recently used of its set, forgetting the
+   * least recently used fitness of the set if it is full.
+   * @param targetId The id of the target the genome was scored against.
+   * @param fingerprint The fingerprint of the genome.
+   * @param value The fitness of the genome.
+   */
+  public void put(int targetId, long fingerprint, long value)
+  {
+    if (value < 0) throw new IllegalArgumentException(ERROR_FITNESS);
+    int set = set(targetId, fingerprint);
+    int first = set * WAYS;
+    synchronized (locks[set & (STRIPES - 1)])
+    {
+      int i = first;
+      while (i < first + WAYS - 1
+          && !(targets[i] == targetId && fingerprints[i] == fingerprint)) i++;
+      moveToFront(first, i, targetId, fingerprint, value);
+    }
+  }
+
+  /**
+   * Returns the number of lookups that found a fitness.
+   * @return The number of hits.
+   */
+  public long getHitCount()
+  {
+    return hits.sum();
+  }
+
+  /**
+   * Returns the number of lookups that found no fitness.
+   * @return The number of misses.
+   */
+  public long getMissCount()
+  {
+    return misses.sum();
+  }
+
+  /**
+   * Shifts the entries of a set before an entry back by one and writes an entry in front.
+   * Called with the set's lock held.
+   */
+  private void moveToFront(int first, int i, int targetId, long fingerprint, long value)
+  {
+    for (; i > first; i--)
+    {
+      fingerprints[i] = fingerprints[i - 1];
+      targets[i] = targets[i - 1];
+      fitness[i] = fitness[i - 1];
+    }
+    fingerprints[first] = fingerprint;
+    targets[first] = targetId;
+    fitness[first] = value;
+  }
+
+  /**
+   * Returns the set that a genome of a target can be in.
+   */
+  private int set(int targetId, long fingerprint)
+  {
+    long h = fingerprint ^ (targetId * 0x9E3779B97F4A7C15L);
+    return (int)(h ^ (h >>> 32)) & setMask;
+  }
+}
@@ -0,0 +1,99 @@
+package trianglegenome.fitness;
+
+/**
+ * A fitness estimated from a sample of pixels, with the standard error of the estimate (see
+ * {@link trianglegenome.FitnessEvaluator#estimateDifferenceSumRegion(
+ * trianglegenome.render.PixelSampler, java.awt.Rectangle, int)}). The real fitness lies within
+ * z standard errors of the estimate with the usual normal confidence: about 95% for z = 2 and
+ * 99.7% for z = 3.
+ * <br /><br />
+ * Example code:<br/>
+ * <code><pre>
+ *  FitnessEstimate e = fitnessEvaluator.estimateDifferenceSumRegion(rasterizer, dirty, 256);
+ *  if (e.compareTo(fitnessBefore, 3) &gt; 0)
+ *  {
+ *    // almost certainly worse, no need to draw it
+ *  }
+ *
+ * </pre></code>
+ */
+public class FitnessEstimate
+{
+  private long estimate;
+  private double standardError;
+  private boolean exact;
+
+  /**
+   * Sets the estimate. Used by the evaluator, which reuses one estimate for every call.
+   * @param estimate The estimated fitness.
+   * @param standardError The standard error of the estimate, 0 when it is exact.
+   * @param exact Whether every pixel was scored, so that the estimate is the real fitness.
+   */
+  public void set(long estimate, double standardError, boolean exact)
+  {
+    this.estimate = estimate;
+    this.standardError = standardError;
+    this.exact = exact;
+  }
+
+  /**
+   * Returns the estimated fitness.
+   * @return The estimated fitness.
+   */
+  public long getEstimate()
+  {
+    return estimate;
+  }
+
+  /**
+   * Returns the standard error of the estimate.
+   * @return The standard error, 0 when the estimate is exact.
+   */
+  public double getStandardError()
+  {
+    return standardError;
+  }
+
+  /**
+   * Returns whether every pixel was scored, so that the estimate is the real fitness.
+   * @return True when the estimate is exact.
+   */
+  public boolean isExact()
+  {
+    return exact;
+  }
+
+  /**
+   * Returns the low end of the confidence interval.
+   * @param z The number of standard errors on each side of the estimate.
+   * @return The estimate minus z standard errors.
+   */
+  public double getLower(double z)
+  {
+    return estimate - z * standardError;
+  }
+
+  /**
+   * Returns the high end of the confidence interval.
+   * @param z The number of standard errors on each side of the estimate.
+   * @return The estimate plus z standard errors.
+   */
+  public double getUpper(double z)
+  {
+    return estimate + z * standardError;
+  }
+
+  /**
+   * Compares the confidence interval to a fitness.
+   * @param fitness The fitness to compare to.
+   * @param z The number of standard errors on each side of the estimate.
+   * @return 1 when the whole interval is above the fitness, -1 when none of it is, and 0 when
+   * the interval straddles the fitness, so that only an exact score can tell.
+   */
+  public int compareTo(long fitness, double z)
+  {
+    if (getLower(z) > fitness) return 1;
+    if (getUpper(z) <= fitness) return -1;
+    return 0;
+  }
+}
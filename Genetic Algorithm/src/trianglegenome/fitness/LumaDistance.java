@@ -0,0 +1,33 @@
+package trianglegenome.fitness;
+
+/**
+ * A squared distance that weights each channel by how much it adds to brightness, using the
+ * BT.601 luma weights scaled to 256: (77 dr^2 + 150 dg^2 + 29 db^2) / 256, rounded down. The
+ * eye is much more sensitive to errors in green than in blue, so this spends more triangles
+ * where they are seen.
+ */
+public class LumaDistance implements ColorDistance
+{
+  /*
+   * (non-Javadoc)
+   * @see trianglegenome.fitness.ColorDistance#distance(int, int)
+   */
+  @Override
+  public int distance(int rgb1, int rgb2)
+  {
+    int dr = ((rgb1 >> 16) & 0xFF) - ((rgb2 >> 16) & 0xFF);
+    int dg = ((rgb1 >> 8) & 0xFF) - ((rgb2 >> 8) & 0xFF);
+    int db = (rgb1 & 0xFF) - (rgb2 & 0xFF);
+    return (77 * dr * dr + 150 * dg * dg + 29 * db * db) >> 8;
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see trianglegenome.fitness.ColorDistance#getKernelName()
+   */
+  @Override
+  public String getKernelName()
+  {
+    return "fitnessSumLuma";
+  }
+}
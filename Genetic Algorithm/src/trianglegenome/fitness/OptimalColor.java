@@ -0,0 +1,188 @@
+package trianglegenome.fitness;
+
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
+import trianglegenome.Triangle;
+import trianglegenome.render.TriangleSpans;
+
+/**
+ * Solves for the red, green and blue of a triangle that best match the reference image, given
+ * the triangle's current vertices and alpha and the pixels it is blended over. Instead of
+ * walking a color gene up and down one step at a time, hill climbing can jump straight to the
+ * color that minimizes the squared error under the triangle.
+ * <br /><br />
+ * A covered pixel becomes (c * a + below * (255 - a)) / 255, so the squared error of a channel
+ * is a quadratic in c. Its minimum only needs the sums of the reference and of the pixels
+ * below over the covered pixels. The reference sums come from a {@link SummedAreaTable} at
+ * four reads per row, and the pixels below (and their products with the reference) are summed
+ * in one pass over the triangle's spans. Triangles drawn above this one are ignored, so the
+ * solved color is a very good guess rather than a guaranteed improvement; hill climbing still
+ * checks it with the real fitness.
+ * <br /><br />
+ * Example code:<br/>
+ * <code><pre>
+ *  OptimalColor solver = new OptimalColor(fitnessEvaluator.getSummedAreaTable());
+ *
+ *  int[] below = rasterizer.compositeBelow(5, genome.getBoundingBox(5));
+ *  if (solver.solve(genome.getDNA(), 5 * Triangle.DNA_LENGTH, below)
+ *      &amp;&amp; solver.getImprovement() &gt; 0)
+ *  {
+ *    genome.setDNA(5, 6, solver.getColor(SummedAreaTable.RED));
+ *    genome.setDNA(5, 7, solver.getColor(SummedAreaTable.GREEN));
+ *    genome.setDNA(5, 8, solver.getColor(SummedAreaTable.BLUE));
+ *  }
+ *
+ * </pre></code>
+ */
+public class OptimalColor
+{
+  /** The summed-area tables of the reference image. */
+  private final SummedAreaTable reference;
+
+  /** The width of the reference image. */
+  private final int width;
+
+  /** The height of the reference image. */
+  private final int height;
+
+  /** Reused to scan convert the triangle. */
+  private final TriangleSpans spans;
+
+  /** The color found by the last call to {@link #solve(int[], int, int[])}, by channel. */
+  private final int[] color = new int[3];
+
+  /** How much the last solved color lowers the squared error under the triangle. */
+  private double improvement;
+
+  /** Sums over the covered pixels, by channel, reused by every call to solve. */
+  private final long[] sumReference = new long[3];
+  private final long[] sumReferenceSquared = new long[3];
+  private final long[] sumBelow = new long[3];
+  private final long[] sumBelowSquared = new long[3];
+  private final long[] sumProduct = new long[3];
+
+  /**
+   * Creates a solver for a reference image.
+   * @param reference The summed-area tables of the reference image.
+   */
+  public OptimalColor(SummedAreaTable reference)
+  {
+    this.reference = reference;
+    this.width = reference.getWidth();
+    this.height = reference.getHeight();
+    spans = new TriangleSpans(height);
+  }
+
+  /**
+   * Finds the color that minimizes the squared error of the pixels covered by a triangle.
+   * @param dna An array containing the triangle's DNA (see {@link Triangle#dna}).
+   * @param offset The index of the triangle's DNA in the array.
+   * @param below The pixels that the triangle is blended over, one int of 0xRRGGBB per pixel,
+   * row by row, for at least the triangle's bounding box.
+   * @return False when the triangle is transparent or covers no pixels, in which case there is
+   * no color to solve for.
+   */
+  public boolean solve(int[] dna, int offset, int[] below)
+  {
+    int alpha = dna[offset + 9];
+    if (alpha <= 0) return false;
+    alpha = min(alpha, 255);
+    if (!spans.scan(dna, offset, 0, 0, width, height)) return false;
+
+    long count = 0;
+    for (int c = 0; c < 3; c++)
+    {
+      sumReference[c] = 0;
+      sumReferenceSquared[c] = 0;
+      sumBelow[c] = 0;
+      sumBelowSquared[c] = 0;
+      sumProduct[c] = 0;
+    }
+
+    int[] referencePixels = reference.getPixels();
+    for (int y = spans.top; y < spans.bottom; y++)
+    {
+      int left = spans.left[y];
+      int right = spans.right[y];
+      if (left >= right) continue;
+      count += right - left;
+
+      for (int c = 0; c < 3; c++)
+      {
+        sumReference[c] += reference.sum(c, left, y, right, y + 1);
+        sumReferenceSquared[c] += reference.sumOfSquares(c, left, y, right, y + 1);
+      }
+      for (int i = y * width + left; i < y * width + right; i++)
+      {
+        int b = below[i];
+        int r = referencePixels[i];
+        for (int c = 0; c < 3; c++)
+        {
+          int shift = 16 - 8 * c;
+          int value = (b >> shift) & 0xFF;
+          sumBelow[c] += value;
+          sumBelowSquared[c] += value * value;
+          sumProduct[c] += value * ((r >> shift) & 0xFF);
+        }
+      }
+    }
+    if (count == 0) return false;
+
+    double k = alpha / 255.0;
+    double m = (255 - alpha) / 255.0;
+    improvement = 0;
+    for (int c = 0; c < 3; c++)
+    {
+      double best = (sumReference[c] - m * sumBelow[c]) / (k * count);
+      color[c] = max(0, min(255, (int)Math.round(best)));
+
+      int current = max(0, min(255, dna[offset + 6 + c]));
+      improvement += squaredError(current, k, m, count, sumReference[c], sumReferenceSquared[c],
+          sumBelow[c], sumBelowSquared[c], sumProduct[c]);
+      improvement -= squaredError(color[c], k, m, count, sumReference[c], sumReferenceSquared[c],
+          sumBelow[c], sumBelowSquared[c], sumProduct[c]);
+    }
+    return true;
+  }
+
+  /**
+   * Returns one channel of the color found by the last successful call to
+   * {@link #solve(int[], int, int[])}.
+   * @param channel {@link SummedAreaTable#RED}, {@link SummedAreaTable#GREEN} or
+   * {@link SummedAreaTable#BLUE}.
+   * @return The channel of the solved color, from 0 to 255.
+   */
+  public int getColor(int channel)
+  {
+    return color[channel];
+  }
+
+  /**
+   * Returns how much the color found by the last successful call to
+   * {@link #solve(int[], int, int[])} lowers the squared error under the triangle compared to
+   * the triangle's current color, ignoring the triangles above it. This is not positive when
+   * the current color is already the best one.
+   * @return How much the solved color lowers the squared error under the triangle.
+   */
+  public double getImprovement()
+  {
+    return improvement;
+  }
+
+  /**
+   * Returns the sum over the covered pixels of (reference - (k * c + m * below))^2, expanded
+   * so that it only needs sums.
+   */
+  private static double squaredError(int c, double k, double m, long count,
+      long sumReference, long sumReferenceSquared,
+      long sumBelow, long sumBelowSquared, long sumProduct)
+  {
+    return sumReferenceSquared
+        - 2 * k * c * sumReference
+        - 2 * m * sumProduct
+        + k * k * c * c * count
+        + 2 * k * m * c * sumBelow
+        + m * m * sumBelowSquared;
+  }
+}
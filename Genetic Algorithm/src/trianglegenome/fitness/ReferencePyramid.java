@@ -0,0 +1,103 @@
+package trianglegenome.fitness;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+
+/**
+ * Smaller copies of a reference image, each half the width and height of the one before, so
+ * that a change to a genome can be scored on a fraction of the pixels first (see
+ * {@link CoarseScreen}). Each pixel of a level is the rounded average of the two by two block
+ * of pixels of the level above it. Level 0 is the reference image itself.
+ * <br /><br />
+ * Example code:<br/>
+ * <code><pre>
+ *  ReferencePyramid pyramid = new ReferencePyramid(target);
+ *
+ *  // A copy of the target a quarter of the width and a quarter of the height
+ *  BufferedImage quarter = pyramid.getLevel(2);
+ *
+ * </pre></code>
+ */
+public class ReferencePyramid
+{
+  /** The number of levels below the reference image: 1/2, 1/4 and 1/8 of its size. */
+  public static final int LEVELS = 3;
+
+  private final String ERROR_LEVEL = "level must be from 0 to " + LEVELS;
+  private final String ERROR_TYPE = "Image must be of type BufferedImage.TYPE_INT_RGB";
+
+  /** The image at each level, level 0 being the reference image. */
+  private final BufferedImage[] levels = new BufferedImage[LEVELS + 1];
+
+  /**
+   * Builds every level of the pyramid for a reference image.
+   * @param reference The reference image, of type BufferedImage.TYPE_INT_RGB.
+   */
+  public ReferencePyramid(BufferedImage reference)
+  {
+    if (reference.getType() != BufferedImage.TYPE_INT_RGB)
+    {
+      throw new IllegalArgumentException(ERROR_TYPE);
+    }
+    levels[0] = reference;
+    for (int level = 1; level <= LEVELS; level++)
+    {
+      levels[level] = halve(levels[level - 1]);
+    }
+  }
+
+  /**
+   * Returns one level of the pyramid. This is not a copy.
+   * @param level From 0, the reference image, to {@link #LEVELS}, the smallest copy.
+   * @return The image at the level, 2^level times smaller than the reference on each side.
+   */
+  public BufferedImage getLevel(int level)
+  {
+    if (level < 0 || level > LEVELS)
+    {
+      throw new IllegalArgumentException(ERROR_LEVEL);
+    }
+    return levels[level];
+  }
+
+  /**
+   * Returns an image half the width and height of another, rounded down but at least one
+   * pixel. A pixel on an odd edge only averages the pixels that exist.
+   */
+  private static BufferedImage halve(BufferedImage image)
+  {
+    int width = image.getWidth();
+    int height = image.getHeight();
+    int halfWidth = Math.max(1, width / 2);
+    int halfHeight = Math.max(1, height / 2);
+    BufferedImage half = new BufferedImage(halfWidth, halfHeight, BufferedImage.TYPE_INT_RGB);
+
+    int[] source = ((DataBufferInt)image.getRaster().getDataBuffer()).getData();
+    int[] target = ((DataBufferInt)half.getRaster().getDataBuffer()).getData();
+    for (int y = 0; y < halfHeight; y++)
+    {
+      int y1 = Math.min(2 * y + 1, height - 1);
+      for (int x = 0; x < halfWidth; x++)
+      {
+        int x1 = Math.min(2 * x + 1, width - 1);
+        int r = 0, g = 0, b = 0, count = 0;
+        for (int sy = 2 * y; sy <= y1; sy++)
+        {
+          for (int sx = 2 * x; sx <= x1; sx++)
+          {
+            int rgb = source[sy * width + sx];
+            r += (rgb >> 16) & 0xFF;
+            g += (rgb >> 8) & 0xFF;
+            b += rgb & 0xFF;
+            count++;
+          }
+        }
+        r = (r + count / 2) / count;
+        g = (g + count / 2) / count;
+        b = (b + count / 2) / count;
+        target[y * halfWidth + x] = (r << 16) | (g << 8) | b;
+      }
+    }
+    return half;
+  }
+}
@@ -0,0 +1,78 @@
+package trianglegenome.fitness;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * How often the {@link CoarseScreen coarse screens} of a run agreed with the full size score.
+ * Every climber has its own screen, and all of them count into the same counters, so that the
+ * statistics area can show the totals of the run.
+ * <br /><br />
+ * Example code:<br/>
+ * <code><pre>
+ *  ScreenCounters counters = new ScreenCounters();
+ *  screen.setCounters(counters); // for every climber's screen
+ *
+ *  // ... climb ...
+ *  double accuracy = counters.getHits() / (double)(counters.getHits() + counters.getMisses());
+ *
+ * </pre></code>
+ */
+public class ScreenCounters
+{
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder screenedOut = new LongAdder();
+
+  /**
+   * Counts a change that was scored at full size and that the screen got right.
+   */
+  void hit()
+  {
+    hits.increment();
+  }
+
+  /**
+   * Counts a change that was scored at full size and that the screen got wrong.
+   */
+  void miss()
+  {
+    misses.increment();
+  }
+
+  /**
+   * Counts a change that the screen rejected without it being drawn at full size.
+   */
+  void screenOut()
+  {
+    screenedOut.increment();
+  }
+
+  /**
+   * Returns the number of changes that were scored at full size and that a screen got right.
+   * @return The number of hits.
+   */
+  public long getHits()
+  {
+    return hits.sum();
+  }
+
+  /**
+   * Returns the number of changes that were scored at full size and that a screen got wrong:
+   * changes that passed but were worse, and audited changes that were rejected but were not.
+   * @return The number of misses.
+   */
+  public long getMisses()
+  {
+    return misses.sum();
+  }
+
+  /**
+   * Returns the number of changes that a screen rejected without them ever being drawn at full
+   * size.
+   * @return The number of changes that were screened out.
+   */
+  public long getScreenedOut()
+  {
+    return screenedOut.sum();
+  }
+}
@@ -0,0 +1,134 @@
+package trianglegenome.fitness;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+
+import com.jogamp.opencl.CLCommandQueue;
+import com.jogamp.opencl.CLContext;
+import com.jogamp.opencl.CLDevice;
+import com.jogamp.opencl.CLKernel;
+import com.jogamp.opencl.CLPlatform;
+import com.jogamp.opencl.CLProgram;
+
+/**
+ * The one OpenCL context, device and compiled kernels/fitness.cl program shared by every
+ * {@link trianglegenome.FitnessEvaluator} in the process. Creating a context and compiling the
+ * program are slow, so they happen once, the first time {@link #getInstance()} is called. Each
+ * evaluator then creates its own command queue and kernels, because kernel arguments are not
+ * safe to set from more than one thread.
+ * <br /><br />
+ * When there is no OpenCL platform on the machine (no driver and no CPU runtime such as pocl),
+ * {@link #getInstance()} returns null and the evaluators fall back to Java.
+ * <br /><br />
+ * Example code:<br/>
+ * <code><pre>
+ *  SharedCLContext shared = SharedCLContext.getInstance();
+ *  if (shared != null)
+ *  {
+ *    CLCommandQueue queue = shared.createCommandQueue();
+ *    CLKernel kernel = shared.createKernel("fitnessSumEuclidean");
+ *  }
+ *
+ * </pre></code>
+ */
+public class SharedCLContext
+{
+  /** The file that holds the fitness kernels. */
+  public static final String KERNEL_FILE = "kernels/fitness.cl";
+
+  /** The shared instance, or null before the first call to {@link #getInstance()}. */
+  private static SharedCLContext instance;
+
+  /** Whether {@link #getInstance()} has already tried to create the shared instance. */
+  private static boolean initialized = false;
+
+  private final CLContext context;
+  private final CLDevice device;
+  private final CLProgram program;
+
+  /**
+   * Creates the context and builds the program.
+   * @throws Exception If OpenCL is not available or the program does not build.
+   */
+  private SharedCLContext() throws Exception
+  {
+    context = CLContext.create();
+    try
+    {
+      device = context.getMaxFlopsDevice();
+      try (InputStream source = new FileInputStream(new File(KERNEL_FILE)))
+      {
+        program = context.createProgram(source).build();
+      }
+    }
+    catch (Exception e)
+    {
+      context.release();
+      throw e;
+    }
+  }
+
+  /**
+   * Returns the shared context, creating it on the first call.
+   * @return The shared context, or null when OpenCL can not be used on this machine.
+   */
+  public static synchronized SharedCLContext getInstance()
+  {
+    if (!initialized)
+    {
+      initialized = true;
+      try
+      {
+        if (CLPlatform.isAvailable() && CLPlatform.listCLPlatforms().length > 0)
+        {
+          instance = new SharedCLContext();
+        }
+      }
+      catch (Exception e)
+      {
+        System.err.println("OpenCL could not be used (" + e.getMessage()
+            + "), computing fitness on the CPU");
+        instance = null;
+      }
+    }
+    return instance;
+  }
+
+  /**
+   * Returns the shared OpenCL context, for creating buffers.
+   * @return The shared OpenCL context.
+   */
+  public CLContext getContext()
+  {
+    return context;
+  }
+
+  /**
+   * Returns the device that the kernels run on.
+   * @return The device that the kernels run on.
+   */
+  public CLDevice getDevice()
+  {
+    return device;
+  }
+
+  /**
+   * Creates a new command queue on the shared device for one worker.
+   * @return A new command queue.
+   */
+  public synchronized CLCommandQueue createCommandQueue()
+  {
+    return device.createCommandQueue();
+  }
+
+  /**
+   * Creates a new instance of one of the kernels in the shared program for one worker.
+   * @param name The name of the kernel.
+   * @return A new kernel.
+   */
+  public synchronized CLKernel createKernel(String name)
+  {
+    return program.createCLKernel(name);
+  }
+}
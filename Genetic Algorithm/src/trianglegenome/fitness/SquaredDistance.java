@@ -0,0 +1,32 @@
+package trianglegenome.fitness;
+
+/**
+ * The sum of the squared differences of the red, green and blue channels of two pixels,
+ * dr^2 + dg^2 + db^2. This is the error that {@link OptimalColor} minimizes, so solved colors
+ * are always an improvement under this distance when no triangles are above them.
+ */
+public class SquaredDistance implements ColorDistance
+{
+  /*
+   * (non-Javadoc)
+   * @see trianglegenome.fitness.ColorDistance#distance(int, int)
+   */
+  @Override
+  public int distance(int rgb1, int rgb2)
+  {
+    int dr = ((rgb1 >> 16) & 0xFF) - ((rgb2 >> 16) & 0xFF);
+    int dg = ((rgb1 >> 8) & 0xFF) - ((rgb2 >> 8) & 0xFF);
+    int db = (rgb1 & 0xFF) - (rgb2 & 0xFF);
+    return dr * dr + dg * dg + db * db;
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see trianglegenome.fitness.ColorDistance#getKernelName()
+   */
+  @Override
+  public String getKernelName()
+  {
+    return "fitnessSumSquared";
+  }
+}
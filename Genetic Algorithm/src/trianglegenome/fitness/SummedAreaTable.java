@@ -0,0 +1,156 @@
+package trianglegenome.fitness;
+
+/**
+ * Summed-area tables of the red, green and blue channels of an image and of their squares.
+ * Once built, the sum of a channel over any rectangle, or over one row of a triangle's
+ * {@link trianglegenome.render.TriangleSpans}, costs four array reads no matter how many pixels
+ * it covers.
+ * <br /><br />
+ * Entry (x, y) of a table holds the sum over every pixel above and to the left of (x, y), so
+ * the tables have one more row and one more column than the image.
+ * <br /><br />
+ * Example code:<br/>
+ * <code><pre>
+ *  SummedAreaTable sat = new SummedAreaTable(pixels, width, height);
+ *
+ *  // The sum of the red channel of the 10x10 square at (20, 30)
+ *  long red = sat.sum(SummedAreaTable.RED, 20, 30, 30, 40);
+ *
+ *  // The sum of the squared green channel of pixels 5 to 9 in row 7
+ *  long green2 = sat.sumOfSquares(SummedAreaTable.GREEN, 5, 7, 10, 8);
+ *
+ * </pre></code>
+ */
+public class SummedAreaTable
+{
+  /** The index of the red channel. */
+  public static final int RED = 0;
+
+  /** The index of the green channel. */
+  public static final int GREEN = 1;
+
+  /** The index of the blue channel. */
+  public static final int BLUE = 2;
+
+  /** The pixels of the image that the tables were built from. */
+  private final int[] pixels;
+
+  /** The width of the image. */
+  private final int width;
+
+  /** The height of the image. */
+  private final int height;
+
+  /** The summed-area table of each channel, indexed by channel. */
+  private final long[][] sums = new long[3][];
+
+  /** The summed-area table of the square of each channel, indexed by channel. */
+  private final long[][] squares = new long[3][];
+
+  /**
+   * Builds the tables for an image.
+   * @param pixels The pixels of the image, one int of 0xRRGGBB per pixel, row by row.
+   * @param width The width of the image.
+   * @param height The height of the image.
+   */
+  public SummedAreaTable(int[] pixels, int width, int height)
+  {
+    if (pixels.length < width * height)
+    {
+      throw new IllegalArgumentException("pixels must hold width * height values");
+    }
+    this.pixels = pixels;
+    this.width = width;
+    this.height = height;
+
+    int stride = width + 1;
+    for (int c = 0; c < 3; c++)
+    {
+      long[] sum = sums[c] = new long[stride * (height + 1)];
+      long[] square = squares[c] = new long[stride * (height + 1)];
+      int shift = 16 - 8 * c;
+
+      for (int y = 0; y < height; y++)
+      {
+        long rowSum = 0;
+        long rowSquare = 0;
+        int above = y * stride;
+        int row = above + stride;
+        for (int x = 0; x < width; x++)
+        {
+          int value = (pixels[y * width + x] >> shift) & 0xFF;
+          rowSum += value;
+          rowSquare += value * value;
+          sum[row + x + 1] = sum[above + x + 1] + rowSum;
+          square[row + x + 1] = square[above + x + 1] + rowSquare;
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the sum of a channel over a rectangle.
+   * @param channel {@link #RED}, {@link #GREEN} or {@link #BLUE}.
+   * @param x0 The left of the rectangle (inclusive).
+   * @param y0 The top of the rectangle (inclusive).
+   * @param x1 The right of the rectangle (exclusive).
+   * @param y1 The bottom of the rectangle (exclusive).
+   * @return The sum of the channel over the rectangle.
+   */
+  public long sum(int channel, int x0, int y0, int x1, int y1)
+  {
+    return lookup(sums[channel], x0, y0, x1, y1);
+  }
+
+  /**
+   * Returns the sum of the square of a channel over a rectangle.
+   * @param channel {@link #RED}, {@link #GREEN} or {@link #BLUE}.
+   * @param x0 The left of the rectangle (inclusive).
+   * @param y0 The top of the rectangle (inclusive).
+   * @param x1 The right of the rectangle (exclusive).
+   * @param y1 The bottom of the rectangle (exclusive).
+   * @return The sum of the squared channel over the rectangle.
+   */
+  public long sumOfSquares(int channel, int x0, int y0, int x1, int y1)
+  {
+    return lookup(squares[channel], x0, y0, x1, y1);
+  }
+
+  /**
+   * Returns the pixels of the image that the tables were built from. This is not a copy.
+   * @return The pixels of the image, one int of 0xRRGGBB per pixel, row by row.
+   */
+  public int[] getPixels()
+  {
+    return pixels;
+  }
+
+  /**
+   * Returns the width of the image.
+   * @return The width of the image.
+   */
+  public int getWidth()
+  {
+    return width;
+  }
+
+  /**
+   * Returns the height of the image.
+   * @return The height of the image.
+   */
+  public int getHeight()
+  {
+    return height;
+  }
+
+  /**
+   * Reads the sum over a rectangle out of a table.
+   */
+  private long lookup(long[] table, int x0, int y0, int x1, int y1)
+  {
+    if (x0 >= x1 || y0 >= y1) return 0;
+    int stride = width + 1;
+    return table[y1 * stride + x1] - table[y0 * stride + x1]
+        - table[y1 * stride + x0] + table[y0 * stride + x0];
+  }
+}
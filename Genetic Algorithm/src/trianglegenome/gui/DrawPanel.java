@@ -8,10 +8,6 @@ import java.awt.GraphicsConfiguration;
 import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 import java.awt.image.VolatileImage;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
-import java.util.function.Predicate;
 
 import javafx.embed.swing.SwingFXUtils;
 import javafx.scene.image.Image;
@@ -19,7 +15,10 @@ import javafx.scene.image.WritableImage;
 
 import javax.swing.JPanel;
 
+import trianglegenome.Genome;
 import trianglegenome.Triangle;
+import trianglegenome.render.GenomeRenderer;
+import trianglegenome.render.TriangleGrid;
 import trianglegenome.util.Constants;
 
 /**
@@ -35,22 +34,21 @@ import trianglegenome.util.Constants;
  *  Triangle t = new Triangle(new int[] {5, 5, 20}, new int[] {5, 20, 20}, 0, 0, 0, 255);
  *  p.setTriangleDrawLimit(200); // Default value is 0
  *  
- *  p.getTirangles().add(t);
+ *  p.getGenome().addGene(t);
  *  p.repaint(); // Must manually repaint after adding a triangle.
  *  
- *  t.dna[0] = 10;
+ *  p.getGenome().setDNA(0, 0, 10);
  *  p.repaint(); // Must manually repaint after changing a triangle.
  *  
- *  List&lt;Triangle&gt; ts = new ArrayList&lt;Triangle&gt;(); 
- *  ts.add(t);
- *  p.setTriangles(ts); // Automatically repaints the DrawPanel
+ *  Genome g = new Genome(t);
+ *  p.setGenome(g); // Automatically repaints the DrawPanel
  *  
  *  
  * </pre></code>
  * 
  * @author David Collins
  */
-public abstract class DrawPanel extends JPanel
+public abstract class DrawPanel extends JPanel implements GenomeRenderer
 {
   /** The version of this draw panel (starting with 1). */
   protected static final long serialVersionUID = 1L;
@@ -75,9 +73,21 @@ public abstract class DrawPanel extends JPanel
    * {@link DrawPanel} */
   protected int triangleDrawLimit = Constants.TRIANGLE_COUNT;
   
-  /** A {@link List} of {@link Triangle} objects for drawing on the
+  /** The {@link Genome} whose triangles are drawn on the
    * {@link DrawPanel#offscreenBuffer} */
-  protected List<Triangle> triangles;
+  protected Genome genome;
+  
+  /** Finds the triangles of the {@link DrawPanel#genome} inside a region for
+   * {@link DrawPanel#updateRegion(Rectangle)} */
+  protected TriangleGrid grid;
+  
+  /** The color last used to draw each triangle, reused while the triangle's color and alpha
+   * stay the same so that redrawing does not create a Color per triangle. */
+  private final Color[] colors = new Color[Constants.TRIANGLE_COUNT];
+  
+  /** The x and y coordinates of the triangle being drawn, reused by every draw. */
+  private final int[] xs = new int[3];
+  private final int[] ys = new int[3];
   
   /**
    * Creates a new {@link DrawPanel} with a given width and height.
@@ -90,7 +100,8 @@ public abstract class DrawPanel extends JPanel
     super.setSize(width, height);
     super.setPreferredSize(new Dimension(width, height));
     
-    triangles = new ArrayList<Triangle>();
+    genome = new Genome();
+    grid = new TriangleGrid(width, height);
     createOffScreenBuffer(width, height);
     graphicsConfiguration = super.getGraphicsConfiguration();
     
@@ -98,26 +109,30 @@ public abstract class DrawPanel extends JPanel
   }
   
   /**
-   * Sets {@link DrawPanel#triangles} to the given value. 
-   * @param triangles A list of triangles to draw on the DrawPanel.
+   * Sets {@link DrawPanel#genome} to the given value. 
+   * @param genome The genome whose triangles will be drawn on the DrawPanel.
    */
-  public void setTriangles(List<Triangle> triangles)
+  public void setGenome(Genome genome)
   {
-    this.triangles = triangles;
+    this.genome = genome;
+    synchronized (genome)
+    {
+      grid.rebuild(genome.getDNA(), genome.getTriangleCount());
+    }
     this.repaint();
   }
   
   /**
-   * Gets the field {@link DrawPanel#triangles} which is a list of triangles
+   * Gets the field {@link DrawPanel#genome} which holds the triangles
    * that this {@link DrawPanel} is currently drawing.
-   * @return The field {@link DrawPanel#triangles} which is a list of triangles
+   * @return The field {@link DrawPanel#genome} which holds the triangles
    * that this {@link DrawPanel} is currently drawing.
    */
-  public List<Triangle> getTriangles() { return triangles; }
+  public Genome getGenome() { return genome; }
   
   /**
-   * Sets the number of triangles from {@link DrawPanel#triangles}
-   * (set by {@link DrawPanel#setTriangles(List)}) that this DrawPanel will draw.
+   * Sets the number of triangles from {@link DrawPanel#genome}
+   * (set by {@link DrawPanel#setGenome(Genome)}) that this DrawPanel will draw.
    * @param count The number of triangles to draw.
    */
   public void setTriangleDrawLimit(int count)
@@ -159,15 +174,34 @@ public abstract class DrawPanel extends JPanel
   protected abstract void updateOffScreenBuffer();
   
   /**
-   * Draws a given {@link Triangle} on the given {@link Graphics2D}.
-   * @param t The triangle to draw on the given Graphics2D.
+   * Paints each of the triangles on the {@link DrawPanel#offscreenBuffer} without
+   * scheduling a Swing repaint.
    */
-  protected void drawTriangle(Triangle t)
+  @Override
+  public void render()
   {
-    Color c = new Color(t.dna[6], t.dna[7], t.dna[8], t.dna[9]);
+    updateOffScreenBuffer();
+  }
+  
+  /**
+   * Draws a triangle of the {@link DrawPanel#genome} on the {@link DrawPanel#offscreenGraphics}.
+   * @param triangle The index of the triangle to draw.
+   */
+  protected void drawTriangle(int triangle)
+  {
+    int[] dna = genome.getDNA();
+    int offset = triangle * Triangle.DNA_LENGTH;
+    int argb = (dna[offset + 9] << 24) | (dna[offset + 6] << 16)
+        | (dna[offset + 7] << 8) | dna[offset + 8];
+    Color c = colors[triangle];
+    if (c == null || c.getRGB() != argb)
+    {
+      c = new Color(dna[offset + 6], dna[offset + 7], dna[offset + 8], dna[offset + 9]);
+      colors[triangle] = c;
+    }
     offscreenGraphics.setColor(c);
-    int [] xs = Arrays.copyOfRange(t.dna, 0, 3);
-    int [] ys = Arrays.copyOfRange(t.dna, 3, 6);
+    System.arraycopy(dna, offset, xs, 0, 3);
+    System.arraycopy(dna, offset + 3, ys, 0, 3);
     offscreenGraphics.fillPolygon(xs, ys, 3);
   }
   
@@ -176,17 +210,50 @@ public abstract class DrawPanel extends JPanel
    * @param bound The bound in the DrawPanel to update.
    */
   public void updateRegion(Rectangle bound)
+  {
+    synchronized (genome)
+    {
+      grid.rebuild(genome.getDNA(), genome.getTriangleCount());
+    }
+    drawRegion(bound);
+  }
+  
+  /**
+   * Updates the DrawPanel only in the specified bound after a change to one triangle, which
+   * only needs that triangle to be moved in the {@link DrawPanel#grid}.
+   * @param index The index of the triangle that changed.
+   * @param bound The bound in the DrawPanel to update.
+   */
+  @Override
+  public void updateTriangle(int index, Rectangle bound)
+  {
+    synchronized (genome)
+    {
+      grid.update(genome.getDNA(), index);
+    }
+    drawRegion(bound);
+  }
+  
+  /**
+   * Clears the specified bound and draws the triangles found in it by the
+   * {@link DrawPanel#grid}.
+   * @param bound The bound in the DrawPanel to draw.
+   */
+  private void drawRegion(Rectangle bound)
   {
     Rectangle originalClip = offscreenGraphics.getClipBounds();
     offscreenGraphics.setClip(bound);
     offscreenGraphics.clearRect(bound.x, bound.y, bound.width, bound.height);
     
-    Predicate<Triangle> intersectsBound = t -> t.getBoundingBox().intersects(bound);
-    
-    triangles
-        .stream()
-        .filter(intersectsBound)
-        .forEach(t -> drawTriangle(t));
+    synchronized (genome)
+    {
+      int triangleCount = genome.getTriangleCount();
+      grid.query(bound.x, bound.y, bound.x + bound.width, bound.y + bound.height);
+      for (int t = grid.next(0); t >= 0 && t < triangleCount; t = grid.next(t + 1))
+      {
+        drawTriangle(t);
+      }
+    }
     
     offscreenGraphics.setClip(originalClip);
   }
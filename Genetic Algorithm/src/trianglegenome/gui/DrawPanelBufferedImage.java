@@ -1,18 +1,15 @@
 package trianglegenome.gui;
 
-import java.awt.Color;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
 import java.awt.image.VolatileImage;
-import java.util.Arrays;
 
 import javafx.embed.swing.SwingFXUtils;
 import javafx.scene.image.Image;
 
 import javax.swing.JPanel;
 
-import trianglegenome.Triangle;
 import trianglegenome.util.Constants;
 
 /**
@@ -28,15 +25,14 @@ import trianglegenome.util.Constants;
  *  Triangle t = new Triangle(new int[] {5, 5, 20}, new int[] {5, 20, 20}, 0, 0, 0, 255);
  *  p.setTriangleDrawLimit(200); // Default value is 0
  *  
- *  p.getTirangles().add(t);
+ *  p.getGenome().addGene(t);
  *  p.repaint(); // Must manually repaint after adding a triangle.
  *  
- *  t.dna[0] = 10;
+ *  p.getGenome().setDNA(0, 0, 10);
  *  p.repaint(); // Must manually repaint after changing a triangle.
  *  
- *  List&lt;Triangle&gt; ts = new ArrayList&lt;Triangle&gt;(); 
- *  ts.add(t);
- *  p.setTriangles(ts); // Automatically repaints the DrawPanel
+ *  Genome g = new Genome(t);
+ *  p.setGenome(g); // Automatically repaints the DrawPanel
  *  
  *  
  * </pre></code>
@@ -53,6 +49,15 @@ public class DrawPanelBufferedImage extends DrawPanel
    * method */
   private BufferedImage offscreenBuffer;
   
+  /** The image returned by {@link #getSnapshot()}, created by the first call and reused. */
+  private BufferedImage snapshot;
+  private Graphics snapshotGraphics;
+  
+  /** The image that {@link #getFXImage()} converts, kept apart from {@link #snapshot} because
+   * the GUI asks for it while hill climbing is scoring the snapshot. */
+  private BufferedImage fxSnapshot;
+  private Graphics fxSnapshotGraphics;
+  
   /**
    * Creates a new {@link DrawPanelBufferedImage} with a given width and height.
    * @param width The width of the draw panel.
@@ -64,7 +69,8 @@ public class DrawPanelBufferedImage extends DrawPanel
   }
   
   /**
-   * Returns a snapshot containing all of the triangles.
+   * Returns a snapshot containing all of the triangles. The same image is reused and
+   * overwritten by every call.
    * @return A snapshot containing all of the triangles.
    */
   public BufferedImage getSnapshot()
@@ -74,15 +80,17 @@ public class DrawPanelBufferedImage extends DrawPanel
     triangleDrawLimit = Constants.TRIANGLE_COUNT;
     updateOffScreenBuffer();
     
+    if (snapshot == null)
+    {
+      snapshot = new BufferedImage(Constants.width, Constants.height, BufferedImage.TYPE_INT_RGB);
+      snapshotGraphics = snapshot.getGraphics();
+    }
+    snapshotGraphics.drawImage(offscreenBuffer, 0, 0, null);
+    
     triangleDrawLimit = oldTriangleDrawLimit;
     updateOffScreenBuffer();
     
-    BufferedImage croppedSnapshot = new BufferedImage(
-        Constants.width, Constants.height, BufferedImage.TYPE_INT_RGB);
-    
-    croppedSnapshot.getGraphics().drawImage(offscreenBuffer, 0, 0, null);
-    
-    return croppedSnapshot;
+    return snapshot;
   }
   
   /**
@@ -91,13 +99,15 @@ public class DrawPanelBufferedImage extends DrawPanel
    */
   public Image getFXImage()
   {
+    if (fxSnapshot == null)
+    {
+      fxSnapshot = new BufferedImage(
+          Constants.width, Constants.height, BufferedImage.TYPE_INT_RGB);
+      fxSnapshotGraphics = fxSnapshot.getGraphics();
+    }
+    fxSnapshotGraphics.drawImage(offscreenBuffer, 0, 0, null);
     
-    BufferedImage croppedSnapshot = new BufferedImage(
-        Constants.width, Constants.height, BufferedImage.TYPE_INT_RGB);
-    
-    croppedSnapshot.getGraphics().drawImage(offscreenBuffer, 0, 0, null);
-    
-    return SwingFXUtils.toFXImage(croppedSnapshot, fxImage);
+    return SwingFXUtils.toFXImage(fxSnapshot, fxImage);
   }
   
   /**
@@ -117,31 +127,16 @@ public class DrawPanelBufferedImage extends DrawPanel
   protected void updateOffScreenBuffer()
   {
     offscreenGraphics.clearRect(0, 0, getWidth(), getHeight());
-    synchronized (triangles)
+    synchronized (genome)
     {
-      int trianglesDrawn = 0;
-      for (Triangle t : triangles)
+      int trianglesToDraw = Math.min(triangleDrawLimit, genome.getTriangleCount());
+      for (int t = 0; t < trianglesToDraw; t++)
       {
-        if (trianglesDrawn == triangleDrawLimit) break;
         drawTriangle(t);
-        trianglesDrawn++;
       }
     }
   }
   
-  /**
-   * Draws a given {@link Triangle} on the given {@link Graphics2D}.
-   * @param t The triangle to draw on the given Graphics2D.
-   */
-  protected void drawTriangle(Triangle t)
-  {
-    Color c = new Color(t.dna[6], t.dna[7], t.dna[8], t.dna[9]);
-    offscreenGraphics.setColor(c);
-    int [] xs = Arrays.copyOfRange(t.dna, 0, 3);
-    int [] ys = Arrays.copyOfRange(t.dna, 3, 6);
-    offscreenGraphics.fillPolygon(xs, ys, 3);
-  }
-  
   /*
    * (non-Javadoc)
    * @see java.awt.Component#repaint()
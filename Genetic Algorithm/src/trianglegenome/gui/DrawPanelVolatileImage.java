@@ -12,7 +12,6 @@ import javafx.scene.image.Image;
 
 import javax.swing.JPanel;
 
-import trianglegenome.Triangle;
 import trianglegenome.util.Constants;
 
 /**
@@ -28,15 +27,14 @@ import trianglegenome.util.Constants;
  *  Triangle t = new Triangle(new int[] {5, 5, 20}, new int[] {5, 20, 20}, 0, 0, 0, 255);
  *  p.setTriangleDrawLimit(200); // Default value is 0
  *  
- *  p.getTirangles().add(t);
+ *  p.getGenome().addGene(t);
  *  p.repaint(); // Must manually repaint after adding a triangle.
  *  
- *  t.dna[0] = 10;
+ *  p.getGenome().setDNA(0, 0, 10);
  *  p.repaint(); // Must manually repaint after changing a triangle.
  *  
- *  List&lt;Triangle&gt; ts = new ArrayList&lt;Triangle&gt;(); 
- *  ts.add(t);
- *  p.setTriangles(ts); // Automatically repaints the DrawPanel
+ *  Genome g = new Genome(t);
+ *  p.setGenome(g); // Automatically repaints the DrawPanel
  *  
  *  
  * </pre></code>
@@ -52,6 +50,16 @@ public class DrawPanelVolatileImage extends DrawPanel
    * method */
   protected VolatileImage offscreenBuffer;
   
+  /** The image returned by {@link #getSnapshot()}. The volatile image is drawn straight into
+   * it instead of through VolatileImage.getSnapshot(), which makes a new image every time. */
+  private BufferedImage snapshot;
+  private Graphics snapshotGraphics;
+  
+  /** The image that {@link #getFXImage()} converts, separate from {@link #snapshot} so that
+   * the GUI thread does not draw over an image hill climbing is scoring. */
+  private BufferedImage fxSnapshot;
+  private Graphics fxSnapshotGraphics;
+  
   /**
    * Creates a new {@link DrawPanelVolatileImage} with a given width and height.
    * @param width The width of the draw panel.
@@ -63,7 +71,8 @@ public class DrawPanelVolatileImage extends DrawPanel
   }
   
   /**
-   * Returns a snapshot containing all of the triangles.
+   * Returns a snapshot containing all of the triangles. The same image is reused and
+   * overwritten by every call.
    * @return A snapshot containing all of the triangles.
    */
   public BufferedImage getSnapshot()
@@ -72,19 +81,18 @@ public class DrawPanelVolatileImage extends DrawPanel
     
     triangleDrawLimit = Constants.TRIANGLE_COUNT;
     updateOffScreenBuffer();
-    BufferedImage snapshot = offscreenBuffer
-        .getSnapshot()
-        .getSubimage(0, 0, Constants.width, Constants.height);
+    
+    if (snapshot == null)
+    {
+      snapshot = new BufferedImage(Constants.width, Constants.height, BufferedImage.TYPE_INT_RGB);
+      snapshotGraphics = snapshot.getGraphics();
+    }
+    snapshotGraphics.drawImage(offscreenBuffer, 0, 0, null);
     
     triangleDrawLimit = oldTriangleDrawLimit;
     updateOffScreenBuffer();
     
-    BufferedImage croppedSnapshot = new BufferedImage(
-        Constants.width, Constants.height, BufferedImage.TYPE_INT_RGB);
-    
-    croppedSnapshot.getGraphics().drawImage(snapshot, 0, 0, null);
-    
-    return croppedSnapshot;
+    return snapshot;
   }
   
   /**
@@ -95,16 +103,15 @@ public class DrawPanelVolatileImage extends DrawPanel
   {
     updateOffScreenBuffer();
     
-    BufferedImage snapshot = offscreenBuffer
-        .getSnapshot()
-        .getSubimage(0, 0, Constants.width, Constants.height);
-    
-    BufferedImage croppedSnapshot = new BufferedImage(
-        Constants.width, Constants.height, BufferedImage.TYPE_INT_RGB);
-    
-    croppedSnapshot.getGraphics().drawImage(snapshot, 0, 0, null);
+    if (fxSnapshot == null)
+    {
+      fxSnapshot = new BufferedImage(
+          Constants.width, Constants.height, BufferedImage.TYPE_INT_RGB);
+      fxSnapshotGraphics = fxSnapshot.getGraphics();
+    }
+    fxSnapshotGraphics.drawImage(offscreenBuffer, 0, 0, null);
     
-    return SwingFXUtils.toFXImage(croppedSnapshot, fxImage);
+    return SwingFXUtils.toFXImage(fxSnapshot, fxImage);
   }
   
   /**
@@ -139,14 +146,12 @@ public class DrawPanelVolatileImage extends DrawPanel
       if (offscreenBuffer.contentsLost()) continue; 
       
       offscreenGraphics.clearRect(0, 0, getWidth(), getHeight());
-      synchronized (triangles)
+      synchronized (genome)
       {
-        int trianglesDrawn = 0;
-        for (Triangle t : triangles)
+        int trianglesToDraw = Math.min(triangleDrawLimit, genome.getTriangleCount());
+        for (int t = 0; t < trianglesToDraw; t++)
         {
-          if (trianglesDrawn == triangleDrawLimit) break;
           drawTriangle(t);
-          trianglesDrawn++;
         }
       }
       
@@ -0,0 +1,75 @@
+package trianglegenome.render;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+
+import trianglegenome.Genome;
+
+/**
+ * Something that draws the triangles of a {@link Genome} into an image that the
+ * {@link trianglegenome.FitnessEvaluator} can score. The Swing
+ * {@link trianglegenome.gui.DrawPanel}s and the headless {@link SoftwareRasterizer} are both
+ * renderers, so {@link trianglegenome.HillClimbing} does not care which one it is given.
+ * <br /><br />
+ * Example code:<br/>
+ * <code><pre>
+ *  GenomeRenderer r = new SoftwareRasterizer(Constants.width, Constants.height);
+ *
+ *  r.setGenome(genome); // Draws every triangle
+ *  int before = fitnessEvaluator.differenceSum(r.getSnapshot());
+ *
+ *  Rectangle dirty = genome.getBoundingBox(5);
+ *  genome.setDNA(5, 0, 10);
+ *  dirty.add(genome.getBoundingBox(5));
+ *  r.updateTriangle(5, dirty); // Redraws only what changed
+ *  int after = fitnessEvaluator.differenceSum(r.getSnapshot());
+ *
+ * </pre></code>
+ */
+public interface GenomeRenderer
+{
+  /**
+   * Sets the genome to draw and draws all of its triangles.
+   * @param genome The genome whose triangles will be drawn.
+   */
+  public void setGenome(Genome genome);
+
+  /**
+   * Returns the genome that this renderer is currently drawing.
+   * @return The genome that this renderer is currently drawing.
+   */
+  public Genome getGenome();
+
+  /**
+   * Redraws every triangle of the current genome.
+   */
+  public void render();
+
+  /**
+   * Redraws the current genome only inside the given bound. Use this after changing genes
+   * whose triangles lie entirely inside the bound (before and after the change).
+   * @param bound The bound to redraw.
+   */
+  public void updateRegion(Rectangle bound);
+
+  /**
+   * Redraws the current genome inside the given bound after a change to one triangle. The
+   * triangles below it did not change, so renderers that remember them (see
+   * {@link SoftwareRasterizer}) only need to redraw from that triangle up. By default this is
+   * the same as {@link #updateRegion(Rectangle)}.
+   * @param index The index of the triangle that changed.
+   * @param bound The bound to redraw, holding the triangle before and after the change.
+   */
+  public default void updateTriangle(int index, Rectangle bound)
+  {
+    updateRegion(bound);
+  }
+
+  /**
+   * Returns an image of type BufferedImage.TYPE_INT_RGB containing all of the triangles.
+   * Implementations may return the same image on every call, so the image is only valid
+   * until the next change to this renderer.
+   * @return An image containing all of the triangles.
+   */
+  public BufferedImage getSnapshot();
+}
@@ -0,0 +1,26 @@
+package trianglegenome.render;
+
+/**
+ * Something that can tell the color of one pixel of a genome's image without drawing the
+ * whole image, so that the {@link trianglegenome.FitnessEvaluator} can estimate a fitness from
+ * a few pixels (see
+ * {@link trianglegenome.FitnessEvaluator#estimateDifferenceSumRegion(PixelSampler,
+ * java.awt.Rectangle, int)}).
+ * <br /><br />
+ * Example code:<br/>
+ * <code><pre>
+ *  PixelSampler s = new SoftwareRasterizer(Constants.width, Constants.height);
+ *  int rgb = s.samplePixel(10, 20);
+ *
+ * </pre></code>
+ */
+public interface PixelSampler
+{
+  /**
+   * Returns the color that a pixel has when every triangle of the current genome is drawn.
+   * @param x The column of the pixel.
+   * @param y The row of the pixel.
+   * @return The color of the pixel, as 0xRRGGBB.
+   */
+  public int samplePixel(int x, int y);
+}
@@ -0,0 +1,420 @@
+package trianglegenome.render;
+
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+
+import trianglegenome.Genome;
+import trianglegenome.Triangle;
+import trianglegenome.util.Constants;
+
+/**
+ * A headless {@link GenomeRenderer} that scan converts triangles straight into the int array
+ * of a BufferedImage.TYPE_INT_RGB image. It does not use Swing or Java2D, and it does not
+ * allocate anything after it has been created, so hill climbing with it produces no garbage.
+ * <br /><br />
+ * Triangles are blended over the image with exact integer math: each channel becomes
+ * round((source * alpha + destination * (255 - alpha)) / 255).
+ * <br /><br />
+ * The rasterizer keeps checkpoints: copies of the image with only the first N, 2N, 3N...
+ * triangles drawn, as many as fit in {@link Constants#checkpointMemoryBudget} (up to about the
+ * square root of {@link Constants#TRIANGLE_COUNT}). When triangle k changes,
+ * {@link #updateTriangle(int, Rectangle)} starts from the last checkpoint at or below k instead
+ * of from an empty image, and brings the checkpoints above k up to date on the way.
+ * <br /><br />
+ * Example code:<br/>
+ * <code><pre>
+ *  SoftwareRasterizer r = new SoftwareRasterizer(Constants.width, Constants.height);
+ *  r.setGenome(genome);
+ *
+ *  // The snapshot is not a copy, it changes whenever the rasterizer draws.
+ *  int fitness = fitnessEvaluator.differenceSum(r.getSnapshot());
+ *
+ *  // Change triangle 150 and redraw it, starting from the checkpoint below it
+ *  Rectangle dirty = genome.getBoundingBox(150);
+ *  genome.setDNA(150, 9, 128);
+ *  r.updateTriangle(150, dirty);
+ *
+ *  // Or find out what one pixel would look like without redrawing anything
+ *  genome.setDNA(150, 9, 64);
+ *  r.updateIndex(150);
+ *  int rgb = r.samplePixel(10, 20);
+ *
+ * </pre></code>
+ */
+public class SoftwareRasterizer implements GenomeRenderer, PixelSampler
+{
+  /** The color of the image before any triangles are drawn. */
+  public static final int BACKGROUND = 0x000000;
+
+  /** The width of the image. */
+  private final int width;
+
+  /** The height of the image. */
+  private final int height;
+
+  /** The image that is drawn on and returned by {@link #getSnapshot()}. */
+  private final BufferedImage image;
+
+  /** The pixels of {@link #image}, one int of 0xRRGGBB per pixel, row by row. */
+  private final int[] pixels;
+
+  /** The triangles below one triangle, drawn by {@link #compositeBelow(int, Rectangle)}.
+   * Created with the rasterizer when {@link Constants#useOptimalColor} is set, so that the first
+   * solved color of a hill climber does not allocate a whole image mid run. */
+  private int[] below;
+
+  /** The number of triangles between two checkpoints, or 0 when there are no checkpoints. */
+  private final int checkpointInterval;
+
+  /** checkpoints[j] is the image with only the first (j + 1) * {@link #checkpointInterval}
+   * triangles drawn. */
+  private final int[][] checkpoints;
+
+  /** The number of checkpoints that match the genome, counting from the first. */
+  private int validCheckpoints = 0;
+
+  /** Finds the triangles inside a region without looking at all of them. */
+  private final TriangleGrid grid;
+
+  /** Reused to scan convert each triangle. */
+  private final TriangleSpans spans;
+
+  /** The genome whose triangles are drawn. */
+  private Genome genome = new Genome();
+
+  /**
+   * Creates a new SoftwareRasterizer that draws into an image of the given size, with as many
+   * checkpoints as fit in {@link Constants#checkpointMemoryBudget}.
+   * @param width The width of the image.
+   * @param height The height of the image.
+   */
+  public SoftwareRasterizer(int width, int height)
+  {
+    this(width, height, Constants.checkpointMemoryBudget);
+  }
+
+  /**
+   * Creates a new SoftwareRasterizer that draws into an image of the given size.
+   * @param width The width of the image.
+   * @param height The height of the image.
+   * @param checkpointMemoryBudget The most bytes to spend on checkpoints, 0 for none.
+   */
+  public SoftwareRasterizer(int width, int height, long checkpointMemoryBudget)
+  {
+    this.width = width;
+    this.height = height;
+    image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    pixels = ((DataBufferInt)image.getRaster().getDataBuffer()).getData();
+    spans = new TriangleSpans(height);
+    grid = new TriangleGrid(width, height);
+    if (Constants.useOptimalColor) below = new int[width * height];
+
+    // Every checkpoint passed while redrawing costs a copy, so with more than about
+    // sqrt(TRIANGLE_COUNT) of them keeping them up to date costs more than they save
+    long checkpointBytes = 4L * width * height;
+    int mostUseful = (int)Math.sqrt(Constants.TRIANGLE_COUNT);
+    int count = (int)min(checkpointMemoryBudget / checkpointBytes, mostUseful);
+    if (count > 0)
+    {
+      // Spread the checkpoints evenly, the last one must still be below the last triangle
+      checkpointInterval = (Constants.TRIANGLE_COUNT + count) / (count + 1);
+      count = (Constants.TRIANGLE_COUNT - 1) / checkpointInterval;
+      checkpoints = new int[count][width * height];
+    }
+    else
+    {
+      checkpointInterval = 0;
+      checkpoints = new int[0][];
+    }
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see trianglegenome.render.GenomeRenderer#setGenome(trianglegenome.Genome)
+   */
+  @Override
+  public void setGenome(Genome genome)
+  {
+    this.genome = genome;
+    render();
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see trianglegenome.render.GenomeRenderer#getGenome()
+   */
+  @Override
+  public Genome getGenome()
+  {
+    return genome;
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see trianglegenome.render.GenomeRenderer#render()
+   */
+  @Override
+  public void render()
+  {
+    synchronized (genome)
+    {
+      grid.rebuild(genome.getDNA(), genome.getTriangleCount());
+    }
+    validCheckpoints = 0;
+    drawRegion(pixels, 0, Integer.MAX_VALUE, 0, 0, width, height);
+    validCheckpoints = (checkpointInterval == 0) ? 0 :
+        min(genome.getTriangleCount() / checkpointInterval, checkpoints.length);
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see trianglegenome.render.GenomeRenderer#updateRegion(java.awt.Rectangle)
+   */
+  @Override
+  public void updateRegion(Rectangle bound)
+  {
+    synchronized (genome)
+    {
+      grid.rebuild(genome.getDNA(), genome.getTriangleCount());
+    }
+    drawRegion(pixels, 0, Integer.MAX_VALUE,
+        max(bound.x, 0), max(bound.y, 0),
+        min(bound.x + bound.width, width), min(bound.y + bound.height, height));
+  }
+
+  /**
+   * Redraws the current genome inside the given bound, starting from the last checkpoint at or
+   * below the given triangle.
+   * @see trianglegenome.render.GenomeRenderer#updateTriangle(int, java.awt.Rectangle)
+   */
+  @Override
+  public void updateTriangle(int index, Rectangle bound)
+  {
+    synchronized (genome)
+    {
+      grid.update(genome.getDNA(), index);
+    }
+    drawRegion(pixels, index, Integer.MAX_VALUE,
+        max(bound.x, 0), max(bound.y, 0),
+        min(bound.x + bound.width, width), min(bound.y + bound.height, height));
+  }
+
+  /**
+   * Tells the rasterizer that a triangle's vertices changed without redrawing it, so that
+   * {@link #samplePixel(int, int)} finds the triangle where it is now. Call this again after
+   * undoing the change if the triangle is not redrawn.
+   * @param index The index of the triangle that changed.
+   */
+  public void updateIndex(int index)
+  {
+    synchronized (genome)
+    {
+      grid.update(genome.getDNA(), index);
+    }
+  }
+
+  /**
+   * Blends every triangle that covers a pixel over the background, in order, without touching
+   * the image. Triangles whose vertices changed since they were last drawn must first be passed
+   * to {@link #updateIndex(int)}.
+   * @see trianglegenome.render.PixelSampler#samplePixel(int, int)
+   */
+  @Override
+  public int samplePixel(int x, int y)
+  {
+    synchronized (genome)
+    {
+      int[] dna = genome.getDNA();
+      int triangleCount = genome.getTriangleCount();
+      int rgb = BACKGROUND;
+      grid.query(x, y, x + 1, y + 1);
+      for (int t = grid.next(0); t >= 0 && t < triangleCount; t = grid.next(t + 1))
+      {
+        int offset = t * Triangle.DNA_LENGTH;
+        int alpha = clamp(dna[offset + 9]);
+        if (alpha == 0 || !spans.contains(dna, offset, x, y)) continue;
+
+        int inverseAlpha = 255 - alpha;
+        int r = divide255(clamp(dna[offset + 6]) * alpha + ((rgb >> 16) & 0xFF) * inverseAlpha);
+        int g = divide255(clamp(dna[offset + 7]) * alpha + ((rgb >> 8) & 0xFF) * inverseAlpha);
+        int b = divide255(clamp(dna[offset + 8]) * alpha + (rgb & 0xFF) * inverseAlpha);
+        rgb = (r << 16) | (g << 8) | b;
+      }
+      return rgb;
+    }
+  }
+
+  /**
+   * Returns the image that this rasterizer draws on. This is not a copy.
+   * @return The image that this rasterizer draws on.
+   */
+  @Override
+  public BufferedImage getSnapshot()
+  {
+    return image;
+  }
+
+  /**
+   * Returns the pixels of the image that this rasterizer draws on, one int of 0xRRGGBB per
+   * pixel, row by row. This is not a copy.
+   * @return The pixels of the image that this rasterizer draws on.
+   */
+  public int[] getPixels()
+  {
+    return pixels;
+  }
+
+  /**
+   * Draws only the triangles that lie below a triangle (those with a lower index) inside a
+   * bound, into a separate array the size of the image. This is what the triangle is blended
+   * over, which the {@link trianglegenome.fitness.OptimalColor} solver needs. Pixels outside
+   * of the bound are left as they were by earlier calls.
+   * @param triangle The index of the triangle.
+   * @param bound The bound to draw.
+   * @return The array that was drawn into, one int of 0xRRGGBB per pixel, row by row. This is
+   * not a copy, and it is reused by the next call.
+   */
+  public int[] compositeBelow(int triangle, Rectangle bound)
+  {
+    if (below == null) below = new int[width * height];
+    drawRegion(below, triangle, triangle,
+        max(bound.x, 0), max(bound.y, 0),
+        min(bound.x + bound.width, width), min(bound.y + bound.height, height));
+    return below;
+  }
+
+  /**
+   * Draws the first triangles of the genome inside a rectangle of an array of pixels. Drawing
+   * starts from the last valid checkpoint at or below the first triangle that changed, or from
+   * an empty rectangle. When the array is the image, the checkpoints that are passed on the way
+   * are brought up to date inside the rectangle.
+   * @param target The pixels to draw on, the same size as the image.
+   * @param changed The index of the first triangle that changed since target was last drawn.
+   * @param limit The number of triangles to draw, starting from the first.
+   * @param x0 The left of the rectangle (inclusive).
+   * @param y0 The top of the rectangle (inclusive).
+   * @param x1 The right of the rectangle (exclusive).
+   * @param y1 The bottom of the rectangle (exclusive).
+   */
+  private void drawRegion(int[] target, int changed, int limit, int x0, int y0, int x1, int y1)
+  {
+    if (x0 >= x1 || y0 >= y1) return;
+
+    synchronized (genome)
+    {
+      int[] dna = genome.getDNA();
+      int triangleCount = min(genome.getTriangleCount(), limit);
+      int start = (checkpointInterval == 0) ? 0 :
+          min(min(changed, triangleCount) / checkpointInterval, validCheckpoints);
+
+      if (start == 0)
+      {
+        for (int y = y0; y < y1; y++)
+        {
+          Arrays.fill(target, y * width + x0, y * width + x1, BACKGROUND);
+        }
+      }
+      else copyRegion(checkpoints[start - 1], target, x0, y0, x1, y1);
+
+      boolean refresh = (target == pixels);
+      int nextCheckpoint = start + 1;
+      grid.query(x0, y0, x1, y1);
+      for (int t = grid.next(start * checkpointInterval); ; t = grid.next(t + 1))
+      {
+        int end = (t < 0 || t >= triangleCount) ? triangleCount : t;
+
+        // Bring the checkpoints that only hold triangles below this one up to date
+        while (refresh && nextCheckpoint <= checkpoints.length
+            && nextCheckpoint * checkpointInterval <= end)
+        {
+          copyRegion(target, checkpoints[nextCheckpoint - 1], x0, y0, x1, y1);
+          nextCheckpoint++;
+        }
+        if (end == triangleCount) break;
+
+        drawTriangle(target, dna, t * Triangle.DNA_LENGTH, x0, y0, x1, y1);
+      }
+    }
+  }
+
+  /**
+   * Copies a rectangle from one array of pixels to another of the same size.
+   * @param from The pixels to copy from.
+   * @param to The pixels to copy to.
+   * @param x0 The left of the rectangle (inclusive).
+   * @param y0 The top of the rectangle (inclusive).
+   * @param x1 The right of the rectangle (exclusive).
+   * @param y1 The bottom of the rectangle (exclusive).
+   */
+  private void copyRegion(int[] from, int[] to, int x0, int y0, int x1, int y1)
+  {
+    for (int y = y0; y < y1; y++)
+    {
+      System.arraycopy(from, y * width + x0, to, y * width + x0, x1 - x0);
+    }
+  }
+
+  /**
+   * Blends one triangle over an array of pixels, clipped to a rectangle.
+   * @param target The pixels to draw on, the same size as the image.
+   * @param dna An array containing the triangle's DNA (see {@link Triangle#dna}).
+   * @param offset The index of the triangle's DNA in the array.
+   * @param x0 The left of the clip rectangle (inclusive).
+   * @param y0 The top of the clip rectangle (inclusive).
+   * @param x1 The right of the clip rectangle (exclusive).
+   * @param y1 The bottom of the clip rectangle (exclusive).
+   */
+  private void drawTriangle(int[] target, int[] dna, int offset, int x0, int y0, int x1, int y1)
+  {
+    int alpha = clamp(dna[offset + 9]);
+    if (alpha == 0) return;
+    if (!spans.scan(dna, offset, x0, y0, x1, y1)) return;
+
+    int inverseAlpha = 255 - alpha;
+    int red = clamp(dna[offset + 6]) * alpha;
+    int green = clamp(dna[offset + 7]) * alpha;
+    int blue = clamp(dna[offset + 8]) * alpha;
+
+    int[] left = spans.left;
+    int[] right = spans.right;
+    for (int y = spans.top; y < spans.bottom; y++)
+    {
+      int row = y * width;
+      int end = row + right[y];
+      for (int i = row + left[y]; i < end; i++)
+      {
+        int rgb = target[i];
+        int r = divide255(red + ((rgb >> 16) & 0xFF) * inverseAlpha);
+        int g = divide255(green + ((rgb >> 8) & 0xFF) * inverseAlpha);
+        int b = divide255(blue + (rgb & 0xFF) * inverseAlpha);
+        target[i] = (r << 16) | (g << 8) | b;
+      }
+    }
+  }
+
+  /**
+   * Returns round(value / 255) for values from 0 to 255 * 255 without dividing.
+   * @param value The value to divide.
+   * @return The value divided by 255 and rounded to the nearest integer.
+   */
+  static int divide255(int value)
+  {
+    value += 128;
+    return (value + (value >> 8)) >> 8;
+  }
+
+  /**
+   * Clamps a color or alpha gene to the range 0 to 255.
+   * @param value The gene.
+   * @return The gene clamped to the range 0 to 255.
+   */
+  static int clamp(int value)
+  {
+    return (value < 0) ? 0 : (value > 255) ? 255 : value;
+  }
+}
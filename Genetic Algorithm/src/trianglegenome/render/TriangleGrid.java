@@ -0,0 +1,209 @@
+package trianglegenome.render;
+
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
+import java.util.Arrays;
+
+import trianglegenome.Triangle;
+import trianglegenome.util.Constants;
+
+/**
+ * A uniform grid over an image that remembers which triangles' bounding boxes touch each cell,
+ * so that a renderer can find the triangles inside a dirty region without looking at every
+ * triangle. Each cell holds a bit set with one bit per triangle, so the triangles found by a
+ * query come out in the order in which they are drawn.
+ * <br /><br />
+ * The grid does not allocate anything after it has been created. It has to be told about
+ * every change to a triangle's vertices, either with {@link #update(int[], int)} for one
+ * triangle or with {@link #rebuild(int[], int)} for all of them.
+ * <br /><br />
+ * Example code:<br/>
+ * <code><pre>
+ *  TriangleGrid grid = new TriangleGrid(width, height);
+ *  grid.rebuild(genome.getDNA(), genome.getTriangleCount());
+ *
+ *  genome.setDNA(5, 0, 10);
+ *  grid.update(genome.getDNA(), 5);
+ *
+ *  grid.query(bound.x, bound.y, bound.x + bound.width, bound.y + bound.height);
+ *  for (int t = grid.next(0); t &gt;= 0; t = grid.next(t + 1))
+ *  {
+ *    // the bounding box of triangle t touches a cell that the bound touches
+ *  }
+ *
+ * </pre></code>
+ */
+public class TriangleGrid
+{
+  /** The number of cells along the longer side of the image. */
+  public static final int CELLS = 16;
+
+  /** The width and height of one cell in pixels. */
+  private final int cellSize;
+
+  /** The number of columns of cells. */
+  private final int columns;
+
+  /** The number of rows of cells. */
+  private final int rows;
+
+  /** The number of longs in one bit set. */
+  private final int words;
+
+  /** The bit set of each cell, cell by cell, row by row. */
+  private final long[] cells;
+
+  /** The cells that each triangle is in: first column, first row, last column, last row
+   * (inclusive), or -1 when the triangle is in no cells. */
+  private final int[] triangleCells;
+
+  /** The bit set of triangles found by the last query. */
+  private final long[] found;
+
+  /**
+   * Creates an empty grid over an image of a given size, for genomes of up to
+   * {@link Constants#TRIANGLE_COUNT} triangles.
+   * @param width The width of the image.
+   * @param height The height of the image.
+   */
+  public TriangleGrid(int width, int height)
+  {
+    cellSize = max(1, (max(width, height) + CELLS - 1) / CELLS);
+    columns = max(1, (width + cellSize - 1) / cellSize);
+    rows = max(1, (height + cellSize - 1) / cellSize);
+    words = (Constants.TRIANGLE_COUNT + 63) / 64;
+    cells = new long[columns * rows * words];
+    triangleCells = new int[4 * Constants.TRIANGLE_COUNT];
+    found = new long[words];
+    Arrays.fill(triangleCells, -1);
+  }
+
+  /**
+   * Forgets every triangle and adds the first triangles of an array of DNA.
+   * @param dna An array containing the DNA of the triangles (see {@link Triangle#dna}).
+   * @param triangleCount The number of triangles in the array.
+   */
+  public void rebuild(int[] dna, int triangleCount)
+  {
+    Arrays.fill(cells, 0);
+    Arrays.fill(triangleCells, -1);
+    for (int t = 0; t < triangleCount; t++) add(dna, t);
+  }
+
+  /**
+   * Moves one triangle to the cells of its current bounding box.
+   * @param dna An array containing the DNA of the triangles (see {@link Triangle#dna}).
+   * @param triangle The index of the triangle whose vertices changed.
+   */
+  public void update(int[] dna, int triangle)
+  {
+    setCells(triangle, false);
+    add(dna, triangle);
+  }
+
+  /**
+   * Finds the triangles whose bounding boxes touch the same cells as a rectangle. This may
+   * include some triangles that do not touch the rectangle itself, but never leaves one out.
+   * Use {@link #next(int)} to read the triangles that were found.
+   * @param x0 The left of the rectangle (inclusive).
+   * @param y0 The top of the rectangle (inclusive).
+   * @param x1 The right of the rectangle (exclusive).
+   * @param y1 The bottom of the rectangle (exclusive).
+   */
+  public void query(int x0, int y0, int x1, int y1)
+  {
+    Arrays.fill(found, 0);
+    if (x0 >= x1 || y0 >= y1) return;
+
+    int c0 = column(x0), c1 = column(x1 - 1);
+    int r0 = row(y0), r1 = row(y1 - 1);
+    for (int r = r0; r <= r1; r++)
+    {
+      for (int c = c0; c <= c1; c++)
+      {
+        int cell = (r * columns + c) * words;
+        for (int w = 0; w < words; w++) found[w] |= cells[cell + w];
+      }
+    }
+  }
+
+  /**
+   * Returns the first triangle found by the last {@link #query(int, int, int, int)} whose index
+   * is at least the given index.
+   * @param from The smallest index to return.
+   * @return The index of the triangle, or -1 when there are no more.
+   */
+  public int next(int from)
+  {
+    int w = from >>> 6;
+    if (w >= words) return -1;
+    long bits = found[w] & (-1L << (from & 63));
+    while (true)
+    {
+      if (bits != 0) return (w << 6) + Long.numberOfTrailingZeros(bits);
+      if (++w == words) return -1;
+      bits = found[w];
+    }
+  }
+
+  /**
+   * Adds a triangle to the cells of its bounding box. The bounding box covers the pixels from
+   * the lowest coordinate (inclusive) to the highest (exclusive), like
+   * {@link TriangleSpans#scan(int[], int, int, int, int, int)}.
+   */
+  private void add(int[] dna, int triangle)
+  {
+    int offset = triangle * Triangle.DNA_LENGTH;
+    int minX = min(dna[offset], min(dna[offset + 1], dna[offset + 2]));
+    int maxX = max(dna[offset], max(dna[offset + 1], dna[offset + 2]));
+    int minY = min(dna[offset + 3], min(dna[offset + 4], dna[offset + 5]));
+    int maxY = max(dna[offset + 3], max(dna[offset + 4], dna[offset + 5]));
+
+    int index = 4 * triangle;
+    if (minX >= maxX || minY >= maxY || maxX <= 0 || maxY <= 0
+        || minX >= columns * cellSize || minY >= rows * cellSize)
+    {
+      triangleCells[index] = -1;
+      return;
+    }
+    triangleCells[index] = column(minX);
+    triangleCells[index + 1] = row(minY);
+    triangleCells[index + 2] = column(maxX - 1);
+    triangleCells[index + 3] = row(maxY - 1);
+    setCells(triangle, true);
+  }
+
+  /**
+   * Sets or clears a triangle's bit in every cell that it is in.
+   */
+  private void setCells(int triangle, boolean value)
+  {
+    int index = 4 * triangle;
+    if (triangleCells[index] < 0) return;
+
+    int w = triangle >>> 6;
+    long bit = 1L << (triangle & 63);
+    for (int r = triangleCells[index + 1]; r <= triangleCells[index + 3]; r++)
+    {
+      for (int c = triangleCells[index]; c <= triangleCells[index + 2]; c++)
+      {
+        int cell = (r * columns + c) * words + w;
+        if (value) cells[cell] |= bit;
+        else cells[cell] &= ~bit;
+      }
+    }
+  }
+
+  /** Returns the column of cells that holds an x coordinate, clamped to the grid. */
+  private int column(int x)
+  {
+    return min(max(x / cellSize, 0), columns - 1);
+  }
+
+  /** Returns the row of cells that holds a y coordinate, clamped to the grid. */
+  private int row(int y)
+  {
+    return min(max(y / cellSize, 0), rows - 1);
+  }
+}
@@ -0,0 +1,173 @@
+package trianglegenome.render;
+
+import static java.lang.Math.floorDiv;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
+import trianglegenome.Triangle;
+
+/**
+ * Scan converts one triangle into horizontal spans of pixels, one span per row, covering
+ * the same pixels as {@link java.awt.Graphics#fillPolygon} does in a DrawPanel. Java2D's
+ * default stroke normalization moves integer vertices a quarter of a pixel down and to the
+ * right, so a pixel (x, y) belongs to the triangle when the point (x + 0.25, y + 0.25) is
+ * inside of it. A point that lies exactly on an edge belongs to the triangle when the inside
+ * is immediately to its right or below it. Java2D breaks some of those ties differently, so
+ * a few edge pixels in ten thousand can differ from a DrawPanel.
+ * <br /><br />
+ * All of the math is done in integers on coordinates that are multiplied by four, so that the
+ * sample points become (4x + 1, 4y + 1).
+ * <br /><br />
+ * Example code:<br/>
+ * <code><pre>
+ *  TriangleSpans spans = new TriangleSpans(height);
+ *
+ *  if (spans.scan(genome.getDNA(), 5 * Triangle.DNA_LENGTH, 0, 0, width, height))
+ *  {
+ *    for (int y = spans.top; y &lt; spans.bottom; y++)
+ *    {
+ *      // pixels spans.left[y] (inclusive) to spans.right[y] (exclusive) are covered
+ *    }
+ *  }
+ *
+ * </pre></code>
+ */
+public class TriangleSpans
+{
+  /** The first row (inclusive) covered by the last scanned triangle. */
+  public int top;
+
+  /** The last row (exclusive) covered by the last scanned triangle. */
+  public int bottom;
+
+  /** The first column (inclusive) covered in each row, indexed by row. */
+  public final int[] left;
+
+  /** The last column (exclusive) covered in each row, indexed by row. */
+  public final int[] right;
+
+  /** Edge equation coefficients, E(x, y) = a * 4x + b * 4y + c, for each of the three edges. */
+  private final int[] edgeA = new int[3];
+  private final int[] edgeB = new int[3];
+  private final int[] edgeC = new int[3];
+
+  /**
+   * Creates a TriangleSpans for images of a given height.
+   * @param height The height of the images in which triangles will be scanned.
+   */
+  public TriangleSpans(int height)
+  {
+    left = new int[height];
+    right = new int[height];
+  }
+
+  /**
+   * Scan converts a triangle, clipped to a rectangle, into {@link #left} and {@link #right}
+   * for the rows {@link #top} to {@link #bottom}. Rows in that range may still be empty
+   * (left >= right).
+   * @param dna An array containing the triangle's DNA (see {@link Triangle#dna}).
+   * @param offset The index of the triangle's DNA in the array.
+   * @param clipX0 The left of the clip rectangle (inclusive).
+   * @param clipY0 The top of the clip rectangle (inclusive).
+   * @param clipX1 The right of the clip rectangle (exclusive).
+   * @param clipY1 The bottom of the clip rectangle (exclusive).
+   * @return False when the triangle covers no pixels inside the clip rectangle.
+   */
+  public boolean scan(int[] dna, int offset, int clipX0, int clipY0, int clipX1, int clipY1)
+  {
+    if (!setupEdges(dna, offset)) return false;
+
+    int minY = min(dna[offset + 3], min(dna[offset + 4], dna[offset + 5]));
+    int maxY = max(dna[offset + 3], max(dna[offset + 4], dna[offset + 5]));
+    int minX = min(dna[offset], min(dna[offset + 1], dna[offset + 2]));
+    int maxX = max(dna[offset], max(dna[offset + 1], dna[offset + 2]));
+
+    top = max(minY, clipY0);
+    bottom = min(maxY, clipY1);
+    int x0 = max(minX, clipX0);
+    int x1 = min(maxX, clipX1);
+    if (top >= bottom || x0 >= x1) return false;
+
+    for (int y = top; y < bottom; y++)
+    {
+      int l = x0;
+      int r = x1;
+      int py = 4 * y + 1;
+      for (int e = 0; e < 3; e++)
+      {
+        int a = edgeA[e];
+        // E at pixel x is (4a) * x + k, we need it to be >= 0
+        int k = a + edgeB[e] * py + edgeC[e];
+        if (a > 0) l = max(l, -floorDiv(k, 4 * a));
+        else if (a < 0) r = min(r, floorDiv(k, -4 * a) + 1);
+        else if (k < 0) r = l;
+      }
+      left[y] = l;
+      right[y] = r;
+    }
+    return true;
+  }
+
+  /**
+   * Returns whether or not a pixel is covered by a triangle, using exactly the same rule as
+   * {@link #scan(int[], int, int, int, int, int)}.
+   * @param dna An array containing the triangle's DNA (see {@link Triangle#dna}).
+   * @param offset The index of the triangle's DNA in the array.
+   * @param x The column of the pixel.
+   * @param y The row of the pixel.
+   * @return Whether or not the pixel is covered by the triangle.
+   */
+  public boolean contains(int[] dna, int offset, int x, int y)
+  {
+    if (!setupEdges(dna, offset)) return false;
+    int px = 4 * x + 1;
+    int py = 4 * y + 1;
+    for (int e = 0; e < 3; e++)
+    {
+      if (edgeA[e] * px + edgeB[e] * py + edgeC[e] < 0) return false;
+    }
+    return true;
+  }
+
+  /**
+   * Fills {@link #edgeA}, {@link #edgeB} and {@link #edgeC} so that the inside of the triangle
+   * is where all three edge equations are >= 0. Edges that do not own their boundary pixels
+   * have 1 subtracted from c so that E == 0 on them counts as outside.
+   * @param dna An array containing the triangle's DNA.
+   * @param offset The index of the triangle's DNA in the array.
+   * @return False when the triangle has no area.
+   */
+  private boolean setupEdges(int[] dna, int offset)
+  {
+    int x0 = 4 * dna[offset], x1 = 4 * dna[offset + 1], x2 = 4 * dna[offset + 2];
+    int y0 = 4 * dna[offset + 3], y1 = 4 * dna[offset + 4], y2 = 4 * dna[offset + 5];
+
+    long area = (long)(x1 - x0) * (y2 - y0) - (long)(y1 - y0) * (x2 - x0);
+    if (area == 0) return false;
+    if (area < 0)
+    {
+      int tx = x1, ty = y1;
+      x1 = x2; y1 = y2;
+      x2 = tx; y2 = ty;
+    }
+    setupEdge(0, x0, y0, x1, y1);
+    setupEdge(1, x1, y1, x2, y2);
+    setupEdge(2, x2, y2, x0, y0);
+    return true;
+  }
+
+  /**
+   * Sets up one edge equation, E(px, py) = (bx - ax) * (py - ay) - (by - ay) * (px - ax), for
+   * the edge from a to b in coordinates that are multiplied by four.
+   */
+  private void setupEdge(int e, int ax, int ay, int bx, int by)
+  {
+    int a = ay - by;
+    int b = bx - ax;
+    int c = -a * ax - b * ay;
+    boolean ownsBoundary = a > 0 || (a == 0 && b > 0);
+    edgeA[e] = a;
+    edgeB[e] = b;
+    edgeC[e] = ownsBoundary ? c : c - 1;
+  }
+}
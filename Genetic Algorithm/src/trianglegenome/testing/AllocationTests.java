@@ -0,0 +1,88 @@
+package trianglegenome.testing;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import trianglegenome.Genome;
+import trianglegenome.GenomeDrawPanelPair;
+import trianglegenome.HillClimbing;
+import trianglegenome.render.SoftwareRasterizer;
+import trianglegenome.util.Constants;
+import trianglegenome.util.RandomGenome;
+
+/**
+ * Assert tests that hill climbing with the {@link SoftwareRasterizer} does not allocate once it
+ * has warmed up, measured with the allocated bytes counter of the HotSpot ThreadMXBean. Every
+ * mutate, draw, score and accept or roll back step should reuse the scratch space of its
+ * {@link HillClimbing} worker, so any allocation here means garbage on every step.
+ */
+public class AllocationTests
+{
+  /** The steps run before measuring, enough for the JIT to compile the step with escape
+   * analysis and for the rarer branches to have resolved their constants. */
+  private static final int WARM_UP_STEPS = 1000;
+
+  /** The steps whose allocations are measured. */
+  private static final int MEASURED_STEPS = 1000;
+
+  /** The bytes that each measured step may allocate on average, for the odd allocation made by
+   * the JVM itself, such as while compiling or deoptimizing. The smallest object takes 16
+   * bytes, so a step that allocates anything every time goes over. */
+  private static final long ALLOWED_BYTES_PER_STEP = 8;
+
+  private final com.sun.management.ThreadMXBean threads =
+      (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+
+  public AllocationTests()
+  {
+    Constants.width = Constants.IMAGES[1].getWidth();
+    Constants.height = Constants.IMAGES[1].getHeight();
+
+    boolean screen = Constants.usePyramidScreen;
+    boolean sampled = Constants.useSampledFitness;
+
+    Constants.usePyramidScreen = false;
+    Constants.useSampledFitness = false;
+    testStepDoesNotAllocate();
+    Constants.usePyramidScreen = true;
+    testStepDoesNotAllocate();
+    Constants.usePyramidScreen = false;
+    Constants.useSampledFitness = true;
+    testStepDoesNotAllocate();
+
+    Constants.usePyramidScreen = screen;
+    Constants.useSampledFitness = sampled;
+  }
+
+  /**
+   * Runs hill climbing steps on one genome and checks that they allocate (almost) nothing.
+   */
+  public void testStepDoesNotAllocate()
+  {
+    assert threads.isThreadAllocatedMemorySupported();
+    threads.setThreadAllocatedMemoryEnabled(true);
+
+    Genome genome = RandomGenome.generateGenome();
+    List<GenomeDrawPanelPair> states = new ArrayList<GenomeDrawPanelPair>();
+    states.add(new GenomeDrawPanelPair(genome,
+        new SoftwareRasterizer(Constants.width, Constants.height)));
+    HillClimbing climber = new HillClimbing(states, Constants.IMAGES[1]);
+    GenomeDrawPanelPair state = states.get(0);
+
+    for (int i = 0; i < WARM_UP_STEPS; i++) climber.performEvolution(state);
+
+    long thread = Thread.currentThread().getId();
+    long before = threads.getThreadAllocatedBytes(thread);
+    for (int i = 0; i < MEASURED_STEPS; i++) climber.performEvolution(state);
+    long allocated = threads.getThreadAllocatedBytes(thread) - before;
+
+    assert allocated <= ALLOWED_BYTES_PER_STEP * MEASURED_STEPS : allocated
+        + " bytes allocated by " + MEASURED_STEPS + " hill climbing steps";
+  }
+
+  public static void main(String[] args)
+  {
+    new AllocationTests();
+  }
+}
@@ -0,0 +1,125 @@
+package trianglegenome.testing;
+
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+
+import trianglegenome.FitnessEvaluator;
+import trianglegenome.Genome;
+import trianglegenome.GenomeCrossover;
+import trianglegenome.RankedPopulation;
+import trianglegenome.fitness.BackgroundScorer;
+import trianglegenome.fitness.BatchFitnessEvaluator;
+import trianglegenome.render.SoftwareRasterizer;
+import trianglegenome.util.Constants;
+
+/**
+ * Assert tests for dirty genomes and the {@link BackgroundScorer}: that an edited genome
+ * leaves its ranking until it is scored again, and that the children of a crossover that does
+ * not score them get their real fitness from the scorer's thread.
+ */
+public class BackgroundScorerTests
+{
+  private final SplittableRandom random = new SplittableRandom(17);
+  private final BatchFitnessEvaluator batch;
+  private final FitnessEvaluator fitnessEvaluator;
+  private final SoftwareRasterizer rasterizer;
+
+  public BackgroundScorerTests()
+  {
+    Constants.width = Constants.IMAGES[1].getWidth();
+    Constants.height = Constants.IMAGES[1].getHeight();
+    batch = new BatchFitnessEvaluator(Constants.IMAGES[1], 2);
+    fitnessEvaluator = new FitnessEvaluator(Constants.IMAGES[1]);
+    rasterizer = new SoftwareRasterizer(Constants.width, Constants.height);
+
+    testEditLeavesRanking();
+    testCrossoverChildrenScoredInBackground();
+  }
+
+  /**
+   * Edits a triangle of a scored genome and checks that it is dirty, unranked and
+   * climbed from a new version until {@link BackgroundScorer#scoreDirty()} scores it.
+   */
+  public void testEditLeavesRanking()
+  {
+    List<Genome> genomes = scoredGenomes(6);
+    RankedPopulation ranking = new RankedPopulation(genomes);
+    BackgroundScorer scorer = new BackgroundScorer(genomes, batch);
+    Genome edited = ranking.getBest();
+    long version = edited.getVersion();
+
+    edited.setTriangle(0, edited.getTriangle(1));
+    assert edited.isDirty();
+    assert edited.getVersion() == version + 1;
+    assert ranking.size() == genomes.size() - 1;
+    assert ranking.rankOf(edited) == -1;
+
+    assert scorer.scoreDirty() == 1;
+    assert !edited.isDirty();
+    assert ranking.size() == genomes.size();
+    assert edited.getFitness() == fitnessOf(edited);
+    assert scorer.scoreDirty() == 0;
+    ranking.close();
+  }
+
+  /**
+   * Crosses genomes over without scoring the children, and checks that the children are
+   * never ranked by a stale fitness and that the scorer's thread scores them. A latch opens
+   * once the thread has evaluated its batch, and the test's own {@link
+   * BackgroundScorer#scoreDirty()} then waits for the thread to set the fitnesses.
+   */
+  public void testCrossoverChildrenScoredInBackground()
+  {
+    List<Genome> genomes = scoredGenomes(40);
+    RankedPopulation ranking = new RankedPopulation(genomes);
+    GenomeCrossover crossover = new GenomeCrossover(ranking, null, random.split());
+    CountDownLatch evaluated = new CountDownLatch(1);
+    BatchFitnessEvaluator signalling = new BatchFitnessEvaluator(Constants.IMAGES[1], 2)
+    {
+      @Override
+      public synchronized void evaluateBatch(List<Genome> genomes, long[] fitness)
+      {
+        super.evaluateBatch(genomes, fitness);
+        evaluated.countDown();
+      }
+    };
+    BackgroundScorer scorer = new BackgroundScorer(genomes, signalling, 10000);
+    scorer.start();
+
+    crossover.crossover(4);
+    long dirty = genomes.stream().filter(g -> g.isDirty()).count();
+    assert dirty > 0;
+    assert ranking.size() == genomes.size() - dirty;
+
+    scorer.signal();
+    TestSupport.await(evaluated);
+    assert scorer.scoreDirty() == 0 : "the scorer's thread left genomes dirty";
+    scorer.stop();
+    assert ranking.size() == genomes.size();
+    assert scorer.getScoredCount() == dirty;
+    for (Genome genome : genomes) assert genome.getFitness() == fitnessOf(genome);
+    ranking.close();
+  }
+
+  /**
+   * Creates scored random genomes.
+   */
+  private List<Genome> scoredGenomes(int count)
+  {
+    List<Genome> genomes = TestSupport.genomes(count, random);
+    batch.evaluateBatch(genomes);
+    return genomes;
+  }
+
+  private long fitnessOf(Genome genome)
+  {
+    rasterizer.setGenome(genome);
+    return fitnessEvaluator.differenceSum(rasterizer.getSnapshot());
+  }
+
+  public static void main(String[] args)
+  {
+    new BackgroundScorerTests();
+  }
+}
@@ -0,0 +1,301 @@
+package trianglegenome.testing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import trianglegenome.ClimbingScheduler;
+import trianglegenome.FitnessEvaluator;
+import trianglegenome.Genome;
+import trianglegenome.VirtualThreadScheduler;
+import trianglegenome.WorkStealingScheduler;
+import trianglegenome.render.SoftwareRasterizer;
+import trianglegenome.util.Constants;
+import trianglegenome.util.RandomGenome;
+
+/**
+ * Assert tests that the {@link WorkStealingScheduler} and, when the JVM has virtual threads,
+ * the {@link VirtualThreadScheduler} climb every genome, even with more genomes than workers,
+ * that nothing is climbed once a pause has returned, that a seeded run climbs each genome
+ * the same way whichever worker or slot climbs it, and that the fitness stored in each genome
+ * is its real one when its leases go to different workers or slots. A lease that throws must
+ * be reported and must not keep a pause from returning. The tests wait for the climbers with
+ * latches that the workers open after their leases, never for a fixed time.
+ */
+public class ClimbingSchedulerTests
+{
+  private List<Genome> genomes;
+  private long[] initialFitness;
+  private FitnessEvaluator fitnessEvaluator;
+  private SoftwareRasterizer rasterizer;
+  private ClimbingScheduler scheduler;
+
+  public ClimbingSchedulerTests()
+  {
+    initData();
+    WorkStealingScheduler workStealing = new WorkStealingScheduler(3, genomes,
+        Constants.IMAGES[1], new SplittableRandom(7),
+        () -> new SoftwareRasterizer(Constants.width, Constants.height));
+    workStealing.setLeaseSteps(4);
+    testScheduler(workStealing);
+    testWorkStealingReplays();
+    for (int count : new int[] { 1, 2 })
+    {
+      List<Genome> few = TestSupport.genomes(count, new SplittableRandom(7));
+      WorkStealingScheduler s = new WorkStealingScheduler(4, few, Constants.IMAGES[1],
+          new SplittableRandom(7),
+          () -> new SoftwareRasterizer(Constants.width, Constants.height));
+      s.setLeaseSteps(1);
+      testStoredFitness(s, few);
+    }
+    testThrowingLease(new WorkStealingScheduler(3, TestSupport.genomes(4,
+        new SplittableRandom(7)), Constants.IMAGES[1], new SplittableRandom(7),
+        () -> new SoftwareRasterizer(Constants.width, Constants.height)));
+
+    if (VirtualThreadScheduler.isAvailable())
+    {
+      initData();
+      VirtualThreadScheduler virtual = new VirtualThreadScheduler(genomes,
+          Constants.IMAGES[1], new SplittableRandom(7),
+          () -> new SoftwareRasterizer(Constants.width, Constants.height));
+      virtual.setLeaseSteps(4);
+      testScheduler(virtual);
+      testVirtualThreadsReplay();
+      List<Genome> few = TestSupport.genomes(2, new SplittableRandom(7));
+      VirtualThreadScheduler s = new VirtualThreadScheduler(few, Constants.IMAGES[1],
+          new SplittableRandom(7),
+          () -> new SoftwareRasterizer(Constants.width, Constants.height));
+      s.setLeaseSteps(1);
+      testStoredFitness(s, few);
+      testThrowingLease(new VirtualThreadScheduler(TestSupport.genomes(4,
+          new SplittableRandom(7)), Constants.IMAGES[1], new SplittableRandom(7),
+          () -> new SoftwareRasterizer(Constants.width, Constants.height)));
+    }
+  }
+
+  private void testScheduler(ClimbingScheduler scheduler)
+  {
+    this.scheduler = scheduler;
+    testClimbsEveryGenome();
+    testPauseIsQuiescent();
+    scheduler.stop();
+    assert !scheduler.isRunning();
+  }
+
+  private void initData()
+  {
+    Constants.width = Constants.IMAGES[1].getWidth();
+    Constants.height = Constants.IMAGES[1].getHeight();
+    SplittableRandom random = new SplittableRandom(7);
+    genomes = new ArrayList<Genome>();
+    fitnessEvaluator = new FitnessEvaluator(Constants.IMAGES[1]);
+    rasterizer = new SoftwareRasterizer(Constants.width, Constants.height);
+    initialFitness = new long[10];
+    for (int i = 0; i < initialFitness.length; i++)
+    {
+      Genome genome = RandomGenome.generateGenome(random);
+      genomes.add(genome);
+      initialFitness[i] = fitness(genome);
+    }
+  }
+
+  /**
+   * Climbs ten genomes and checks that every one of them was scored by a
+   * worker and got no worse.
+   */
+  private void testClimbsEveryGenome()
+  {
+    climb(scheduler, () -> genomes.stream().allMatch(Genome::isScored));
+
+    assert scheduler.isPaused();
+    assert scheduler.getGenerationCount() > 0;
+    for (int i = 0; i < genomes.size(); i++)
+    {
+      Genome genome = genomes.get(i);
+      assert genome.getFitness() != Integer.MAX_VALUE : "genome " + i + " was not climbed";
+      assert fitness(genome) <= initialFitness[i];
+    }
+  }
+
+  /**
+   * Pauses repeatedly and checks that no lease ends and no genome or step count changes once
+   * a pause has returned, and that one evolution while paused climbs each genome once.
+   */
+  private void testPauseIsQuiescent()
+  {
+    for (int round = 0; round < 5; round++)
+    {
+      long climbed = scheduler.getGenerationCount();
+      climb(scheduler, () -> scheduler.getGenerationCount() > climbed);
+
+      AtomicBoolean leaseEnded = new AtomicBoolean();
+      scheduler.setEvolutionEngine(TestSupport.onClimb(steps -> leaseEnded.set(true)));
+      List<int[]> before = new ArrayList<int[]>();
+      for (Genome genome : genomes) before.add(genome.getDNA().clone());
+      long steps = scheduler.getGenerationCount();
+      for (int i = 0; i < genomes.size(); i++)
+      {
+        assert Arrays.equals(before.get(i), genomes.get(i).getDNA());
+      }
+      assert scheduler.getGenerationCount() == steps;
+      scheduler.setEvolutionEngine(null);
+      assert !leaseEnded.get() : "a lease ended while paused";
+
+      scheduler.performOneEvolution();
+      assert scheduler.getGenerationCount() == steps + genomes.size();
+    }
+  }
+
+  /**
+   * Climbs copies of the same genomes from the same seed with one worker and with three, and
+   * checks that every genome ends up the same, since each genome draws from its own stream no
+   * matter which worker climbs it.
+   */
+  private void testWorkStealingReplays()
+  {
+    List<List<Genome>> runs = new ArrayList<List<Genome>>();
+    for (int threads : new int[] { 1, 3 })
+    {
+      SplittableRandom random = new SplittableRandom(7);
+      List<Genome> copies = TestSupport.genomes(6, random);
+      WorkStealingScheduler s = new WorkStealingScheduler(threads, copies, Constants.IMAGES[1],
+          new SplittableRandom(7),
+          () -> new SoftwareRasterizer(Constants.width, Constants.height));
+      for (int i = 0; i < 20; i++) s.performOneEvolution();
+      s.stop();
+      runs.add(copies);
+    }
+    for (int i = 0; i < runs.get(0).size(); i++)
+    {
+      assert Arrays.equals(runs.get(0).get(i).getDNA(), runs.get(1).get(i).getDNA())
+          : "genome " + i + " was climbed differently";
+    }
+  }
+
+  /**
+   * Climbs copies of the same genomes from the same seed on virtual threads and on one
+   * work-stealing worker, and checks that every genome ends up the same, since each genome
+   * draws from its own stream, split in the same order, whichever slot climbs it.
+   */
+  private void testVirtualThreadsReplay()
+  {
+    List<Genome> stolen = TestSupport.genomes(6, new SplittableRandom(7));
+    WorkStealingScheduler workStealing = new WorkStealingScheduler(1, stolen,
+        Constants.IMAGES[1], new SplittableRandom(7),
+        () -> new SoftwareRasterizer(Constants.width, Constants.height));
+    List<Genome> virtual = TestSupport.genomes(6, new SplittableRandom(7));
+    VirtualThreadScheduler virtualThreads = new VirtualThreadScheduler(virtual,
+        Constants.IMAGES[1], new SplittableRandom(7),
+        () -> new SoftwareRasterizer(Constants.width, Constants.height));
+    for (int i = 0; i < 20; i++)
+    {
+      workStealing.performOneEvolution();
+      virtualThreads.performOneEvolution();
+    }
+    workStealing.stop();
+    virtualThreads.stop();
+    for (int i = 0; i < stolen.size(); i++)
+    {
+      assert Arrays.equals(stolen.get(i).getDNA(), virtual.get(i).getDNA())
+          : "genome " + i + " was climbed differently";
+    }
+  }
+
+  /**
+   * Climbs a population no larger than the number of workers or slots, so that a genome's
+   * leases keep going to climbers that have climbed it before, and checks after every round
+   * that each genome's stored fitness is the fitness of a fresh render of its DNA.
+   */
+  private void testStoredFitness(ClimbingScheduler scheduler, List<Genome> genomes)
+  {
+    for (int round = 0; round < 10; round++)
+    {
+      long target = scheduler.getGenerationCount() + 4 * genomes.size();
+      climb(scheduler, () -> scheduler.getGenerationCount() >= target);
+      scheduler.performOneEvolution();
+      for (int i = 0; i < genomes.size(); i++)
+      {
+        Genome genome = genomes.get(i);
+        assert genome.getFitness() == fitness(genome)
+            : "genome " + i + " stored a stale fitness in round " + round;
+      }
+    }
+    scheduler.stop();
+  }
+
+  /**
+   * Throws from the end of one lease and checks that the exception is reported as an uncaught
+   * exception of the climbing thread, that a pause still returns, and that climbing goes on
+   * after the next unpause.
+   */
+  private void testThrowingLease(ClimbingScheduler scheduler)
+  {
+    AtomicInteger reported = new AtomicInteger();
+    CountDownLatch firstReport = new CountDownLatch(1);
+    Thread.UncaughtExceptionHandler handler = Thread.getDefaultUncaughtExceptionHandler();
+    Thread.setDefaultUncaughtExceptionHandler((t, e) ->
+    {
+      reported.incrementAndGet();
+      firstReport.countDown();
+    });
+    AtomicBoolean thrown = new AtomicBoolean();
+    AtomicBoolean resumed = new AtomicBoolean();
+    CountDownLatch climbedAgain = new CountDownLatch(1);
+    scheduler.setEvolutionEngine(TestSupport.onClimb(steps ->
+    {
+      if (thrown.compareAndSet(false, true)) throw new IllegalStateException("test");
+      if (resumed.get()) climbedAgain.countDown();
+    }));
+    try
+    {
+      scheduler.unpause();
+      TestSupport.await(firstReport);
+      scheduler.pause();
+      assert reported.get() == 1;
+
+      long steps = scheduler.getGenerationCount();
+      resumed.set(true);
+      scheduler.unpause();
+      TestSupport.await(climbedAgain);
+      scheduler.pause();
+      assert scheduler.getGenerationCount() > steps;
+      scheduler.stop();
+    }
+    finally
+    {
+      Thread.setDefaultUncaughtExceptionHandler(handler);
+    }
+  }
+
+  /**
+   * Lets the scheduler climb until a condition holds after one of its leases, then pauses it.
+   */
+  private static void climb(ClimbingScheduler scheduler, BooleanSupplier until)
+  {
+    CountDownLatch done = new CountDownLatch(1);
+    scheduler.setEvolutionEngine(TestSupport.onClimb(steps ->
+    {
+      if (until.getAsBoolean()) done.countDown();
+    }));
+    scheduler.unpause();
+    TestSupport.await(done);
+    scheduler.pause();
+    scheduler.setEvolutionEngine(null);
+  }
+
+  private long fitness(Genome genome)
+  {
+    rasterizer.setGenome(genome);
+    return fitnessEvaluator.differenceSum(rasterizer.getSnapshot());
+  }
+
+  public static void main(String[] args)
+  {
+    new ClimbingSchedulerTests();
+  }
+}
@@ -0,0 +1,134 @@
+package trianglegenome.testing;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import trianglegenome.Genome;
+import trianglegenome.cluster.ClusterCoordinator;
+import trianglegenome.cluster.ClusterNode;
+import trianglegenome.cluster.GenomeCodec;
+import trianglegenome.fitness.EuclideanDistance;
+import trianglegenome.fitness.SquaredDistance;
+import trianglegenome.util.Constants;
+import trianglegenome.util.RandomGenome;
+
+/**
+ * Assert tests for the cluster: that {@link GenomeCodec} gives back the genome it was given,
+ * that its problem ids tell images and color distances apart, and that a
+ * {@link ClusterCoordinator} hears from several {@link ClusterNode} processes on the loopback,
+ * sends them its elite and turns away a node evolving another image.
+ */
+public class ClusterTests
+{
+  /** The number of node processes to start. */
+  private static final int NODES = 3;
+
+  /** How long each node process evolves for. */
+  private static final int SECONDS = 4;
+
+  public ClusterTests() throws IOException, InterruptedException
+  {
+    Constants.width = Constants.IMAGES[1].getWidth();
+    Constants.height = Constants.IMAGES[1].getHeight();
+    testCodecRoundTrip();
+    testProblemIds();
+    testNodesOnLoopback();
+  }
+
+  /**
+   * Encodes and decodes a random genome and checks that the DNA and fitness survive, in 16
+   * bytes per triangle.
+   */
+  public void testCodecRoundTrip() throws IOException
+  {
+    Genome genome = RandomGenome.generateGenome(new SplittableRandom(9));
+    genome.setFitness(123456789L);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    GenomeCodec.write(genome, new DataOutputStream(bytes));
+    assert bytes.size() == GenomeCodec.encodedSize(genome);
+    assert bytes.size() == 10 + 16 * genome.getTriangleCount();
+
+    Genome copy = GenomeCodec.read(new DataInputStream(
+        new ByteArrayInputStream(bytes.toByteArray())));
+    assert copy.equals(genome);
+    assert copy.getFitness() == genome.getFitness();
+  }
+
+  /**
+   * Checks that the problem id is the same for the same image and distance, and differs when
+   * either of them does.
+   */
+  public void testProblemIds()
+  {
+    long id = GenomeCodec.problemId(Constants.IMAGES[1], new EuclideanDistance());
+    assert id == GenomeCodec.problemId(Constants.IMAGES[1], new EuclideanDistance());
+    assert id != GenomeCodec.problemId(Constants.IMAGES[0], new EuclideanDistance());
+    assert id != GenomeCodec.problemId(Constants.IMAGES[1], new SquaredDistance());
+  }
+
+  /**
+   * Starts a coordinator and several node processes, and checks that every node reported and
+   * that the elite was sent to the nodes that were behind it. Then starts a node on another
+   * image and checks that it is turned away.
+   */
+  public void testNodesOnLoopback() throws IOException, InterruptedException
+  {
+    ClusterCoordinator coordinator = new ClusterCoordinator(0);
+    coordinator.start();
+
+    String java = System.getProperty("java.home") + File.separator + "bin" + File.separator
+        + "java";
+    List<Process> nodes = new ArrayList<Process>();
+    for (int i = 0; i < NODES; i++)
+    {
+      nodes.add(startNode(java, coordinator, 1, i + 1));
+    }
+    for (Process node : nodes)
+    {
+      assert node.waitFor(60, TimeUnit.SECONDS) : "a node did not finish";
+      assert node.exitValue() == 0;
+    }
+
+    assert coordinator.getNodeCount() == NODES;
+    assert coordinator.getGenomesReceived() >= NODES;
+    assert coordinator.getTotalGenerations() > 0;
+    assert coordinator.getBestFitness() < Long.MAX_VALUE;
+    assert coordinator.getElite() != null;
+    assert coordinator.getElitesSent() > 0;
+    assert coordinator.getNodesRejected() == 0;
+
+    // Started once the others are done, so that it cannot be the first to connect
+    Process other = startNode(java, coordinator, 0, NODES + 1);
+    assert other.waitFor(60, TimeUnit.SECONDS) : "the node on another image did not finish";
+    assert coordinator.getNodesRejected() == 1;
+    assert coordinator.getNodeCount() == NODES;
+    coordinator.stop();
+  }
+
+  /**
+   * Starts a node process that evolves an image for {@link #SECONDS} with one thread.
+   */
+  private Process startNode(String java, ClusterCoordinator coordinator, int image, int seed)
+      throws IOException
+  {
+    ProcessBuilder builder = new ProcessBuilder(java, "-Djava.awt.headless=true",
+        "-cp", System.getProperty("java.class.path"), ClusterNode.class.getName(),
+        "localhost", String.valueOf(coordinator.getPort()), String.valueOf(SECONDS),
+        "1", String.valueOf(image), String.valueOf(seed));
+    builder.inheritIO();
+    return builder.start();
+  }
+
+  public static void main(String[] args) throws IOException, InterruptedException
+  {
+    new ClusterTests();
+  }
+}
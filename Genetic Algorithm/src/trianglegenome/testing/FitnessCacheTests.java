@@ -0,0 +1,203 @@
+package trianglegenome.testing;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+import trianglegenome.FitnessEvaluator;
+import trianglegenome.Genome;
+import trianglegenome.RankedPopulation;
+import trianglegenome.Triangle;
+import trianglegenome.fitness.BatchFitnessEvaluator;
+import trianglegenome.fitness.FitnessCache;
+import trianglegenome.render.SoftwareRasterizer;
+import trianglegenome.util.Constants;
+import trianglegenome.util.LongMultiset;
+import trianglegenome.util.RandomGenome;
+
+/**
+ * Assert tests for genome fingerprints, the {@link FitnessCache} and finding duplicate genomes
+ * in a {@link RankedPopulation}.
+ */
+public class FitnessCacheTests
+{
+  private final SplittableRandom random = new SplittableRandom(19);
+
+  public FitnessCacheTests()
+  {
+    Constants.width = Constants.IMAGES[1].getWidth();
+    Constants.height = Constants.IMAGES[1].getHeight();
+
+    testFingerprint();
+    testLeastRecentlyUsed();
+    testBatchHits();
+    testDuplicates();
+    testMultiset();
+  }
+
+  /**
+   * Checks that the fingerprint follows every way of changing the DNA, that the view of the
+   * genes cannot change it, and that equal genomes have equal fingerprints and hash codes.
+   */
+  public void testFingerprint()
+  {
+    Genome a = RandomGenome.generateGenome(random);
+    Genome b = new Genome(a.getDNA().clone());
+    assert a.equals(b);
+    assert a.getFingerprint() == b.getFingerprint();
+    assert a.hashCode() == b.hashCode();
+    assert a.clone().getFingerprint() == a.getFingerprint();
+
+    long before = a.getFingerprint();
+    int old = a.getDNA(3, 7);
+    a.setDNA(3, 7, old + 1);
+    assert a.getFingerprint() != before;
+    a.setDNA(3, 7, old);
+    assert a.getFingerprint() == before;
+
+    // Swapping the same range twice gives back both genomes
+    Genome c = RandomGenome.generateGenome(random);
+    long cBefore = c.getFingerprint();
+    Genome.doublePointCrossoverInPlace(a, c, 20, 90);
+    assert a.getFingerprint() == new Genome(a.getDNA().clone()).getFingerprint();
+    assert c.getFingerprint() == new Genome(c.getDNA().clone()).getFingerprint();
+    Genome.doublePointCrossoverInPlace(a, c, 20, 90);
+    assert a.getFingerprint() == before;
+    assert c.getFingerprint() == cBefore;
+
+    Triangle t = c.getTriangle(0);
+    a.setTriangle(5, t);
+    assert a.getFingerprint() == new Genome(a.getDNA().clone()).getFingerprint();
+
+    Genome d = new Genome();
+    for (Triangle gene : a.getGenes()) d.addGene(gene);
+    assert d.getFingerprint() == a.getFingerprint();
+
+    // The genes are copies, so the view they come from cannot be written to either
+    try
+    {
+      d.getGenes().set(0, t);
+      assert false : "the genes of a genome can be set through getGenes()";
+    }
+    catch (UnsupportedOperationException e) {}
+    assert d.getFingerprint() == a.getFingerprint();
+  }
+
+  /**
+   * Checks that a full set forgets its least recently used fitness and that a lookup counts as
+   * a use.
+   */
+  public void testLeastRecentlyUsed()
+  {
+    // One set of four entries
+    FitnessCache cache = new FitnessCache(4);
+    for (long f = 1; f <= 4; f++) cache.put(1, f, f * 10);
+    assert cache.get(1, 1) == 10;
+    cache.put(1, 5, 50);
+    assert cache.get(1, 2) == FitnessCache.MISS;
+    assert cache.get(1, 1) == 10;
+    assert cache.get(1, 5) == 50;
+    assert cache.get(2, 5) == FitnessCache.MISS;
+    cache.put(1, 5, 55);
+    assert cache.get(1, 5) == 55;
+    assert cache.get(1, 3) == 30;
+  }
+
+  /**
+   * Scores genomes, then copies of them, and checks that the copies are not drawn again and
+   * get the same fitness.
+   */
+  public void testBatchHits()
+  {
+    FitnessCache cache = new FitnessCache(1024);
+    BatchFitnessEvaluator batch = new BatchFitnessEvaluator(Constants.IMAGES[1], 2, cache);
+    List<Genome> genomes = TestSupport.genomes(8, random);
+    long[] fitness = batch.evaluateBatch(genomes);
+    assert cache.getHitCount() == 0;
+
+    List<Genome> copies = new ArrayList<Genome>();
+    for (Genome genome : genomes) copies.add(genome.clone());
+    long[] copyFitness = batch.evaluateBatch(copies);
+    assert cache.getHitCount() == genomes.size();
+
+    FitnessEvaluator fitnessEvaluator = new FitnessEvaluator(Constants.IMAGES[1]);
+    SoftwareRasterizer rasterizer = new SoftwareRasterizer(Constants.width, Constants.height);
+    for (int i = 0; i < genomes.size(); i++)
+    {
+      assert copyFitness[i] == fitness[i];
+      assert copies.get(i).getFitness() == fitness[i];
+      rasterizer.setGenome(copies.get(i));
+      assert fitnessEvaluator.differenceSum(rasterizer.getSnapshot()) == fitness[i];
+    }
+
+    // Another image is another target
+    BatchFitnessEvaluator other = new BatchFitnessEvaluator(Constants.IMAGES[2], 2, cache);
+    other.evaluateBatch(copies.subList(0, 1));
+    assert cache.getHitCount() == genomes.size();
+  }
+
+  /**
+   * Publishes a copy of one genome over another and checks that the ranking finds the
+   * duplicate, and loses it once the copy changes.
+   */
+  public void testDuplicates()
+  {
+    List<Genome> genomes = TestSupport.genomes(10, random);
+    new BatchFitnessEvaluator(Constants.IMAGES[1], 2, null).evaluateBatch(genomes);
+    RankedPopulation ranking = new RankedPopulation(genomes);
+    assert ranking.getDuplicateCount() == 0;
+
+    Genome best = ranking.getBest();
+    Genome worst = ranking.getWorst();
+    worst.publish(best);
+    assert ranking.getDuplicateCount() == 1;
+    assert ranking.isDuplicate(best);
+    assert ranking.isDuplicate(worst);
+    assert ranking.containsFingerprint(best.getFingerprint());
+
+    worst.setTriangle(0, genomes.get(2).getTriangle(1));
+    assert ranking.getDuplicateCount() == 0;
+    assert !ranking.isDuplicate(best);
+    ranking.close();
+  }
+
+  /**
+   * Adds and removes random values, many of them equal, and checks every count against a map.
+   */
+  public void testMultiset()
+  {
+    LongMultiset multiset = new LongMultiset(4);
+    Map<Long, Integer> expected = new HashMap<Long, Integer>();
+    List<Long> added = new ArrayList<Long>();
+    for (int i = 0; i < 5000; i++)
+    {
+      if (added.isEmpty() || random.nextInt(3) > 0)
+      {
+        // Small values share slots, so removals shift others back
+        long value = random.nextInt(200) * 1024L;
+        multiset.add(value);
+        expected.merge(value, 1, Integer::sum);
+        added.add(value);
+      }
+      else
+      {
+        long value = added.remove(random.nextInt(added.size()));
+        multiset.remove(value);
+        if (expected.merge(value, -1, Integer::sum) == 0) expected.remove(value);
+      }
+    }
+    assert multiset.size() == added.size();
+    assert multiset.distinct() == expected.size();
+    for (long value = 0; value < 200 * 1024L; value += 1024)
+    {
+      assert multiset.count(value) == expected.getOrDefault(value, 0);
+    }
+  }
+
+  public static void main(String[] args)
+  {
+    new FitnessCacheTests();
+  }
+}
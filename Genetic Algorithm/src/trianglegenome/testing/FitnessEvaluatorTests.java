@@ -0,0 +1,442 @@
+package trianglegenome.testing;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import trianglegenome.FitnessEvaluator;
+import trianglegenome.Genome;
+import trianglegenome.GenomeDrawPanelPair;
+import trianglegenome.HillClimbing;
+import trianglegenome.Triangle;
+import trianglegenome.fitness.AbsoluteDistance;
+import trianglegenome.fitness.BatchFitnessEvaluator;
+import trianglegenome.fitness.CoarseScreen;
+import trianglegenome.fitness.ColorDistance;
+import trianglegenome.fitness.FitnessEstimate;
+import trianglegenome.fitness.EuclideanDistance;
+import trianglegenome.fitness.LumaDistance;
+import trianglegenome.fitness.ReferencePyramid;
+import trianglegenome.fitness.ScreenCounters;
+import trianglegenome.fitness.SquaredDistance;
+import trianglegenome.render.SoftwareRasterizer;
+import trianglegenome.util.Constants;
+import trianglegenome.util.RandomGenome;
+
+/**
+ * Assert tests for the {@link FitnessEvaluator}. The OpenCL checks run against whatever
+ * OpenCL platform is installed (a CPU runtime such as pocl works); without one they check
+ * that the evaluator falls back to Java.
+ */
+public class FitnessEvaluatorTests
+{
+  private Random rand = new Random(11);
+  private FitnessEvaluator fitnessEvaluator;
+  private SoftwareRasterizer rasterizer;
+  private Genome genome;
+
+  public FitnessEvaluatorTests()
+  {
+    Constants.width = Constants.IMAGES[0].getWidth();
+    Constants.height = Constants.IMAGES[0].getHeight();
+    fitnessEvaluator = new FitnessEvaluator(Constants.IMAGES[0]);
+    rasterizer = new SoftwareRasterizer(Constants.width, Constants.height);
+    genome = RandomGenome.generateGenome();
+    rasterizer.setGenome(genome);
+
+    testColorDistances();
+    testVectorMatchesScalar();
+    testOpenCLMatchesJava();
+    testRegionMatchesFullImage();
+    testClimbingKeepsErrorBuffer();
+    testBoundedSums();
+    testBatch();
+    testCoarseScreen();
+    testSampledEstimate();
+    testScreenCounters();
+  }
+
+  /**
+   * Checks each color distance against its formula, and checks that its kernel gives the same
+   * sum as its Java path.
+   */
+  public void testColorDistances()
+  {
+    ColorDistance euclidean = new EuclideanDistance();
+    ColorDistance absolute = new AbsoluteDistance();
+    ColorDistance squared = new SquaredDistance();
+    ColorDistance luma = new LumaDistance();
+
+    for (int i = 0; i < 100000; i++)
+    {
+      int a = rand.nextInt(0x1000000);
+      int b = (i == 0) ? 0xFFFFFF : rand.nextInt(0x1000000);
+      if (i == 0) a = 0;
+      int dr = ((a >> 16) & 0xFF) - ((b >> 16) & 0xFF);
+      int dg = ((a >> 8) & 0xFF) - ((b >> 8) & 0xFF);
+      int db = (a & 0xFF) - (b & 0xFF);
+      int ss = dr * dr + dg * dg + db * db;
+
+      assert euclidean.distance(a, b) == (int)Math.sqrt(ss);
+      assert absolute.distance(a, b) == Math.abs(dr) + Math.abs(dg) + Math.abs(db);
+      assert squared.distance(a, b) == ss;
+      assert luma.distance(a, b) == (77 * dr * dr + 150 * dg * dg + 29 * db * db) / 256;
+      assert euclidean.distance(a, a) == 0 && luma.distance(b, b) == 0;
+    }
+
+    for (ColorDistance d : new ColorDistance[] { euclidean, absolute, squared, luma })
+    {
+      FitnessEvaluator evaluator = new FitnessEvaluator(Constants.IMAGES[0], d);
+      assert evaluator.differenceSumCL(rasterizer.getSnapshot())
+          == evaluator.differenceSumJava(rasterizer.getSnapshot());
+    }
+  }
+
+  /**
+   * Checks that the Vector API sums are the same as the one pixel at a time sums for every
+   * color distance, for a rendered genome and for random noise, whole and bounded. Without the
+   * jdk.incubator.vector module both sums are scalar.
+   */
+  public void testVectorMatchesScalar()
+  {
+    BufferedImage noise = new BufferedImage(Constants.width, Constants.height,
+        BufferedImage.TYPE_INT_RGB);
+    for (int y = 0; y < Constants.height; y++)
+    {
+      for (int x = 0; x < Constants.width; x++) noise.setRGB(x, y, rand.nextInt(0x1000000));
+    }
+
+    ColorDistance[] distances = { new EuclideanDistance(), new AbsoluteDistance(),
+        new SquaredDistance(), new LumaDistance() };
+    for (ColorDistance d : distances)
+    {
+      FitnessEvaluator evaluator = new FitnessEvaluator(Constants.IMAGES[0], d);
+      for (BufferedImage image : new BufferedImage[] { rasterizer.getSnapshot(), noise })
+      {
+        Constants.useVectorAPI = false;
+        long scalar = evaluator.differenceSumJava(image);
+        long scalarBounded = evaluator.differenceSumJava(image, scalar / 2);
+        Constants.useVectorAPI = true;
+        assert evaluator.differenceSumJava(image) == scalar;
+        assert evaluator.differenceSumJava(image, scalar / 2) == scalarBounded;
+        assert !evaluator.isLastSumExact();
+      }
+    }
+  }
+
+  /**
+   * Checks that the OpenCL sum, which is reduced on the device, is the same as the Java sum.
+   */
+  public void testOpenCLMatchesJava()
+  {
+    for (int i = 0; i < 10; i++)
+    {
+      mutate();
+      rasterizer.render();
+      long java = fitnessEvaluator.differenceSumJava(rasterizer.getSnapshot());
+      assert fitnessEvaluator.differenceSumCL(rasterizer.getSnapshot()) == java;
+      assert fitnessEvaluator.differenceSum(rasterizer.getSnapshot()) == java;
+    }
+  }
+
+  /**
+   * Checks that scoring only changed regions, with commits and rollbacks, always gives the
+   * same fitness as scoring the whole image.
+   */
+  public void testRegionMatchesFullImage()
+  {
+    long fitness = fitnessEvaluator.initializeErrorBuffer(rasterizer.getSnapshot());
+    assert fitness == fitnessEvaluator.differenceSumJava(rasterizer.getSnapshot());
+
+    for (int i = 0; i < 500; i++)
+    {
+      Genome before = genome.clone();
+      Rectangle dirty = mutate();
+      rasterizer.updateRegion(dirty);
+      long after = fitnessEvaluator.differenceSumRegion(rasterizer.getSnapshot(), dirty);
+      assert after == fitnessEvaluator.differenceSumJava(rasterizer.getSnapshot());
+
+      if (after > fitness)
+      {
+        genome.copyFrom(before);
+        rasterizer.updateRegion(dirty);
+        fitnessEvaluator.rollbackRegion();
+      }
+      else
+      {
+        fitnessEvaluator.commitRegion();
+        fitness = after;
+      }
+    }
+    assert fitness == fitnessEvaluator.differenceSumJava(rasterizer.getSnapshot());
+  }
+
+  /**
+   * Checks that a hill climber, which only draws and scores the whole image again when its
+   * genome is replaced, still sets the same fitness as scoring the whole image, before and
+   * after the genome is replaced by a new version.
+   */
+  public void testClimbingKeepsErrorBuffer()
+  {
+    List<GenomeDrawPanelPair> states = new ArrayList<GenomeDrawPanelPair>();
+    Genome climbed = RandomGenome.generateGenome();
+    states.add(new GenomeDrawPanelPair(climbed,
+        new SoftwareRasterizer(Constants.width, Constants.height)));
+    HillClimbing climber = new HillClimbing(states, Constants.IMAGES[0]);
+    SoftwareRasterizer check = new SoftwareRasterizer(Constants.width, Constants.height);
+
+    for (int i = 0; i < 200; i++)
+    {
+      if (i == 100) climbed.publish(RandomGenome.generateGenome());
+      climber.performEvolution(states.get(0));
+      check.setGenome(climbed);
+      assert climbed.getFitness() == fitnessEvaluator.differenceSumJava(check.getSnapshot());
+    }
+  }
+
+  /**
+   * Checks that a bounded sum is either exact, or cut off above the bound and not above the
+   * real fitness.
+   */
+  public void testBoundedSums()
+  {
+    long fitness = fitnessEvaluator.initializeErrorBuffer(rasterizer.getSnapshot());
+    for (int i = 0; i < 500; i++)
+    {
+      Rectangle dirty = mutate();
+      rasterizer.updateRegion(dirty);
+      long exact = fitnessEvaluator.differenceSumJava(rasterizer.getSnapshot());
+
+      long bounded = fitnessEvaluator.differenceSumJava(rasterizer.getSnapshot(), fitness);
+      if (fitnessEvaluator.isLastSumExact()) assert bounded == exact;
+      else assert bounded > fitness && bounded <= exact;
+
+      bounded = fitnessEvaluator.differenceSumRegion(rasterizer.getSnapshot(), dirty, fitness);
+      if (fitnessEvaluator.isLastSumExact())
+      {
+        assert bounded == exact;
+        fitnessEvaluator.commitRegion();
+        fitness = exact;
+      }
+      else
+      {
+        assert bounded > fitness && bounded <= exact;
+        fitnessEvaluator.rollbackRegion();
+        fitness = fitnessEvaluator.initializeErrorBuffer(rasterizer.getSnapshot());
+      }
+    }
+  }
+
+  /**
+   * Checks that scoring genomes in a batch gives each one the same fitness as scoring it
+   * alone, whether there are more genomes than workers or fewer.
+   */
+  public void testBatch()
+  {
+    List<Genome> genomes = new ArrayList<Genome>();
+    for (int i = 0; i < 13; i++) genomes.add(RandomGenome.generateGenome());
+    BatchFitnessEvaluator batch = new BatchFitnessEvaluator(Constants.IMAGES[0], 4);
+
+    for (int size : new int[] { 13, 2 })
+    {
+      long[] fitness = batch.evaluateBatch(genomes.subList(0, size));
+      for (int i = 0; i < size; i++)
+      {
+        rasterizer.setGenome(genomes.get(i));
+        long expected = fitnessEvaluator.differenceSumJava(rasterizer.getSnapshot());
+        assert fitness[i] == expected;
+        assert genomes.get(i).getFitness() == expected;
+      }
+    }
+  }
+
+  /**
+   * Checks the size and first pixel of each pyramid level, and checks that the small image
+   * fitness kept by a coarse screen through kept and undone changes is the same as scoring the
+   * genome on a new screen.
+   */
+  public void testCoarseScreen()
+  {
+    ReferencePyramid pyramid = fitnessEvaluator.getReferencePyramid();
+    for (int level = 1; level <= ReferencePyramid.LEVELS; level++)
+    {
+      assert pyramid.getLevel(level).getWidth() == Constants.width >> level;
+      assert pyramid.getLevel(level).getHeight() == Constants.height >> level;
+    }
+    int r = 0;
+    for (int i = 0; i < 4; i++)
+    {
+      r += (pyramid.getLevel(0).getRGB(i % 2, i / 2) >> 16) & 0xFF;
+    }
+    assert ((pyramid.getLevel(1).getRGB(0, 0) >> 16) & 0xFF) == (r + 2) / 4;
+
+    CoarseScreen screen = new CoarseScreen(pyramid, 2, 0);
+    screen.reset(genome);
+    for (int i = 0; i < 200; i++)
+    {
+      Genome before = genome.clone();
+      mutate();
+      int triangle = firstDifference(before, genome);
+      if (triangle < 0) continue;
+      screen.screen(genome, triangle);
+      if (rand.nextBoolean())
+      {
+        screen.commit();
+      }
+      else
+      {
+        genome.copyFrom(before);
+        screen.rollback(genome, triangle);
+      }
+    }
+    assert screen.reset(genome) == new CoarseScreen(pyramid, 2, 0).reset(genome);
+    rasterizer.render();
+  }
+
+  /**
+   * Screens a sequence of mutations with two screens that share their counters, one that
+   * audits every rejected change and one that never does, and checks that the counters add up
+   * to the hits, misses and screened out changes found by scoring each mutation at full size.
+   */
+  public void testScreenCounters()
+  {
+    ReferencePyramid pyramid = fitnessEvaluator.getReferencePyramid();
+    ScreenCounters counters = new ScreenCounters();
+    long hits = 0;
+    long misses = 0;
+    long screenedOut = 0;
+    for (int auditInterval : new int[] { 1, 0 })
+    {
+      CoarseScreen screen = new CoarseScreen(pyramid, 2, 0);
+      screen.setAuditInterval(auditInterval);
+      screen.setCounters(counters);
+      screen.reset(genome);
+      for (int i = 0; i < 100; i++)
+      {
+        rasterizer.setGenome(genome);
+        long before = fitnessEvaluator.differenceSum(rasterizer.getSnapshot());
+        Genome copy = genome.clone();
+        mutate();
+        int triangle = firstDifference(copy, genome);
+        if (triangle < 0) continue;
+        boolean promising = screen.screen(genome, triangle);
+        rasterizer.setGenome(genome);
+        boolean improved = fitnessEvaluator.differenceSum(rasterizer.getSnapshot()) <= before;
+        if (promising || screen.audit())
+        {
+          screen.record(promising, improved);
+          if (promising == improved) hits++;
+          else misses++;
+        }
+        else
+        {
+          screenedOut++;
+        }
+        if (improved)
+        {
+          screen.commit();
+        }
+        else
+        {
+          genome.copyFrom(copy);
+          screen.rollback(genome, triangle);
+        }
+      }
+      // Every rejected change is audited at an interval of 1
+      if (auditInterval == 1) assert counters.getScreenedOut() == 0;
+    }
+    assert counters.getHits() == hits;
+    assert counters.getMisses() == misses;
+    assert counters.getScreenedOut() == screenedOut;
+    assert screenedOut > 0;
+  }
+
+  /**
+   * Checks that sampled pixels match drawn ones, that an estimate over a region no larger than
+   * the sample is exact, and that the real fitness almost always lies inside a 3 standard error
+   * interval of the estimate.
+   */
+  public void testSampledEstimate()
+  {
+    rasterizer.render();
+    int[] pixels = rasterizer.getPixels();
+    for (int i = 0; i < 2000; i++)
+    {
+      int x = rand.nextInt(Constants.width);
+      int y = rand.nextInt(Constants.height);
+      assert rasterizer.samplePixel(x, y) == pixels[y * Constants.width + x];
+    }
+
+    long fitness = fitnessEvaluator.initializeErrorBuffer(rasterizer.getSnapshot());
+    int estimated = 0;
+    int inside = 0;
+    for (int i = 0; i < 300; i++)
+    {
+      Genome before = genome.clone();
+      Rectangle dirty = mutate();
+      int triangle = firstDifference(before, genome);
+      if (triangle >= 0) rasterizer.updateIndex(triangle);
+
+      FitnessEstimate estimate = fitnessEvaluator.estimateDifferenceSumRegion(
+          rasterizer, dirty, 256);
+      boolean exact = estimate.isExact();
+      long value = estimate.getEstimate();
+      double lower = estimate.getLower(3);
+      double upper = estimate.getUpper(3);
+      if (!exact) estimated++;
+
+      rasterizer.updateRegion(dirty);
+      long real = fitnessEvaluator.differenceSumRegion(rasterizer.getSnapshot(), dirty);
+      if (exact) assert value == real;
+      else if (lower <= real && real <= upper) inside++;
+
+      genome.copyFrom(before);
+      rasterizer.updateRegion(dirty);
+      fitnessEvaluator.rollbackRegion();
+    }
+    assert inside >= 0.9 * estimated;
+
+    Rectangle small = new Rectangle(10, 10, 8, 8);
+    assert fitnessEvaluator.estimateDifferenceSumRegion(rasterizer, small, 64).isExact();
+    assert fitnessEvaluator.estimateDifferenceSumRegion(rasterizer, small, 64).getEstimate()
+        == fitness;
+  }
+
+  /**
+   * Returns the first triangle whose DNA differs between two genomes, or -1.
+   */
+  private static int firstDifference(Genome a, Genome b)
+  {
+    for (int t = 0; t < a.getTriangleCount(); t++)
+    {
+      for (int i = 0; i < Triangle.DNA_LENGTH; i++)
+      {
+        if (a.getDNA(t, i) != b.getDNA(t, i)) return t;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Changes one random gene of the genome.
+   * @return The region of the image that the change affects.
+   */
+  private Rectangle mutate()
+  {
+    int triangle = rand.nextInt(Constants.TRIANGLE_COUNT);
+    int gene = rand.nextInt(Triangle.DNA_LENGTH);
+    int bound = (gene < 3) ? Constants.width : (gene < 6) ? Constants.height : Constants.MAX_RGBA;
+
+    Rectangle dirty = genome.getBoundingBox(triangle);
+    genome.setDNA(triangle, gene, rand.nextInt(bound + 1));
+    dirty.add(genome.getBoundingBox(triangle));
+    return dirty;
+  }
+
+  public static void main(String[] args)
+  {
+    new FitnessEvaluatorTests();
+  }
+}
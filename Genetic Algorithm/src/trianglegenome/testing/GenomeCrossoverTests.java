@@ -0,0 +1,168 @@
+package trianglegenome.testing;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+
+import trianglegenome.FitnessEvaluator;
+import trianglegenome.Genome;
+import trianglegenome.GenomeCrossover;
+import trianglegenome.HillClimberSpawner;
+import trianglegenome.RankedPopulation;
+import trianglegenome.render.SoftwareRasterizer;
+import trianglegenome.util.Constants;
+import trianglegenome.util.RandomGenome;
+
+/**
+ * Assert tests that {@link GenomeCrossover} can publish children while the hill climbers keep
+ * climbing, without a climber writing a stale step or fitness over a child.
+ */
+public class GenomeCrossoverTests
+{
+  private List<Genome> genomes;
+  private HillClimberSpawner spawner;
+  private FitnessEvaluator fitnessEvaluator;
+  private SoftwareRasterizer rasterizer;
+  private volatile CountDownLatch climbed = new CountDownLatch(1);
+  private volatile long climbedPast = Long.MAX_VALUE;
+
+  public GenomeCrossoverTests() throws InterruptedException
+  {
+    TestSupport.ClimbingModes modes = TestSupport.useClimbingThreads();
+    Constants.width = Constants.IMAGES[1].getWidth();
+    Constants.height = Constants.IMAGES[1].getHeight();
+    fitnessEvaluator = new FitnessEvaluator(Constants.IMAGES[1]);
+    rasterizer = new SoftwareRasterizer(Constants.width, Constants.height);
+
+    testPublish();
+    testCrossoverWhileClimbing();
+    testCrossoverWhileUnranking();
+
+    modes.restore();
+  }
+
+  /**
+   * Checks that publishing copies the DNA and fitness and gives a new version.
+   */
+  public void testPublish()
+  {
+    SplittableRandom random = new SplittableRandom(3);
+    Genome genome = RandomGenome.generateGenome(random);
+    Genome child = RandomGenome.generateGenome(random);
+    child.setFitness(42);
+    long version = genome.getVersion();
+
+    genome.publish(child);
+    assert genome.equals(child);
+    assert genome.getFitness() == 42;
+    assert genome.getVersion() == version + 1;
+  }
+
+  /**
+   * Crosses genomes over repeatedly while they are being climbed, and checks that climbing
+   * went on throughout, and that every genome's fitness is the fitness of its DNA once paused.
+   * After each crossover it waits for the climbing threads to have climbed more steps.
+   */
+  public void testCrossoverWhileClimbing()
+  {
+    SplittableRandom random = new SplittableRandom(7);
+    genomes = TestSupport.genomes(24, random);
+    spawner = new HillClimberSpawner(3, genomes, Constants.IMAGES[1], random.split());
+    GenomeCrossover crossover = new GenomeCrossover(genomes,
+        spawner.getBatchFitnessEvaluator(), random.split());
+    spawner.setEvolutionEngine(TestSupport.onClimb(steps ->
+    {
+      if (spawner.getHillClimbGenerations() > climbedPast) climbed.countDown();
+    }));
+
+    spawner.startHillClimbing();
+    long versions = 0;
+    for (int round = 0; round < 20; round++)
+    {
+      long steps = spawner.getHillClimbGenerations();
+      climbed = new CountDownLatch(1);
+      climbedPast = steps;
+      crossover.crossover(2);
+      TestSupport.await(climbed);
+      assert spawner.getHillClimbGenerations() > steps : "climbing stopped for a crossover";
+    }
+    spawner.pauseHillClimbers();
+
+    for (Genome genome : genomes)
+    {
+      versions += genome.getVersion();
+      assert genome.getFitness() == fitness(genome) : "stale fitness " + genome.getFitness();
+    }
+    assert versions == 20 * 4;
+    spawner.stopHillClimbing();
+  }
+
+  /**
+   * Makes most genomes of a ranking dirty while it is crossed over, and checks that the
+   * crossover gives up on the picks that are left instead of looking for uncrossed genomes
+   * among the few that are still ranked forever.
+   */
+  public void testCrossoverWhileUnranking() throws InterruptedException
+  {
+    SplittableRandom random = new SplittableRandom(5);
+    for (int round = 0; round < 200; round++)
+    {
+      List<Genome> population = new ArrayList<Genome>();
+      for (int i = 0; i < 40; i++)
+      {
+        Genome genome = RandomGenome.generateGenome(random);
+        genome.setFitness(i);
+        population.add(genome);
+      }
+      RankedPopulation ranking = new RankedPopulation(population);
+      GenomeCrossover crossover = new GenomeCrossover(ranking, null, random.split());
+      CyclicBarrier start = new CyclicBarrier(2);
+
+      Thread unranker = new Thread(() ->
+      {
+        await(start);
+        for (Genome genome : population.subList(4, population.size())) genome.markDirty();
+      });
+      Thread crosser = new Thread(() ->
+      {
+        await(start);
+        try
+        {
+          crossover.crossover(9);
+        }
+        catch (IllegalArgumentException e)
+        {
+          // Too many genomes were dirty before the crossover began
+        }
+      });
+      // So that a crossover that never returns fails the test instead of hanging it
+      crosser.setDaemon(true);
+      unranker.start();
+      crosser.start();
+      unranker.join();
+      crosser.join(5000);
+      assert !crosser.isAlive() : "crossover did not return once the ranking shrank";
+      ranking.close();
+    }
+  }
+
+  private long fitness(Genome genome)
+  {
+    rasterizer.setGenome(genome);
+    return fitnessEvaluator.differenceSum(rasterizer.getSnapshot());
+  }
+
+  private static void await(CyclicBarrier barrier)
+  {
+    try { barrier.await(); }
+    catch (InterruptedException | BrokenBarrierException e) {}
+  }
+
+  public static void main(String[] args) throws InterruptedException
+  {
+    new GenomeCrossoverTests();
+  }
+}
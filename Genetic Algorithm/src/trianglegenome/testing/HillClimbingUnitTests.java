@@ -1,7 +1,9 @@
 package trianglegenome.testing;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.SplittableRandom;
 
 import trianglegenome.FitnessEvaluator;
 import trianglegenome.Genome;
@@ -9,6 +11,7 @@ import trianglegenome.GenomeDrawPanelPair;
 import trianglegenome.HillClimbing;
 import trianglegenome.gui.DrawPanel;
 import trianglegenome.gui.DrawPanelVolatileImage;
+import trianglegenome.render.SoftwareRasterizer;
 import trianglegenome.util.Constants;
 import trianglegenome.util.RandomGenome;
 
@@ -24,6 +27,7 @@ public class HillClimbingUnitTests
   public HillClimbingUnitTests()
   {
     initData();
+    testSeededClimbsRepeat();
     testHillClimbing();
   }
   
@@ -43,9 +47,9 @@ public class HillClimbingUnitTests
   
   private void testHillClimbing()
   {
-    drawPanel.setTriangles(genome.getGenes());
-    int initialFitness = fitnessEvaluator.differenceSum(drawPanel.getSnapshot());
-    int newFitness = Integer.MAX_VALUE;
+    drawPanel.setGenome(genome);
+    long initialFitness = fitnessEvaluator.differenceSum(drawPanel.getSnapshot());
+    long newFitness = Long.MAX_VALUE;
     
     try
     {
@@ -55,7 +59,7 @@ public class HillClimbingUnitTests
     }
     catch (Exception e) {}
     
-    drawPanel.setTriangles(genome.getGenes());
+    drawPanel.setGenome(genome);
     newFitness = fitnessEvaluator.differenceSum(drawPanel.getSnapshot());
     
     assert initialFitness > newFitness;
@@ -63,6 +67,29 @@ public class HillClimbingUnitTests
     return;
   }
   
+  /**
+   * Climbs a genome twice from the same seed and checks that both end up the same, and that a
+   * different seed ends up somewhere else.
+   */
+  private void testSeededClimbsRepeat()
+  {
+    int[] first = climbFromSeed(42);
+    assert Arrays.equals(first, climbFromSeed(42));
+    assert !Arrays.equals(first, climbFromSeed(43));
+  }
+  
+  private int[] climbFromSeed(long seed)
+  {
+    SplittableRandom random = new SplittableRandom(seed);
+    Genome seeded = RandomGenome.generateGenome(random);
+    List<GenomeDrawPanelPair> states = new ArrayList<GenomeDrawPanelPair>(1);
+    states.add(new GenomeDrawPanelPair(seeded,
+        new SoftwareRasterizer(Constants.width, Constants.height)));
+    HillClimbing climber = new HillClimbing(states, Constants.IMAGES[0], random.split());
+    for (int i = 0; i < 200; i++) climber.performEvolution(states.get(0));
+    return seeded.getDNA().clone();
+  }
+  
   /**
    * Entry point to run the HillClimbing unit tests.
    * @param args ignored
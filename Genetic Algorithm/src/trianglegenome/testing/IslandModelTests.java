@@ -0,0 +1,178 @@
+package trianglegenome.testing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import trianglegenome.FitnessEvaluator;
+import trianglegenome.Genome;
+import trianglegenome.IslandModel;
+import trianglegenome.IslandModel.Topology;
+import trianglegenome.fitness.SquaredDistance;
+import trianglegenome.render.SoftwareRasterizer;
+import trianglegenome.util.Constants;
+import trianglegenome.util.RandomGenome;
+
+/**
+ * Assert tests for the {@link IslandModel}: the neighbors of each topology, that the best
+ * genomes of an island replace the worst genomes of its neighbors, also with fitnesses beyond
+ * the range of an int, that genomes never scored or with a stale fitness are neither sent nor
+ * replaced, and that a full queue drops genomes instead of blocking.
+ */
+public class IslandModelTests
+{
+  private final SplittableRandom random = new SplittableRandom(5);
+
+  public IslandModelTests()
+  {
+    Constants.width = Constants.IMAGES[1].getWidth();
+    Constants.height = Constants.IMAGES[1].getHeight();
+    testTopologies();
+    testMigration();
+    testMigrationOfLargeFitnesses();
+    testUnscoredNotReplaced();
+    testFullQueueDrops();
+  }
+
+  public void testTopologies()
+  {
+    IslandModel ring = new IslandModel(tribes(4, 1), Topology.RING, 0, 4, 1, random);
+    assert Arrays.equals(ring.getNeighbors(3), new int[] { 0 });
+
+    // Six islands make a torus of two rows of three, where up and down are the same island
+    IslandModel torus = new IslandModel(tribes(6, 1), Topology.TORUS, 0, 4, 1, random);
+    int[] neighbors = torus.getNeighbors(0);
+    Arrays.sort(neighbors);
+    assert Arrays.equals(neighbors, new int[] { 1, 2, 3 });
+    neighbors = torus.getNeighbors(4);
+    Arrays.sort(neighbors);
+    assert Arrays.equals(neighbors, new int[] { 1, 3, 5 });
+
+    IslandModel single = new IslandModel(tribes(1, 1), Topology.RANDOM, 0, 4, 1, random);
+    assert single.getNeighbors(0).length == 0;
+    single.migrate(0);
+    assert single.getSentCount() == 0;
+  }
+
+  /**
+   * Sends the best genome of one island around a ring and checks that it replaces the worst
+   * genome of the next island only.
+   */
+  public void testMigration()
+  {
+    List<List<Genome>> tribes = tribes(3, 4);
+    Genome elite = tribes.get(0).get(2);
+    elite.setFitness(1);
+    Genome worst = tribes.get(1).get(3);
+    worst.setFitness(1000);
+    IslandModel ring = new IslandModel(tribes, Topology.RING, 0, 4, 1, random);
+
+    assert ring.migrate(0);
+    assert ring.getSentCount() == 1;
+    long version = worst.getVersion();
+    ring.migrate(1);
+    assert ring.getAcceptedCount() == 1;
+    assert worst.getVersion() == version + 1;
+    assert worst.equals(elite);
+    assert worst.getFitness() == 1;
+    // The copy is not the elite itself
+    assert worst != elite;
+  }
+
+  /**
+   * Scores an island with {@link SquaredDistance}, whose sums are larger than an int holds,
+   * and checks that its scored genomes are sent and accepted while one never scored is not.
+   */
+  public void testMigrationOfLargeFitnesses()
+  {
+    FitnessEvaluator evaluator = new FitnessEvaluator(Constants.IMAGES[1], new SquaredDistance());
+    SoftwareRasterizer rasterizer = new SoftwareRasterizer(Constants.width, Constants.height);
+    List<List<Genome>> tribes = tribes(2, 4);
+    List<Genome> sending = tribes.get(0);
+    Genome best = null;
+    for (int i = 0; i < 3; i++)
+    {
+      Genome genome = sending.get(i);
+      rasterizer.setGenome(genome);
+      genome.setFitness(evaluator.differenceSum(rasterizer.getSnapshot()));
+      assert genome.getFitness() > Integer.MAX_VALUE;
+      if (best == null || genome.getFitness() < best.getFitness()) best = genome;
+    }
+    Genome unscored = RandomGenome.generateGenome(random);
+    sending.set(3, unscored);
+    assert !unscored.isScored();
+    for (Genome genome : tribes.get(1)) genome.setFitness(Long.MAX_VALUE / 2);
+    IslandModel ring = new IslandModel(tribes, Topology.RING, 0, 4, 4, random);
+
+    ring.migrate(0);
+    assert ring.getSentCount() == 3;
+    ring.migrate(1);
+    assert ring.getAcceptedCount() == 3;
+    assert tribes.get(1).contains(best);
+    assert !tribes.get(1).contains(unscored);
+  }
+
+  /**
+   * Sends an elite to an island whose genomes with the largest fitnesses were never scored or
+   * are dirty, and checks that it replaces the worst scored genome instead.
+   */
+  public void testUnscoredNotReplaced()
+  {
+    List<List<Genome>> tribes = tribes(2, 4);
+    tribes.get(0).get(0).setFitness(1);
+    List<Genome> receiving = tribes.get(1);
+    Genome unscored = RandomGenome.generateGenome(random);
+    receiving.set(0, unscored);
+    Genome dirty = receiving.get(3);
+    dirty.markDirty();
+    Genome worst = receiving.get(2);
+    IslandModel ring = new IslandModel(tribes, Topology.RING, 0, 4, 1, random);
+
+    ring.migrate(0);
+    assert ring.getSentCount() == 1;
+    long unscoredVersion = unscored.getVersion();
+    long dirtyVersion = dirty.getVersion();
+    ring.migrate(1);
+    assert ring.getAcceptedCount() == 1;
+    assert worst.getFitness() == 1;
+    assert unscored.getVersion() == unscoredVersion && !unscored.isScored();
+    assert dirty.getVersion() == dirtyVersion && dirty.isDirty();
+  }
+
+  /**
+   * Sends more genomes than a queue holds and checks that the rest are dropped.
+   */
+  public void testFullQueueDrops()
+  {
+    IslandModel ring = new IslandModel(tribes(2, 4), Topology.RING, 0, 1, 3, random);
+    ring.migrate(0);
+    assert ring.getSentCount() == 1;
+    assert ring.getDroppedCount() == 2;
+  }
+
+  /**
+   * Creates tribes of random genomes, the genomes of each tribe with fitnesses 10, 20, ...
+   */
+  private List<List<Genome>> tribes(int count, int size)
+  {
+    List<List<Genome>> tribes = new ArrayList<List<Genome>>();
+    for (int t = 0; t < count; t++)
+    {
+      List<Genome> tribe = new ArrayList<Genome>();
+      for (int i = 0; i < size; i++)
+      {
+        Genome genome = RandomGenome.generateGenome(random);
+        genome.setFitness(10 * (i + 1));
+        tribe.add(genome);
+      }
+      tribes.add(tribe);
+    }
+    return tribes;
+  }
+
+  public static void main(String[] args)
+  {
+    new IslandModelTests();
+  }
+}
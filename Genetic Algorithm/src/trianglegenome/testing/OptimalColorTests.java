@@ -0,0 +1,145 @@
+package trianglegenome.testing;
+
+import java.awt.Rectangle;
+import java.util.Arrays;
+import java.util.Random;
+
+import trianglegenome.Genome;
+import trianglegenome.Triangle;
+import trianglegenome.fitness.OptimalColor;
+import trianglegenome.fitness.SummedAreaTable;
+import trianglegenome.render.SoftwareRasterizer;
+
+/**
+ * Assert tests for the {@link SummedAreaTable} and the {@link OptimalColor} solver.
+ */
+public class OptimalColorTests
+{
+  private Random rand = new Random(7);
+  private int width = 64;
+  private int height = 48;
+
+  public OptimalColorTests()
+  {
+    testSummedAreaTable();
+    testSolvesUniformReference();
+    testSolvedColorIsNoWorse();
+  }
+
+  /**
+   * Checks the sums of random rectangles against adding up the pixels one at a time.
+   */
+  public void testSummedAreaTable()
+  {
+    int[] pixels = randomPixels();
+    SummedAreaTable sat = new SummedAreaTable(pixels, width, height);
+
+    for (int i = 0; i < 200; i++)
+    {
+      int x0 = rand.nextInt(width + 1), x1 = rand.nextInt(width + 1);
+      int y0 = rand.nextInt(height + 1), y1 = rand.nextInt(height + 1);
+      for (int c = 0; c < 3; c++)
+      {
+        long sum = 0;
+        long squares = 0;
+        for (int y = y0; y < y1; y++)
+        {
+          for (int x = x0; x < x1; x++)
+          {
+            int value = (pixels[y * width + x] >> (16 - 8 * c)) & 0xFF;
+            sum += value;
+            squares += value * value;
+          }
+        }
+        assert sat.sum(c, x0, y0, x1, y1) == sum;
+        assert sat.sumOfSquares(c, x0, y0, x1, y1) == squares;
+      }
+    }
+  }
+
+  /**
+   * A translucent triangle over a uniform reference should be solved to the color that makes
+   * the blended pixels match the reference.
+   */
+  public void testSolvesUniformReference()
+  {
+    int[] reference = new int[width * height];
+    Arrays.fill(reference, 0x508CC8);
+    OptimalColor solver = new OptimalColor(new SummedAreaTable(reference, width, height));
+
+    int[] below = new int[width * height];
+    int[] dna = { 0, width, 0, 0, 0, height, 0, 0, 0, 255 };
+    assert solver.solve(dna, 0, below);
+    assert solver.getColor(SummedAreaTable.RED) == 0x50;
+    assert solver.getColor(SummedAreaTable.GREEN) == 0x8C;
+    assert solver.getColor(SummedAreaTable.BLUE) == 0xC8;
+    assert solver.getImprovement() > 0;
+
+    dna[9] = 0;
+    assert !solver.solve(dna, 0, below);
+  }
+
+  /**
+   * The solved color should never have a larger squared error under the triangle than the
+   * triangle's current color, when it is the top triangle.
+   */
+  public void testSolvedColorIsNoWorse()
+  {
+    int[] reference = randomPixels();
+    OptimalColor solver = new OptimalColor(new SummedAreaTable(reference, width, height));
+    SoftwareRasterizer rasterizer = new SoftwareRasterizer(width, height);
+
+    for (int i = 0; i < 100; i++)
+    {
+      Triangle under = randomTriangle();
+      Triangle top = randomTriangle();
+      Genome genome = new Genome(under, top);
+      rasterizer.setGenome(genome);
+      long before = squaredError(reference, rasterizer.getPixels());
+
+      Rectangle bound = genome.getBoundingBox(1);
+      int[] below = rasterizer.compositeBelow(1, bound);
+      if (!solver.solve(genome.getDNA(), Triangle.DNA_LENGTH, below)) continue;
+      for (int c = 0; c < 3; c++) genome.setDNA(1, 6 + c, solver.getColor(c));
+      rasterizer.render();
+      long after = squaredError(reference, rasterizer.getPixels());
+
+      // Rounding the solved color and the blend can cost a little on each covered pixel
+      assert after <= before + 3 * width * height;
+    }
+  }
+
+  private long squaredError(int[] a, int[] b)
+  {
+    long error = 0;
+    for (int i = 0; i < a.length; i++)
+    {
+      for (int shift = 0; shift <= 16; shift += 8)
+      {
+        int d = ((a[i] >> shift) & 0xFF) - ((b[i] >> shift) & 0xFF);
+        error += d * d;
+      }
+    }
+    return error;
+  }
+
+  private int[] randomPixels()
+  {
+    int[] pixels = new int[width * height];
+    for (int i = 0; i < pixels.length; i++) pixels[i] = rand.nextInt(0x1000000);
+    return pixels;
+  }
+
+  private Triangle randomTriangle()
+  {
+    return new Triangle(
+        rand.nextInt(width + 1), rand.nextInt(width + 1), rand.nextInt(width + 1),
+        rand.nextInt(height + 1), rand.nextInt(height + 1), rand.nextInt(height + 1),
+        rand.nextInt(256), rand.nextInt(256), rand.nextInt(256), rand.nextInt(256));
+  }
+
+  public static void main(String[] args)
+  {
+    new OptimalColorTests();
+  }
+}
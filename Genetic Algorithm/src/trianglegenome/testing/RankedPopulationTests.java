@@ -0,0 +1,185 @@
+package trianglegenome.testing;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import trianglegenome.Genome;
+import trianglegenome.RankedPopulation;
+
+/**
+ * Assert tests for the {@link RankedPopulation}: that it ranks genomes by fitness, follows
+ * their fitness while several threads change it, even while it is being built, waits for
+ * {@link Genome#updateRankings()} after a climbed fitness, and stops following it once closed.
+ */
+public class RankedPopulationTests
+{
+  private static final int GENOMES = 500;
+  private static final int THREADS = 4;
+  private static final int CHANGES = 200000;
+  private static final int RANKINGS = 50;
+
+  public RankedPopulationTests() throws InterruptedException
+  {
+    testRanks();
+    testConcurrentUpdates();
+    testRankWhileChanging();
+    testClimbedFitness();
+    testClose();
+  }
+
+  /**
+   * Ranks genomes whose fitness is the reverse of their order and moves one of them.
+   */
+  public void testRanks()
+  {
+    List<Genome> genomes = genomes(10);
+    for (int i = 0; i < genomes.size(); i++) genomes.get(i).setFitness(100 - i);
+    RankedPopulation ranking = new RankedPopulation(genomes);
+
+    assert ranking.getBest() == genomes.get(9);
+    assert ranking.getWorst() == genomes.get(0);
+    assert ranking.getBestFitness() == 91;
+    assert ranking.get(3) == genomes.get(6);
+    assert ranking.rankOf(genomes.get(6)) == 3;
+
+    genomes.get(0).setFitness(1);
+    assert ranking.getBest() == genomes.get(0);
+    assert ranking.getWorst() == genomes.get(1);
+    assert ranking.get(1) == genomes.get(9);
+
+    Genome replacement = new Genome();
+    replacement.setFitness(500);
+    genomes.get(0).publish(replacement);
+    assert ranking.getWorst() == genomes.get(0);
+    assert ranking.getWorstFitness() == 500;
+  }
+
+  /**
+   * Changes the fitness of random genomes from several threads, then checks that the ranking
+   * is the same as sorting the genomes.
+   */
+  public void testConcurrentUpdates() throws InterruptedException
+  {
+    List<Genome> genomes = genomes(GENOMES);
+    RankedPopulation ranking = new RankedPopulation(genomes);
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int t = 0; t < THREADS; t++)
+    {
+      SplittableRandom random = new SplittableRandom(t);
+      threads.add(new Thread(() ->
+      {
+        for (int i = 0; i < CHANGES; i++)
+        {
+          Genome genome = genomes.get(random.nextInt(GENOMES));
+          synchronized (genome)
+          {
+            genome.setFitness(random.nextInt(1000));
+          }
+          ranking.get(random.nextInt(GENOMES));
+        }
+      }));
+    }
+    threads.forEach(t -> t.start());
+    for (Thread t : threads) t.join();
+
+    List<Genome> sorted = new ArrayList<Genome>(genomes);
+    sorted.sort((g1, g2) -> Long.compare(g1.getFitness(), g2.getFitness()));
+    long sum = 0;
+    for (int i = 0; i < GENOMES; i++)
+    {
+      assert ranking.get(i).getFitness() == sorted.get(i).getFitness();
+      assert ranking.rankOf(ranking.get(i)) == i;
+      sum += genomes.get(i).getFitness();
+    }
+    assert ranking.getBestFitness() == sorted.get(0).getFitness();
+    assert ranking.getWorstFitness() == sorted.get(GENOMES - 1).getFitness();
+    assert ranking.getAverageFitness() == sum / GENOMES;
+  }
+
+  /**
+   * Builds rankings while another thread changes the fitness of the genomes, then checks that
+   * no change made while a ranking was being built was lost.
+   */
+  public void testRankWhileChanging() throws InterruptedException
+  {
+    List<Genome> genomes = genomes(GENOMES);
+    List<RankedPopulation> rankings = new ArrayList<RankedPopulation>();
+    AtomicBoolean done = new AtomicBoolean();
+    SplittableRandom random = new SplittableRandom(7);
+    Thread changer = new Thread(() ->
+    {
+      while (!done.get())
+      {
+        Genome genome = genomes.get(random.nextInt(GENOMES));
+        synchronized (genome)
+        {
+          genome.setFitness(random.nextInt(1000));
+        }
+      }
+    });
+    changer.start();
+    for (int i = 0; i < RANKINGS; i++) rankings.add(new RankedPopulation(genomes));
+    done.set(true);
+    changer.join();
+
+    List<Genome> sorted = new ArrayList<Genome>(genomes);
+    sorted.sort((g1, g2) -> Long.compare(g1.getFitness(), g2.getFitness()));
+    for (RankedPopulation ranking : rankings)
+    {
+      for (int i = 0; i < GENOMES; i++)
+      {
+        assert ranking.get(i).getFitness() == sorted.get(i).getFitness();
+      }
+      ranking.close();
+    }
+  }
+
+  /**
+   * Sets a climbed fitness, which the ranking only follows once it is told to.
+   */
+  public void testClimbedFitness()
+  {
+    List<Genome> genomes = genomes(3);
+    for (int i = 0; i < genomes.size(); i++) genomes.get(i).setFitness(i + 1);
+    RankedPopulation ranking = new RankedPopulation(genomes);
+
+    genomes.get(2).setClimbedFitness(0);
+    assert genomes.get(2).getFitness() == 0;
+    assert ranking.getBest() == genomes.get(0);
+
+    genomes.get(2).updateRankings();
+    assert ranking.getBest() == genomes.get(2);
+    assert ranking.getBestFitness() == 0;
+  }
+
+  /**
+   * Closes a ranking and checks that it no longer moves genomes, while another ranking of the
+   * same genomes still does.
+   */
+  public void testClose()
+  {
+    List<Genome> genomes = genomes(5);
+    for (int i = 0; i < genomes.size(); i++) genomes.get(i).setFitness(i + 1);
+    RankedPopulation closed = new RankedPopulation(genomes);
+    RankedPopulation open = new RankedPopulation(genomes);
+    closed.close();
+
+    genomes.get(4).setFitness(0);
+    assert closed.getBest() == genomes.get(0);
+    assert open.getBest() == genomes.get(4);
+  }
+
+  private List<Genome> genomes(int count)
+  {
+    List<Genome> genomes = new ArrayList<Genome>();
+    for (int i = 0; i < count; i++) genomes.add(new Genome());
+    return genomes;
+  }
+
+  public static void main(String[] args) throws InterruptedException
+  {
+    new RankedPopulationTests();
+  }
+}
@@ -0,0 +1,104 @@
+package trianglegenome.testing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import trianglegenome.Genome;
+import trianglegenome.HillClimberSpawner;
+import trianglegenome.Safepoint;
+import trianglegenome.util.Constants;
+
+/**
+ * Assert tests that the {@link trianglegenome.HillClimbing} threads of a
+ * {@link HillClimberSpawner} stop between two steps when paused, start again when resumed,
+ * and that their {@link Safepoint} records how long that took. The threads tell an engine
+ * after every pass, which opens a latch while resumed and is an error while paused.
+ */
+public class SafepointTests
+{
+  private List<Genome> genomes;
+  private HillClimberSpawner spawner;
+  private volatile boolean paused = true;
+  private volatile CountDownLatch climbed = new CountDownLatch(1);
+  private final AtomicBoolean climbedWhilePaused = new AtomicBoolean();
+
+  public SafepointTests()
+  {
+    TestSupport.ClimbingModes modes = TestSupport.useClimbingThreads();
+    Constants.width = Constants.IMAGES[1].getWidth();
+    Constants.height = Constants.IMAGES[1].getHeight();
+
+    SplittableRandom random = new SplittableRandom(7);
+    genomes = TestSupport.genomes(9, random);
+    spawner = new HillClimberSpawner(3, genomes, Constants.IMAGES[1], random.split());
+    spawner.setEvolutionEngine(TestSupport.onClimb(steps ->
+    {
+      if (paused) climbedWhilePaused.set(true);
+      else if (steps > 0) climbed.countDown();
+    }));
+
+    testStartsPaused();
+    testPauseIsQuiescent();
+    spawner.stopHillClimbing();
+
+    modes.restore();
+  }
+
+  /**
+   * Pauses before the threads start, and checks that they wait at their first poll: none of
+   * them climbs before the first resume.
+   */
+  private void testStartsPaused()
+  {
+    spawner.pauseHillClimbers();
+    spawner.startHillClimbing();
+    assert spawner.hillClimbersArePaused();
+    assert spawner.getHillClimbGenerations() == 0;
+  }
+
+  /**
+   * Resumes and pauses repeatedly, and checks that the threads climb only while resumed and
+   * that every pause and resume is recorded.
+   */
+  private void testPauseIsQuiescent()
+  {
+    Safepoint safepoint = spawner.getSafepoint();
+    long pauses = safepoint.getPauseCount();
+    for (int round = 0; round < 5; round++)
+    {
+      long steps = spawner.getHillClimbGenerations();
+      climbed = new CountDownLatch(1);
+      paused = false;
+      spawner.unpauseHillClimbers();
+      TestSupport.await(climbed);
+      spawner.pauseHillClimbers();
+      paused = true;
+      assert spawner.getHillClimbGenerations() > steps : "resumed threads did not climb";
+      assert safepoint.getLastResumeLatency() > 0;
+
+      // Every thread is held at a poll now, so nothing changes until the next resume
+      List<int[]> before = new ArrayList<int[]>();
+      for (Genome genome : genomes) before.add(genome.getDNA().clone());
+      steps = spawner.getHillClimbGenerations();
+      for (int i = 0; i < genomes.size(); i++)
+      {
+        assert Arrays.equals(before.get(i), genomes.get(i).getDNA());
+      }
+      assert spawner.getHillClimbGenerations() == steps;
+      assert !climbedWhilePaused.get() : "a thread finished a pass while paused";
+    }
+    assert safepoint.getPauseCount() == pauses + 5;
+    assert safepoint.getLastPauseLatency() > 0;
+    assert safepoint.getMaxPauseLatency() >= safepoint.getLastPauseLatency();
+    assert safepoint.getMaxResumeLatency() >= safepoint.getLastResumeLatency();
+  }
+
+  public static void main(String[] args)
+  {
+    new SafepointTests();
+  }
+}
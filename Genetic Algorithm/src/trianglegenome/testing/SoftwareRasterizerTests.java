@@ -0,0 +1,204 @@
+package trianglegenome.testing;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.Random;
+
+import trianglegenome.Genome;
+import trianglegenome.Triangle;
+import trianglegenome.render.SoftwareRasterizer;
+import trianglegenome.render.TriangleGrid;
+import trianglegenome.util.Constants;
+import trianglegenome.util.RandomGenome;
+
+/**
+ * Assert tests for the {@link SoftwareRasterizer}.
+ */
+public class SoftwareRasterizerTests
+{
+  private Random rand = new Random(42);
+
+  public SoftwareRasterizerTests()
+  {
+    Constants.width = 128;
+    Constants.height = 96;
+    testCoverageMatchesJava2D();
+    testAlphaBlending();
+    testUpdateRegion();
+    testCheckpoints();
+    testGrid();
+  }
+
+  /**
+   * Draws opaque random triangles with the rasterizer and with Java2D and checks that they
+   * cover (almost) the same pixels. The two only disagree on a few ties along edges.
+   */
+  public void testCoverageMatchesJava2D()
+  {
+    int width = Constants.width;
+    int height = Constants.height;
+    long differences = 0;
+    long total = 0;
+
+    for (int i = 0; i < 500; i++)
+    {
+      int[] dna = {
+          rand.nextInt(width + 1), rand.nextInt(width + 1), rand.nextInt(width + 1),
+          rand.nextInt(height + 1), rand.nextInt(height + 1), rand.nextInt(height + 1),
+          255, 255, 255, 255 };
+      SoftwareRasterizer rasterizer = new SoftwareRasterizer(width, height);
+      rasterizer.setGenome(new Genome(dna));
+
+      BufferedImage expected = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+      Graphics2D g = expected.createGraphics();
+      g.setColor(Color.WHITE);
+      g.fillPolygon(Arrays.copyOfRange(dna, 0, 3), Arrays.copyOfRange(dna, 3, 6), 3);
+      g.dispose();
+
+      BufferedImage actual = rasterizer.getSnapshot();
+      for (int y = 0; y < height; y++)
+      {
+        for (int x = 0; x < width; x++)
+        {
+          if (actual.getRGB(x, y) != expected.getRGB(x, y)) differences++;
+          total++;
+        }
+      }
+    }
+
+    assert differences * 1000 < total;
+  }
+
+  /**
+   * Checks that a translucent triangle over another triangle is blended with exact rounding.
+   */
+  public void testAlphaBlending()
+  {
+    int width = Constants.width;
+    int height = Constants.height;
+    SoftwareRasterizer rasterizer = new SoftwareRasterizer(width, height);
+
+    for (int alpha = 0; alpha <= 255; alpha++)
+    {
+      int under = rand.nextInt(256);
+      int over = rand.nextInt(256);
+      Genome genome = new Genome(
+          new Triangle(0, 2 * width, 0, 0, 0, 2 * height, under, under, under, 255),
+          new Triangle(0, 2 * width, 0, 0, 0, 2 * height, over, 0, 255, alpha));
+      rasterizer.setGenome(genome);
+
+      int expected = Math.round((over * alpha + under * (255 - alpha)) / 255.0f);
+      int rgb = rasterizer.getSnapshot().getRGB(width / 2, height / 2);
+      assert ((rgb >> 16) & 0xFF) == expected;
+      assert ((rgb >> 8) & 0xFF) == Math.round((under * (255 - alpha)) / 255.0f);
+    }
+  }
+
+  /**
+   * Checks that redrawing only the changed region gives the same image as redrawing everything.
+   */
+  public void testUpdateRegion()
+  {
+    Genome genome = RandomGenome.generateGenome();
+    SoftwareRasterizer incremental = new SoftwareRasterizer(Constants.width, Constants.height);
+    SoftwareRasterizer full = new SoftwareRasterizer(Constants.width, Constants.height);
+    incremental.setGenome(genome);
+
+    for (int i = 0; i < 1000; i++)
+    {
+      int triangle = rand.nextInt(Constants.TRIANGLE_COUNT);
+      int gene = rand.nextInt(Triangle.DNA_LENGTH);
+      int bound = (gene < 3) ? Constants.width : (gene < 6) ? Constants.height : Constants.MAX_RGBA;
+
+      Rectangle dirty = genome.getBoundingBox(triangle);
+      genome.setDNA(triangle, gene, rand.nextInt(bound + 1));
+      dirty.add(genome.getBoundingBox(triangle));
+      incremental.updateRegion(dirty);
+    }
+    full.setGenome(genome);
+
+    assert Arrays.equals(incremental.getPixels(), full.getPixels());
+  }
+
+  /**
+   * Checks that redrawing from the checkpoint below each changed triangle, and drawing the
+   * triangles below a triangle, give the same images as drawing everything without checkpoints.
+   */
+  public void testCheckpoints()
+  {
+    Genome genome = RandomGenome.generateGenome();
+    long budget = 7L * 4 * Constants.width * Constants.height;
+    SoftwareRasterizer checkpointed =
+        new SoftwareRasterizer(Constants.width, Constants.height, budget);
+    SoftwareRasterizer plain = new SoftwareRasterizer(Constants.width, Constants.height, 0);
+    checkpointed.setGenome(genome);
+
+    for (int i = 0; i < 1000; i++)
+    {
+      int triangle = rand.nextInt(Constants.TRIANGLE_COUNT);
+      int gene = rand.nextInt(Triangle.DNA_LENGTH);
+      int bound = (gene < 3) ? Constants.width : (gene < 6) ? Constants.height : Constants.MAX_RGBA;
+
+      Rectangle dirty = genome.getBoundingBox(triangle);
+      genome.setDNA(triangle, gene, rand.nextInt(bound + 1));
+      dirty.add(genome.getBoundingBox(triangle));
+      checkpointed.updateTriangle(triangle, dirty);
+    }
+    plain.setGenome(genome);
+    assert Arrays.equals(checkpointed.getPixels(), plain.getPixels());
+
+    Rectangle all = new Rectangle(0, 0, Constants.width, Constants.height);
+    for (int triangle = 0; triangle < Constants.TRIANGLE_COUNT; triangle += 13)
+    {
+      assert Arrays.equals(
+          checkpointed.compositeBelow(triangle, all), plain.compositeBelow(triangle, all));
+    }
+  }
+
+  /**
+   * Checks that the grid finds every triangle whose bounding box overlaps a rectangle, in
+   * order, while triangles move around (and partly off of the image).
+   */
+  public void testGrid()
+  {
+    int width = Constants.width;
+    int height = Constants.height;
+    int[] dna = new int[Constants.TRIANGLE_COUNT * Triangle.DNA_LENGTH];
+    for (int i = 0; i < dna.length; i++) dna[i] = rand.nextInt(width + 40) - 20;
+    TriangleGrid grid = new TriangleGrid(width, height);
+    grid.rebuild(dna, Constants.TRIANGLE_COUNT);
+
+    for (int i = 0; i < 1000; i++)
+    {
+      int triangle = rand.nextInt(Constants.TRIANGLE_COUNT);
+      dna[triangle * Triangle.DNA_LENGTH + rand.nextInt(6)] = rand.nextInt(width + 40) - 20;
+      grid.update(dna, triangle);
+
+      int x0 = rand.nextInt(width), y0 = rand.nextInt(height);
+      Rectangle bound = new Rectangle(
+          x0, y0, rand.nextInt(width - x0) + 1, rand.nextInt(height - y0) + 1);
+      grid.query(bound.x, bound.y, bound.x + bound.width, bound.y + bound.height);
+
+      int previous = -1;
+      for (int t = grid.next(0); t >= 0; t = grid.next(t + 1))
+      {
+        assert t > previous;
+        previous = t;
+      }
+      for (int t = 0; t < Constants.TRIANGLE_COUNT; t++)
+      {
+        Rectangle box = new Genome(Arrays.copyOfRange(
+            dna, t * Triangle.DNA_LENGTH, (t + 1) * Triangle.DNA_LENGTH)).getBoundingBox(0);
+        if (box.intersects(bound)) assert grid.next(t) == t;
+      }
+    }
+  }
+
+  public static void main(String[] args)
+  {
+    new SoftwareRasterizerTests();
+  }
+}
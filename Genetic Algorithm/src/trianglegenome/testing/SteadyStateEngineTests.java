@@ -0,0 +1,109 @@
+package trianglegenome.testing;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+
+import trianglegenome.FitnessEvaluator;
+import trianglegenome.Genome;
+import trianglegenome.HillClimberSpawner;
+import trianglegenome.RankedPopulation;
+import trianglegenome.SteadyStateEngine;
+import trianglegenome.fitness.BatchFitnessEvaluator;
+import trianglegenome.render.SoftwareRasterizer;
+import trianglegenome.util.Constants;
+
+/**
+ * Assert tests for the {@link SteadyStateEngine}: that it breeds once every interval of steps,
+ * only replaces worse genomes, and breeds between the steps of running hill climbers.
+ */
+public class SteadyStateEngineTests
+{
+  public SteadyStateEngineTests()
+  {
+    TestSupport.ClimbingModes modes = TestSupport.useClimbingThreads();
+    Constants.width = Constants.IMAGES[1].getWidth();
+    Constants.height = Constants.IMAGES[1].getHeight();
+
+    testInterval();
+    testBreedingWhileClimbing();
+
+    modes.restore();
+  }
+
+  /**
+   * Reports steps in uneven amounts and checks that the engine breeds once for every interval
+   * they cross, and that the worst fitness never gets worse.
+   */
+  public void testInterval()
+  {
+    SplittableRandom random = new SplittableRandom(11);
+    List<Genome> genomes = TestSupport.genomes(12, random);
+    BatchFitnessEvaluator batch = new BatchFitnessEvaluator(Constants.IMAGES[1], 2);
+    batch.evaluateBatch(genomes);
+    RankedPopulation ranking = new RankedPopulation(genomes);
+    SteadyStateEngine engine = new SteadyStateEngine(Collections.singletonList(ranking), batch,
+        random.split(), 10, 3);
+
+    long worst = ranking.getWorstFitness();
+    engine.afterClimb(9);
+    assert engine.getGenerationCount() == 0;
+    engine.afterClimb(1);
+    assert engine.getGenerationCount() == 1;
+    for (int i = 0; i < 20; i++)
+    {
+      engine.afterClimb(7);
+      assert ranking.getWorstFitness() <= worst;
+      worst = ranking.getWorstFitness();
+    }
+    // 150 steps cross 15 intervals, and one climber never skips
+    assert engine.getGenerationCount() == 15;
+    assert engine.getSkippedCount() == 0;
+    ranking.close();
+  }
+
+  /**
+   * Breeds from the hill climbers' own threads while they climb, and checks that every genome's
+   * fitness is the fitness of its DNA once they stop.
+   */
+  public void testBreedingWhileClimbing()
+  {
+    SplittableRandom random = new SplittableRandom(13);
+    List<Genome> genomes = TestSupport.genomes(24, random);
+    HillClimberSpawner spawner = new HillClimberSpawner(3, genomes, Constants.IMAGES[1],
+        random.split());
+    RankedPopulation ranking = new RankedPopulation(genomes);
+    SteadyStateEngine engine = new SteadyStateEngine(Collections.singletonList(ranking),
+        spawner.getBatchFitnessEvaluator(), random.split(), 8, 3);
+    // Passes the climbers' steps on to the engine, and opens the latch after a few breedings
+    CountDownLatch bred = new CountDownLatch(1);
+    spawner.setEvolutionEngine(TestSupport.onClimb(steps ->
+    {
+      engine.afterClimb(steps);
+      if (engine.getGenerationCount() >= 5) bred.countDown();
+    }));
+
+    spawner.startHillClimbing();
+    TestSupport.await(bred);
+    long steps = spawner.getHillClimbGenerations();
+    spawner.stopHillClimbing();
+
+    assert engine.getGenerationCount() >= 5;
+    assert steps >= 5 * 8;
+    FitnessEvaluator fitnessEvaluator = new FitnessEvaluator(Constants.IMAGES[1]);
+    SoftwareRasterizer rasterizer = new SoftwareRasterizer(Constants.width, Constants.height);
+    for (Genome genome : genomes)
+    {
+      rasterizer.setGenome(genome);
+      assert fitnessEvaluator.differenceSum(rasterizer.getSnapshot()) == genome.getFitness();
+    }
+    assert ranking.getBest().getFitness() == ranking.getBestFitness();
+    ranking.close();
+  }
+
+  public static void main(String[] args)
+  {
+    new SteadyStateEngineTests();
+  }
+}
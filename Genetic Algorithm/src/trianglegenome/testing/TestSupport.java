@@ -0,0 +1,119 @@
+package trianglegenome.testing;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntConsumer;
+
+import trianglegenome.EvolutionEngine;
+import trianglegenome.Genome;
+import trianglegenome.util.Constants;
+import trianglegenome.util.RandomGenome;
+
+/**
+ * Helpers shared by the assert tests: a seeded population of random genomes, switching
+ * {@link Constants} to one hill climbing thread per tribe for a test and back again, and
+ * waiting for the climbers with a latch instead of sleeping.
+ * <br /><br />
+ * Example code:<br/>
+ * <code><pre>
+ *  TestSupport.ClimbingModes modes = TestSupport.useClimbingThreads();
+ *  List&lt;Genome&gt; genomes = TestSupport.genomes(12, new SplittableRandom(11));
+ *  // ... climb the genomes with a HillClimberSpawner ...
+ *  modes.restore();
+ *
+ * </pre></code>
+ */
+final class TestSupport
+{
+  private TestSupport()
+  {
+  }
+
+  /**
+   * Generates a number of random genomes, one after another from the same stream, so that the
+   * same stream state gives the same population.
+   * @param count The number of genomes.
+   * @param random The stream to draw the genes from.
+   * @return A new list of the genomes.
+   */
+  static List<Genome> genomes(int count, SplittableRandom random)
+  {
+    List<Genome> genomes = new ArrayList<Genome>();
+    for (int i = 0; i < count; i++) genomes.add(RandomGenome.generateGenome(random));
+    return genomes;
+  }
+
+  /**
+   * Returns an engine that does nothing but run an action every time a climber tells it about
+   * its steps, so that a test can open a latch once the climbers got somewhere.
+   * @param action The action, given the number of steps climbed.
+   * @return The engine.
+   */
+  static EvolutionEngine onClimb(IntConsumer action)
+  {
+    return new EvolutionEngine()
+    {
+      public long getInterval() { return Long.MAX_VALUE; }
+      public void evolve() {}
+      public void afterClimb(int steps) { action.accept(steps); }
+      public long getGenerationCount() { return 0; }
+    };
+  }
+
+  /**
+   * Waits for a latch to open. A latch still closed after a minute fails the test, so that
+   * threads that never get there fail it instead of hanging it.
+   * @param latch The latch to wait for.
+   */
+  static void await(CountDownLatch latch)
+  {
+    boolean opened;
+    try
+    {
+      opened = latch.await(1, TimeUnit.MINUTES);
+    }
+    catch (InterruptedException e)
+    {
+      throw new AssertionError(e);
+    }
+    assert opened : "the latch never opened";
+  }
+
+  /**
+   * Saves the climbing modes of {@link Constants}, then switches to software rendered
+   * {@link trianglegenome.HillClimbing} threads, neither work stealing nor virtual threads,
+   * which is what the tests of the spawner expect.
+   * @return The saved modes, to restore once the test is done.
+   */
+  static ClimbingModes useClimbingThreads()
+  {
+    ClimbingModes saved = new ClimbingModes();
+    Constants.useSoftwareRenderer = true;
+    Constants.useWorkStealing = false;
+    Constants.useVirtualThreads = false;
+    return saved;
+  }
+
+  /**
+   * The climbing modes of {@link Constants} as they were before a test changed them.
+   */
+  static final class ClimbingModes
+  {
+    private final boolean softwareRenderer = Constants.useSoftwareRenderer;
+    private final boolean workStealing = Constants.useWorkStealing;
+    private final boolean virtualThreads = Constants.useVirtualThreads;
+
+    /**
+     * Puts the saved modes back.
+     */
+    void restore()
+    {
+      Constants.useSoftwareRenderer = softwareRenderer;
+      Constants.useWorkStealing = workStealing;
+      Constants.useVirtualThreads = virtualThreads;
+    }
+  }
+}
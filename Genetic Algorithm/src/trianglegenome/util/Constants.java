@@ -4,10 +4,14 @@ import java.awt.Graphics;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
-import java.util.Random;
+import java.util.SplittableRandom;
 
 import javax.imageio.ImageIO;
 
+import trianglegenome.IslandModel;
+import trianglegenome.fitness.ColorDistance;
+import trianglegenome.fitness.EuclideanDistance;
+
 /**
  * Centralized place to keep hard-coded variables. Like in AntWorld
  * 
@@ -58,8 +62,129 @@ public class Constants
   
   public static final boolean useVolatileImage = true;
   
+  /** When true, hill climbing draws with the headless
+   * {@link trianglegenome.render.SoftwareRasterizer} instead of a DrawPanel. */
+  public static boolean useSoftwareRenderer = true;
+  
+  /** The most bytes that each {@link trianglegenome.render.SoftwareRasterizer} may spend on
+   * checkpoints of partly drawn images. More checkpoints means fewer triangles to redraw after
+   * a change. */
+  public static long checkpointMemoryBudget = 16 << 20;
+  
+  /** When true, hill climbing sometimes replaces a triangle's color with the color solved by
+   * {@link trianglegenome.fitness.OptimalColor} instead of stepping one color gene. This only
+   * works with the {@link trianglegenome.render.SoftwareRasterizer}. */
+  public static boolean useOptimalColor = true;
+  
+  /** When true, hill climbing scores each mutation on a smaller copy of the image first and
+   * only draws and scores it at full size when it does not look worse there (see
+   * {@link trianglegenome.fitness.CoarseScreen}). The screen is lossy: a mutation that is
+   * better at full size but looks worse on the smaller image is thrown away unless it is
+   * audited, so it is off by default and does not change the search unless asked to. */
+  public static boolean usePyramidScreen = false;
+  
+  /** The level of the {@link trianglegenome.fitness.ReferencePyramid} that mutations are
+   * screened on: the image is 2^pyramidLevel times smaller on each side. */
+  public static int pyramidLevel = 2;
+  
+  /** How much worse per redrawn pixel a mutation may look on the smaller image and still be
+   * scored at full size. Higher lets more mutations through to the full size check. */
+  public static double pyramidTolerance = 0;
+  
+  /** One in this many mutations rejected on the smaller image is still scored at full size, to
+   * count how often the screen is wrong. 0 turns the check off. */
+  public static int pyramidAuditInterval = 16;
+  
+  /** When true, hill climbing estimates each mutation from {@link #sampleCount} pixels before
+   * drawing it, and rejects it without drawing when the estimate is worse with a confidence of
+   * {@link #sampleConfidence} standard errors. Otherwise the mutation is drawn and scored
+   * exactly. This only works with the {@link trianglegenome.render.SoftwareRasterizer}. */
+  public static boolean useSampledFitness = false;
+  
+  /** When true, the genomes are hill climbed on a work-stealing pool, where any idle worker
+   * climbs the next genome, instead of in fixed slices of one per
+   * {@link trianglegenome.HillClimbing} thread (see
+   * {@link trianglegenome.WorkStealingScheduler}). */
+  public static boolean useWorkStealing = false;
+  
+  /** The number of steps a genome is climbed for in a row before its climber moves on to another
+   * genome: the next genome of a {@link trianglegenome.HillClimbing} thread, or whichever genome
+   * is queued next on a scheduler. Moving on redraws the new genome and its error buffer from
+   * scratch, so short runs spend most of their time redrawing, while long runs let a genome
+   * pull ahead of the others in its tribe. The default of 1 keeps the one step round robin. */
+  public static int leaseSteps = 1;
+  
+  /** When true and the JVM has virtual threads (Java 21 or later), every genome is hill climbed
+   * in its own virtual thread (see {@link trianglegenome.VirtualThreadScheduler}). Without them,
+   * the work-stealing pool is used instead. */
+  public static boolean useVirtualThreads = false;
+  
+  /** When true, every tribe is an island that crosses over only within itself, and every
+   * {@link #migrationInterval} sends its best genomes to its neighbors (see
+   * {@link trianglegenome.IslandModel}). This needs one {@link trianglegenome.HillClimbing}
+   * thread per tribe, so it is ignored with {@link #useWorkStealing} or
+   * {@link #useVirtualThreads}. */
+  public static boolean useIslands = false;
+  
+  /** Which islands each island sends its best genomes to. */
+  public static IslandModel.Topology islandTopology = IslandModel.Topology.RING;
+  
+  /** The milliseconds between two migrations from the same island. */
+  public static long migrationInterval = 2000;
+  
+  /** The number of best genomes an island sends to each neighbor every migration. */
+  public static int migrationElites = 1;
+  
+  /** The number of arriving genomes that can wait for an island before more are dropped. */
+  public static int migrationQueueCapacity = 4;
+  
+  /** When true, crossover breeds a pair of children every {@link #steadyStateInterval} hill
+   * climbing steps, between the steps of the climbers (see
+   * {@link trianglegenome.SteadyStateEngine}). Otherwise it waits for the average fitness to
+   * stop improving (see {@link trianglegenome.TimedCrossoverEngine}). */
+  public static boolean useSteadyState = false;
+  
+  /** The number of hill climbing steps, over every climber, between two steady-state
+   * breedings. Lower spends more of the climbers' time on crossover. */
+  public static int steadyStateInterval = 64;
+  
+  /** The number of genomes picked at random for each steady-state parent, of which the most
+   * fit becomes the parent. Higher picks fitter parents more often. */
+  public static int tournamentSize = 3;
+  
+  /** The milliseconds between two looks for dirty genomes to score again (see
+   * {@link trianglegenome.fitness.BackgroundScorer}). */
+  public static long rescoreInterval = 100;
+  
+  /** When true, batches of whole genomes are scored through the shared
+   * {@link trianglegenome.fitness.FitnessCache}, so a genome whose DNA was scored before is not
+   * drawn again. */
+  public static boolean useFitnessCache = true;
+  
+  /** The number of fitnesses kept by the shared {@link trianglegenome.fitness.FitnessCache}. */
+  public static int fitnessCacheSize = 1 << 16;
+  
+  /** The number of genomes in the population, or 0 for ten per thread. */
+  public static int populationSize = 0;
+  
+  /** The number of pixels sampled to estimate a mutation's fitness. */
+  public static int sampleCount = 256;
+  
+  /** How many standard errors on each side of an estimated fitness count as certain. Higher
+   * rejects fewer mutations that were really better, and draws more that were really worse. */
+  public static double sampleConfidence = 3;
+  
   public static boolean useOpenCL = true;
   
+  /** When true, {@link trianglegenome.FitnessEvaluator#differenceSumJava(BufferedImage)} scores
+   * several pixels at once with trianglegenome.fitness.VectorFitnessSum from src-vector when the
+   * Vector API is available, and one pixel at a time when it is not. */
+  public static boolean useVectorAPI = true;
+  
+  /** How {@link trianglegenome.FitnessEvaluator}s measure the difference between two pixels.
+   * Changing this only affects evaluators created afterwards. */
+  public static ColorDistance colorDistance = new EuclideanDistance();
+  
   public static final int TRIANGLE_COUNT = 200;
 
   public static final int MAX_RGBA = 255;
@@ -70,5 +195,11 @@ public class Constants
   /** The height of the target image. */
   public static int height;
 
-  public static final Random rand = new Random();
+  /** The seed of the run, from the trianglegenome.seed system property or else random. The
+   * starting population and every worker's stream are split from it with
+   * {@link SplittableRandom#split()}, so the same seed, thread count and image give the same
+   * starting genomes and the same stream to each worker. A whole run is still not repeatable,
+   * because crossovers, migrations and pauses happen at wall clock times. The seed is shown
+   * in the GUI when a run is set up, so that it can be passed back with -Dtrianglegenome.seed. */
+  public static long seed = Long.getLong("trianglegenome.seed", new SplittableRandom().nextLong());
 }
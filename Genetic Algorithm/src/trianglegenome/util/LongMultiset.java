@@ -0,0 +1,146 @@
+package trianglegenome.util;
+
+/**
+ * Counts how many times each long is in a collection, in open addressed arrays, so that adding,
+ * removing and counting a value take O(1) and never box it. Meant for fingerprints, whose bits
+ * are already well mixed, so the low bits of a value pick its slot.
+ * <br /><br />
+ * Not thread safe.
+ * <br /><br />
+ * Example code:<br/>
+ * <code><pre>
+ *  LongMultiset fingerprints = new LongMultiset(16);
+ *  fingerprints.add(genome.getFingerprint());
+ *
+ *  boolean duplicate = fingerprints.count(other.getFingerprint()) > 0;
+ *
+ * </pre></code>
+ */
+public class LongMultiset
+{
+  private final String ERROR_MISSING = "Value is not in the multiset: ";
+
+  /** The values, where {@link #counts} is not 0. */
+  private long[] values;
+
+  /** The number of times each value is in the multiset, 0 for a free slot. */
+  private int[] counts;
+
+  /** The number of different values. */
+  private int distinct = 0;
+
+  /** The number of values, counting each as many times as it was added. */
+  private int size = 0;
+
+  /**
+   * Creates a multiset that holds a number of different values before it grows.
+   * @param expected The number of different values expected.
+   */
+  public LongMultiset(int expected)
+  {
+    int capacity = Integer.highestOneBit(Math.max(4, expected) * 2 - 1) * 2;
+    values = new long[capacity];
+    counts = new int[capacity];
+  }
+
+  /**
+   * Adds a value once more.
+   * @param value The value to add.
+   */
+  public void add(long value)
+  {
+    int slot = find(value);
+    if (counts[slot] == 0)
+    {
+      values[slot] = value;
+      distinct++;
+    }
+    counts[slot]++;
+    size++;
+    if (distinct * 4 > values.length * 3) grow();
+  }
+
+  /**
+   * Removes a value once.
+   * @param value The value to remove, which must be in the multiset.
+   */
+  public void remove(long value)
+  {
+    int slot = find(value);
+    if (counts[slot] == 0) throw new IllegalArgumentException(ERROR_MISSING + value);
+    size--;
+    if (--counts[slot] > 0) return;
+    distinct--;
+    // Shifts back the values after the freed slot that could not be placed in it
+    int mask = values.length - 1;
+    int free = slot;
+    for (int i = (free + 1) & mask; counts[i] != 0; i = (i + 1) & mask)
+    {
+      int home = (int)values[i] & mask;
+      if (((i - home) & mask) >= ((i - free) & mask))
+      {
+        values[free] = values[i];
+        counts[free] = counts[i];
+        counts[i] = 0;
+        free = i;
+      }
+    }
+  }
+
+  /**
+   * Returns the number of times a value is in the multiset.
+   * @param value The value to count.
+   * @return The number of times it was added and not removed.
+   */
+  public int count(long value)
+  {
+    return counts[find(value)];
+  }
+
+  /**
+   * Returns the number of different values in the multiset.
+   * @return The number of different values.
+   */
+  public int distinct()
+  {
+    return distinct;
+  }
+
+  /**
+   * Returns the number of values in the multiset, counting each as many times as it is in it.
+   * @return The number of values.
+   */
+  public int size()
+  {
+    return size;
+  }
+
+  /**
+   * Returns the slot of a value, or the free slot where it would go.
+   */
+  private int find(long value)
+  {
+    int mask = values.length - 1;
+    int slot = (int)value & mask;
+    while (counts[slot] != 0 && values[slot] != value) slot = (slot + 1) & mask;
+    return slot;
+  }
+
+  /**
+   * Doubles the arrays and places every value again.
+   */
+  private void grow()
+  {
+    long[] oldValues = values;
+    int[] oldCounts = counts;
+    values = new long[oldValues.length * 2];
+    counts = new int[oldCounts.length * 2];
+    for (int i = 0; i < oldValues.length; i++)
+    {
+      if (oldCounts[i] == 0) continue;
+      int slot = find(oldValues[i]);
+      values[slot] = oldValues[i];
+      counts[slot] = oldCounts[i];
+    }
+  }
+}
@@ -1,5 +1,7 @@
 package trianglegenome.util;
 
+import java.util.SplittableRandom;
+
 import trianglegenome.Genome;
 import trianglegenome.Triangle;
 
@@ -12,12 +14,24 @@ public class RandomGenome
 {
 
   /**
-   * Using the project-wide Random instance, generates a genome with valid triangles, given that the
-   * global image height and width have been set.
+   * Using an unseeded random number stream, generates a genome with valid triangles, given that
+   * the global image height and width have been set.
    * 
    * @return A genome with randomly generated genes.
    */
   public static Genome generateGenome()
+  {
+    return generateGenome(new SplittableRandom());
+  }
+
+  /**
+   * Using the given random number stream, generates a genome with valid triangles, given that the
+   * global image height and width have been set. The same stream state gives the same genome.
+   * 
+   * @param random The random number stream to draw the genes from.
+   * @return A genome with randomly generated genes.
+   */
+  public static Genome generateGenome(SplittableRandom random)
   {
     Genome genome = new Genome();
 
@@ -26,19 +40,19 @@ public class RandomGenome
       int xPoints[] = new int[3];
       for (int j = 0; j < xPoints.length; j++)
       {
-        xPoints[j] = Constants.rand.nextInt(Constants.width);
+        xPoints[j] = random.nextInt(Constants.width);
       }
 
       int yPoints[] = new int[3];
       for (int j = 0; j < yPoints.length; j++)
       {
-        yPoints[j] = Constants.rand.nextInt(Constants.height);
+        yPoints[j] = random.nextInt(Constants.height);
       }
 
       int rgba[] = new int[4];
       for (int j = 0; j < rgba.length; j++)
       {
-        rgba[j] = Constants.rand.nextInt(Constants.MAX_RGBA);
+        rgba[j] = random.nextInt(Constants.MAX_RGBA);
       }
 
       Triangle gene = new Triangle(xPoints, yPoints, rgba);